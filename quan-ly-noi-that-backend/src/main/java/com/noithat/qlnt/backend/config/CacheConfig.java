@@ -0,0 +1,54 @@
+package com.noithat.qlnt.backend.config;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.noithat.qlnt.backend.service.cache.CacheNames;
+import com.noithat.qlnt.backend.service.cache.InMemorySharedCacheStore;
+import com.noithat.qlnt.backend.service.cache.SharedCacheStore;
+import com.noithat.qlnt.backend.service.cache.TwoTierCache;
+import com.noithat.qlnt.backend.service.cache.TwoTierCacheManager;
+
+/**
+ * Cache cho các API đọc catalog (sản phẩm, danh mục, bộ sưu tập, thuộc tính).
+ *
+ * Mỗi cache có L1 trong bộ nhớ giới hạn số mục + TTL. L2 dùng chung là bean
+ * SharedCacheStore nếu có (Redis...); không có thì app.cache.shared.type=memory
+ * dùng bản trong bộ nhớ, none (mặc định) thì chỉ có L1.
+ */
+@Configuration
+@EnableCaching
+public class CacheConfig {
+
+    // Các cache danh sách chỉ có vài khóa cố định
+    private static final int LIST_CACHE_SIZE = 4;
+
+    @Value("${app.cache.local.max-size:1000}")
+    private int localMaxSize;
+
+    @Value("${app.cache.local.ttl-seconds:300}")
+    private long ttlSeconds;
+
+    @Value("${app.cache.shared.type:none}")
+    private String sharedType;
+
+    @Bean
+    public TwoTierCacheManager cacheManager(List<SharedCacheStore> sharedStores) {
+        SharedCacheStore shared = sharedStores.isEmpty() ? null : sharedStores.get(0);
+        if (shared == null && "memory".equalsIgnoreCase(sharedType))
+            shared = new InMemorySharedCacheStore();
+        Duration ttl = Duration.ofSeconds(Math.max(1, ttlSeconds));
+        List<TwoTierCache> caches = new ArrayList<>();
+        for (String name : CacheNames.ALL) {
+            boolean list = name.equals(CacheNames.PRODUCT_LISTS) || name.equals(CacheNames.ATTRIBUTES);
+            caches.add(new TwoTierCache(name, list ? LIST_CACHE_SIZE : localMaxSize, ttl, shared));
+        }
+        return new TwoTierCacheManager(caches);
+    }
+}
@@ -0,0 +1,73 @@
+package com.noithat.qlnt.backend.config;
+
+import java.util.Map;
+
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.lang.NonNull;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+import com.noithat.qlnt.backend.service.catalog.CatalogVersion;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * ETag / Last-Modified cho các API đọc catalog.
+ *
+ * ETag lấy từ CatalogVersion nên được tính trước khi controller chạy: nếu client
+ * gửi If-None-Match (hoặc If-Modified-Since) còn khớp thì trả 304 ngay, bỏ qua
+ * cả truy vấn DB lẫn serialize JSON. Nhóm phiên bản chọn theo pattern của
+ * handler (xem CatalogVersion.Nhom); chi tiết sản phẩm dùng thêm mã trong URL.
+ */
+@Component
+public class CatalogHttpCacheInterceptor implements HandlerInterceptor {
+
+    private final CatalogVersion catalogVersion;
+
+    public CatalogHttpCacheInterceptor(CatalogVersion catalogVersion) {
+        this.catalogVersion = catalogVersion;
+    }
+
+    @Override
+    public boolean preHandle(@NonNull HttpServletRequest request, @NonNull HttpServletResponse response,
+            @NonNull Object handler) {
+        if (!"GET".equals(request.getMethod()) && !"HEAD".equals(request.getMethod())) {
+            return true;
+        }
+        // Cho phép trình duyệt/CDN lưu nhưng luôn hỏi lại bằng ETag
+        response.setHeader(HttpHeaders.CACHE_CONTROL, CacheControl.noCache().cachePublic().getHeaderValue());
+        CatalogVersion.Nhom nhom = nhom(request);
+        Integer maSanPham = nhom == CatalogVersion.Nhom.CHI_TIET ? maSanPham(request) : null;
+        ServletWebRequest webRequest = new ServletWebRequest(request, response);
+        return !webRequest.checkNotModified(catalogVersion.etag(nhom, maSanPham),
+                catalogVersion.lastModified(nhom, maSanPham));
+    }
+
+    private static CatalogVersion.Nhom nhom(HttpServletRequest request) {
+        Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        String path = pattern != null ? pattern.toString() : request.getRequestURI();
+        if (path.endsWith("/basic"))
+            return CatalogVersion.Nhom.DANH_SACH;
+        if (path.endsWith("/shop") || path.endsWith("/products"))
+            return CatalogVersion.Nhom.DANH_SACH_TON_KHO;
+        if (path.startsWith("/api/categories") || path.startsWith("/api/collections"))
+            return CatalogVersion.Nhom.DANH_MUC;
+        return CatalogVersion.Nhom.CHI_TIET;
+    }
+
+    private static Integer maSanPham(HttpServletRequest request) {
+        if (request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE) instanceof Map<?, ?> vars
+                && vars.get("id") instanceof String id) {
+            try {
+                return Integer.valueOf(id);
+            } catch (NumberFormatException ex) {
+                return null;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,26 @@
+package com.noithat.qlnt.backend.config;
+
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import com.noithat.qlnt.backend.service.IDanhMucService;
+
+/**
+ * Kiểm tra bảng closure danh mục khi khởi động và dựng lại nếu lệch với cột
+ * parent (danh mục được thêm bằng script/seed thay vì qua service).
+ */
+@Component
+public class CategoryClosureInitializer {
+
+    private final IDanhMucService danhMucService;
+
+    public CategoryClosureInitializer(IDanhMucService danhMucService) {
+        this.danhMucService = danhMucService;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onReady() {
+        danhMucService.rebuildClosureIfInconsistent();
+    }
+}
@@ -0,0 +1,12 @@
+package com.noithat.qlnt.backend.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * Bật @Scheduled cho các tác vụ nền (dựng lại snapshot trang shop, quét giữ hàng quá hạn...).
+ */
+@Configuration
+@EnableScheduling
+public class SchedulingConfig {
+}
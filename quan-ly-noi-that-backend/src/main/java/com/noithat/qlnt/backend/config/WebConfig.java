@@ -2,6 +2,7 @@ package com.noithat.qlnt.backend.config;
 
 import org.springframework.context.annotation.Configuration;
 import org.springframework.lang.NonNull;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.ResourceHandlerRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
@@ -10,7 +11,13 @@ import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
  */
 @Configuration
 public class WebConfig implements WebMvcConfigurer {
-    
+
+    private final CatalogHttpCacheInterceptor catalogHttpCacheInterceptor;
+
+    public WebConfig(CatalogHttpCacheInterceptor catalogHttpCacheInterceptor) {
+        this.catalogHttpCacheInterceptor = catalogHttpCacheInterceptor;
+    }
+
     /**
      * Cấu hình để serve các file upload từ thư mục uploads/
      * URL pattern: /uploads/** sẽ map tới file:./uploads/
@@ -25,4 +32,17 @@ public class WebConfig implements WebMvcConfigurer {
             .addResourceHandler("/uploads/**")
             .addResourceLocations("file:./uploads/");
     }
+
+    /**
+     * ETag/304 cho các API đọc catalog (chỉ áp dụng với GET/HEAD).
+     */
+    @Override
+    public void addInterceptors(@NonNull InterceptorRegistry registry) {
+        registry.addInterceptor(catalogHttpCacheInterceptor)
+            .addPathPatterns(
+                "/api/products/basic", "/api/products/shop", "/api/products/{id}", "/api/products/{id}/detail",
+                "/api/san-pham/basic", "/api/san-pham/shop", "/api/san-pham/{id}", "/api/san-pham/{id}/detail",
+                "/api/categories", "/api/categories/**",
+                "/api/collections", "/api/collections/**");
+    }
 }
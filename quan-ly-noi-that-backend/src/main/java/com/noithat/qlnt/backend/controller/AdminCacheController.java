@@ -0,0 +1,29 @@
+package com.noithat.qlnt.backend.controller;
+
+import java.util.List;
+
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.noithat.qlnt.backend.service.cache.TwoTierCache;
+import com.noithat.qlnt.backend.service.cache.TwoTierCacheManager;
+
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Số liệu cache (hit L1/L2, miss, số mục bị đẩy ra...) để chỉnh kích thước/TTL.
+ */
+@RestController
+@RequestMapping("/api/v1/admin/cache")
+@RequiredArgsConstructor
+public class AdminCacheController {
+
+    private final TwoTierCacheManager cacheManager;
+
+    @GetMapping("/stats")
+    public ResponseEntity<List<TwoTierCache.Stats>> getStats() {
+        return ResponseEntity.ok(cacheManager.stats());
+    }
+}
@@ -5,11 +5,11 @@ import com.noithat.qlnt.backend.dto.request.ThanhToanRequest;
 import com.noithat.qlnt.backend.dto.request.ThongTinGiaoHangRequest;
 import com.noithat.qlnt.backend.dto.response.CheckoutSummaryResponse;
 import com.noithat.qlnt.backend.entity.BienTheSanPham;
-import com.noithat.qlnt.backend.entity.BienTheGiamGia;
-import com.noithat.qlnt.backend.entity.ChuongTrinhGiamGia;
 import com.noithat.qlnt.backend.repository.BienTheSanPhamRepository;
 import com.noithat.qlnt.backend.repository.BienTheGiamGiaRepository;
 import com.noithat.qlnt.backend.service.ThanhToanService;
+import com.noithat.qlnt.backend.service.catalog.ProductSearchIndex;
+import com.noithat.qlnt.backend.service.order.IdempotencyKeyStore;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
@@ -26,36 +26,42 @@ public class AdminOrderController {
     private final BienTheSanPhamRepository bienTheSanPhamRepository;
     private final BienTheGiamGiaRepository bienTheGiamGiaRepository;
     private final ThanhToanService thanhToanService;
+    private final ProductSearchIndex productSearchIndex;
+    private final IdempotencyKeyStore idempotencyKeyStore;
 
-    // Search variants by SKU or product name
+    private static final int VARIANT_SEARCH_LIMIT = 100;
+
+    // Search variants by SKU, product name, attribute value... (chỉ mục trong bộ nhớ, không phân biệt dấu)
     @GetMapping("/san-pham/search")
     public ResponseEntity<List<Map<String, Object>>> searchVariants(@RequestParam("q") String q) {
-        List<BienTheSanPham> list = bienTheSanPhamRepository.searchBySkuOrProductName(q);
+        List<Integer> ids = productSearchIndex.searchVariants(q, VARIANT_SEARCH_LIMIT);
+        Map<Integer, BienTheSanPham> byId = bienTheSanPhamRepository.findListingByMaBienTheIn(ids).stream()
+                .collect(Collectors.toMap(BienTheSanPham::getMaBienThe, b -> b));
+        // Giữ thứ tự liên quan của chỉ mục
+        List<BienTheSanPham> list = ids.stream().map(byId::get).filter(java.util.Objects::nonNull).toList();
         java.time.LocalDateTime now = java.time.LocalDateTime.now();
-        
+        // Giảm giá của mọi biến thể tìm được trong một truy vấn: [maBienThe, giaSauGiam, ngayBatDau, ngayKetThuc]
+        Map<Integer, List<Object[]>> giamGiaTheoBienThe = ids.isEmpty() ? Map.of()
+                : bienTheGiamGiaRepository.findDiscountRowsByMaBienTheIn(ids).stream()
+                        .collect(Collectors.groupingBy(r -> (Integer) r[0]));
+
         List<Map<String, Object>> out = list.stream().map(b -> {
             java.math.BigDecimal giaBan = b.getGiaBan();
             java.math.BigDecimal giaSauGiam = giaBan;
             java.math.BigDecimal soTienGiam = java.math.BigDecimal.ZERO;
-            
-            // Check for active discount on this variant using repository
-            List<BienTheGiamGia> discounts = bienTheGiamGiaRepository.findByBienTheSanPham_MaBienThe(b.getMaBienThe());
-            if (discounts != null && !discounts.isEmpty()) {
-                for (BienTheGiamGia btgg : discounts) {
-                    ChuongTrinhGiamGia ctgg = btgg.getChuongTrinhGiamGia();
-                    if (ctgg != null 
-                        && ctgg.getNgayBatDau() != null 
-                        && ctgg.getNgayKetThuc() != null
-                        && !now.isBefore(ctgg.getNgayBatDau()) 
-                        && !now.isAfter(ctgg.getNgayKetThuc())
-                        && btgg.getGiaSauGiam() != null) {
-                        giaSauGiam = btgg.getGiaSauGiam();
-                        soTienGiam = giaBan.subtract(giaSauGiam);
-                        break;
-                    }
+
+            // Chương trình giảm giá đang chạy đầu tiên của biến thể
+            for (Object[] r : giamGiaTheoBienThe.getOrDefault(b.getMaBienThe(), List.of())) {
+                java.time.LocalDateTime batDau = (java.time.LocalDateTime) r[2];
+                java.time.LocalDateTime ketThuc = (java.time.LocalDateTime) r[3];
+                if (batDau != null && ketThuc != null && !now.isBefore(batDau) && !now.isAfter(ketThuc)
+                        && r[1] != null) {
+                    giaSauGiam = (java.math.BigDecimal) r[1];
+                    soTienGiam = giaBan.subtract(giaSauGiam);
+                    break;
                 }
             }
-            
+
             Map<String, Object> result = new java.util.HashMap<>();
             result.put("maBienThe", b.getMaBienThe());
             result.put("sku", b.getSku());
@@ -72,7 +78,9 @@ public class AdminOrderController {
 
     // Admin creates order - DÙNG CHUNG LOGIC VỚI CUSTOMER
     @PostMapping("/don-hang")
-    public ResponseEntity<?> createOrderAsAdmin(@RequestBody DonHangRequest request) {
+    public ResponseEntity<?> createOrderAsAdmin(
+            @RequestHeader(value = IdempotencyKeyStore.HEADER, required = false) String idempotencyKey,
+            @RequestBody DonHangRequest request) {
         try {
             // Map DonHangRequest -> ThongTinGiaoHangRequest để dùng chung service với customer
             ThongTinGiaoHangRequest thongTinRequest = new ThongTinGiaoHangRequest();
@@ -99,8 +107,14 @@ public class AdminOrderController {
             thongTinRequest.setDiemThuongSuDung(request.getDiemThuongSuDung() != null ? request.getDiemThuongSuDung() : 0);
             
             // Gọi service CHUNG với customer (dùng stored procedure)
-            CheckoutSummaryResponse resp = thanhToanService.taoDonHangTuUser(thongTinRequest);
+            CheckoutSummaryResponse resp = idempotencyKeyStore.execute("admin-don-hang", idempotencyKey, request,
+                    CheckoutSummaryResponse.class, () -> thanhToanService.taoDonHangTuUser(thongTinRequest));
             return ResponseEntity.ok(resp);
+        } catch (org.springframework.web.server.ResponseStatusException e) {
+            java.util.Map<String, Object> err = new java.util.HashMap<>();
+            err.put("success", false);
+            err.put("message", e.getReason());
+            return ResponseEntity.status(e.getStatusCode()).body(err);
         } catch (Exception e) {
             e.printStackTrace();
             java.util.Map<String, Object> err = new java.util.HashMap<>();
@@ -1,14 +1,24 @@
 package com.noithat.qlnt.backend.controller;
 
 import com.noithat.qlnt.backend.dto.request.DonHangRequest;
+import com.noithat.qlnt.backend.dto.response.DonHangPageResponse;
 import com.noithat.qlnt.backend.dto.response.DonHangResponse;
 import com.noithat.qlnt.backend.dto.response.ThongKeBanHangResponse;
 import com.noithat.qlnt.backend.service.IDonHangService;
 import com.noithat.qlnt.backend.service.IQuanLyTrangThaiDonHangService;
+import com.noithat.qlnt.backend.service.order.IdempotencyKeyStore;
+import com.noithat.qlnt.backend.service.order.OrderHistoryQuery;
 import lombok.RequiredArgsConstructor;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import jakarta.validation.Valid;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Map;
 
@@ -21,10 +31,15 @@ public class BanHangController {
     private final IQuanLyTrangThaiDonHangService quanLyTrangThaiDonHangService;
     private final com.noithat.qlnt.backend.service.IKhachHangService khachHangService;
     private final com.noithat.qlnt.backend.repository.KhachHangRepository khachHangRepository;
+    private final IdempotencyKeyStore idempotencyKeyStore;
 
+    // Header Idempotency-Key (tùy chọn): gửi lại cùng khóa nhận lại đơn đã tạo thay vì tạo đơn mới
     @PostMapping("/donhang")
-    public ResponseEntity<DonHangResponse> taoDonHang(@Valid @RequestBody DonHangRequest request) {
-        return ResponseEntity.ok(donHangService.taoDonHang(request));
+    public ResponseEntity<DonHangResponse> taoDonHang(
+            @RequestHeader(value = IdempotencyKeyStore.HEADER, required = false) String idempotencyKey,
+            @Valid @RequestBody DonHangRequest request) {
+        return ResponseEntity.ok(idempotencyKeyStore.execute("banhang-donhang", idempotencyKey, request,
+                DonHangResponse.class, () -> donHangService.taoDonHang(request)));
     }
 
     // Admin-friendly order creation: accepts a permissive payload from admin UI,
@@ -33,7 +48,14 @@ public class BanHangController {
     // all validation and calculations. This avoids forcing frontend to match
     // DonHangRequest exactly.
     @PostMapping("/donhang/admin")
-    public ResponseEntity<DonHangResponse> taoDonHangAdmin(@RequestBody com.noithat.qlnt.backend.dto.request.AdminDonHangRequest adminReq) {
+    public ResponseEntity<DonHangResponse> taoDonHangAdmin(
+            @RequestHeader(value = IdempotencyKeyStore.HEADER, required = false) String idempotencyKey,
+            @RequestBody com.noithat.qlnt.backend.dto.request.AdminDonHangRequest adminReq) {
+        return ResponseEntity.ok(idempotencyKeyStore.execute("banhang-donhang-admin", idempotencyKey, adminReq,
+                DonHangResponse.class, () -> taoDonHangAdmin(adminReq)));
+    }
+
+    private DonHangResponse taoDonHangAdmin(com.noithat.qlnt.backend.dto.request.AdminDonHangRequest adminReq) {
         // 1) Resolve or create customer
         Integer maKhachHang = adminReq.getMaKhachHang();
         com.noithat.qlnt.backend.entity.KhachHang kh = null;
@@ -71,7 +93,7 @@ public class BanHangController {
     req.setSoDienThoaiNhan(adminReq.getSoDienThoai() != null ? adminReq.getSoDienThoai() : (kh != null ? kh.getSoDienThoai() : ""));
     req.setDiaChiGiaoHang(adminReq.getDiaChiGiaoHang() != null ? adminReq.getDiaChiGiaoHang() : (kh != null ? kh.getDiaChi() : ""));
 
-        return ResponseEntity.ok(donHangService.taoDonHang(req));
+        return donHangService.taoDonHang(req);
     }
 
     @GetMapping("/donhang")
@@ -79,6 +101,48 @@ public class BanHangController {
         return ResponseEntity.ok(donHangService.getTatCaDonHang());
     }
 
+    // Danh sách đơn có lọc, phân trang keyset (mới nhất trước): truyền nextCursor của trang trước vào cursor
+    @GetMapping("/donhang/tim-kiem")
+    public ResponseEntity<DonHangPageResponse> timDonHang(
+            @RequestParam(required = false) String trangThai,
+            @RequestParam(required = false) String trangThaiThanhToan,
+            @RequestParam(required = false) Integer maKhachHang,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime tuNgay,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime denNgay,
+            @RequestParam(required = false) BigDecimal tienTu,
+            @RequestParam(required = false) BigDecimal tienDen,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer size) {
+        return ResponseEntity.ok(donHangService.timDonHang(new OrderHistoryQuery(trangThai, trangThaiThanhToan,
+                maKhachHang, tuNgay, denNgay, tienTu, tienDen, cursor, size)));
+    }
+
+    // Xuất toàn bộ đơn khớp bộ lọc (dinhDang=csv|ndjson), ghi dần ra response
+    @GetMapping("/donhang/xuat")
+    public ResponseEntity<StreamingResponseBody> xuatDonHang(
+            @RequestParam(defaultValue = "csv") String dinhDang,
+            @RequestParam(required = false) String trangThai,
+            @RequestParam(required = false) String trangThaiThanhToan,
+            @RequestParam(required = false) Integer maKhachHang,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime tuNgay,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime denNgay,
+            @RequestParam(required = false) BigDecimal tienTu,
+            @RequestParam(required = false) BigDecimal tienDen) {
+        boolean csv = "csv".equalsIgnoreCase(dinhDang);
+        if (!csv && !"ndjson".equalsIgnoreCase(dinhDang)) {
+            throw new IllegalArgumentException("dinhDang phải là csv hoặc ndjson");
+        }
+        OrderHistoryQuery query = new OrderHistoryQuery(trangThai, trangThaiThanhToan, maKhachHang, tuNgay, denNgay,
+                tienTu, tienDen, null, null);
+        StreamingResponseBody body = out -> donHangService.xuatDonHang(query, dinhDang, out);
+        return ResponseEntity.ok()
+                .contentType(csv ? new MediaType("text", "csv", StandardCharsets.UTF_8)
+                        : MediaType.parseMediaType("application/x-ndjson"))
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        "attachment; filename=\"don-hang." + (csv ? "csv" : "ndjson") + "\"")
+                .body(body);
+    }
+
     @GetMapping("/donhang/{id}")
     public ResponseEntity<DonHangResponse> getDonHangById(@PathVariable Integer id) {
         return ResponseEntity.ok(donHangService.getDonHangById(id));
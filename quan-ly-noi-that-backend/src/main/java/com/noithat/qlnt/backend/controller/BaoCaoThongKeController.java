@@ -4,9 +4,11 @@ import com.noithat.qlnt.backend.entity.BienTheSanPham;
 import com.noithat.qlnt.backend.service.IQuanLyTonKhoService;
 import com.noithat.qlnt.backend.service.IQuanLyTrangThaiDonHangService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.HashMap;
@@ -40,6 +42,12 @@ public class BaoCaoThongKeController {
 
     @Autowired
     private com.noithat.qlnt.backend.service.IDashboardService dashboardService;
+
+    @Autowired
+    private com.noithat.qlnt.backend.service.inventory.StockLedgerRollup stockLedgerRollup;
+
+    @Autowired
+    private com.noithat.qlnt.backend.service.inventory.LowStockIndex lowStockIndex;
     
     /**
      * Lấy dữ liệu tổng quan cho Dashboard
@@ -52,8 +60,6 @@ public class BaoCaoThongKeController {
         try {
             // Thống kê tồn kho
             Double totalStockValue = quanLyTonKhoService.getTotalStockValue();
-            List<BienTheSanPham> lowStockProducts = quanLyTonKhoService.getLowStockProducts();
-            List<BienTheSanPham> outOfStockProducts = quanLyTonKhoService.getOutOfStockProducts();
 
             // Thống kê đơn hàng
             var pendingOrders = quanLyTrangThaiDonHangService.getPendingOrders();
@@ -63,8 +69,8 @@ public class BaoCaoThongKeController {
             // Tạo dashboard data
             Map<String, Object> dashboard = new HashMap<>();
             dashboard.put("tongGiaTriTonKho", totalStockValue != null ? totalStockValue : 0.0);
-            dashboard.put("soLuongSanPhamSapHet", lowStockProducts.size());
-            dashboard.put("soLuongSanPhamHetHang", outOfStockProducts.size());
+            dashboard.put("soLuongSanPhamSapHet", lowStockIndex.soSapHet());
+            dashboard.put("soLuongSanPhamHetHang", lowStockIndex.soHetHang());
             dashboard.put("soDonHangChoXuLy", pendingOrders.size());
             dashboard.put("soDonHangDangGiao", shippingOrders.size());
             dashboard.put("lastUpdated", LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME));
@@ -336,10 +342,15 @@ public class BaoCaoThongKeController {
     /**
      * Báo cáo tồn kho
      * GET /api/v1/bao-cao-thong-ke/bao-cao-ton-kho
+     * - tuNgay, denNgay (yyyy-MM-dd, tùy chọn): thêm biến động nhập/xuất/điều chỉnh
+     *   theo biến thể trong kỳ (đọc từ ảnh chụp tồn kho theo ngày)
      */
     // [ĐÃ SỬA] Đường dẫn
     @GetMapping("/bao-cao-ton-kho")
-    public ResponseEntity<Map<String, Object>> getStockReportSummary() {
+    public ResponseEntity<Map<String, Object>> getStockReportSummary(
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate tuNgay,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate denNgay,
+            @RequestParam(required = false) Integer maSanPham) {
         Map<String, Object> response = new HashMap<>();
         try {
             List<Object[]> productSummary = quanLyTonKhoService.getStockSummaryByProduct();
@@ -350,11 +361,22 @@ public class BaoCaoThongKeController {
             report.put("tongKetTheoSanPham", productSummary);
             report.put("tongKetTheoDanhMuc", categorySummary);
             report.put("tongGiaTriTonKho", totalValue);
+            if (tuNgay != null || denNgay != null) {
+                LocalDate den = denNgay != null ? denNgay : LocalDate.now();
+                LocalDate tu = tuNgay != null ? tuNgay : den.withDayOfMonth(1);
+                report.put("tuNgay", tu);
+                report.put("denNgay", den);
+                report.put("bienDongTrongKy", stockLedgerRollup.bienDongTrongKy(tu, den, maSanPham));
+            }
             report.put("generatedAt", LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME));
 
             response.put("success", true);
             response.put("data", report);
             return ResponseEntity.ok(response);
+        } catch (IllegalArgumentException e) {
+            response.put("success", false);
+            response.put("message", e.getMessage());
+            return ResponseEntity.badRequest().body(response);
         } catch (Exception e) {
             response.put("success", false);
             response.put("message", "Lỗi: " + e.getMessage());
@@ -443,23 +465,39 @@ public class BaoCaoThongKeController {
     }
     
     /**
-     * Báo cáo kiểm kê
+     * Báo cáo kiểm kê: tồn cuối ngày của từng biến thể
      * GET /api/v1/bao-cao-thong-ke/bao-cao-kiem-ke
+     * - ngay (yyyy-MM-dd, mặc định hôm nay), maSanPham (tùy chọn)
      */
     // [ĐÃ SỬA] Đường dẫn
     @GetMapping("/bao-cao-kiem-ke")
-    public ResponseEntity<Map<String, Object>> getInventoryReportSummary() {
+    public ResponseEntity<Map<String, Object>> getInventoryReportSummary(
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate ngay,
+            @RequestParam(required = false) Integer maSanPham) {
         Map<String, Object> response = new HashMap<>();
         try {
-            
+            LocalDate ngayKiemKe = ngay != null ? ngay : LocalDate.now();
+            var tonCuoiNgay = stockLedgerRollup.tonCuoiNgay(ngayKiemKe, maSanPham);
+
+            Map<String, Object> thongKeChung = new HashMap<>();
+            thongKeChung.put("soBienThe", tonCuoiNgay.size());
+            thongKeChung.put("tongSoLuongTon", tonCuoiNgay.stream().mapToLong(t -> t.tonKho()).sum());
+            thongKeChung.put("soBienTheHetHang", tonCuoiNgay.stream().filter(t -> t.tonKho() <= 0).count());
+
             Map<String, Object> summary = new HashMap<>();
             summary.put("soKiemKeDangThucHien", 0);
-            summary.put("thongKeChung", new HashMap<>());
+            summary.put("ngay", ngayKiemKe);
+            summary.put("thongKeChung", thongKeChung);
+            summary.put("tonKhoTheoBienThe", tonCuoiNgay);
             summary.put("generatedAt", LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME));
             
             response.put("success", true);
             response.put("data", summary);
             return ResponseEntity.ok(response);
+        } catch (IllegalArgumentException e) {
+            response.put("success", false);
+            response.put("message", e.getMessage());
+            return ResponseEntity.badRequest().body(response);
         } catch (Exception e) {
             response.put("success", false);
             response.put("message", "Lỗi: " + e.getMessage());
@@ -601,8 +639,8 @@ public class BaoCaoThongKeController {
         try {
             Map<String, Object> healthCheck = new HashMap<>();
 
-            boolean hasLowStock = !quanLyTonKhoService.getLowStockProducts().isEmpty();
-            boolean hasOutOfStock = !quanLyTonKhoService.getOutOfStockProducts().isEmpty();
+            boolean hasLowStock = lowStockIndex.soSapHet() > 0;
+            boolean hasOutOfStock = lowStockIndex.soHetHang() > 0;
             boolean hasPendingOrders = !quanLyTrangThaiDonHangService.getPendingOrders().isEmpty();
 
             String systemStatus;
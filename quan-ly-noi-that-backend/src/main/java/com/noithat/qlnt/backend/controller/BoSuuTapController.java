@@ -34,6 +34,9 @@ public class BoSuuTapController {
     @Autowired
     private com.noithat.qlnt.backend.repository.SanPhamRepository sanPhamRepository;
 
+    @Autowired
+    private com.noithat.qlnt.backend.service.catalog.CatalogVersion catalogVersion;
+
     @GetMapping
     public ResponseEntity<List<BoSuuTapResponse>> getAll() {
         var list = boSuuTapService.getAll();
@@ -88,6 +91,7 @@ public class BoSuuTapController {
                 String imageUrl = "/" + uploadDir + "/" + unique;
                 bst.setHinhAnh(imageUrl);
                 boSuuTapRepository.save(bst);
+                catalogVersion.bumpAfterCommit();
             } catch (Exception ex) {
                 throw new RuntimeException("Failed to upload image: " + ex.getMessage(), ex);
             }
@@ -1,6 +1,9 @@
 package com.noithat.qlnt.backend.controller;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -21,6 +24,7 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
 import com.noithat.qlnt.backend.dto.common.DanhMucDto;
+import com.noithat.qlnt.backend.dto.common.DanhMucPathItem;
 import com.noithat.qlnt.backend.dto.common.DanhMucResponse;
 import com.noithat.qlnt.backend.entity.DanhMuc;
 import com.noithat.qlnt.backend.service.IDanhMucService;
@@ -43,12 +47,23 @@ public class DanhMucController {
     @Transactional(readOnly = true)
     public ResponseEntity<List<DanhMucResponse>> getAllCategories() {
         List<DanhMuc> list = danhMucService.getAll();
+        // Đếm sản phẩm (trực tiếp và theo cây con) bằng hai truy vấn gộp thay vì mỗi danh mục một truy vấn
+        Map<Integer, Long> directCounts = new HashMap<>();
+        for (Object[] r : sanPhamRepository.countGroupByDanhMuc()) {
+            directCounts.put((Integer) r[0], ((Number) r[1]).longValue());
+        }
+        Map<Integer, Long> subtreeCounts = danhMucService.countProductsBySubtree();
+        // Con trực tiếp suy ra từ parent của chính danh sách, không nạp lazy children
+        Map<Integer, List<Integer>> childrenByParent = new HashMap<>();
+        for (DanhMuc dm : list) {
+            if (dm.getParent() != null) {
+                childrenByParent.computeIfAbsent(dm.getParent().getMaDanhMuc(), k -> new ArrayList<>())
+                        .add(dm.getMaDanhMuc());
+            }
+        }
         List<DanhMucResponse> resp = list.stream().map(dm -> {
             Integer parentId = dm.getParent() != null ? dm.getParent().getMaDanhMuc() : null;
             String parentName = dm.getParent() != null ? dm.getParent().getTenDanhMuc() : null;
-            List<Integer> childrenIds = dm.getChildren() == null ? List.of()
-                    : dm.getChildren().stream().map(DanhMuc::getMaDanhMuc).collect(Collectors.toList());
-            Long productCount = Long.valueOf(sanPhamRepository.countByDanhMuc_MaDanhMuc(dm.getMaDanhMuc()));
             return new DanhMucResponse(
                     dm.getMaDanhMuc(),
                     dm.getTenDanhMuc(),
@@ -56,8 +71,9 @@ public class DanhMucController {
                     parentId,
                     parentId, // maDanhMucCha alias
                     parentName, // tenDanhMucCha
-                    childrenIds,
-                    productCount);
+                    childrenByParent.getOrDefault(dm.getMaDanhMuc(), List.of()),
+                    directCounts.getOrDefault(dm.getMaDanhMuc(), 0L),
+                    subtreeCounts.getOrDefault(dm.getMaDanhMuc(), 0L));
         }).collect(Collectors.toList());
         return ResponseEntity.ok(resp);
     }
@@ -111,6 +127,26 @@ public class DanhMucController {
         return ResponseEntity.noContent().build();
     }
 
+    /**
+     * Đường dẫn từ danh mục gốc tới danh mục (breadcrumb)
+     */
+    @GetMapping("/{id}/path")
+    public ResponseEntity<List<DanhMucPathItem>> getPath(@PathVariable Integer id) {
+        return ResponseEntity.ok(danhMucService.getPath(id));
+    }
+
+    /**
+     * Số sản phẩm của danh mục: trực tiếp và kể cả danh mục con cháu
+     */
+    @GetMapping("/{id}/product-count")
+    public ResponseEntity<Map<String, Object>> getProductCount(@PathVariable Integer id) {
+        danhMucService.getById(id);
+        return ResponseEntity.ok(Map.of(
+                "maDanhMuc", id,
+                "soLuongSanPham", sanPhamRepository.countByDanhMuc_MaDanhMuc(id),
+                "tongSoLuongSanPham", danhMucService.countProductsInSubtree(id)));
+    }
+
     /**
      * Get children of a category
      */
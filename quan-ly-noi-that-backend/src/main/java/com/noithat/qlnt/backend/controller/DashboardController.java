@@ -1,13 +1,13 @@
 package com.noithat.qlnt.backend.controller;
 
 import com.noithat.qlnt.backend.dto.response.DashboardResponse;
-import com.noithat.qlnt.backend.dto.response.DonHangResponse;
-import com.noithat.qlnt.backend.entity.BienTheSanPham;
 import com.noithat.qlnt.backend.entity.KhachHang;
 import com.noithat.qlnt.backend.service.IDonHangService;
 import com.noithat.qlnt.backend.service.IKhachHangService;
 import com.noithat.qlnt.backend.service.IProductService;
-import com.noithat.qlnt.backend.service.IQuanLyTonKhoService;
+import com.noithat.qlnt.backend.service.inventory.LowStockIndex;
+import com.noithat.qlnt.backend.service.order.OrderHistoryQuery;
+import com.noithat.qlnt.backend.service.order.OrderStatusCounter;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -26,7 +26,8 @@ public class DashboardController {
     private final IDonHangService donHangService;
     private final IKhachHangService khachHangService;
     private final IProductService productService;
-    private final IQuanLyTonKhoService quanLyTonKhoService;
+    private final OrderStatusCounter orderStatusCounter;
+    private final LowStockIndex lowStockIndex;
 
     /**
      * Staff dashboard aggregated metrics.
@@ -36,13 +37,10 @@ public class DashboardController {
     public ResponseEntity<DashboardResponse> getStaffDashboard() {
         DashboardResponse out = new DashboardResponse();
 
-        // Orders: reuse existing service which returns DonHangResponse list
-        List<DonHangResponse> orders = donHangService.getTatCaDonHang();
-        long ordersCount = orders != null ? orders.size() : 0L;
-        // Sum revenue using available fields (thanhTien or tongTienGoc)
-        BigDecimal revenue = orders.stream()
-                .map(d -> d.getThanhTien() != null ? d.getThanhTien() : d.getTongTienGoc())
-                .filter(v -> v != null)
+        // Orders: số đơn/doanh thu đọc từ bộ đếm theo trạng thái, không nạp danh sách đơn
+        long ordersCount = orderStatusCounter.tongSoDon();
+        BigDecimal revenue = orderStatusCounter.theoTrangThai().values().stream()
+                .map(OrderStatusCounter.Dem::tongThanhTien)
                 .reduce(BigDecimal.ZERO, BigDecimal::add);
 
         // Customers
@@ -53,13 +51,10 @@ public class DashboardController {
         List<?> products = productService.getAllProducts();
         long productsCount = products != null ? products.size() : 0L;
 
-        // Recent Orders: take first 5 (sorted by date if available)
-        List<DashboardResponse.RecentOrderItem> recent = orders.stream()
-                .sorted((a, b) -> {
-                    if (a.getNgayDatHang() == null || b.getNgayDatHang() == null) return 0;
-                    return b.getNgayDatHang().compareTo(a.getNgayDatHang());
-                })
-                .limit(5)
+        // Recent Orders: trang đầu (5 đơn mới nhất) của danh sách phân trang
+        List<DashboardResponse.RecentOrderItem> recent = donHangService
+                .timDonHang(new OrderHistoryQuery(null, null, null, null, null, null, null, null, 5))
+                .getItems().stream()
                 .map(d -> {
                     DashboardResponse.RecentOrderItem item = new DashboardResponse.RecentOrderItem();
                     item.setId(d.getMaDonHang());
@@ -72,17 +67,16 @@ public class DashboardController {
                 })
                 .collect(Collectors.toList());
 
-        // Low stock: reuse stock management service
-        List<BienTheSanPham> lowStock = quanLyTonKhoService.getLowStockProducts();
-        List<DashboardResponse.LowStockItem> lowStockItems = lowStock.stream().map(bt -> {
+        // Low stock: in-memory alert index, no table scan
+        List<DashboardResponse.LowStockItem> lowStockItems = lowStockIndex.sapHet().stream().limit(10).map(c -> {
             DashboardResponse.LowStockItem li = new DashboardResponse.LowStockItem();
-            li.setVariantId(bt.getMaBienThe());
-            li.setSku(bt.getSku());
-            li.setProductName(bt.getSanPham() != null ? bt.getSanPham().getTenSanPham() : null);
-            li.setCurrentStock(bt.getSoLuongTon());
-            li.setMinStock(null); // service currently doesn't expose minStock, leave null
+            li.setVariantId(c.maBienThe());
+            li.setSku(c.sku());
+            li.setProductName(c.tenSanPham());
+            li.setCurrentStock(c.soLuongTon());
+            li.setMinStock(c.mucTonToiThieu());
             return li;
-        }).limit(10).collect(Collectors.toList());
+        }).collect(Collectors.toList());
 
         out.setOrdersCount(ordersCount);
         out.setRevenue(revenue);
@@ -3,6 +3,7 @@ package com.noithat.qlnt.backend.controller;
 import com.noithat.qlnt.backend.dto.request.HangThanhVienRequest;
 import com.noithat.qlnt.backend.dto.response.HangThanhVienResponse;
 import com.noithat.qlnt.backend.service.IHangThanhVienService;
+import com.noithat.qlnt.backend.service.vip.VipRetierJob;
 import jakarta.validation.Valid;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
@@ -24,6 +25,9 @@ public class HangThanhVienController {
     @Autowired
     private IHangThanhVienService hangThanhVienService;
 
+    @Autowired
+    private VipRetierJob vipRetierJob;
+
     /**
      * Lấy tất cả hạng thành viên với phân trang
      */
@@ -118,6 +122,22 @@ public class HangThanhVienController {
         return ResponseEntity.ok(Map.of("message", "Cập nhật hạng thành viên thành công"));
     }
 
+    /**
+     * Xếp lại hạng cho toàn bộ khách hàng (chạy nền), dùng sau khi đổi ngưỡng điểm
+     */
+    @PostMapping("/xep-hang-lai")
+    public ResponseEntity<VipRetierJob.TienDo> xepHangLai() {
+        return new ResponseEntity<>(vipRetierJob.batDau(), HttpStatus.ACCEPTED);
+    }
+
+    /**
+     * Tiến độ lần xếp lại hạng gần nhất
+     */
+    @GetMapping("/xep-hang-lai")
+    public ResponseEntity<VipRetierJob.TienDo> tienDoXepHangLai() {
+        return ResponseEntity.ok(vipRetierJob.tienDo());
+    }
+
     /**
      * Lấy thống kê hạng thành viên
      */
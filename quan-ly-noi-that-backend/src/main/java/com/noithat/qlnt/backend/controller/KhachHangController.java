@@ -172,6 +172,18 @@ public class KhachHangController {
         return ResponseEntity.ok(ds);
     }
 
+    // [Quyền: Khách hàng (Auth), Nhân viên/Admin] - Lịch sử đơn hàng của khách hàng,
+    // phân trang keyset: truyền nextCursor của trang trước vào cursor
+    @GetMapping("/{maKhachHang}/don-hang/trang")
+    public ResponseEntity<com.noithat.qlnt.backend.dto.response.DonHangPageResponse> getDonHangByKhachHangTheoTrang(
+            @PathVariable Integer maKhachHang,
+            @RequestParam(required = false) String trangThai,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer size) {
+        return ResponseEntity.ok(donHangService.timDonHang(new com.noithat.qlnt.backend.service.order.OrderHistoryQuery(
+                trangThai, null, maKhachHang, null, null, null, null, cursor, size)));
+    }
+
     // [Quyền: Admin/Nhân viên] - Dùng để tích điểm sau khi đơn hàng hoàn tất
     @PutMapping("/{maKhachHang}/tich-diem")
     public ResponseEntity<KhachHang> tichDiem(
@@ -3,8 +3,12 @@ package com.noithat.qlnt.backend.controller;
 import com.noithat.qlnt.backend.config.Config;
 import com.noithat.qlnt.backend.entity.DonHang;
 import com.noithat.qlnt.backend.repository.DonHangRepository;
+import com.noithat.qlnt.backend.service.IThongBaoService;
+import com.noithat.qlnt.backend.service.inventory.StockReservationService;
+import com.noithat.qlnt.backend.service.order.OrderStatusCounter;
 import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.*;
 
 import java.io.UnsupportedEncodingException;
@@ -19,6 +23,15 @@ public class PaymentController {
     @Autowired
     private DonHangRepository donHangRepository;
 
+    @Autowired
+    private OrderStatusCounter orderStatusCounter;
+
+    @Autowired
+    private StockReservationService stockReservationService;
+
+    @Autowired
+    private IThongBaoService thongBaoService;
+
     // 💰 1️⃣ Tạo link thanh toán VNPAY
     @GetMapping("/create/{maDonHang}")
     public String createPayment(@PathVariable Integer maDonHang, HttpServletRequest request) throws UnsupportedEncodingException {
@@ -87,6 +100,7 @@ public class PaymentController {
 
     // 💡 2️⃣ VNPAY callback sau khi thanh toán
     @GetMapping("/return")
+    @Transactional
     public String paymentReturn(@RequestParam Map<String, String> params) {
         String responseCode = params.get("vnp_ResponseCode");
         String orderInfo = params.get("vnp_OrderInfo");
@@ -100,15 +114,37 @@ public class PaymentController {
             } catch (Exception e) { maDonHang = null; }
         }
         if ("00".equals(responseCode) && sevqr != null && maDonHang != null) {
-            // Update order status to HOAN_THANH
-            donHangRepository.findById(maDonHang).ifPresent(dh -> {
+            DonHang dh = donHangRepository.findById(maDonHang).orElse(null);
+            if (dh != null && !"HOAN_THANH".equals(dh.getTrangThaiDonHang())) {
+                // Tiền đã nhận nên luôn ghi PAID. Đơn đã hủy hoặc không đủ hàng để chuyển phần
+                // giữ thành bán thì giữ nguyên trạng thái đơn và báo nhân viên xử lý (nhập thêm
+                // hàng rồi xác nhận, hoặc hủy và hoàn tiền) thay vì rollback cả thanh toán.
+                // Đơn đã rời trạng thái chờ thì hàng đã được trừ lúc xác nhận.
+                boolean daHuy = "DA_HUY".equals(dh.getTrangThaiDonHang()) || "HUY_BO".equals(dh.getTrangThaiDonHang());
+                if (daHuy || (dangCho(dh.getTrangThaiDonHang()) && !stockReservationService
+                        .tryConfirmOrder(maDonHang, dh.getChiTietDonHangs(), "VNPAY"))) {
+                    // Callback lặp lại không báo lần nữa
+                    if (!"PAID".equals(dh.getTrangThaiThanhToan())) {
+                        dh.setTrangThaiThanhToan("PAID");
+                        donHangRepository.save(dh);
+                        thongBaoService.taoThongBaoThanhToanCanXuLy(maDonHang, daHuy
+                                ? "đơn đã hủy, cần hoàn tiền"
+                                : "không đủ hàng, cần nhập thêm hàng rồi xác nhận hoặc hủy và hoàn tiền");
+                    }
+                    return "Thanh toán thành công cho đơn hàng: " + orderInfo + " (SEVQR), đơn cần nhân viên xử lý";
+                }
+                orderStatusCounter.ghiNhanDoiTrangThai(dh, dh.getTrangThaiDonHang(), "HOAN_THANH");
                 dh.setTrangThaiDonHang("HOAN_THANH");
                 dh.setTrangThaiThanhToan("PAID");
                 donHangRepository.save(dh);
-            });
+            }
             return "Thanh toán thành công cho đơn hàng: " + orderInfo + " (SEVQR)";
         } else {
             return "Thanh toán thất bại. Mã lỗi: " + responseCode;
         }
     }
+
+    private static boolean dangCho(String trangThai) {
+        return trangThai == null || "CHO_XU_LY".equals(trangThai) || "CHO_XAC_NHAN".equals(trangThai);
+    }
 }
@@ -26,6 +26,8 @@ public class ProductController {
     private com.noithat.qlnt.backend.repository.BienTheGiamGiaRepository bienTheGiamGiaRepository;
     @Autowired
     private com.noithat.qlnt.backend.repository.HinhAnhSanPhamRepository hinhAnhSanPhamRepository;
+    @Autowired
+    private com.noithat.qlnt.backend.service.catalog.ShopCatalogSnapshot shopCatalogSnapshot;
 
     // ===== CRUD cho Sản phẩm (Sản phẩm gốc) =====
     @GetMapping
@@ -45,6 +47,8 @@ public class ProductController {
         try {
             var result = productService.compareProductsAggregate(productIds);
             return ResponseEntity.ok(result);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(java.util.Map.of("error", e.getMessage()));
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body(java.util.Map.of("error", e.getMessage()));
@@ -64,18 +68,55 @@ public class ProductController {
     }
 
     // New endpoint: products shaped for shop listing (variant-aware price range &
-    // stock)
+    // stock). Lọc/sắp xếp phía server; dùng cursor (nextCursor) để lấy trang sau.
+    // Không truyền page/size/cursor thì trả về danh sách như trước.
     @GetMapping("/shop")
     public ResponseEntity<?> getProductsForShop(@RequestParam(value = "page", required = false) Integer page,
-            @RequestParam(value = "size", required = false) Integer size) {
+            @RequestParam(value = "size", required = false) Integer size,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "tim_kiem", required = false) String timKiem,
+            @RequestParam(value = "danh_muc_id", required = false) Integer danhMucId,
+            @RequestParam(value = "categoryId", required = false) Integer categoryId,
+            @RequestParam(value = "bo_suu_tap_id", required = false) Integer boSuuTapId,
+            @RequestParam(value = "nha_cung_cap_id", required = false) Integer nhaCungCapId,
+            @RequestParam(value = "gia_tu", required = false) Double giaTu,
+            @RequestParam(value = "gia_den", required = false) Double giaDen,
+            @RequestParam(value = "con_hang", defaultValue = "false") boolean conHang,
+            @RequestParam(value = "dang_giam_gia", defaultValue = "false") boolean dangGiamGia,
+            @RequestParam(value = "sap_xep", required = false) String sapXep) {
         try {
-            if (page != null && size != null) {
-                var pageDto = productService.getProductsForShop(page, size);
-                return ResponseEntity.ok(pageDto);
+            var query = new com.noithat.qlnt.backend.service.catalog.ShopProductQuery(
+                    timKiem,
+                    danhMucId != null ? danhMucId : categoryId,
+                    boSuuTapId,
+                    nhaCungCapId,
+                    giaTu,
+                    giaDen,
+                    conHang,
+                    dangGiamGia,
+                    sapXep != null ? com.noithat.qlnt.backend.service.catalog.ShopSort.fromCode(sapXep) : null,
+                    cursor,
+                    page,
+                    size);
+            var pageDto = productService.getProductsForShop(query);
+            if (page == null && size == null && query.cursor() == null) {
+                return ResponseEntity.ok(pageDto.getItems());
             }
+            return ResponseEntity.ok(pageDto);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(java.util.Map.of("error", e.getMessage()));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(java.util.Map.of("error", e.getMessage()));
+        }
+    }
 
-            var list = productService.getProductsForShop();
-            return ResponseEntity.ok(list);
+    // Autocomplete tên sản phẩm (bỏ dấu, khớp tiền tố, chịu lỗi gõ sai)
+    @GetMapping("/suggest")
+    public ResponseEntity<?> suggestProducts(@RequestParam("q") String q,
+            @RequestParam(value = "limit", defaultValue = "8") int limit) {
+        try {
+            return ResponseEntity.ok(productService.suggestProducts(q, Math.min(Math.max(limit, 1), 20)));
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body(java.util.Map.of("error", e.getMessage()));
@@ -105,6 +146,19 @@ public class ProductController {
         }
     }
 
+    // Đánh giá của sản phẩm theo trang; trang chi tiết chỉ kèm trang đầu tiên
+    @GetMapping("/{id}/reviews")
+    public ResponseEntity<?> getProductReviews(@PathVariable Integer id,
+            @RequestParam(value = "page", defaultValue = "0") int page,
+            @RequestParam(value = "size", defaultValue = "10") int size) {
+        try {
+            return ResponseEntity.ok(productService.getProductReviews(id, page, size));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(java.util.Map.of("error", e.getMessage()));
+        }
+    }
+
     @PostMapping
     public ResponseEntity<SanPham> createSanPham(@Valid @RequestBody SanPhamRequestDto dto) {
         return new ResponseEntity<>(productService.createSanPham(dto), HttpStatus.CREATED);
@@ -156,6 +210,7 @@ public class ProductController {
                 img.setTrangThai(dto.getTrangThai() != null ? dto.getTrangThai() : true);
                 savedImages.add(hinhAnhSanPhamRepository.save(img));
             }
+            shopCatalogSnapshot.markProductChanged(id);
 
             return ResponseEntity.ok(java.util.Map.of(
                     "message", "Cập nhật hình ảnh thành công",
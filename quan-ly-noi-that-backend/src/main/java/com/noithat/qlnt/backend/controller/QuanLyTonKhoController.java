@@ -2,11 +2,16 @@ package com.noithat.qlnt.backend.controller;
 
 import com.noithat.qlnt.backend.entity.BienTheSanPham;
 import com.noithat.qlnt.backend.entity.LichSuTonKho;
+import com.noithat.qlnt.backend.entity.TonKhoTheoNgay;
 import com.noithat.qlnt.backend.service.IQuanLyTonKhoService;
+import com.noithat.qlnt.backend.service.inventory.LowStockIndex;
+import com.noithat.qlnt.backend.service.inventory.StockLedgerRollup;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.HashMap;
@@ -20,6 +25,12 @@ public class QuanLyTonKhoController {
     @Autowired
     private IQuanLyTonKhoService stockManagementService;
 
+    @Autowired
+    private StockLedgerRollup stockLedgerRollup;
+
+    @Autowired
+    private LowStockIndex lowStockIndex;
+
     // =================== STOCK OPERATIONS (Đã đồng bộ với Postman) ===================
 
     /**
@@ -336,10 +347,41 @@ public class QuanLyTonKhoController {
         return getStockHistory(maBienThe);
     }
 
+    /**
+     * Tồn kho theo ngày của một biến thể (tồn đầu, nhập, xuất, điều chỉnh, tồn cuối
+     * của mỗi ngày có biến động)
+     * GET /api/v1/quan-ly-ton-kho/ton-kho-theo-ngay/{maBienThe}?tuNgay=&denNgay=
+     * - Mặc định: 30 ngày gần nhất
+     */
+    @GetMapping("/ton-kho-theo-ngay/{maBienThe}")
+    public ResponseEntity<Map<String, Object>> getDailyStock(@PathVariable Integer maBienThe,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate tuNgay,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate denNgay) {
+        Map<String, Object> response = new HashMap<>();
+        try {
+            LocalDate den = denNgay != null ? denNgay : LocalDate.now();
+            LocalDate tu = tuNgay != null ? tuNgay : den.minusDays(30);
+            List<TonKhoTheoNgay> data = stockLedgerRollup.theoNgay(maBienThe, tu, den);
+            response.put("success", true);
+            response.put("data", data);
+            response.put("count", data.size());
+            return ResponseEntity.ok(response);
+        } catch (IllegalArgumentException e) {
+            response.put("success", false);
+            response.put("message", e.getMessage());
+            return ResponseEntity.badRequest().body(response);
+        } catch (Exception e) {
+            response.put("success", false);
+            response.put("message", "Lỗi: " + e.getMessage());
+            return ResponseEntity.internalServerError().body(response);
+        }
+    }
+
     /**
      * Lấy lịch sử tổng hợp (bao gồm CẢ Nhập VÀ Xuất)
      * GET /api/v1/quan-ly-ton-kho/lich-su-xuat-nhap
-     * - scope=all: trả về toàn bộ lịch sử nhập
+     * - scope=all: trả về toàn bộ lịch sử nhập (các dòng chưa chuyển sang bảng lưu
+     *   trữ, xem app.inventory.ledger.retention-days)
      * - from, to (ISO-8601): lọc theo khoảng thời gian
      */
     @GetMapping("/lich-su-xuat-nhap")
@@ -389,6 +431,31 @@ public class QuanLyTonKhoController {
         return getCombinedNhapHistory("all", null, null);
     }
 
+    /**
+     * Cảnh báo tồn kho (sắp hết + hết hàng) từ danh sách trong bộ nhớ, không truy vấn DB
+     * GET /api/v1/quan-ly-ton-kho/canh-bao
+     */
+    @GetMapping("/canh-bao")
+    public ResponseEntity<Map<String, Object>> getStockAlerts() {
+        Map<String, Object> response = new HashMap<>();
+        try {
+            List<LowStockIndex.CanhBaoTonKho> sapHet = lowStockIndex.sapHet();
+            List<LowStockIndex.CanhBaoTonKho> hetHang = lowStockIndex.hetHang();
+            Map<String, Object> data = new HashMap<>();
+            data.put("sapHet", sapHet);
+            data.put("hetHang", hetHang);
+            data.put("soLuongSapHet", sapHet.size());
+            data.put("soLuongHetHang", hetHang.size());
+            response.put("success", true);
+            response.put("data", data);
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            response.put("success", false);
+            response.put("message", "Lỗi: " + e.getMessage());
+            return ResponseEntity.internalServerError().body(response);
+        }
+    }
+
     /**
      * Lấy danh sách sản phẩm sắp hết hàng
      * GET /api/v1/quan-ly-ton-kho/san-pham-sap-het
@@ -507,14 +574,12 @@ public class QuanLyTonKhoController {
         Map<String, Object> response = new HashMap<>();
         try {
             Double totalValue = stockManagementService.getTotalStockValue();
-            List<BienTheSanPham> lowStock = stockManagementService.getLowStockProducts();
-            List<BienTheSanPham> outOfStock = stockManagementService.getOutOfStockProducts();
             List<Object[]> productSummary = stockManagementService.getStockSummaryByProduct();
 
             Map<String, Object> overview = new HashMap<>();
             overview.put("tongGiaTriTonKho", totalValue != null ? totalValue : 0.0);
-            overview.put("soLuongSanPhamSapHet", lowStock != null ? lowStock.size() : 0);
-            overview.put("soLuongSanPhamHetHang", outOfStock != null ? outOfStock.size() : 0);
+            overview.put("soLuongSanPhamSapHet", lowStockIndex.soSapHet());
+            overview.put("soLuongSanPhamHetHang", lowStockIndex.soHetHang());
             overview.put("soLuongMatHang", productSummary != null ? productSummary.size() : 0);
             overview.put("generatedAt", LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME));
 
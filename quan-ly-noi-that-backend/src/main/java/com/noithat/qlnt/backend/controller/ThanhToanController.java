@@ -5,6 +5,7 @@ import com.noithat.qlnt.backend.dto.response.*;
 import com.noithat.qlnt.backend.entity.Voucher;
 import com.noithat.qlnt.backend.entity.DonHang;
 import com.noithat.qlnt.backend.service.ThanhToanService;
+import com.noithat.qlnt.backend.service.order.IdempotencyKeyStore;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -28,6 +29,7 @@ import jakarta.servlet.http.HttpServletRequest;
 public class ThanhToanController {
 
     private final ThanhToanService thanhToanService;
+    private final IdempotencyKeyStore idempotencyKeyStore;
 
     // Tạo link thanh toán VNPAY cho đơn hàng
     @PostMapping("/vnpay-url")
@@ -166,10 +168,19 @@ public class ThanhToanController {
      * Trả về CheckoutSummaryResponse với đầy đủ thông tin từ stored procedure.
      */
     @PostMapping(value = "/tao-don-hang", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity<?> taoDonHangTuUser(@RequestBody ThongTinGiaoHangRequest request) {
+    public ResponseEntity<?> taoDonHangTuUser(
+            @RequestHeader(value = IdempotencyKeyStore.HEADER, required = false) String idempotencyKey,
+            @RequestBody ThongTinGiaoHangRequest request) {
         try {
-            CheckoutSummaryResponse resp = thanhToanService.taoDonHangTuUser(request);
+            // Gửi lại cùng Idempotency-Key nhận lại kết quả đơn đã tạo thay vì tạo đơn mới
+            CheckoutSummaryResponse resp = idempotencyKeyStore.execute("thanhtoan-tao-don-hang", idempotencyKey,
+                    request, CheckoutSummaryResponse.class, () -> thanhToanService.taoDonHangTuUser(request));
             return ResponseEntity.ok(resp);
+        } catch (org.springframework.web.server.ResponseStatusException e) {
+            java.util.Map<String, Object> err = new java.util.HashMap<>();
+            err.put("success", false);
+            err.put("message", e.getReason());
+            return ResponseEntity.status(e.getStatusCode()).body(err);
         } catch (Exception e) {
             // Print stacktrace to server console for debugging
             e.printStackTrace();
@@ -0,0 +1,43 @@
+SET ANSI_NULLS ON
+GO
+SET QUOTED_IDENTIFIER ON
+GO
+-- =============================================
+-- Description: Bảng closure của cây danh mục (tổ tiên - hậu duệ - độ sâu)
+-- Mỗi danh mục có một dòng với chính nó (do_sau = 0). Ứng dụng cập nhật bảng
+-- khi tạo/liên kết/hủy liên kết/xóa danh mục và tự dựng lại khi khởi động nếu
+-- số dòng do_sau = 0 khác số danh mục.
+-- =============================================
+IF OBJECT_ID(N'dbo.danh_muc_closure', N'U') IS NULL
+BEGIN
+    CREATE TABLE dbo.danh_muc_closure (
+        ma_to_tien INT NOT NULL,
+        ma_hau_due INT NOT NULL,
+        do_sau INT NOT NULL,
+        CONSTRAINT PK_danh_muc_closure PRIMARY KEY (ma_to_tien, ma_hau_due),
+        CONSTRAINT FK_danh_muc_closure_to_tien FOREIGN KEY (ma_to_tien) REFERENCES dbo.danh_muc (ma_danh_muc),
+        CONSTRAINT FK_danh_muc_closure_hau_due FOREIGN KEY (ma_hau_due) REFERENCES dbo.danh_muc (ma_danh_muc)
+    );
+
+    -- Tra tổ tiên (breadcrumb) theo hậu duệ
+    CREATE INDEX IX_danh_muc_closure_hau_due ON dbo.danh_muc_closure (ma_hau_due, do_sau) INCLUDE (ma_to_tien);
+END
+GO
+
+-- Dữ liệu ban đầu từ cột parent_id
+IF NOT EXISTS (SELECT 1 FROM dbo.danh_muc_closure)
+BEGIN
+    WITH cay AS (
+        SELECT ma_danh_muc AS ma_to_tien, ma_danh_muc AS ma_hau_due, 0 AS do_sau
+        FROM dbo.danh_muc
+        UNION ALL
+        SELECT p.parent_id, cay.ma_hau_due, cay.do_sau + 1
+        FROM cay
+        JOIN dbo.danh_muc p ON p.ma_danh_muc = cay.ma_to_tien
+        WHERE p.parent_id IS NOT NULL
+    )
+    INSERT INTO dbo.danh_muc_closure (ma_to_tien, ma_hau_due, do_sau)
+    SELECT ma_to_tien, ma_hau_due, do_sau FROM cay
+    OPTION (MAXRECURSION 100);
+END
+GO
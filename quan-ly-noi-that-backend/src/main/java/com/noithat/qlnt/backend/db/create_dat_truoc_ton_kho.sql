@@ -0,0 +1,67 @@
+SET ANSI_NULLS ON
+GO
+SET QUOTED_IDENTIFIER ON
+GO
+-- =============================================
+-- Description: Giữ hàng cho đơn chưa xác nhận
+-- bien_the_san_pham.so_luong_dat_truoc là tổng các lần giữ đang hiệu lực
+-- (trang_thai = DANG_GIU) của biến thể; có thể bán = so_luong_ton - so_luong_dat_truoc.
+-- Ứng dụng cập nhật hai chỗ này cùng nhau (StockReservationService); script
+-- tạo cột/bảng và đồng bộ lại cột từ bảng giữ hàng.
+-- het_han NULL: lần giữ của đơn hàng, chỉ kết thúc khi đơn được xác nhận/hủy.
+-- =============================================
+IF COL_LENGTH(N'dbo.bien_the_san_pham', N'so_luong_dat_truoc') IS NULL
+BEGIN
+    ALTER TABLE dbo.bien_the_san_pham
+        ADD so_luong_dat_truoc INT NOT NULL CONSTRAINT DF_bien_the_san_pham_dat_truoc DEFAULT 0;
+END
+GO
+
+IF OBJECT_ID(N'dbo.dat_truoc_ton_kho', N'U') IS NULL
+BEGIN
+    CREATE TABLE dbo.dat_truoc_ton_kho (
+        ma_dat_truoc INT IDENTITY(1,1) NOT NULL,
+        ma_bien_the INT NOT NULL,
+        so_luong INT NOT NULL,
+        ma_tham_chieu NVARCHAR(100) NOT NULL,
+        trang_thai NVARCHAR(20) NOT NULL CONSTRAINT DF_dat_truoc_ton_kho_trang_thai DEFAULT N'DANG_GIU',
+        het_han DATETIME2 NULL,
+        ngay_tao DATETIME2 NOT NULL CONSTRAINT DF_dat_truoc_ton_kho_ngay_tao DEFAULT SYSDATETIME(),
+        ngay_cap_nhat DATETIME2 NULL,
+        CONSTRAINT PK_dat_truoc_ton_kho PRIMARY KEY (ma_dat_truoc),
+        CONSTRAINT UQ_dat_truoc_ton_kho_bien_the_tham_chieu UNIQUE (ma_bien_the, ma_tham_chieu),
+        CONSTRAINT FK_dat_truoc_ton_kho_bien_the FOREIGN KEY (ma_bien_the)
+            REFERENCES dbo.bien_the_san_pham (ma_bien_the) ON DELETE CASCADE
+    );
+
+    -- Tra cứu theo đơn khi xác nhận/hủy
+    CREATE INDEX IX_dat_truoc_ton_kho_tham_chieu ON dbo.dat_truoc_ton_kho (ma_tham_chieu);
+    -- Quét lần giữ quá hạn
+    CREATE INDEX IX_dat_truoc_ton_kho_het_han ON dbo.dat_truoc_ton_kho (trang_thai, het_han);
+END
+GO
+
+-- Bảng tạo trước khi lần giữ của đơn bỏ thời hạn: cho phép NULL (index phụ thuộc cột
+-- nên phải tạo lại) và bỏ hạn của các lần giữ đơn đang hiệu lực
+IF COLUMNPROPERTY(OBJECT_ID(N'dbo.dat_truoc_ton_kho'), N'het_han', 'AllowsNull') = 0
+BEGIN
+    DROP INDEX IX_dat_truoc_ton_kho_het_han ON dbo.dat_truoc_ton_kho;
+    ALTER TABLE dbo.dat_truoc_ton_kho ALTER COLUMN het_han DATETIME2 NULL;
+    CREATE INDEX IX_dat_truoc_ton_kho_het_han ON dbo.dat_truoc_ton_kho (trang_thai, het_han);
+
+    UPDATE dbo.dat_truoc_ton_kho
+    SET het_han = NULL
+    WHERE trang_thai = N'DANG_GIU' AND ma_tham_chieu LIKE N'ORDER-%';
+END
+GO
+
+UPDATE b
+SET so_luong_dat_truoc = ISNULL(d.tong, 0)
+FROM dbo.bien_the_san_pham b
+LEFT JOIN (
+    SELECT ma_bien_the, SUM(so_luong) AS tong
+    FROM dbo.dat_truoc_ton_kho
+    WHERE trang_thai = N'DANG_GIU'
+    GROUP BY ma_bien_the
+) d ON d.ma_bien_the = b.ma_bien_the;
+GO
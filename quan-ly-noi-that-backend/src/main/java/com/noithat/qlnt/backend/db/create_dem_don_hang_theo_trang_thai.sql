@@ -0,0 +1,33 @@
+SET ANSI_NULLS ON
+GO
+SET QUOTED_IDENTIFIER ON
+GO
+-- =============================================
+-- Description: Số đơn và tổng thành tiền theo trạng thái đơn hàng (pre-aggregate của don_hang)
+-- Ứng dụng cộng dồn khi tạo/đổi trạng thái/xóa đơn; mỗi trạng thái chia thành
+-- nhiều ngăn theo mã đơn để giảm tranh chấp. Script này tạo bảng và tính giá
+-- trị ban đầu (ngăn 0) từ dữ liệu hiện có; job đối soát bù các lệch sau đó.
+-- =============================================
+IF OBJECT_ID(N'dbo.dem_don_hang_theo_trang_thai', N'U') IS NULL
+BEGIN
+    CREATE TABLE dbo.dem_don_hang_theo_trang_thai (
+        trang_thai NVARCHAR(50) NOT NULL,
+        ngan INT NOT NULL,
+        so_don BIGINT NOT NULL CONSTRAINT DF_dem_don_hang_so_don DEFAULT 0,
+        tong_thanh_tien DECIMAL(19, 2) NOT NULL CONSTRAINT DF_dem_don_hang_tong_thanh_tien DEFAULT 0,
+        ngay_cap_nhat DATETIME2 NULL,
+        CONSTRAINT PK_dem_don_hang_theo_trang_thai PRIMARY KEY (trang_thai, ngan)
+    );
+
+    INSERT INTO dbo.dem_don_hang_theo_trang_thai (trang_thai, ngan, so_don, tong_thanh_tien, ngay_cap_nhat)
+    SELECT COALESCE(trang_thai_don_hang, N'KHONG_XAC_DINH'), 0, COUNT_BIG(*), COALESCE(SUM(thanh_tien), 0), SYSDATETIME()
+    FROM dbo.don_hang
+    GROUP BY COALESCE(trang_thai_don_hang, N'KHONG_XAC_DINH');
+END
+GO
+
+-- Job đối soát đọc bảng đếm và don_hang trong một transaction SNAPSHOT (không
+-- giữ khóa trong lúc quét) nên cần bật snapshot isolation cho CSDL
+IF NOT EXISTS (SELECT 1 FROM sys.databases WHERE database_id = DB_ID() AND snapshot_isolation_state = 1)
+    ALTER DATABASE CURRENT SET ALLOW_SNAPSHOT_ISOLATION ON;
+GO
@@ -0,0 +1,23 @@
+SET ANSI_NULLS ON
+GO
+SET QUOTED_IDENTIFIER ON
+GO
+-- =============================================
+-- Description: Index cho danh sách/xuất lịch sử đơn hàng (phân trang keyset theo
+-- ngày đặt giảm dần, mã đơn giảm dần); bản thứ hai cho lịch sử của một khách hàng.
+-- =============================================
+IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE name = N'IX_don_hang_ngay_dat_hang'
+               AND object_id = OBJECT_ID(N'dbo.don_hang'))
+BEGIN
+    CREATE INDEX IX_don_hang_ngay_dat_hang ON dbo.don_hang (ngay_dat_hang DESC, ma_don_hang DESC)
+        INCLUDE (trang_thai_don_hang, trang_thai_thanh_toan, thanh_tien);
+END
+GO
+
+IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE name = N'IX_don_hang_khach_hang_ngay_dat_hang'
+               AND object_id = OBJECT_ID(N'dbo.don_hang'))
+BEGIN
+    CREATE INDEX IX_don_hang_khach_hang_ngay_dat_hang
+        ON dbo.don_hang (ma_khach_hang, ngay_dat_hang DESC, ma_don_hang DESC);
+END
+GO
@@ -0,0 +1,24 @@
+SET ANSI_NULLS ON
+GO
+SET QUOTED_IDENTIFIER ON
+GO
+-- =============================================
+-- Description: Khóa Idempotency-Key của các API tạo đơn hàng
+-- Lần gửi lại cùng khóa trong thời gian phát lại nhận kết quả đã lưu thay vì
+-- tạo đơn mới. Khóa hết hạn được ứng dụng xóa định kỳ (index theo het_han).
+-- =============================================
+IF OBJECT_ID(N'dbo.khoa_idempotency', N'U') IS NULL
+BEGIN
+    CREATE TABLE dbo.khoa_idempotency (
+        ma_khoa NVARCHAR(200) NOT NULL,
+        ma_hash_yeu_cau NVARCHAR(64) NOT NULL,
+        trang_thai NVARCHAR(20) NOT NULL,
+        ket_qua NVARCHAR(MAX) NULL,
+        ngay_tao DATETIME2 NOT NULL,
+        het_han DATETIME2 NOT NULL,
+        CONSTRAINT PK_khoa_idempotency PRIMARY KEY (ma_khoa)
+    );
+
+    CREATE INDEX IX_khoa_idempotency_het_han ON dbo.khoa_idempotency (het_han);
+END
+GO
@@ -0,0 +1,42 @@
+SET ANSI_NULLS ON
+GO
+SET QUOTED_IDENTIFIER ON
+GO
+-- =============================================
+-- Description: Outbox các sự kiện xử lý bất đồng bộ (tác vụ phụ sau khi đổi
+-- trạng thái đơn hàng: hoàn kho, điểm thưởng, hạng VIP, thông báo...)
+-- Sự kiện được ghi cùng transaction với thay đổi nghiệp vụ; ứng dụng nhận theo
+-- lô (UPDLOCK, READPAST) và xử lý theo thứ tự của từng đối tượng.
+-- =============================================
+IF OBJECT_ID(N'dbo.outbox_su_kien', N'U') IS NULL
+BEGIN
+    CREATE TABLE dbo.outbox_su_kien (
+        ma_su_kien BIGINT IDENTITY(1,1) NOT NULL,
+        loai_doi_tuong NVARCHAR(50) NOT NULL,
+        ma_doi_tuong NVARCHAR(50) NOT NULL,
+        loai_su_kien NVARCHAR(100) NOT NULL,
+        du_lieu NVARCHAR(MAX) NOT NULL,
+        trang_thai NVARCHAR(20) NOT NULL CONSTRAINT DF_outbox_su_kien_trang_thai DEFAULT N'MOI',
+        so_buoc_xong INT NOT NULL CONSTRAINT DF_outbox_su_kien_so_buoc_xong DEFAULT 0,
+        so_lan_thu INT NOT NULL CONSTRAINT DF_outbox_su_kien_so_lan_thu DEFAULT 0,
+        xu_ly_luc DATETIME2 NOT NULL,
+        ma_lan_nhan NVARCHAR(36) NULL,
+        loi_cuoi NVARCHAR(1000) NULL,
+        ngay_tao DATETIME2 NOT NULL CONSTRAINT DF_outbox_su_kien_ngay_tao DEFAULT SYSDATETIME(),
+        ngay_xu_ly DATETIME2 NULL,
+        CONSTRAINT PK_outbox_su_kien PRIMARY KEY (ma_su_kien)
+    );
+
+    CREATE INDEX IX_outbox_su_kien_trang_thai ON dbo.outbox_su_kien (trang_thai, xu_ly_luc);
+    CREATE INDEX IX_outbox_su_kien_doi_tuong ON dbo.outbox_su_kien (loai_doi_tuong, ma_doi_tuong, ma_su_kien)
+        INCLUDE (trang_thai);
+END
+GO
+
+-- Đọc sự kiện theo thời điểm ghi (CatalogEventFeed khi chạy nhiều instance)
+IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE name = N'IX_outbox_su_kien_ngay_tao'
+               AND object_id = OBJECT_ID(N'dbo.outbox_su_kien'))
+BEGIN
+    CREATE INDEX IX_outbox_su_kien_ngay_tao ON dbo.outbox_su_kien (ngay_tao, loai_su_kien);
+END
+GO
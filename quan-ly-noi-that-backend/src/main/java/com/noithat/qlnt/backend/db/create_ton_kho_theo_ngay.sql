@@ -0,0 +1,84 @@
+SET ANSI_NULLS ON
+GO
+SET QUOTED_IDENTIFIER ON
+GO
+-- =============================================
+-- Description: Ảnh chụp tồn kho theo ngày của từng biến thể (rollup của lich_su_ton_kho)
+-- và bảng lưu trữ lịch sử cũ.
+-- Ứng dụng cộng dồn ton_kho_theo_ngay mỗi khi ghi lịch sử tồn kho; job lưu trữ
+-- chuyển các dòng lich_su_ton_kho quá hạn sang lich_su_ton_kho_luu_tru (báo cáo
+-- theo ngày/kỳ đọc bảng rollup nên không cần các dòng đó). Script này tạo bảng
+-- và tính rollup ban đầu từ lịch sử hiện có.
+-- Điều chỉnh (kiểm kê) tính riêng, không cộng vào nhập/xuất.
+-- =============================================
+IF OBJECT_ID(N'dbo.ton_kho_theo_ngay', N'U') IS NULL
+BEGIN
+    CREATE TABLE dbo.ton_kho_theo_ngay (
+        ma_bien_the INT NOT NULL,
+        ngay DATE NOT NULL,
+        ton_dau INT NOT NULL,
+        tong_nhap BIGINT NOT NULL CONSTRAINT DF_ton_kho_theo_ngay_nhap DEFAULT 0,
+        tong_xuat BIGINT NOT NULL CONSTRAINT DF_ton_kho_theo_ngay_xuat DEFAULT 0,
+        tong_dieu_chinh BIGINT NOT NULL CONSTRAINT DF_ton_kho_theo_ngay_dieu_chinh DEFAULT 0,
+        ton_cuoi INT NOT NULL,
+        ngay_cap_nhat DATETIME2 NULL,
+        CONSTRAINT PK_ton_kho_theo_ngay PRIMARY KEY (ma_bien_the, ngay),
+        CONSTRAINT FK_ton_kho_theo_ngay_bien_the FOREIGN KEY (ma_bien_the)
+            REFERENCES dbo.bien_the_san_pham (ma_bien_the) ON DELETE CASCADE
+    );
+
+    -- Tồn đầu ngày = so_luong_truoc của dòng đầu tiên, tồn cuối = so_luong_sau của dòng cuối cùng
+    WITH l AS (
+        SELECT ma_bien_the, CAST(thoi_gian_thuc_hien AS DATE) AS ngay, loai_giao_dich,
+               so_luong_truoc, so_luong_thay_doi, so_luong_sau,
+               ROW_NUMBER() OVER (PARTITION BY ma_bien_the, CAST(thoi_gian_thuc_hien AS DATE)
+                                  ORDER BY thoi_gian_thuc_hien, ma_lich_su) AS dau,
+               ROW_NUMBER() OVER (PARTITION BY ma_bien_the, CAST(thoi_gian_thuc_hien AS DATE)
+                                  ORDER BY thoi_gian_thuc_hien DESC, ma_lich_su DESC) AS cuoi
+        FROM dbo.lich_su_ton_kho
+    )
+    INSERT INTO dbo.ton_kho_theo_ngay (ma_bien_the, ngay, ton_dau, tong_nhap, tong_xuat, tong_dieu_chinh,
+                                       ton_cuoi, ngay_cap_nhat)
+    SELECT ma_bien_the, ngay,
+           MAX(CASE WHEN dau = 1 THEN so_luong_truoc END),
+           SUM(CASE WHEN loai_giao_dich <> N'DIEU_CHINH' AND so_luong_thay_doi > 0
+                    THEN CAST(so_luong_thay_doi AS BIGINT) ELSE 0 END),
+           SUM(CASE WHEN loai_giao_dich <> N'DIEU_CHINH' AND so_luong_thay_doi < 0
+                    THEN -CAST(so_luong_thay_doi AS BIGINT) ELSE 0 END),
+           SUM(CASE WHEN loai_giao_dich = N'DIEU_CHINH' THEN CAST(so_luong_thay_doi AS BIGINT) ELSE 0 END),
+           MAX(CASE WHEN cuoi = 1 THEN so_luong_sau END),
+           SYSDATETIME()
+    FROM l
+    GROUP BY ma_bien_the, ngay;
+END
+GO
+
+-- Cùng cột với lich_su_ton_kho; không có khóa ngoại để giữ được lịch sử của biến thể đã xóa
+-- (và để DELETE ... OUTPUT INTO ghi thẳng vào bảng này)
+IF OBJECT_ID(N'dbo.lich_su_ton_kho_luu_tru', N'U') IS NULL
+BEGIN
+    CREATE TABLE dbo.lich_su_ton_kho_luu_tru (
+        ma_lich_su INT NOT NULL,
+        ma_bien_the INT NOT NULL,
+        so_luong_truoc INT NOT NULL,
+        so_luong_thay_doi INT NOT NULL,
+        so_luong_sau INT NOT NULL,
+        loai_giao_dich NVARCHAR(50) NOT NULL,
+        ma_tham_chieu NVARCHAR(100) NULL,
+        ly_do NVARCHAR(255) NULL,
+        nguoi_thuc_hien NVARCHAR(100) NULL,
+        thoi_gian_thuc_hien DATETIME2 NOT NULL,
+        ngay_luu_tru DATETIME2 NOT NULL CONSTRAINT DF_lich_su_ton_kho_luu_tru_ngay DEFAULT SYSDATETIME(),
+        CONSTRAINT PK_lich_su_ton_kho_luu_tru PRIMARY KEY (thoi_gian_thuc_hien, ma_lich_su)
+    );
+END
+GO
+
+-- Job lưu trữ và các truy vấn theo khoảng thời gian tìm theo thoi_gian_thuc_hien
+IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE name = N'IX_lich_su_ton_kho_thoi_gian'
+               AND object_id = OBJECT_ID(N'dbo.lich_su_ton_kho'))
+BEGIN
+    CREATE NONCLUSTERED INDEX IX_lich_su_ton_kho_thoi_gian
+        ON dbo.lich_su_ton_kho (thoi_gian_thuc_hien);
+END
+GO
@@ -0,0 +1,30 @@
+SET ANSI_NULLS ON
+GO
+SET QUOTED_IDENTIFIER ON
+GO
+-- =============================================
+-- Description: Tổng nhập/xuất cộng dồn theo biến thể (pre-aggregate của lich_su_ton_kho)
+-- Ứng dụng cộng dồn mỗi khi ghi lịch sử tồn kho; script này tạo bảng và
+-- tính giá trị ban đầu từ lịch sử hiện có.
+-- =============================================
+IF OBJECT_ID(N'dbo.ton_kho_tong_hop', N'U') IS NULL
+BEGIN
+    CREATE TABLE dbo.ton_kho_tong_hop (
+        ma_bien_the INT NOT NULL,
+        tong_nhap BIGINT NOT NULL CONSTRAINT DF_ton_kho_tong_hop_nhap DEFAULT 0,
+        tong_xuat BIGINT NOT NULL CONSTRAINT DF_ton_kho_tong_hop_xuat DEFAULT 0,
+        ngay_cap_nhat DATETIME2 NULL,
+        CONSTRAINT PK_ton_kho_tong_hop PRIMARY KEY (ma_bien_the),
+        CONSTRAINT FK_ton_kho_tong_hop_bien_the FOREIGN KEY (ma_bien_the)
+            REFERENCES dbo.bien_the_san_pham (ma_bien_the) ON DELETE CASCADE
+    );
+
+    INSERT INTO dbo.ton_kho_tong_hop (ma_bien_the, tong_nhap, tong_xuat, ngay_cap_nhat)
+    SELECT ma_bien_the,
+           SUM(CASE WHEN so_luong_thay_doi > 0 THEN CAST(so_luong_thay_doi AS BIGINT) ELSE 0 END),
+           SUM(CASE WHEN so_luong_thay_doi < 0 THEN -CAST(so_luong_thay_doi AS BIGINT) ELSE 0 END),
+           SYSDATETIME()
+    FROM dbo.lich_su_ton_kho
+    GROUP BY ma_bien_the;
+END
+GO
@@ -0,0 +1,40 @@
+SET ANSI_NULLS ON
+GO
+SET QUOTED_IDENTIFIER ON
+GO
+-- =============================================
+-- Description: Lượt dùng voucher theo đơn hàng
+-- voucher.so_luong_da_su_dung chỉ được tăng bằng câu UPDATE có điều kiện
+-- (so_luong_da_su_dung < so_luong_toi_da) cùng lúc ghi một dòng DA_DUNG ở đây;
+-- hủy đơn chuyển dòng sang DA_HOAN rồi mới giảm bộ đếm, nên mỗi đơn trả lượt
+-- đúng một lần (VoucherRedemptionService).
+-- =============================================
+IF OBJECT_ID(N'dbo.voucher_su_dung', N'U') IS NULL
+BEGIN
+    CREATE TABLE dbo.voucher_su_dung (
+        ma_don_hang INT NOT NULL,
+        ma_voucher INT NOT NULL,
+        ma_khach_hang INT NULL,
+        trang_thai NVARCHAR(20) NOT NULL CONSTRAINT DF_voucher_su_dung_trang_thai DEFAULT N'DA_DUNG',
+        ngay_tao DATETIME2 NOT NULL CONSTRAINT DF_voucher_su_dung_ngay_tao DEFAULT SYSDATETIME(),
+        ngay_hoan DATETIME2 NULL,
+        CONSTRAINT PK_voucher_su_dung PRIMARY KEY (ma_don_hang),
+        CONSTRAINT FK_voucher_su_dung_voucher FOREIGN KEY (ma_voucher)
+            REFERENCES dbo.voucher (ma_voucher)
+    );
+
+    -- Đối soát bộ đếm theo voucher
+    CREATE INDEX IX_voucher_su_dung_voucher ON dbo.voucher_su_dung (ma_voucher, trang_thai);
+END
+GO
+
+-- Ghi lượt dùng cho các đơn đã có voucher từ trước (đơn đã hủy coi như đã trả lượt)
+INSERT INTO dbo.voucher_su_dung (ma_don_hang, ma_voucher, ma_khach_hang, trang_thai, ngay_tao, ngay_hoan)
+SELECT d.ma_don_hang, d.ma_voucher, d.ma_khach_hang,
+       CASE WHEN d.trang_thai_don_hang = N'DA_HUY' THEN N'DA_HOAN' ELSE N'DA_DUNG' END,
+       ISNULL(d.ngay_dat_hang, SYSDATETIME()),
+       CASE WHEN d.trang_thai_don_hang = N'DA_HUY' THEN SYSDATETIME() END
+FROM dbo.don_hang d
+WHERE d.ma_voucher IS NOT NULL
+  AND NOT EXISTS (SELECT 1 FROM dbo.voucher_su_dung s WHERE s.ma_don_hang = d.ma_don_hang);
+GO
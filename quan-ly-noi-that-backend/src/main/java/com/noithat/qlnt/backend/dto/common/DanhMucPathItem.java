@@ -0,0 +1,6 @@
+package com.noithat.qlnt.backend.dto.common;
+
+/**
+ * Một nút trên đường dẫn (breadcrumb) từ danh mục gốc xuống danh mục hiện tại.
+ */
+public record DanhMucPathItem(Integer maDanhMuc, String tenDanhMuc) {}
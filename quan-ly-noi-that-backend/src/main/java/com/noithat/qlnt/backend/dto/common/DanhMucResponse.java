@@ -14,5 +14,6 @@ public record DanhMucResponse(
     Integer maDanhMucCha,      // Alias for parentId (frontend compatibility)
     String tenDanhMucCha,      // Parent category name
     List<Integer> childrenIds, 
-    Long soLuongSanPham
+    Long soLuongSanPham,
+    Long tongSoLuongSanPham    // Kể cả sản phẩm của danh mục con cháu
 ) {}
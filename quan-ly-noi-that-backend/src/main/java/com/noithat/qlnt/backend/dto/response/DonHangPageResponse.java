@@ -0,0 +1,20 @@
+package com.noithat.qlnt.backend.dto.response;
+
+import lombok.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class DonHangPageResponse {
+    @Builder.Default
+    private List<DonHangResponse> items = new ArrayList<>();
+    private int size;
+    // Phân trang keyset: truyền nextCursor vào tham số cursor để lấy trang sau
+    private boolean hasNext;
+    private String nextCursor;
+}
@@ -0,0 +1,24 @@
+package com.noithat.qlnt.backend.dto.response;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * Kết quả so sánh sản phẩm dạng cột: phần tử thứ i của mọi mảng (kể cả
+ * values của từng thuộc tính) ứng với sản phẩm productIds[i], theo thứ tự yêu
+ * cầu. Giá trị thuộc tính null nghĩa là sản phẩm không có thuộc tính đó; nhiều
+ * giá trị (từ các biến thể) được nối bằng ", ".
+ */
+public record ProductCompareMatrixResponse(
+        int[] productIds,
+        String[] productNames,
+        BigDecimal[] giaMin,
+        BigDecimal[] giaMax,
+        long[] tonKho,
+        long[] totalNhap,
+        long[] totalXuat,
+        List<AttributeRow> attributes) {
+
+    public record AttributeRow(Integer maThuocTinh, String tenThuocTinh, String[] values) {
+    }
+}
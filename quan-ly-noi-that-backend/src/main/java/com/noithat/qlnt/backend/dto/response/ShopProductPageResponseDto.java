@@ -17,4 +17,7 @@ public class ShopProductPageResponseDto {
     private int size;
     private long totalItems;
     private int totalPages;
+    // Phân trang keyset: truyền nextCursor vào tham số cursor để lấy trang sau
+    private boolean hasNext;
+    private String nextCursor;
 }
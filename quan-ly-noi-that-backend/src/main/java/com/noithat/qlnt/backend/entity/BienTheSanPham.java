@@ -1,6 +1,8 @@
 package com.noithat.qlnt.backend.entity;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.noithat.qlnt.backend.service.cache.CatalogCacheEntityListener;
+
 import jakarta.persistence.*;
 import lombok.*;
 import java.math.BigDecimal;
@@ -8,13 +10,35 @@ import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
 
+// Fetch plan theo use case (dùng qua @EntityGraph trong BienTheSanPhamRepository); mặc định mọi quan hệ đều LAZY.
+// - listing: sản phẩm cha + giá trị thuộc tính (chỉ giaTri) cho danh sách/tìm kiếm biến thể
+// - detail: thêm ThuocTinh của từng giá trị, cho các API trả về biến thể kèm tên thuộc tính
+// - inventory: sản phẩm cha, cho các màn hình tồn kho
+// - checkout: chỉ các cột giá/tồn của biến thể
+@NamedEntityGraph(name = BienTheSanPham.GRAPH_LISTING, attributeNodes = {
+        @NamedAttributeNode("sanPham"),
+        @NamedAttributeNode("bienTheThuocTinhs") })
+@NamedEntityGraph(name = BienTheSanPham.GRAPH_DETAIL, attributeNodes = {
+        @NamedAttributeNode("sanPham"),
+        @NamedAttributeNode(value = "bienTheThuocTinhs", subgraph = "thuocTinh") },
+        subgraphs = @NamedSubgraph(name = "thuocTinh", attributeNodes = @NamedAttributeNode("thuocTinh")))
+@NamedEntityGraph(name = BienTheSanPham.GRAPH_INVENTORY, attributeNodes = @NamedAttributeNode("sanPham"))
+@NamedEntityGraph(name = BienTheSanPham.GRAPH_CHECKOUT)
 @Entity
+// Chỉ ghi các cột thực sự đổi: lưu biến thể (giá, SKU...) không ghi đè tồn kho do StockMutationEngine cập nhật song song
+@org.hibernate.annotations.DynamicUpdate
+@EntityListeners(CatalogCacheEntityListener.class)
 @Table(name = "BienTheSanPham")
 @Getter
 @Setter
 @NoArgsConstructor
 @AllArgsConstructor
 public class BienTheSanPham {
+    public static final String GRAPH_LISTING = "BienTheSanPham.listing";
+    public static final String GRAPH_DETAIL = "BienTheSanPham.detail";
+    public static final String GRAPH_INVENTORY = "BienTheSanPham.inventory";
+    public static final String GRAPH_CHECKOUT = "BienTheSanPham.checkout";
+
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Integer maBienThe;
@@ -35,6 +59,10 @@ public class BienTheSanPham {
     @Column(name = "SoLuongTon", nullable = true)
     private Integer soLuongTon = 0;
 
+    // Số lượng đang giữ cho các đơn chưa xác nhận (xem StockReservationService); có thể bán = soLuongTon - soLuongDatTruoc
+    @Column(name = "SoLuongDatTruoc", nullable = false)
+    private Integer soLuongDatTruoc = 0;
+
     @Column(name = "MucTonToiThieu", nullable = true)
     private Integer mucTonToiThieu = 0;
 
@@ -45,13 +73,16 @@ public class BienTheSanPham {
     private String trangThaiKho = "INACTIVE"; // ACTIVE, LOW_STOCK, OUT_OF_STOCK, DISCONTINUED, INACTIVE
 
     // Relationship với thuộc tính (lưu giá trị trực tiếp trong join)
-    @OneToMany(mappedBy = "bienTheSanPham", fetch = FetchType.EAGER, cascade = CascadeType.ALL, orphanRemoval = true)
+    @OneToMany(mappedBy = "bienTheSanPham", fetch = FetchType.LAZY, cascade = CascadeType.ALL, orphanRemoval = true)
     @JsonIgnoreProperties("bienTheSanPham")
     private List<BienTheThuocTinh> bienTheThuocTinhs = new ArrayList<>();
 
-    // Helper method để lấy danh sách giá trị thuộc tính (giaTri) cho frontend
+    // Helper method để lấy danh sách giá trị thuộc tính (giaTri) cho frontend.
+    // Chưa nạp (fetch plan không gồm thuộc tính) thì trả rỗng, để khi serialize JSON
+    // không phát sinh một truy vấn cho mỗi biến thể.
     public List<String> getGiaTriThuocTinhs() {
-        if (bienTheThuocTinhs == null) return new java.util.ArrayList<>();
+        if (bienTheThuocTinhs == null || !org.hibernate.Hibernate.isInitialized(bienTheThuocTinhs))
+            return new java.util.ArrayList<>();
         return bienTheThuocTinhs.stream()
                 .map(bt -> bt.getGiaTri())
                 .toList();
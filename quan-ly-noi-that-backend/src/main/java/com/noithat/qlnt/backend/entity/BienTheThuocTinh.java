@@ -23,7 +23,7 @@ public class BienTheThuocTinh implements Serializable {
     @JsonIgnoreProperties({"bienTheThuocTinhs", "sanPham"})
     private BienTheSanPham bienTheSanPham;
 
-    @ManyToOne(fetch = FetchType.EAGER)
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "MaThuocTinh", nullable = false)
     @JsonIgnoreProperties({"-"})
     private ThuocTinh thuocTinh;
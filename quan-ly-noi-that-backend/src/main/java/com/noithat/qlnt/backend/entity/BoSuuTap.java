@@ -5,10 +5,13 @@ import java.util.ArrayList;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 
+import com.noithat.qlnt.backend.service.cache.CatalogCacheEntityListener;
+
 import jakarta.persistence.*;
 import lombok.*;
 
 @Entity
+@EntityListeners(CatalogCacheEntityListener.class)
 @Table(name = "BoSuuTap")
 @Getter
 @Setter
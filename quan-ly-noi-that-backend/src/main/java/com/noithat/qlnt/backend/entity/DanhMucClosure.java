@@ -0,0 +1,35 @@
+package com.noithat.qlnt.backend.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+import java.io.Serializable;
+
+/**
+ * Bảng closure của cây danh mục: mỗi cặp (tổ tiên, hậu duệ) một dòng, kể cả
+ * chính nó với độ sâu 0. Được DanhMucServiceImpl cập nhật cùng cột parent của
+ * DanhMuc, nhờ đó lấy cây con, đường dẫn (breadcrumb) hay đếm sản phẩm theo
+ * cây con chỉ cần một truy vấn theo chỉ mục.
+ */
+@Entity
+@Table(name = "danh_muc_closure")
+@Getter @Setter @NoArgsConstructor @AllArgsConstructor
+public class DanhMucClosure implements Serializable {
+
+    @EmbeddedId
+    private DanhMucClosureId id = new DanhMucClosureId();
+
+    // Số cạnh từ tổ tiên xuống hậu duệ (0 = chính nó, 1 = con trực tiếp)
+    @Column(name = "do_sau", nullable = false)
+    private Integer doSau;
+
+    // Lớp cho Khóa chính phức hợp
+    @Embeddable
+    @Getter @Setter @NoArgsConstructor @AllArgsConstructor @EqualsAndHashCode
+    public static class DanhMucClosureId implements Serializable {
+        @Column(name = "ma_to_tien")
+        private Integer maToTien;
+
+        @Column(name = "ma_hau_due")
+        private Integer maHauDue;
+    }
+}
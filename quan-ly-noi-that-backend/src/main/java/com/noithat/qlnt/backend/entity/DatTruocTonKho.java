@@ -0,0 +1,59 @@
+package com.noithat.qlnt.backend.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+import java.time.LocalDateTime;
+
+/**
+ * Một lần giữ hàng có thời hạn cho một biến thể trong một đơn (maThamChieu,
+ * vd. ORDER-12). Tổng các lần giữ đang hiệu lực được cộng sẵn vào
+ * BienTheSanPham.soLuongDatTruoc; trạng thái chỉ đổi bằng câu UPDATE có điều
+ * kiện trong DatTruocTonKhoRepository để xác nhận, hủy và quét hết hạn không
+ * xử lý trùng một lần giữ.
+ */
+@Entity
+@Table(name = "dat_truoc_ton_kho")
+@Getter @Setter @NoArgsConstructor @AllArgsConstructor
+public class DatTruocTonKho {
+
+    public static final String DANG_GIU = "DANG_GIU";
+    public static final String DA_BAN = "DA_BAN";
+    public static final String DA_TRA = "DA_TRA";
+    public static final String HET_HAN = "HET_HAN";
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "ma_dat_truoc")
+    private Integer maDatTruoc;
+
+    @Column(name = "ma_bien_the", nullable = false)
+    private Integer maBienThe;
+
+    @Column(name = "so_luong", nullable = false)
+    private Integer soLuong;
+
+    @Column(name = "ma_tham_chieu", nullable = false, columnDefinition = "NVARCHAR(100)")
+    private String maThamChieu;
+
+    @Column(name = "trang_thai", nullable = false, columnDefinition = "NVARCHAR(20)")
+    private String trangThai = DANG_GIU; // DANG_GIU, DA_BAN, DA_TRA, HET_HAN
+
+    // null: giữ cho đơn hàng, chỉ kết thúc khi đơn được xác nhận hoặc hủy
+    @Column(name = "het_han")
+    private LocalDateTime hetHan;
+
+    @Column(name = "ngay_tao", nullable = false)
+    private LocalDateTime ngayTao = LocalDateTime.now();
+
+    @Column(name = "ngay_cap_nhat")
+    private LocalDateTime ngayCapNhat;
+
+    public DatTruocTonKho(Integer maBienThe, Integer soLuong, String maThamChieu, LocalDateTime hetHan) {
+        this.maBienThe = maBienThe;
+        this.soLuong = soLuong;
+        this.maThamChieu = maThamChieu;
+        this.hetHan = hetHan;
+        this.trangThai = DANG_GIU;
+        this.ngayTao = LocalDateTime.now();
+    }
+}
@@ -0,0 +1,46 @@
+package com.noithat.qlnt.backend.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * Số đơn và tổng thành tiền theo trạng thái đơn hàng, cập nhật trong cùng
+ * transaction với mỗi lần tạo/đổi trạng thái/xóa đơn để dashboard đọc mà không
+ * phải đếm bảng DonHang. Mỗi trạng thái chia thành nhiều ngăn (theo mã đơn) để
+ * các đơn tạo đồng thời không cùng tranh một dòng; giá trị của trạng thái là
+ * tổng các ngăn. Chỉ ghi bằng câu lệnh cộng dồn trong
+ * DemDonHangTheoTrangThaiRepository, không lưu qua entity.
+ */
+@Entity
+@Table(name = "dem_don_hang_theo_trang_thai")
+@IdClass(DemDonHangTheoTrangThai.Khoa.class)
+@Getter @Setter @NoArgsConstructor
+public class DemDonHangTheoTrangThai {
+
+    @Id
+    @Column(name = "trang_thai", length = 50)
+    private String trangThai;
+
+    @Id
+    @Column(name = "ngan")
+    private Integer ngan;
+
+    @Column(name = "so_don", nullable = false)
+    private Long soDon = 0L;
+
+    @Column(name = "tong_thanh_tien", nullable = false, precision = 19, scale = 2)
+    private BigDecimal tongThanhTien = BigDecimal.ZERO;
+
+    @Column(name = "ngay_cap_nhat")
+    private LocalDateTime ngayCapNhat;
+
+    @Getter @Setter @NoArgsConstructor @AllArgsConstructor @EqualsAndHashCode
+    public static class Khoa implements Serializable {
+        private String trangThai;
+        private Integer ngan;
+    }
+}
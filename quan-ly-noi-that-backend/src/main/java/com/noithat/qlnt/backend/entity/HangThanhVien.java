@@ -3,10 +3,12 @@ package com.noithat.qlnt.backend.entity;
 import java.util.ArrayList;
 import java.util.List;
 
+import com.noithat.qlnt.backend.service.vip.VipCacheEntityListener;
 import jakarta.persistence.*;
 import lombok.*;
 
 @Entity
+@EntityListeners(VipCacheEntityListener.class)
 @Table(name = "hang_thanh_vien")
 @Getter
 @Setter
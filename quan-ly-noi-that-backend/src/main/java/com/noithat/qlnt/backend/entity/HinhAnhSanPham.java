@@ -1,5 +1,7 @@
 package com.noithat.qlnt.backend.entity;
 
+import com.noithat.qlnt.backend.service.cache.CatalogCacheEntityListener;
+
 import jakarta.persistence.*;
 import lombok.*;
 import java.time.LocalDateTime;
@@ -9,6 +11,7 @@ import java.time.LocalDateTime;
  * Quan hệ: N hình ảnh - 1 sản phẩm (Many-to-One)
  */
 @Entity
+@EntityListeners(CatalogCacheEntityListener.class)
 @Table(name = "HinhAnhSanPham")
 @Getter
 @Setter
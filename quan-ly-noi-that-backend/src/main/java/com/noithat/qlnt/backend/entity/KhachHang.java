@@ -7,6 +7,8 @@ import java.util.List;
 
 @Entity
 @Table(name = "KhachHang")
+// Chỉ ghi cột đã đổi: lưu entity (đổi hạng...) không ghi đè điểm/thống kê vừa được cộng dồn
+@org.hibernate.annotations.DynamicUpdate
 @Getter
 @Setter
 @NoArgsConstructor
@@ -0,0 +1,41 @@
+package com.noithat.qlnt.backend.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+import java.time.LocalDateTime;
+
+/**
+ * Khóa Idempotency-Key của một lần gửi đơn: đơn tạo thành công thì lưu kết quả
+ * (JSON) để lần gửi lại cùng khóa nhận đúng kết quả cũ thay vì tạo đơn mới.
+ * Chỉ ghi bằng các câu lệnh trong KhoaIdempotencyRepository.
+ */
+@Entity
+@Table(name = "khoa_idempotency")
+@Getter @Setter @NoArgsConstructor @AllArgsConstructor
+public class KhoaIdempotency {
+
+    public static final String DANG_XU_LY = "DANG_XU_LY";
+    public static final String HOAN_TAT = "HOAN_TAT";
+
+    // Phạm vi (endpoint) + ":" + giá trị header
+    @Id
+    @Column(name = "ma_khoa", length = 200)
+    private String maKhoa;
+
+    // SHA-256 của nội dung yêu cầu, dùng lại khóa với nội dung khác bị từ chối
+    @Column(name = "ma_hash_yeu_cau", nullable = false, length = 64)
+    private String maHashYeuCau;
+
+    @Column(name = "trang_thai", nullable = false, length = 20)
+    private String trangThai;
+
+    @Column(name = "ket_qua", columnDefinition = "NVARCHAR(MAX)")
+    private String ketQua;
+
+    @Column(name = "ngay_tao", nullable = false)
+    private LocalDateTime ngayTao;
+
+    // DANG_XU_LY: hết hạn giữ khóa (lần xử lý bị gián đoạn); HOAN_TAT: hết thời gian phát lại
+    @Column(name = "het_han", nullable = false)
+    private LocalDateTime hetHan;
+}
@@ -0,0 +1,78 @@
+package com.noithat.qlnt.backend.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+import java.time.LocalDateTime;
+
+/**
+ * Một sự kiện chờ xử lý bất đồng bộ (transactional outbox): được ghi trong
+ * cùng transaction với thay đổi nghiệp vụ, rồi OutboxDispatcher chạy lần lượt
+ * các bước xử lý. Các sự kiện của cùng một đối tượng (loaiDoiTuong, maDoiTuong)
+ * được xử lý đúng thứ tự ghi.
+ */
+@Entity
+@Table(name = "outbox_su_kien")
+@Getter @Setter @NoArgsConstructor
+public class OutboxSuKien {
+
+    public static final String MOI = "MOI";
+    public static final String DANG_XU_LY = "DANG_XU_LY";
+    // Lỗi, sẽ thử lại sau xuLyLuc
+    public static final String LOI = "LOI";
+    public static final String DA_XU_LY = "DA_XU_LY";
+    // Hết số lần thử, cần xem xét thủ công
+    public static final String THAT_BAI = "THAT_BAI";
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "ma_su_kien")
+    private Long maSuKien;
+
+    @Column(name = "loai_doi_tuong", nullable = false, length = 50)
+    private String loaiDoiTuong;
+
+    @Column(name = "ma_doi_tuong", nullable = false, length = 50)
+    private String maDoiTuong;
+
+    @Column(name = "loai_su_kien", nullable = false, length = 100)
+    private String loaiSuKien;
+
+    // JSON
+    @Column(name = "du_lieu", nullable = false, columnDefinition = "NVARCHAR(MAX)")
+    private String duLieu;
+
+    @Column(name = "trang_thai", nullable = false, length = 20)
+    private String trangThai = MOI;
+
+    // Số bước xử lý đã xong; lần thử lại bắt đầu từ bước tiếp theo
+    @Column(name = "so_buoc_xong", nullable = false)
+    private Integer soBuocXong = 0;
+
+    @Column(name = "so_lan_thu", nullable = false)
+    private Integer soLanThu = 0;
+
+    // MOI/LOI: thời điểm được xử lý; DANG_XU_LY: hết hạn quyền xử lý của worker đang giữ
+    @Column(name = "xu_ly_luc", nullable = false)
+    private LocalDateTime xuLyLuc;
+
+    @Column(name = "ma_lan_nhan", length = 36)
+    private String maLanNhan;
+
+    @Column(name = "loi_cuoi", length = 1000)
+    private String loiCuoi;
+
+    @Column(name = "ngay_tao", nullable = false)
+    private LocalDateTime ngayTao;
+
+    @Column(name = "ngay_xu_ly")
+    private LocalDateTime ngayXuLy;
+
+    public OutboxSuKien(String loaiDoiTuong, String maDoiTuong, String loaiSuKien, String duLieu) {
+        this.loaiDoiTuong = loaiDoiTuong;
+        this.maDoiTuong = maDoiTuong;
+        this.loaiSuKien = loaiSuKien;
+        this.duLieu = duLieu;
+        this.ngayTao = LocalDateTime.now();
+        this.xuLyLuc = this.ngayTao;
+    }
+}
@@ -1,11 +1,14 @@
 package com.noithat.qlnt.backend.entity;
 
+import com.noithat.qlnt.backend.service.cache.CatalogCacheEntityListener;
+
 import jakarta.persistence.*;
 import lombok.*;
 import java.util.ArrayList;
 import java.util.List;
 
 @Entity
+@EntityListeners(CatalogCacheEntityListener.class)
 @Table(name = "SanPham")
 @Getter @Setter @NoArgsConstructor @AllArgsConstructor
 public class SanPham {
@@ -0,0 +1,56 @@
+package com.noithat.qlnt.backend.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.io.Serializable;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * Ảnh chụp tồn kho theo ngày của từng biến thể: tồn đầu ngày, tổng nhập, tổng
+ * xuất, tổng điều chỉnh (kiểm kê, có dấu) và tồn cuối ngày. Chỉ có dòng cho ngày
+ * có biến động; được cộng dồn trong cùng transaction với mỗi dòng LichSuTonKho
+ * nên báo cáo tồn tại một ngày hay biến động trong một kỳ chỉ đọc số dòng theo
+ * ngày thay vì quét lịch sử. Luôn có tonDau + tongNhap - tongXuat +
+ * tongDieuChinh = tonCuoi. Chỉ ghi bằng câu lệnh trong TonKhoTheoNgayRepository,
+ * không lưu qua entity.
+ */
+@Entity
+@Table(name = "ton_kho_theo_ngay")
+@IdClass(TonKhoTheoNgay.Khoa.class)
+@Getter @Setter @NoArgsConstructor
+public class TonKhoTheoNgay {
+
+    @Id
+    @Column(name = "ma_bien_the")
+    private Integer maBienThe;
+
+    @Id
+    @Column(name = "ngay")
+    private LocalDate ngay;
+
+    @Column(name = "ton_dau", nullable = false)
+    private Integer tonDau = 0;
+
+    @Column(name = "tong_nhap", nullable = false)
+    private Long tongNhap = 0L;
+
+    @Column(name = "tong_xuat", nullable = false)
+    private Long tongXuat = 0L;
+
+    @Column(name = "tong_dieu_chinh", nullable = false)
+    private Long tongDieuChinh = 0L;
+
+    @Column(name = "ton_cuoi", nullable = false)
+    private Integer tonCuoi = 0;
+
+    @Column(name = "ngay_cap_nhat")
+    private LocalDateTime ngayCapNhat;
+
+    @Getter @Setter @NoArgsConstructor @AllArgsConstructor @EqualsAndHashCode
+    public static class Khoa implements Serializable {
+        private Integer maBienThe;
+        private LocalDate ngay;
+    }
+}
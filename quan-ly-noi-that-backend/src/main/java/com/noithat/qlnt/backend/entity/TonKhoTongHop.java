@@ -0,0 +1,30 @@
+package com.noithat.qlnt.backend.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+import java.time.LocalDateTime;
+
+/**
+ * Tổng nhập/xuất cộng dồn của từng biến thể, cập nhật cùng lúc với mỗi dòng
+ * LichSuTonKho (số dương -> nhập, số âm -> xuất) để báo cáo/so sánh không phải
+ * quét toàn bộ lịch sử. Chỉ ghi bằng câu lệnh cộng dồn trong
+ * TonKhoTongHopRepository, không lưu qua entity.
+ */
+@Entity
+@Table(name = "ton_kho_tong_hop")
+@Getter @Setter @NoArgsConstructor @AllArgsConstructor
+public class TonKhoTongHop {
+
+    @Id
+    @Column(name = "ma_bien_the")
+    private Integer maBienThe;
+
+    @Column(name = "tong_nhap", nullable = false)
+    private Long tongNhap = 0L;
+
+    @Column(name = "tong_xuat", nullable = false)
+    private Long tongXuat = 0L;
+
+    @Column(name = "ngay_cap_nhat")
+    private LocalDateTime ngayCapNhat;
+}
@@ -1,11 +1,13 @@
 package com.noithat.qlnt.backend.entity;
 
+import com.noithat.qlnt.backend.service.vip.VipCacheEntityListener;
 import jakarta.persistence.*;
 import lombok.*;
 
 import java.time.LocalDateTime;
 
 @Entity
+@EntityListeners(VipCacheEntityListener.class)
 @Table(name = "vip_benefit")
 @Data
 @NoArgsConstructor
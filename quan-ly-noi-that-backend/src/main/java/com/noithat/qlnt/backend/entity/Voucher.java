@@ -1,5 +1,6 @@
 package com.noithat.qlnt.backend.entity;
 
+import com.noithat.qlnt.backend.service.voucher.VoucherIndexEntityListener;
 import jakarta.persistence.*;
 import lombok.*;
 import java.math.BigDecimal;
@@ -7,6 +8,9 @@ import java.time.LocalDateTime;
 import java.util.Set;
 
 @Entity
+// Chỉ ghi các cột thực sự đổi: sửa voucher không ghi đè lượt đã dùng do VoucherRedemptionService tăng/giảm song song
+@org.hibernate.annotations.DynamicUpdate
+@EntityListeners(VoucherIndexEntityListener.class)
 @Table(name = "voucher")
 @Getter
 @Setter
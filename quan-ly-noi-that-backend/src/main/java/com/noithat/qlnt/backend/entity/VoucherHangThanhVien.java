@@ -1,10 +1,12 @@
 package com.noithat.qlnt.backend.entity;
 
+import com.noithat.qlnt.backend.service.voucher.VoucherIndexEntityListener;
 import jakarta.persistence.*;
 import lombok.*;
 import java.io.Serializable;
 
 @Entity
+@EntityListeners(VoucherIndexEntityListener.class)
 // Use snake_case to align with SpringPhysicalNamingStrategy so Hibernate can create/find the table
 @Table(name = "voucher_hang_thanh_vien")
 @Getter @Setter @NoArgsConstructor @AllArgsConstructor
@@ -0,0 +1,50 @@
+package com.noithat.qlnt.backend.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+import java.time.LocalDateTime;
+
+/**
+ * Một lượt dùng voucher của một đơn hàng. Được ghi cùng lúc với câu UPDATE có
+ * điều kiện tăng Voucher.soLuongDaSuDung, nên hủy đơn biết chắc đơn đã giữ một
+ * lượt và chỉ trả lượt đó một lần (DA_DUNG -> DA_HOAN trong
+ * VoucherSuDungRepository).
+ */
+@Entity
+@Table(name = "voucher_su_dung")
+@Getter @Setter @NoArgsConstructor @AllArgsConstructor
+public class VoucherSuDung {
+
+    public static final String DA_DUNG = "DA_DUNG";
+    public static final String DA_HOAN = "DA_HOAN";
+
+    // Mỗi đơn dùng tối đa một voucher
+    @Id
+    @Column(name = "ma_don_hang")
+    private Integer maDonHang;
+
+    @Column(name = "ma_voucher", nullable = false)
+    private Integer maVoucher;
+
+    @Column(name = "ma_khach_hang")
+    private Integer maKhachHang;
+
+    @Column(name = "trang_thai", nullable = false, columnDefinition = "NVARCHAR(20)")
+    private String trangThai = DA_DUNG; // DA_DUNG, DA_HOAN
+
+    @Column(name = "ngay_tao", nullable = false)
+    private LocalDateTime ngayTao = LocalDateTime.now();
+
+    @Column(name = "ngay_hoan")
+    private LocalDateTime ngayHoan;
+
+    public VoucherSuDung(Integer maDonHang, Integer maVoucher, Integer maKhachHang, String trangThai) {
+        this.maDonHang = maDonHang;
+        this.maVoucher = maVoucher;
+        this.maKhachHang = maKhachHang;
+        this.trangThai = trangThai;
+        this.ngayTao = LocalDateTime.now();
+        if (DA_HOAN.equals(trangThai))
+            this.ngayHoan = this.ngayTao;
+    }
+}
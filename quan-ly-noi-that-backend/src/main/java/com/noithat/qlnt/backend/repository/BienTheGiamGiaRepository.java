@@ -2,7 +2,10 @@ package com.noithat.qlnt.backend.repository;
 
 import com.noithat.qlnt.backend.entity.BienTheGiamGia;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import java.util.Collection;
 import java.util.List;
 
 @Repository
@@ -17,4 +20,39 @@ public interface BienTheGiamGiaRepository extends JpaRepository<BienTheGiamGia,
      * Tìm tất cả mapping theo chương trình giảm giá
      */
     List<BienTheGiamGia> findByChuongTrinhGiamGia_MaChuongTrinhGiamGia(Integer maChuongTrinh);
+
+    /**
+     * Giảm giá của mọi biến thể thuộc các sản phẩm cho trước:
+     * [maBienThe, giaSauGiam, ngayBatDau, ngayKetThuc], theo thứ tự biến thể rồi chương trình
+     */
+    @Query("SELECT g.id.maBienThe, g.giaSauGiam, c.ngayBatDau, c.ngayKetThuc FROM BienTheGiamGia g JOIN g.chuongTrinhGiamGia c "
+            + "WHERE g.bienTheSanPham.sanPham.maSanPham IN :productIds ORDER BY g.id.maBienThe, g.id.maChuongTrinhGiamGia")
+    List<Object[]> findDiscountRowsBySanPhamIdIn(@Param("productIds") Collection<Integer> productIds);
+
+    /**
+     * Mapping giảm giá (kèm chương trình) của mọi biến thể thuộc một sản phẩm, theo thứ tự biến thể rồi chương trình
+     */
+    @Query("SELECT g FROM BienTheGiamGia g JOIN FETCH g.chuongTrinhGiamGia c "
+            + "WHERE g.bienTheSanPham.sanPham.maSanPham = :maSanPham ORDER BY g.id.maBienThe, g.id.maChuongTrinhGiamGia")
+    List<BienTheGiamGia> findWithProgramBySanPhamId(@Param("maSanPham") Integer maSanPham);
+
+    /**
+     * Mapping giảm giá (kèm chương trình) của nhiều biến thể, theo thứ tự biến thể rồi chương trình
+     */
+    @Query("SELECT g FROM BienTheGiamGia g JOIN FETCH g.chuongTrinhGiamGia c "
+            + "WHERE g.id.maBienThe IN :ids ORDER BY g.id.maBienThe, g.id.maChuongTrinhGiamGia")
+    List<BienTheGiamGia> findWithProgramByMaBienTheIn(@Param("ids") Collection<Integer> maBienThes);
+
+    /**
+     * Mã các sản phẩm có biến thể nằm trong chương trình giảm giá
+     */
+    @Query("SELECT DISTINCT g.bienTheSanPham.sanPham.maSanPham FROM BienTheGiamGia g WHERE g.id.maChuongTrinhGiamGia = :maChuongTrinh")
+    List<Integer> findProductIdsByChuongTrinh(@Param("maChuongTrinh") Integer maChuongTrinh);
+
+    /**
+     * Như findDiscountRowsBySanPhamIdIn nhưng theo mã biến thể
+     */
+    @Query("SELECT g.id.maBienThe, g.giaSauGiam, c.ngayBatDau, c.ngayKetThuc FROM BienTheGiamGia g JOIN g.chuongTrinhGiamGia c "
+            + "WHERE g.id.maBienThe IN :ids ORDER BY g.id.maBienThe, g.id.maChuongTrinhGiamGia")
+    List<Object[]> findDiscountRowsByMaBienTheIn(@Param("ids") Collection<Integer> maBienThes);
 }
@@ -1,6 +1,7 @@
 package com.noithat.qlnt.backend.repository;
 
 import com.noithat.qlnt.backend.entity.BienTheSanPham;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
@@ -11,27 +12,62 @@ import java.util.Optional;
 
 @Repository
 public interface BienTheSanPhamRepository extends JpaRepository<BienTheSanPham, Integer> {
+    @EntityGraph(BienTheSanPham.GRAPH_DETAIL)
     List<BienTheSanPham> findBySanPham_MaSanPham(Integer maSanPham);
 
     // Fetch variants with their attribute join-table eagerly to avoid N+1 and ensure attributes are available
-    @Query("SELECT DISTINCT b FROM BienTheSanPham b LEFT JOIN FETCH b.bienTheThuocTinhs bt LEFT JOIN FETCH bt.thuocTinh WHERE b.sanPham.maSanPham = :maSanPham")
+    @EntityGraph(BienTheSanPham.GRAPH_DETAIL)
+    @Query("SELECT b FROM BienTheSanPham b WHERE b.sanPham.maSanPham = :maSanPham")
     List<BienTheSanPham> findBySanPham_MaSanPhamWithAttributes(@Param("maSanPham") Integer maSanPham);
 
+    // Các API trả thẳng entity biến thể (kèm thuộc tính và tên thuộc tính)
+    @EntityGraph(BienTheSanPham.GRAPH_DETAIL)
+    @Query("SELECT b FROM BienTheSanPham b")
+    List<BienTheSanPham> findAllDetailed();
+
+    @EntityGraph(BienTheSanPham.GRAPH_DETAIL)
+    Optional<BienTheSanPham> findDetailByMaBienThe(Integer maBienThe);
+
+    // Danh sách/tìm kiếm biến thể: sản phẩm cha + giá trị thuộc tính
+    @EntityGraph(BienTheSanPham.GRAPH_LISTING)
+    List<BienTheSanPham> findListingByMaBienTheIn(java.util.Collection<Integer> maBienThes);
+
+    // Đặt hàng/thanh toán: chỉ cần giá và tồn của biến thể
+    @EntityGraph(BienTheSanPham.GRAPH_CHECKOUT)
+    Optional<BienTheSanPham> findCheckoutByMaBienThe(Integer maBienThe);
+
+    @EntityGraph(BienTheSanPham.GRAPH_CHECKOUT)
+    List<BienTheSanPham> findCheckoutByMaBienTheIn(java.util.Collection<Integer> maBienThes);
+
     boolean existsBySku(String sku);
 
+    @EntityGraph(BienTheSanPham.GRAPH_DETAIL)
     Optional<BienTheSanPham> findBySku(String sku);
 
-    // Search variants by sku or where the parent product name contains the keyword (case-insensitive)
-    @Query("SELECT b FROM BienTheSanPham b WHERE LOWER(b.sku) LIKE LOWER(CONCAT('%', :q, '%')) OR LOWER(b.sanPham.tenSanPham) LIKE LOWER(CONCAT('%', :q, '%'))")
-    java.util.List<BienTheSanPham> searchBySkuOrProductName(@Param("q") String q);
-
     // ================= Custom queries used by inventory service =================
+    @EntityGraph(BienTheSanPham.GRAPH_INVENTORY)
     @Query("SELECT b FROM BienTheSanPham b WHERE b.soLuongTon <= b.mucTonToiThieu")
     java.util.List<BienTheSanPham> findLowStockProducts();
 
+    @EntityGraph(BienTheSanPham.GRAPH_INVENTORY)
     @Query("SELECT b FROM BienTheSanPham b WHERE b.soLuongTon <= 0")
     java.util.List<BienTheSanPham> findOutOfStockProducts();
 
+    @EntityGraph(BienTheSanPham.GRAPH_INVENTORY)
+    java.util.List<BienTheSanPham> findInventoryByMaBienTheIn(java.util.Collection<Integer> maBienThes);
+
+    // Biến thể sắp hết (tồn <= mức tối thiểu) hoặc hết hàng, cho LowStockIndex:
+    // [maBienThe, maSanPham, tenSanPham, sku, soLuongTon, mucTonToiThieu]
+    @Query("SELECT b.maBienThe, b.sanPham.maSanPham, b.sanPham.tenSanPham, b.sku, COALESCE(b.soLuongTon, 0), "
+            + "COALESCE(b.mucTonToiThieu, 0) FROM BienTheSanPham b "
+            + "WHERE COALESCE(b.soLuongTon, 0) <= COALESCE(b.mucTonToiThieu, 0) OR COALESCE(b.soLuongTon, 0) <= 0")
+    List<Object[]> findLowStockRows();
+
+    // Cùng cột như findLowStockRows cho các biến thể cho trước
+    @Query("SELECT b.maBienThe, b.sanPham.maSanPham, b.sanPham.tenSanPham, b.sku, COALESCE(b.soLuongTon, 0), "
+            + "COALESCE(b.mucTonToiThieu, 0) FROM BienTheSanPham b WHERE b.maBienThe IN :ids")
+    List<Object[]> findLowStockRowsByMaBienTheIn(@Param("ids") java.util.Collection<Integer> maBienThes);
+
     @Query("SELECT CASE WHEN b.soLuongTon >= :quantity THEN true ELSE false END FROM BienTheSanPham b WHERE b.maBienThe = :id")
     Boolean isAvailableForSale(@Param("id") Integer maBienThe, @Param("quantity") Integer quantity);
 
@@ -55,6 +91,88 @@ public interface BienTheSanPhamRepository extends JpaRepository<BienTheSanPham,
     @org.springframework.data.jpa.repository.Query("UPDATE BienTheSanPham b SET b.soLuongTon = b.soLuongTon - :qty WHERE b.maBienThe = :id AND b.soLuongTon >= :qty")
     int decrementStockIfAvailable(@org.springframework.data.repository.query.Param("id") Integer maBienThe, @org.springframework.data.repository.query.Param("qty") Integer qty);
 
+    // Cộng/trừ tồn kho bằng một câu UPDATE có điều kiện, cập nhật luôn trạng thái kho như
+    // BienTheSanPham.updateStock. Khi trừ không được đụng vào phần đang giữ cho đơn khác.
+    // Trả về 0 nếu không có biến thể hoặc không đủ hàng.
+    @org.springframework.data.jpa.repository.Modifying
+    @Query("UPDATE BienTheSanPham b SET b.soLuongTon = COALESCE(b.soLuongTon, 0) + :delta, b.ngayCapNhatKho = :now, "
+            + "b.trangThaiKho = CASE WHEN COALESCE(b.soLuongTon, 0) + :delta <= 0 THEN 'OUT_OF_STOCK' "
+            + "WHEN COALESCE(b.soLuongTon, 0) + :delta <= COALESCE(b.mucTonToiThieu, 0) THEN 'LOW_STOCK' ELSE 'ACTIVE' END "
+            + "WHERE b.maBienThe = :id AND (:delta >= 0 OR COALESCE(b.soLuongTon, 0) + :delta >= b.soLuongDatTruoc)")
+    int applyStockDelta(@Param("id") Integer maBienThe, @Param("delta") int delta,
+            @Param("now") java.time.LocalDateTime now);
+
+    // Bán phần đã giữ: trừ đồng thời tồn kho và số đang giữ
+    @org.springframework.data.jpa.repository.Modifying
+    @Query("UPDATE BienTheSanPham b SET b.soLuongTon = COALESCE(b.soLuongTon, 0) - :qty, "
+            + "b.soLuongDatTruoc = b.soLuongDatTruoc - :qty, b.ngayCapNhatKho = :now, "
+            + "b.trangThaiKho = CASE WHEN COALESCE(b.soLuongTon, 0) - :qty <= 0 THEN 'OUT_OF_STOCK' "
+            + "WHEN COALESCE(b.soLuongTon, 0) - :qty <= COALESCE(b.mucTonToiThieu, 0) THEN 'LOW_STOCK' ELSE 'ACTIVE' END "
+            + "WHERE b.maBienThe = :id AND b.soLuongDatTruoc >= :qty AND COALESCE(b.soLuongTon, 0) >= :qty")
+    int consumeReserved(@Param("id") Integer maBienThe, @Param("qty") int qty,
+            @Param("now") java.time.LocalDateTime now);
+
+    // Giữ hàng nếu phần chưa bị giữ còn đủ
+    @org.springframework.data.jpa.repository.Modifying
+    @Query("UPDATE BienTheSanPham b SET b.soLuongDatTruoc = b.soLuongDatTruoc + :qty "
+            + "WHERE b.maBienThe = :id AND COALESCE(b.soLuongTon, 0) - b.soLuongDatTruoc >= :qty")
+    int reserveStock(@Param("id") Integer maBienThe, @Param("qty") int qty);
+
+    @org.springframework.data.jpa.repository.Modifying
+    @Query("UPDATE BienTheSanPham b SET b.soLuongDatTruoc = CASE WHEN b.soLuongDatTruoc > :qty "
+            + "THEN b.soLuongDatTruoc - :qty ELSE 0 END WHERE b.maBienThe = :id")
+    int releaseReserved(@Param("id") Integer maBienThe, @Param("qty") int qty);
+
+    // Khóa ghi các dòng biến thể tới hết transaction (câu UPDATE không đổi giá trị) để kiểm tra
+    // nhiều dòng rồi mới trừ; một câu lệnh nên các dòng bị khóa theo cùng thứ tự
+    @org.springframework.data.jpa.repository.Modifying
+    @Query("UPDATE BienTheSanPham b SET b.soLuongDatTruoc = b.soLuongDatTruoc WHERE b.maBienThe IN :ids")
+    int lockStockRows(@Param("ids") java.util.Collection<Integer> maBienThes);
+
+    // Số có thể bán và sản phẩm cha: [soLuongTon - soLuongDatTruoc, maSanPham]
+    @Query("SELECT COALESCE(b.soLuongTon, 0) - b.soLuongDatTruoc, b.sanPham.maSanPham FROM BienTheSanPham b "
+            + "WHERE b.maBienThe = :id")
+    List<Object[]> findAvailableRow(@Param("id") Integer maBienThe);
+
+    // Giá và điểm thưởng cho tính tiền giỏ hàng: [maBienThe, maSanPham, giaBan, diemThuong của sản phẩm]
+    @Query("SELECT b.maBienThe, b.sanPham.maSanPham, b.giaBan, b.sanPham.diemThuong FROM BienTheSanPham b "
+            + "WHERE b.maBienThe IN :ids")
+    List<Object[]> findPricingRowsByMaBienTheIn(@Param("ids") java.util.Collection<Integer> maBienThes);
+
+    // Ghi đè tồn kho nếu giá trị hiện tại vẫn là giá trị đã đọc (compare-and-set) và không
+    // xuống dưới phần đang giữ; cập nhật trạng thái kho như applyStockDelta
+    @org.springframework.data.jpa.repository.Modifying
+    @Query("UPDATE BienTheSanPham b SET b.soLuongTon = :soLuongMoi, b.ngayCapNhatKho = :now, "
+            + "b.trangThaiKho = CASE WHEN :soLuongMoi <= 0 THEN 'OUT_OF_STOCK' "
+            + "WHEN :soLuongMoi <= COALESCE(b.mucTonToiThieu, 0) THEN 'LOW_STOCK' ELSE 'ACTIVE' END "
+            + "WHERE b.maBienThe = :id AND COALESCE(b.soLuongTon, 0) = :soLuongCu AND b.soLuongDatTruoc <= :soLuongMoi")
+    int compareAndSetStock(@Param("id") Integer maBienThe, @Param("soLuongCu") int soLuongCu,
+            @Param("soLuongMoi") int soLuongMoi, @Param("now") java.time.LocalDateTime now);
+
+    // Tồn hiện tại của biến thể: [soLuongTon, maSanPham, trangThaiKho, ngayCapNhatKho, mucTonToiThieu,
+    // soLuongDatTruoc]
+    @Query("SELECT COALESCE(b.soLuongTon, 0), b.sanPham.maSanPham, b.trangThaiKho, b.ngayCapNhatKho, "
+            + "COALESCE(b.mucTonToiThieu, 0), b.soLuongDatTruoc FROM BienTheSanPham b WHERE b.maBienThe = :id")
+    List<Object[]> findStockRow(@Param("id") Integer maBienThe);
+
+    // Tồn hiện tại của nhiều biến thể: [maBienThe, soLuongTon, maSanPham, trangThaiKho, ngayCapNhatKho, mucTonToiThieu]
+    @Query("SELECT b.maBienThe, COALESCE(b.soLuongTon, 0), b.sanPham.maSanPham, b.trangThaiKho, b.ngayCapNhatKho, "
+            + "COALESCE(b.mucTonToiThieu, 0) FROM BienTheSanPham b WHERE b.maBienThe IN :ids")
+    List<Object[]> findStockRowsByMaBienTheIn(@Param("ids") java.util.Collection<Integer> maBienThes);
+
     // Lấy tất cả biến thể theo danh sách mã sản phẩm
     List<BienTheSanPham> findAllBySanPham_MaSanPhamIn(List<Integer> productIds);
+
+    // Giá min/max và tổng tồn theo sản phẩm: [maSanPham, minGiaBan, maxGiaBan, tongTon]
+    @Query("SELECT b.sanPham.maSanPham, MIN(b.giaBan), MAX(b.giaBan), SUM(b.soLuongTon) FROM BienTheSanPham b "
+            + "WHERE b.sanPham.maSanPham IN :productIds GROUP BY b.sanPham.maSanPham")
+    List<Object[]> findCompareStatsBySanPhamIdIn(@Param("productIds") java.util.Collection<Integer> productIds);
+
+    // Dòng gọn cho trang shop: [maSanPham, maBienThe, sku, giaBan, soLuongTon]
+    @Query("SELECT b.sanPham.maSanPham, b.maBienThe, b.sku, b.giaBan, b.soLuongTon FROM BienTheSanPham b WHERE b.sanPham.maSanPham IN :productIds ORDER BY b.maBienThe")
+    List<Object[]> findShopRowsBySanPhamIdIn(@Param("productIds") java.util.Collection<Integer> productIds);
+
+    // Mã sản phẩm cha của các biến thể
+    @Query("SELECT DISTINCT b.sanPham.maSanPham FROM BienTheSanPham b WHERE b.maBienThe IN :ids")
+    List<Integer> findProductIdsByMaBienTheIn(@Param("ids") java.util.Collection<Integer> maBienThes);
 }
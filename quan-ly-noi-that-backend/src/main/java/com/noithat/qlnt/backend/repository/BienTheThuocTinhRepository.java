@@ -1,17 +1,33 @@
 package com.noithat.qlnt.backend.repository;
 
 import com.noithat.qlnt.backend.entity.BienTheThuocTinh;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 
 @Repository
 public interface BienTheThuocTinhRepository extends JpaRepository<BienTheThuocTinh, Integer> {
+    @EntityGraph(attributePaths = "thuocTinh")
     List<BienTheThuocTinh> findByBienTheSanPham_MaBienThe(Integer maBienThe);
     void deleteByBienTheSanPham_MaBienThe(Integer maBienThe);
 
     // Distinct value helpers
     List<BienTheThuocTinh> findByThuocTinh_MaThuocTinh(Integer maThuocTinh);
     List<BienTheThuocTinh> findByThuocTinh_MaThuocTinhAndBienTheSanPham_SanPham_MaSanPham(Integer maThuocTinh, Integer maSanPham);
+
+    // Giá trị thuộc tính theo lô sản phẩm cho chỉ mục tìm kiếm: [maSanPham, maBienThe, giaTri]
+    @Query("SELECT bt.sanPham.maSanPham, bt.maBienThe, b.giaTri FROM BienTheThuocTinh b JOIN b.bienTheSanPham bt "
+            + "WHERE bt.sanPham.maSanPham IN :ids AND b.giaTri IS NOT NULL")
+    List<Object[]> findSearchRowsBySanPhamIdIn(@Param("ids") Collection<Integer> ids);
+
+    // Ma trận so sánh: [maSanPham, maThuocTinh, tenThuocTinh, giaTri], theo thứ tự thuộc tính
+    @Query("SELECT bt.sanPham.maSanPham, t.maThuocTinh, t.tenThuocTinh, b.giaTri FROM BienTheThuocTinh b "
+            + "JOIN b.bienTheSanPham bt JOIN b.thuocTinh t "
+            + "WHERE bt.sanPham.maSanPham IN :ids AND b.giaTri IS NOT NULL ORDER BY t.maThuocTinh, bt.maBienThe")
+    List<Object[]> findCompareRowsBySanPhamIdIn(@Param("ids") Collection<Integer> ids);
 }
@@ -1,6 +1,8 @@
 package com.noithat.qlnt.backend.repository;
 
 import com.noithat.qlnt.backend.entity.DanhGiaSanPham;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
@@ -16,5 +18,14 @@ public interface DanhGiaSanPhamRepository extends JpaRepository<DanhGiaSanPham,
     @Query("SELECT COUNT(d) FROM DanhGiaSanPham d WHERE d.sanPham.maSanPham = :pid")
     Long countByProductId(@Param("pid") Integer productId);
 
+    // Một trang đánh giá của sản phẩm, kèm khách hàng để không phải nạp lười từng dòng
+    @Query(value = "SELECT d FROM DanhGiaSanPham d LEFT JOIN FETCH d.khachHang WHERE d.sanPham.maSanPham = :pid",
+            countQuery = "SELECT COUNT(d) FROM DanhGiaSanPham d WHERE d.sanPham.maSanPham = :pid")
+    Page<DanhGiaSanPham> findPageBySanPhamIdWithKhachHang(@Param("pid") Integer productId, Pageable pageable);
+
     List<DanhGiaSanPham> findByKhachHang_MaKhachHangAndSanPham_MaSanPham(Integer maKhachHang, Integer maSanPham);
+
+    // Điểm trung bình và số lượt đánh giá của nhiều sản phẩm: [maSanPham, avg, count]
+    @Query("SELECT d.sanPham.maSanPham, AVG(d.diem), COUNT(d) FROM DanhGiaSanPham d WHERE d.sanPham.maSanPham IN :pids GROUP BY d.sanPham.maSanPham")
+    List<Object[]> findRatingSummaryByProductIdIn(@Param("pids") java.util.Collection<Integer> productIds);
 }
@@ -0,0 +1,76 @@
+package com.noithat.qlnt.backend.repository;
+
+import java.util.List;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import com.noithat.qlnt.backend.entity.DanhMuc;
+import com.noithat.qlnt.backend.entity.DanhMucClosure;
+
+@Repository
+public interface DanhMucClosureRepository
+        extends JpaRepository<DanhMucClosure, DanhMucClosure.DanhMucClosureId> {
+
+    // Mã của danh mục cùng toàn bộ con cháu
+    @Query("SELECT c.id.maHauDue FROM DanhMucClosure c WHERE c.id.maToTien = :id")
+    List<Integer> findSelfAndDescendantIds(@Param("id") Integer id);
+
+    // Danh mục ở đúng độ sâu bên dưới (1 = con trực tiếp)
+    @Query("SELECT d FROM DanhMucClosure c JOIN DanhMuc d ON d.maDanhMuc = c.id.maHauDue "
+            + "WHERE c.id.maToTien = :id AND c.doSau = :doSau")
+    List<DanhMuc> findDescendantsAtDepth(@Param("id") Integer id, @Param("doSau") Integer doSau);
+
+    // Đường dẫn từ gốc xuống danh mục: [maDanhMuc, tenDanhMuc]
+    @Query("SELECT d.maDanhMuc, d.tenDanhMuc FROM DanhMucClosure c JOIN DanhMuc d ON d.maDanhMuc = c.id.maToTien "
+            + "WHERE c.id.maHauDue = :id ORDER BY c.doSau DESC")
+    List<Object[]> findPathRows(@Param("id") Integer id);
+
+    @Query("SELECT COUNT(c) > 0 FROM DanhMucClosure c WHERE c.id.maToTien = :ancestorId AND c.id.maHauDue = :descendantId")
+    boolean isAncestor(@Param("ancestorId") Integer ancestorId, @Param("descendantId") Integer descendantId);
+
+    // Số sản phẩm trong cây con của một danh mục
+    @Query("SELECT COUNT(sp) FROM DanhMucClosure c JOIN SanPham sp ON sp.danhMuc.maDanhMuc = c.id.maHauDue "
+            + "WHERE c.id.maToTien = :id")
+    long countProductsInSubtree(@Param("id") Integer id);
+
+    // Số sản phẩm trong cây con của mọi danh mục: [maDanhMuc, soLuong]
+    @Query("SELECT c.id.maToTien, COUNT(sp) FROM DanhMucClosure c JOIN SanPham sp ON sp.danhMuc.maDanhMuc = c.id.maHauDue "
+            + "GROUP BY c.id.maToTien")
+    List<Object[]> countProductsBySubtree();
+
+    @Query("SELECT COUNT(c) FROM DanhMucClosure c WHERE c.doSau = 0")
+    long countSelfRows();
+
+    @Modifying
+    @Query(value = "INSERT INTO danh_muc_closure (ma_to_tien, ma_hau_due, do_sau) VALUES (:id, :id, 0)",
+            nativeQuery = true)
+    int insertSelf(@Param("id") Integer id);
+
+    // Nối cây con của childId vào dưới parentId: tích (tổ tiên của cha) x (cây con)
+    @Modifying
+    @Query(value = """
+            INSERT INTO danh_muc_closure (ma_to_tien, ma_hau_due, do_sau)
+            SELECT a.ma_to_tien, d.ma_hau_due, a.do_sau + d.do_sau + 1
+            FROM danh_muc_closure a CROSS JOIN danh_muc_closure d
+            WHERE a.ma_hau_due = :parentId AND d.ma_to_tien = :childId
+            """, nativeQuery = true)
+    int linkSubtree(@Param("childId") Integer childId, @Param("parentId") Integer parentId);
+
+    // Xóa các dòng nối tổ tiên (độ sâu >= tuDoSau so với id) với cây con của id.
+    // tuDoSau = 1: tách cây con khỏi cha; tuDoSau = 0: bỏ luôn id khỏi bảng.
+    @Modifying
+    @Query(value = """
+            DELETE FROM danh_muc_closure
+            WHERE ma_to_tien IN (SELECT ma_to_tien FROM danh_muc_closure WHERE ma_hau_due = :id AND do_sau >= :tuDoSau)
+              AND ma_hau_due IN (SELECT ma_hau_due FROM danh_muc_closure WHERE ma_to_tien = :id)
+            """, nativeQuery = true)
+    int deleteAncestorLinks(@Param("id") Integer id, @Param("tuDoSau") int tuDoSau);
+
+    @Modifying
+    @Query(value = "DELETE FROM danh_muc_closure", nativeQuery = true)
+    int deleteAllRows();
+}
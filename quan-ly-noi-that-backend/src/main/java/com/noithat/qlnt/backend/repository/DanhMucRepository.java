@@ -1,11 +1,16 @@
 package com.noithat.qlnt.backend.repository;
 
+import java.util.List;
+
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
 import com.noithat.qlnt.backend.entity.DanhMuc;
 
 @Repository
 public interface DanhMucRepository extends JpaRepository<DanhMuc, Integer> {
-    // Không cần các hàm tìm theo cha/con ở đây nữa
+    // Toàn bộ cạnh cha-con dạng [maDanhMuc, maDanhMucCha] (cha có thể null) để duyệt cây trong bộ nhớ
+    @Query("SELECT d.maDanhMuc, p.maDanhMuc FROM DanhMuc d LEFT JOIN d.parent p")
+    List<Object[]> findAllParentLinks();
 }
\ No newline at end of file
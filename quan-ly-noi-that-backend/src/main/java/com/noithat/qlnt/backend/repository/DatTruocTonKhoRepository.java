@@ -0,0 +1,45 @@
+package com.noithat.qlnt.backend.repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import com.noithat.qlnt.backend.entity.DatTruocTonKho;
+
+@Repository
+public interface DatTruocTonKhoRepository extends JpaRepository<DatTruocTonKho, Integer> {
+
+    Optional<DatTruocTonKho> findByMaBienTheAndMaThamChieu(Integer maBienThe, String maThamChieu);
+
+    boolean existsByMaThamChieu(String maThamChieu);
+
+    // Đổi trạng thái nếu lần giữ vẫn ở trạng thái cũ; trả 0 nếu đã bị xử lý ở nơi khác
+    @Modifying
+    @Query("UPDATE DatTruocTonKho d SET d.trangThai = :moi, d.ngayCapNhat = :now "
+            + "WHERE d.maDatTruoc = :id AND d.trangThai = :cu")
+    int chuyenTrangThai(@Param("id") Integer maDatTruoc, @Param("cu") String trangThaiCu,
+            @Param("moi") String trangThaiMoi, @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Query("UPDATE DatTruocTonKho d SET d.hetHan = :hetHan, d.ngayCapNhat = :now "
+            + "WHERE d.maDatTruoc = :id AND d.trangThai = 'DANG_GIU'")
+    int giaHan(@Param("id") Integer maDatTruoc, @Param("hetHan") LocalDateTime hetHan,
+            @Param("now") LocalDateTime now);
+
+    // Dùng lại bản ghi đã kết thúc của cùng biến thể + tham chiếu (khóa duy nhất)
+    @Modifying
+    @Query("UPDATE DatTruocTonKho d SET d.trangThai = :trangThai, d.soLuong = :soLuong, d.hetHan = :hetHan, "
+            + "d.ngayCapNhat = :now WHERE d.maDatTruoc = :id AND d.trangThai <> 'DANG_GIU'")
+    int datLai(@Param("id") Integer maDatTruoc, @Param("trangThai") String trangThai, @Param("soLuong") int soLuong,
+            @Param("hetHan") LocalDateTime hetHan, @Param("now") LocalDateTime now);
+
+    @Query("SELECT d FROM DatTruocTonKho d WHERE d.trangThai = 'DANG_GIU' AND d.hetHan < :now ORDER BY d.hetHan")
+    List<DatTruocTonKho> findExpired(@Param("now") LocalDateTime now, Pageable pageable);
+}
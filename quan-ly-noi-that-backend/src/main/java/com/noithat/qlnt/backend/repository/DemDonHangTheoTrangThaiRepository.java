@@ -0,0 +1,38 @@
+package com.noithat.qlnt.backend.repository;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import com.noithat.qlnt.backend.entity.DemDonHangTheoTrangThai;
+
+@Repository
+public interface DemDonHangTheoTrangThaiRepository
+        extends JpaRepository<DemDonHangTheoTrangThai, DemDonHangTheoTrangThai.Khoa> {
+
+    // Cộng dồn nguyên tử vào một ngăn (tạo dòng nếu chưa có)
+    @Modifying
+    @Query(value = """
+            MERGE dem_don_hang_theo_trang_thai WITH (HOLDLOCK) AS t
+            USING (SELECT :trangThai AS trang_thai, :ngan AS ngan) AS s
+                ON t.trang_thai = s.trang_thai AND t.ngan = s.ngan
+            WHEN MATCHED THEN
+                UPDATE SET so_don = t.so_don + :soDon, tong_thanh_tien = t.tong_thanh_tien + :thanhTien,
+                    ngay_cap_nhat = SYSDATETIME()
+            WHEN NOT MATCHED THEN
+                INSERT (trang_thai, ngan, so_don, tong_thanh_tien, ngay_cap_nhat)
+                VALUES (:trangThai, :ngan, :soDon, :thanhTien, SYSDATETIME());
+            """, nativeQuery = true)
+    int congDon(@Param("trangThai") String trangThai, @Param("ngan") int ngan, @Param("soDon") long soDon,
+            @Param("thanhTien") BigDecimal thanhTien);
+
+    // [trangThai, soDon, tongThanhTien] - tổng các ngăn
+    @Query("SELECT d.trangThai, SUM(d.soDon), SUM(d.tongThanhTien) FROM DemDonHangTheoTrangThai d "
+            + "GROUP BY d.trangThai")
+    List<Object[]> tongTheoTrangThai();
+}
@@ -1,18 +1,32 @@
 package com.noithat.qlnt.backend.repository;
 
 import com.noithat.qlnt.backend.entity.DonHang;
+import jakarta.persistence.QueryHint;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.stream.Stream;
 
 @Repository
 public interface DonHangRepository extends JpaRepository<DonHang, Integer> {
 
+    // Bộ lọc chung của lịch sử đơn hàng (OrderHistoryQuery); tham số null thì bỏ qua
+    String HISTORY_FILTER = "(:trangThai IS NULL OR d.trangThaiDonHang = :trangThai) "
+            + "AND (:trangThaiThanhToan IS NULL OR d.trangThaiThanhToan = :trangThaiThanhToan) "
+            + "AND (:maKhachHang IS NULL OR d.khachHang.maKhachHang = :maKhachHang) "
+            + "AND (:tuNgay IS NULL OR d.ngayDatHang >= :tuNgay) "
+            + "AND (:denNgay IS NULL OR d.ngayDatHang < :denNgay) "
+            + "AND (:tienTu IS NULL OR d.thanhTien >= :tienTu) "
+            + "AND (:tienDen IS NULL OR d.thanhTien <= :tienDen) ";
+
     // =================== CÁC TRUY VẤN THỐNG KÊ ===================
 
     // Đếm số đơn hàng theo trạng thái (sử dụng JPQL cho an toàn và nhất quán)
@@ -22,6 +36,11 @@ public interface DonHangRepository extends JpaRepository<DonHang, Integer> {
     @Query("SELECT COALESCE(SUM(d.thanhTien), 0) FROM DonHang d WHERE d.trangThaiDonHang = :trangThai")
     BigDecimal sumThanhTienByTrangThaiDonHang(@Param("trangThai") String trangThai);
 
+    // Số đơn và tổng thành tiền theo từng trạng thái trong một lần quét: [trangThai, soDon, tongThanhTien]
+    @Query("SELECT d.trangThaiDonHang, COUNT(d), COALESCE(SUM(d.thanhTien), 0) FROM DonHang d "
+            + "GROUP BY d.trangThaiDonHang")
+    List<Object[]> demTheoTrangThai();
+
     // Tính doanh thu trong ngày hôm nay
     @Query(value = """
             SELECT COALESCE(SUM(ThanhTien), 0)
@@ -41,6 +60,38 @@ public interface DonHangRepository extends JpaRepository<DonHang, Integer> {
     @Query("SELECT d FROM DonHang d WHERE d.trangThaiDonHang IN :trangThaiList ORDER BY d.ngayDatHang DESC")
     List<DonHang> findByTrangThaiDonHangIn(@Param("trangThaiList") List<String> trangThaiList);
     
+    // Một trang mã đơn theo keyset (ngayDatHang, maDonHang) giảm dần, sau vị trí cursor (null: trang đầu)
+    @Query("SELECT d.maDonHang FROM DonHang d WHERE " + HISTORY_FILTER
+            + "AND (:cursorNgay IS NULL OR d.ngayDatHang < :cursorNgay "
+            + "OR (d.ngayDatHang = :cursorNgay AND d.maDonHang < :cursorMa)) "
+            + "ORDER BY d.ngayDatHang DESC, d.maDonHang DESC")
+    List<Integer> findHistoryPage(@Param("trangThai") String trangThai,
+            @Param("trangThaiThanhToan") String trangThaiThanhToan, @Param("maKhachHang") Integer maKhachHang,
+            @Param("tuNgay") LocalDateTime tuNgay, @Param("denNgay") LocalDateTime denNgay,
+            @Param("tienTu") BigDecimal tienTu, @Param("tienDen") BigDecimal tienDen,
+            @Param("cursorNgay") LocalDateTime cursorNgay, @Param("cursorMa") Integer cursorMa, Pageable pageable);
+
+    // Nạp đủ dữ liệu hiển thị của một trang đơn trong một câu (khách hàng, voucher, chi tiết, biến thể, sản phẩm)
+    @Query("SELECT DISTINCT d FROM DonHang d LEFT JOIN FETCH d.khachHang LEFT JOIN FETCH d.voucher "
+            + "LEFT JOIN FETCH d.chiTietDonHangs ct LEFT JOIN FETCH ct.bienThe b LEFT JOIN FETCH b.sanPham "
+            + "WHERE d.maDonHang IN :ids")
+    List<DonHang> findForHistoryByMaDonHangIn(@Param("ids") Collection<Integer> ids);
+
+    // Xuất lịch sử đơn: chỉ các cột cần xuất (không nạp entity), đọc dần theo fetch size.
+    // [maDonHang, ngayDatHang, trangThaiDonHang, trangThaiThanhToan, phuongThucThanhToan, maKhachHang,
+    //  hoTen, soDienThoai, tenNguoiNhan, soDienThoaiNhan, diaChiGiaoHang, tongTienGoc, giamGiaVip,
+    //  giamGiaVoucher, giamGiaDiemThuong, phiGiaoHang, thanhTien, maVoucher]
+    @QueryHints(@QueryHint(name = org.hibernate.jpa.HibernateHints.HINT_FETCH_SIZE, value = "500"))
+    @Query("SELECT d.maDonHang, d.ngayDatHang, d.trangThaiDonHang, d.trangThaiThanhToan, d.phuongThucThanhToan, "
+            + "kh.maKhachHang, kh.hoTen, kh.soDienThoai, d.tenNguoiNhan, d.soDienThoaiNhan, d.diaChiGiaoHang, "
+            + "d.tongTienGoc, d.giamGiaVip, d.giamGiaVoucher, d.giamGiaDiemThuong, d.phiGiaoHang, d.thanhTien, "
+            + "v.maCode FROM DonHang d LEFT JOIN d.khachHang kh LEFT JOIN d.voucher v WHERE " + HISTORY_FILTER
+            + "ORDER BY d.ngayDatHang DESC, d.maDonHang DESC")
+    Stream<Object[]> streamForExport(@Param("trangThai") String trangThai,
+            @Param("trangThaiThanhToan") String trangThaiThanhToan, @Param("maKhachHang") Integer maKhachHang,
+            @Param("tuNgay") LocalDateTime tuNgay, @Param("denNgay") LocalDateTime denNgay,
+            @Param("tienTu") BigDecimal tienTu, @Param("tienDen") BigDecimal tienDen);
+
     // Tìm theo khách hàng
     @Query("SELECT d FROM DonHang d WHERE d.khachHang.maKhachHang = :maKhachHang ORDER BY d.ngayDatHang DESC")
     List<DonHang> findByKhachHang(@Param("maKhachHang") Integer maKhachHang);
@@ -42,4 +42,10 @@ public interface HinhAnhSanPhamRepository extends JpaRepository<HinhAnhSanPham,
      * Xóa tất cả hình ảnh của sản phẩm
      */
     void deleteBySanPhamMaSanPham(Integer maSanPham);
+
+    /**
+     * Lấy đường dẫn ảnh của nhiều sản phẩm trong một truy vấn: [maSanPham, duongDanHinhAnh]
+     */
+    @Query("SELECT h.sanPham.maSanPham, h.duongDanHinhAnh FROM HinhAnhSanPham h WHERE h.sanPham.maSanPham IN :productIds ORDER BY h.sanPham.maSanPham, h.thuTu ASC")
+    List<Object[]> findImageUrlsBySanPhamIdIn(@Param("productIds") java.util.Collection<Integer> productIds);
 }
@@ -32,4 +32,33 @@ public interface KhachHangRepository extends JpaRepository<KhachHang, Integer> {
     // Search functionality
     @Query("SELECT k FROM KhachHang k WHERE k.hoTen LIKE %:keyword% OR k.email LIKE %:keyword% OR k.soDienThoai LIKE %:keyword%")
     Page<KhachHang> findByKeyword(@Param("keyword") String keyword, Pageable pageable);
-}
\ No newline at end of file
+
+    // Cộng dồn bằng một câu UPDATE: các đơn của cùng khách hoàn thành song song (outbox
+    // chỉ tuần tự theo đơn) không ghi đè phần cộng của nhau
+    @org.springframework.data.jpa.repository.Modifying
+    @Query("UPDATE KhachHang k SET k.diemThuong = COALESCE(k.diemThuong, 0) + :diem WHERE k.maKhachHang = :id")
+    int congDiemThuong(@Param("id") Integer maKhachHang, @Param("diem") int diem);
+
+    @org.springframework.data.jpa.repository.Modifying
+    @Query("UPDATE KhachHang k SET k.tongDonHang = COALESCE(k.tongDonHang, 0) + 1, "
+            + "k.tongChiTieu = COALESCE(k.tongChiTieu, 0) + :thanhTien WHERE k.maKhachHang = :id")
+    int ghiNhanDonDaThanhToan(@Param("id") Integer maKhachHang,
+            @Param("thanhTien") java.math.BigDecimal thanhTien);
+
+    // Xếp hạng lại theo lô (VipRetierJob): [maKhachHang, diemThuong, maHangThanhVien], theo mã sau mốc after
+    @Query("SELECT k.maKhachHang, k.diemThuong, h.maHangThanhVien FROM KhachHang k LEFT JOIN k.hangThanhVien h "
+            + "WHERE k.maKhachHang > :after ORDER BY k.maKhachHang")
+    List<Object[]> findTierRowsAfter(@Param("after") Integer after, Pageable pageable);
+
+    // Chuyển các khách sang hạng nếu điểm hiện tại vẫn thuộc khoảng [tu, den) của hạng đó
+    @org.springframework.data.jpa.repository.Modifying
+    @Query("UPDATE KhachHang k SET k.hangThanhVien = :hang WHERE k.maKhachHang IN :ids "
+            + "AND k.diemThuong >= :tu AND k.diemThuong < :den")
+    int chuyenHang(@Param("ids") java.util.Collection<Integer> maKhachHangs,
+            @Param("hang") com.noithat.qlnt.backend.entity.HangThanhVien hang,
+            @Param("tu") int tuDiem, @Param("den") int denDiem);
+
+    @Query("SELECT k.maKhachHang FROM KhachHang k WHERE k.maKhachHang IN :ids AND k.hangThanhVien.maHangThanhVien = :maHang")
+    List<Integer> findMaKhachHangThuocHang(@Param("ids") java.util.Collection<Integer> maKhachHangs,
+            @Param("maHang") Integer maHangThanhVien);
+}
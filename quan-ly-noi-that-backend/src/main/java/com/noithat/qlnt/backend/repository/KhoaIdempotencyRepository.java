@@ -0,0 +1,60 @@
+package com.noithat.qlnt.backend.repository;
+
+import java.time.LocalDateTime;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.noithat.qlnt.backend.entity.KhoaIdempotency;
+
+@Repository
+public interface KhoaIdempotencyRepository extends JpaRepository<KhoaIdempotency, String> {
+
+    // Giành khóa: tạo mới, hoặc lấy lại khóa đã hết hạn. Trả về 0 nếu khóa đang được giữ /
+    // còn trong thời gian phát lại. HOLDLOCK tránh hai yêu cầu cùng chèn một khóa.
+    @Modifying
+    @Transactional
+    @Query(value = """
+            MERGE khoa_idempotency WITH (HOLDLOCK) AS t
+            USING (SELECT :maKhoa AS ma_khoa) AS s ON t.ma_khoa = s.ma_khoa
+            WHEN MATCHED AND t.het_han < :now THEN
+                UPDATE SET ma_hash_yeu_cau = :hash, trang_thai = 'DANG_XU_LY', ket_qua = NULL, ngay_tao = :now, het_han = :hetHan
+            WHEN NOT MATCHED THEN
+                INSERT (ma_khoa, ma_hash_yeu_cau, trang_thai, ngay_tao, het_han)
+                VALUES (:maKhoa, :hash, 'DANG_XU_LY', :now, :hetHan);
+            """, nativeQuery = true)
+    int giuKhoa(@Param("maKhoa") String maKhoa, @Param("hash") String maHashYeuCau,
+            @Param("now") LocalDateTime now, @Param("hetHan") LocalDateTime hetHan);
+
+    // Các câu dưới chỉ áp dụng cho lần giữ khóa của chính mình (ngay_tao do giuKhoa ghi):
+    // khóa đã bị yêu cầu khác lấy lại sau khi hết hạn thì trả về 0
+    @Modifying
+    @Query("UPDATE KhoaIdempotency k SET k.trangThai = 'HOAN_TAT', k.ketQua = :ketQua, k.hetHan = :hetHan "
+            + "WHERE k.maKhoa = :maKhoa AND k.trangThai = 'DANG_XU_LY' AND k.ngayTao = :ngayTao")
+    int hoanTat(@Param("maKhoa") String maKhoa, @Param("ngayTao") LocalDateTime ngayTao,
+            @Param("ketQua") String ketQua, @Param("hetHan") LocalDateTime hetHan);
+
+    // Gia hạn giữ khóa trong lúc yêu cầu vẫn đang xử lý
+    @Modifying
+    @Transactional
+    @Query("UPDATE KhoaIdempotency k SET k.hetHan = :hetHan "
+            + "WHERE k.maKhoa = :maKhoa AND k.trangThai = 'DANG_XU_LY' AND k.ngayTao = :ngayTao")
+    int giaHan(@Param("maKhoa") String maKhoa, @Param("ngayTao") LocalDateTime ngayTao,
+            @Param("hetHan") LocalDateTime hetHan);
+
+    // Trả khóa khi xử lý thất bại để client gửi lại được
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM KhoaIdempotency k WHERE k.maKhoa = :maKhoa AND k.trangThai = 'DANG_XU_LY' "
+            + "AND k.ngayTao = :ngayTao")
+    int traKhoa(@Param("maKhoa") String maKhoa, @Param("ngayTao") LocalDateTime ngayTao);
+
+    @Modifying
+    @Transactional
+    @Query(value = "DELETE TOP (:soLuong) FROM khoa_idempotency WHERE het_han < :now", nativeQuery = true)
+    int xoaHetHan(@Param("now") LocalDateTime now, @Param("soLuong") int soLuong);
+}
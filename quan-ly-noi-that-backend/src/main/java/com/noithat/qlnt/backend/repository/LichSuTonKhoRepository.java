@@ -3,9 +3,11 @@ package com.noithat.qlnt.backend.repository;
 
 import com.noithat.qlnt.backend.entity.LichSuTonKho;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
 import java.util.List;
@@ -30,6 +32,12 @@ public interface LichSuTonKhoRepository extends JpaRepository<LichSuTonKho, Inte
     @Query("SELECT l FROM LichSuTonKho l WHERE l.maThamChieu = :maThamChieu ORDER BY l.thoiGianThucHien DESC")
     List<LichSuTonKho> findByMaThamChieuOrderByThoiGianThucHienDesc(@Param("maThamChieu") String maThamChieu);
     
+    // Các biến thể đã có dòng lịch sử loại này cho mã tham chiếu (vd. đã nhập lại kho khi hủy đơn)
+    @Query("SELECT DISTINCT l.bienTheSanPham.maBienThe FROM LichSuTonKho l "
+            + "WHERE l.maThamChieu = :maThamChieu AND l.loaiGiaoDich = :loaiGiaoDich")
+    List<Integer> findMaBienTheByMaThamChieuAndLoaiGiaoDich(@Param("maThamChieu") String maThamChieu,
+            @Param("loaiGiaoDich") String loaiGiaoDich);
+
     // Tìm lịch sử theo người thực hiện
     @Query("SELECT l FROM LichSuTonKho l WHERE l.nguoiThucHien = :nguoiThucHien ORDER BY l.thoiGianThucHien DESC")
     List<LichSuTonKho> findByNguoiThucHienOrderByThoiGianThucHienDesc(@Param("nguoiThucHien") String nguoiThucHien);
@@ -68,4 +76,18 @@ public interface LichSuTonKhoRepository extends JpaRepository<LichSuTonKho, Inte
               @Query("SELECT l FROM LichSuTonKho l WHERE l.thoiGianThucHien BETWEEN :fromDate AND :toDate ORDER BY l.thoiGianThucHien DESC")
               List<LichSuTonKho> findAllBetweenOrderByThoiGianThucHienDesc(@Param("fromDate") LocalDateTime fromDate,
                                                                              @Param("toDate") LocalDateTime toDate);
-}
\ No newline at end of file
+
+    // Chuyển tối đa soLuong dòng cũ hơn mốc sang bảng lưu trữ trong một câu lệnh (xóa và ghi cùng lúc)
+    @Modifying
+    @Transactional
+    @Query(value = """
+            DELETE TOP (:soLuong) FROM lich_su_ton_kho
+            OUTPUT deleted.ma_lich_su, deleted.ma_bien_the, deleted.so_luong_truoc, deleted.so_luong_thay_doi,
+                deleted.so_luong_sau, deleted.loai_giao_dich, deleted.ma_tham_chieu, deleted.ly_do,
+                deleted.nguoi_thuc_hien, deleted.thoi_gian_thuc_hien
+            INTO lich_su_ton_kho_luu_tru (ma_lich_su, ma_bien_the, so_luong_truoc, so_luong_thay_doi,
+                so_luong_sau, loai_giao_dich, ma_tham_chieu, ly_do, nguoi_thuc_hien, thoi_gian_thuc_hien)
+            WHERE thoi_gian_thuc_hien < :moc
+            """, nativeQuery = true)
+    int chuyenSangLuuTru(@Param("moc") LocalDateTime moc, @Param("soLuong") int soLuong);
+}
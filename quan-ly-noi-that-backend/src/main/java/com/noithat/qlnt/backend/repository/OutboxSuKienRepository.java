@@ -0,0 +1,74 @@
+package com.noithat.qlnt.backend.repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.noithat.qlnt.backend.entity.OutboxSuKien;
+
+@Repository
+public interface OutboxSuKienRepository extends JpaRepository<OutboxSuKien, Long> {
+
+    // Sự kiện đến hạn và là sự kiện chưa xong đầu tiên của đối tượng (giữ thứ tự theo đối tượng).
+    // UPDLOCK + READPAST: hai dispatcher (hai instance) không nhận trùng; phải chạy trong transaction.
+    @Query(value = """
+            SELECT TOP (:soLuong) o.ma_su_kien FROM outbox_su_kien o WITH (UPDLOCK, READPAST, ROWLOCK)
+            WHERE o.trang_thai IN ('MOI', 'LOI', 'DANG_XU_LY') AND o.xu_ly_luc <= :now
+              AND NOT EXISTS (SELECT 1 FROM outbox_su_kien p
+                              WHERE p.loai_doi_tuong = o.loai_doi_tuong AND p.ma_doi_tuong = o.ma_doi_tuong
+                                AND p.ma_su_kien < o.ma_su_kien AND p.trang_thai IN ('MOI', 'LOI', 'DANG_XU_LY'))
+            ORDER BY o.ma_su_kien
+            """, nativeQuery = true)
+    List<Long> findClaimable(@Param("now") LocalDateTime now, @Param("soLuong") int soLuong);
+
+    // Đọc (không nhận) các sự kiện ghi từ thời điểm sau: [maSuKien, ngayTao, duLieu], dùng cho CatalogEventFeed
+    @Query(value = """
+            SELECT TOP (:soLuong) o.ma_su_kien, o.ngay_tao, o.du_lieu FROM outbox_su_kien o
+            WHERE o.ngay_tao >= :sau AND o.loai_su_kien IN (:loaiSuKiens)
+            ORDER BY o.ngay_tao, o.ma_su_kien
+            """, nativeQuery = true)
+    List<Object[]> findGhiTu(@Param("sau") LocalDateTime sau, @Param("loaiSuKiens") Collection<String> loaiSuKiens,
+            @Param("soLuong") int soLuong);
+
+    @Modifying
+    @Query("UPDATE OutboxSuKien o SET o.trangThai = 'DANG_XU_LY', o.maLanNhan = :maLanNhan, o.xuLyLuc = :hetHan, "
+            + "o.soLanThu = o.soLanThu + 1 WHERE o.maSuKien IN :ids")
+    int nhan(@Param("ids") Collection<Long> ids, @Param("maLanNhan") String maLanNhan,
+            @Param("hetHan") LocalDateTime hetHan);
+
+    // Ghi nhận xong một bước; 0 nếu worker đã mất quyền xử lý (quá hạn và bị nhận lại)
+    @Modifying
+    @Query("UPDATE OutboxSuKien o SET o.soBuocXong = :buoc + 1 "
+            + "WHERE o.maSuKien = :id AND o.maLanNhan = :maLanNhan AND o.soBuocXong = :buoc")
+    int xongBuoc(@Param("id") Long maSuKien, @Param("maLanNhan") String maLanNhan, @Param("buoc") int buoc);
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE OutboxSuKien o SET o.trangThai = 'DA_XU_LY', o.ngayXuLy = :now, o.loiCuoi = NULL "
+            + "WHERE o.maSuKien = :id AND o.maLanNhan = :maLanNhan")
+    int hoanTat(@Param("id") Long maSuKien, @Param("maLanNhan") String maLanNhan, @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE OutboxSuKien o SET o.trangThai = :trangThai, o.xuLyLuc = :thuLaiLuc, o.loiCuoi = :loi "
+            + "WHERE o.maSuKien = :id AND o.maLanNhan = :maLanNhan")
+    int loi(@Param("id") Long maSuKien, @Param("maLanNhan") String maLanNhan, @Param("trangThai") String trangThai,
+            @Param("thuLaiLuc") LocalDateTime thuLaiLuc, @Param("loi") String loi);
+
+    @Modifying
+    @Transactional
+    @Query(value = "DELETE TOP (:soLuong) FROM outbox_su_kien WHERE trang_thai = 'DA_XU_LY' AND ngay_xu_ly < :truoc",
+            nativeQuery = true)
+    int xoaDaXuLy(@Param("truoc") LocalDateTime truoc, @Param("soLuong") int soLuong);
+
+    // Số sự kiện theo trạng thái: [trangThai, count]
+    @Query("SELECT o.trangThai, COUNT(o) FROM OutboxSuKien o GROUP BY o.trangThai")
+    List<Object[]> countByTrangThai();
+}
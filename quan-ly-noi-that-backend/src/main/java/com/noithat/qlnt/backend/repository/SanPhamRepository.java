@@ -6,6 +6,7 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 
 @Repository
@@ -24,6 +25,22 @@ public interface SanPhamRepository extends JpaRepository<SanPham, Integer> {
     // Đếm số lượng sản phẩm trong một danh mục (không tính đệ quy)
     long countByDanhMuc_MaDanhMuc(Integer maDanhMuc);
 
+    // [maSanPham, tenSanPham] theo lô mã (so sánh sản phẩm)
+    @Query("SELECT s.maSanPham, s.tenSanPham FROM SanPham s WHERE s.maSanPham IN :ids")
+    List<Object[]> findNamesByIdIn(@Param("ids") Collection<Integer> ids);
+
+    // Số sản phẩm trực tiếp của từng danh mục: [maDanhMuc, soLuong]
+    @Query("SELECT sp.danhMuc.maDanhMuc, COUNT(sp) FROM SanPham sp WHERE sp.danhMuc IS NOT NULL GROUP BY sp.danhMuc.maDanhMuc")
+    List<Object[]> countGroupByDanhMuc();
+
     // Đếm số lượng sản phẩm trong một bộ sưu tập
     long countByBoSuuTap_MaBoSuuTap(Integer maBoSuuTap);
-}
\ No newline at end of file
+
+    // Lấy toàn bộ sản phẩm kèm danh mục, nhà cung cấp & bộ sưu tập trong một truy vấn (trang shop)
+    @Query("SELECT s FROM SanPham s LEFT JOIN FETCH s.danhMuc LEFT JOIN FETCH s.nhaCungCap LEFT JOIN FETCH s.boSuuTap ORDER BY s.maSanPham")
+    List<SanPham> findAllForShop();
+
+    // Lấy các sản phẩm theo danh sách mã, kèm danh mục, nhà cung cấp & bộ sưu tập
+    @Query("SELECT s FROM SanPham s LEFT JOIN FETCH s.danhMuc LEFT JOIN FETCH s.nhaCungCap LEFT JOIN FETCH s.boSuuTap WHERE s.maSanPham IN :ids")
+    List<SanPham> findAllForShopByIdIn(@Param("ids") Collection<Integer> ids);
+}
@@ -0,0 +1,104 @@
+package com.noithat.qlnt.backend.repository;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import com.noithat.qlnt.backend.entity.TonKhoTheoNgay;
+
+@Repository
+public interface TonKhoTheoNgayRepository extends JpaRepository<TonKhoTheoNgay, TonKhoTheoNgay.Khoa> {
+
+    String DIEU_CHINH = "DIEU_CHINH";
+
+    // Cộng dồn vào dòng của ngày hiện tại (tạo dòng nếu là biến động đầu tiên trong ngày).
+    // Dòng biến thể đang bị khóa bởi câu UPDATE tồn kho nên soLuongSau là tồn mới nhất.
+    @Modifying
+    @Query(value = """
+            MERGE ton_kho_theo_ngay WITH (HOLDLOCK) AS t
+            USING (SELECT :maBienThe AS ma_bien_the, CAST(SYSDATETIME() AS DATE) AS ngay) AS s
+                ON t.ma_bien_the = s.ma_bien_the AND t.ngay = s.ngay
+            WHEN MATCHED THEN
+                UPDATE SET tong_nhap = t.tong_nhap + :nhap, tong_xuat = t.tong_xuat + :xuat,
+                    tong_dieu_chinh = t.tong_dieu_chinh + :dieuChinh, ton_cuoi = :soLuongSau,
+                    ngay_cap_nhat = SYSDATETIME()
+            WHEN NOT MATCHED THEN
+                INSERT (ma_bien_the, ngay, ton_dau, tong_nhap, tong_xuat, tong_dieu_chinh, ton_cuoi, ngay_cap_nhat)
+                VALUES (s.ma_bien_the, s.ngay, :soLuongTruoc, :nhap, :xuat, :dieuChinh, :soLuongSau, SYSDATETIME());
+            """, nativeQuery = true)
+    int congDon(@Param("maBienThe") Integer maBienThe, @Param("soLuongTruoc") int soLuongTruoc,
+            @Param("nhap") long nhap, @Param("xuat") long xuat, @Param("dieuChinh") long dieuChinh,
+            @Param("soLuongSau") int soLuongSau);
+
+    /**
+     * Ghi nhận một thay đổi tồn kho vừa được lưu vào LichSuTonKho: DIEU_CHINH
+     * (kiểm kê) tính vào điều chỉnh, còn lại số dương là nhập, số âm là xuất.
+     */
+    default void ghiNhan(Integer maBienThe, int soLuongTruoc, int soLuongThayDoi, int soLuongSau,
+            String loaiGiaoDich) {
+        if (DIEU_CHINH.equals(loaiGiaoDich)) {
+            congDon(maBienThe, soLuongTruoc, 0, 0, soLuongThayDoi, soLuongSau);
+        } else if (soLuongThayDoi >= 0) {
+            congDon(maBienThe, soLuongTruoc, soLuongThayDoi, 0, 0, soLuongSau);
+        } else {
+            congDon(maBienThe, soLuongTruoc, 0, -(long) soLuongThayDoi, 0, soLuongSau);
+        }
+    }
+
+    /**
+     * Tồn cuối ngày của mọi biến thể (một lần tìm theo khóa cho mỗi biến thể):
+     * tồn cuối của ngày có biến động gần nhất không sau ngày cần xem; chưa có thì
+     * tồn đầu của lần biến động đầu tiên sau đó; chưa từng biến động thì tồn hiện tại.
+     * [maBienThe, maSanPham, tenSanPham, sku, tonCuoiNgay, ngayBienDongGanNhat]
+     */
+    @Query(value = """
+            SELECT b.ma_bien_the, b.ma_san_pham, sp.ten_san_pham, b.sku,
+                COALESCE(truoc.ton_cuoi, sau.ton_dau, COALESCE(b.so_luong_ton, 0)), truoc.ngay
+            FROM bien_the_san_pham b
+            JOIN san_pham sp ON sp.ma_san_pham = b.ma_san_pham
+            OUTER APPLY (SELECT TOP (1) t.ton_cuoi, t.ngay FROM ton_kho_theo_ngay t
+                         WHERE t.ma_bien_the = b.ma_bien_the AND t.ngay <= :ngay ORDER BY t.ngay DESC) truoc
+            OUTER APPLY (SELECT TOP (1) t.ton_dau FROM ton_kho_theo_ngay t
+                         WHERE t.ma_bien_the = b.ma_bien_the AND t.ngay > :ngay ORDER BY t.ngay) sau
+            WHERE (:maSanPham IS NULL OR b.ma_san_pham = :maSanPham)
+            ORDER BY b.ma_san_pham, b.ma_bien_the
+            """, nativeQuery = true)
+    List<Object[]> tonCuoiNgay(@Param("ngay") LocalDate ngay, @Param("maSanPham") Integer maSanPham);
+
+    /**
+     * Biến động trong kỳ [tuNgay, denNgay] của mọi biến thể: tồn đầu kỳ (tồn cuối
+     * ngày trước kỳ, cách tính như tonCuoiNgay) và tổng nhập/xuất/điều chỉnh trong
+     * kỳ; tồn cuối kỳ = tồn đầu + nhập - xuất + điều chỉnh.
+     * [maBienThe, maSanPham, tenSanPham, sku, tonDau, tongNhap, tongXuat, tongDieuChinh]
+     */
+    @Query(value = """
+            SELECT b.ma_bien_the, b.ma_san_pham, sp.ten_san_pham, b.sku,
+                COALESCE(truoc.ton_cuoi, dau_ky.ton_dau, COALESCE(b.so_luong_ton, 0)),
+                COALESCE(ky.tong_nhap, 0), COALESCE(ky.tong_xuat, 0), COALESCE(ky.tong_dieu_chinh, 0)
+            FROM bien_the_san_pham b
+            JOIN san_pham sp ON sp.ma_san_pham = b.ma_san_pham
+            OUTER APPLY (SELECT TOP (1) t.ton_cuoi FROM ton_kho_theo_ngay t
+                         WHERE t.ma_bien_the = b.ma_bien_the AND t.ngay < :tuNgay ORDER BY t.ngay DESC) truoc
+            OUTER APPLY (SELECT TOP (1) t.ton_dau FROM ton_kho_theo_ngay t
+                         WHERE t.ma_bien_the = b.ma_bien_the AND t.ngay >= :tuNgay ORDER BY t.ngay) dau_ky
+            OUTER APPLY (SELECT SUM(t.tong_nhap) AS tong_nhap, SUM(t.tong_xuat) AS tong_xuat,
+                                SUM(t.tong_dieu_chinh) AS tong_dieu_chinh
+                         FROM ton_kho_theo_ngay t
+                         WHERE t.ma_bien_the = b.ma_bien_the AND t.ngay BETWEEN :tuNgay AND :denNgay) ky
+            WHERE (:maSanPham IS NULL OR b.ma_san_pham = :maSanPham)
+            ORDER BY b.ma_san_pham, b.ma_bien_the
+            """, nativeQuery = true)
+    List<Object[]> bienDongTrongKy(@Param("tuNgay") LocalDate tuNgay, @Param("denNgay") LocalDate denNgay,
+            @Param("maSanPham") Integer maSanPham);
+
+    // Các ngày có biến động của một biến thể trong kỳ (ảnh chụp theo ngày, cũ -> mới)
+    @Query("SELECT t FROM TonKhoTheoNgay t WHERE t.maBienThe = :maBienThe "
+            + "AND t.ngay BETWEEN :tuNgay AND :denNgay ORDER BY t.ngay")
+    List<TonKhoTheoNgay> findTheoBienThe(@Param("maBienThe") Integer maBienThe,
+            @Param("tuNgay") LocalDate tuNgay, @Param("denNgay") LocalDate denNgay);
+}
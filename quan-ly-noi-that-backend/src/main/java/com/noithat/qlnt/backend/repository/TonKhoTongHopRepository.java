@@ -0,0 +1,45 @@
+package com.noithat.qlnt.backend.repository;
+
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import com.noithat.qlnt.backend.entity.TonKhoTongHop;
+
+@Repository
+public interface TonKhoTongHopRepository extends JpaRepository<TonKhoTongHop, Integer> {
+
+    // Cộng dồn nguyên tử (tạo dòng nếu chưa có); HOLDLOCK tránh hai giao dịch cùng chèn một biến thể
+    @Modifying
+    @Query(value = """
+            MERGE ton_kho_tong_hop WITH (HOLDLOCK) AS t
+            USING (SELECT :maBienThe AS ma_bien_the) AS s ON t.ma_bien_the = s.ma_bien_the
+            WHEN MATCHED THEN
+                UPDATE SET tong_nhap = t.tong_nhap + :nhap, tong_xuat = t.tong_xuat + :xuat, ngay_cap_nhat = SYSDATETIME()
+            WHEN NOT MATCHED THEN
+                INSERT (ma_bien_the, tong_nhap, tong_xuat, ngay_cap_nhat) VALUES (:maBienThe, :nhap, :xuat, SYSDATETIME());
+            """, nativeQuery = true)
+    int congDon(@Param("maBienThe") Integer maBienThe, @Param("nhap") long nhap, @Param("xuat") long xuat);
+
+    /**
+     * Ghi nhận một thay đổi tồn kho vừa được lưu vào LichSuTonKho.
+     */
+    default void ghiNhan(Integer maBienThe, int soLuongThayDoi) {
+        if (soLuongThayDoi > 0) {
+            congDon(maBienThe, soLuongThayDoi, 0);
+        } else if (soLuongThayDoi < 0) {
+            congDon(maBienThe, 0, -(long) soLuongThayDoi);
+        }
+    }
+
+    // Tổng nhập/xuất theo sản phẩm: [maSanPham, tongNhap, tongXuat]
+    @Query("SELECT b.sanPham.maSanPham, SUM(t.tongNhap), SUM(t.tongXuat) FROM TonKhoTongHop t "
+            + "JOIN BienTheSanPham b ON b.maBienThe = t.maBienThe "
+            + "WHERE b.sanPham.maSanPham IN :ids GROUP BY b.sanPham.maSanPham")
+    List<Object[]> sumBySanPhamIdIn(@Param("ids") Collection<Integer> ids);
+}
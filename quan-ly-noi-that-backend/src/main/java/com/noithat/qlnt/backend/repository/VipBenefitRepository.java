@@ -8,4 +8,6 @@ import java.util.List;
 
 public interface VipBenefitRepository extends JpaRepository<VipBenefit, Integer> {
     List<VipBenefit> findByHangThanhVien(HangThanhVien hangThanhVien);
+
+    List<VipBenefit> findByHangThanhVien_MaHangThanhVien(Integer maHangThanhVien);
 }
@@ -7,8 +7,23 @@ import java.util.Optional;
 public interface VoucherRepository extends JpaRepository<Voucher, Integer> {
     Optional<Voucher> findByMaCode(String maCode);
 
+    // Voucher kèm liên kết hạng (VoucherEligibilityIndex)
+    @org.springframework.data.jpa.repository.EntityGraph(attributePaths = { "hanCheHangThanhVien",
+            "hanCheHangThanhVien.hangThanhVien" })
+    @org.springframework.data.jpa.repository.Query("SELECT v FROM Voucher v")
+    java.util.List<Voucher> findAllWithHang();
+
+    @org.springframework.data.jpa.repository.EntityGraph(attributePaths = { "hanCheHangThanhVien",
+            "hanCheHangThanhVien.hangThanhVien" })
+    java.util.List<Voucher> findWithHangByMaVoucherIn(java.util.Collection<Integer> maVouchers);
+
     // Atomically increment usage count only if current used < max. Returns rows updated (0 if cannot increment).
     @org.springframework.data.jpa.repository.Modifying
     @org.springframework.data.jpa.repository.Query("UPDATE Voucher v SET v.soLuongDaSuDung = v.soLuongDaSuDung + 1 WHERE v.maVoucher = :id AND v.soLuongDaSuDung < v.soLuongToiDa")
     int incrementUsageIfAvailable(@org.springframework.data.repository.query.Param("id") Integer voucherId);
-}
\ No newline at end of file
+
+    // Trả một lượt (hủy đơn); không xuống dưới 0
+    @org.springframework.data.jpa.repository.Modifying
+    @org.springframework.data.jpa.repository.Query("UPDATE Voucher v SET v.soLuongDaSuDung = v.soLuongDaSuDung - 1 WHERE v.maVoucher = :id AND v.soLuongDaSuDung > 0")
+    int decrementUsageIfUsed(@org.springframework.data.repository.query.Param("id") Integer voucherId);
+}
@@ -0,0 +1,21 @@
+package com.noithat.qlnt.backend.repository;
+
+import java.time.LocalDateTime;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import com.noithat.qlnt.backend.entity.VoucherSuDung;
+
+@Repository
+public interface VoucherSuDungRepository extends JpaRepository<VoucherSuDung, Integer> {
+
+    // Trả lượt nếu đơn vẫn đang giữ; trả 0 nếu đã trả trước đó (hủy lặp, xử lý lại sự kiện)
+    @Modifying
+    @Query("UPDATE VoucherSuDung s SET s.trangThai = 'DA_HOAN', s.ngayHoan = :now "
+            + "WHERE s.maDonHang = :maDonHang AND s.trangThai = 'DA_DUNG'")
+    int hoanLai(@Param("maDonHang") Integer maDonHang, @Param("now") LocalDateTime now);
+}
@@ -1,8 +1,10 @@
 package com.noithat.qlnt.backend.service;
 
 import com.noithat.qlnt.backend.dto.common.DanhMucDto;
+import com.noithat.qlnt.backend.dto.common.DanhMucPathItem;
 import com.noithat.qlnt.backend.entity.DanhMuc;
 
+import java.util.Map;
 import java.util.Set;
 import java.util.List;
 
@@ -41,6 +43,31 @@ public interface IDanhMucService {
      */
     Set<DanhMuc> getParents(Integer childId);
 
+    /**
+     * Lấy mã của danh mục cùng toàn bộ danh mục con cháu (dùng để lọc sản phẩm)
+     */
+    Set<Integer> getSelfAndDescendantIds(Integer id);
+
+    /**
+     * Đường dẫn từ danh mục gốc xuống danh mục id (breadcrumb)
+     */
+    List<DanhMucPathItem> getPath(Integer id);
+
+    /**
+     * Số sản phẩm thuộc danh mục id và mọi danh mục con cháu
+     */
+    long countProductsInSubtree(Integer id);
+
+    /**
+     * Số sản phẩm theo cây con của mọi danh mục (mã danh mục -> số lượng)
+     */
+    Map<Integer, Long> countProductsBySubtree();
+
+    /**
+     * Dựng lại bảng closure từ cột parent nếu hai bên không khớp
+     */
+    void rebuildClosureIfInconsistent();
+
     /**
      * Lấy toàn bộ danh mục (dùng cho GET /api/categories)
      */
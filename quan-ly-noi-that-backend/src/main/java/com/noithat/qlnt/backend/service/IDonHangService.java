@@ -1,9 +1,13 @@
 package com.noithat.qlnt.backend.service;
 
 import com.noithat.qlnt.backend.dto.request.DonHangRequest;
+import com.noithat.qlnt.backend.dto.response.DonHangPageResponse;
 import com.noithat.qlnt.backend.dto.response.DonHangResponse;
 import com.noithat.qlnt.backend.dto.response.ThongKeBanHangResponse;
+import com.noithat.qlnt.backend.service.order.OrderHistoryQuery;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
 
 public interface IDonHangService {
@@ -12,6 +16,15 @@ public interface IDonHangService {
     void xoaDonHang(Integer id);
     List<DonHangResponse> getTatCaDonHang();
     List<DonHangResponse> getDonHangByKhachHang(Integer maKhachHang);
+    /**
+     * Danh sách đơn có lọc, phân trang keyset (mới nhất trước).
+     */
+    DonHangPageResponse timDonHang(OrderHistoryQuery query);
+    /**
+     * Ghi toàn bộ đơn khớp bộ lọc (bỏ qua cursor/size) ra out dưới dạng csv hoặc
+     * ndjson, đọc dần từ DB thay vì nạp hết vào bộ nhớ.
+     */
+    void xuatDonHang(OrderHistoryQuery query, String dinhDang, OutputStream out) throws IOException;
     void capNhatTrangThai(Integer id, String trangThai);
     /**
      * Cập nhật trạng thái thanh toán cho đơn hàng.
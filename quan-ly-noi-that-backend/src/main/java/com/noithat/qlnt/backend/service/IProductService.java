@@ -20,6 +20,13 @@ public interface IProductService {
     // New: paged shop product response
     com.noithat.qlnt.backend.dto.response.ShopProductPageResponseDto getProductsForShop(int page, int size);
 
+    // Lọc/sắp xếp/phân trang keyset phía server cho trang shop
+    com.noithat.qlnt.backend.dto.response.ShopProductPageResponseDto getProductsForShop(
+            com.noithat.qlnt.backend.service.catalog.ShopProductQuery query);
+
+    // Gợi ý tên sản phẩm khi gõ (autocomplete), không phân biệt dấu
+    List<com.noithat.qlnt.backend.service.catalog.ProductSearchIndex.Suggestion> suggestProducts(String prefix, int limit);
+
     SanPham getProductById(Integer id);
 
     ProductDetailDto getProductDetailById(Integer id);
@@ -58,9 +65,13 @@ public interface IProductService {
     // API mới: Lấy chi tiết sản phẩm đầy đủ với biến thể, thuộc tính và giá giảm
     com.noithat.qlnt.backend.dto.response.ProductDetailWithVariantsDto getProductDetailWithVariants(Integer id);
 
+    // Đánh giá của sản phẩm theo trang (mới nhất trước)
+    org.springframework.data.domain.Page<com.noithat.qlnt.backend.dto.response.ProductDetailWithVariantsDto.ReviewDto> getProductReviews(
+            Integer id, int page, int size);
+
     // API mới: Lấy danh sách sản phẩm cơ bản cho category assignment UI
     java.util.List<com.noithat.qlnt.backend.dto.response.ProductBasicResponse> getBasicProducts();
 
-    // API so sánh tổng nhập/xuất theo sản phẩm (gộp các biến thể)
-    java.util.List<com.noithat.qlnt.backend.dto.response.ProductCompareResponse> compareProductsAggregate(java.util.List<Integer> productIds);
+    // API so sánh sản phẩm (tối đa 50): giá, tồn, tổng nhập/xuất và ma trận thuộc tính theo cột
+    com.noithat.qlnt.backend.dto.response.ProductCompareMatrixResponse compareProductsAggregate(java.util.List<Integer> productIds);
 }
@@ -149,6 +149,11 @@ public interface IThongBaoService {
      */
     void taoThongBaoThanhToan(Integer maDonHang, String soTien);
     
+    /**
+     * Tạo thông báo đơn đã thanh toán online nhưng chưa thể hoàn tất (đơn đã hủy, thiếu hàng...)
+     */
+    void taoThongBaoThanhToanCanXuLy(Integer maDonHang, String lyDo);
+    
     /**
      * Tạo thông báo thay đổi trạng thái đơn hàng
      */
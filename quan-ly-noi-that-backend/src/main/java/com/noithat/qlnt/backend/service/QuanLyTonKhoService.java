@@ -4,6 +4,10 @@ import com.noithat.qlnt.backend.entity.BienTheSanPham;
 import com.noithat.qlnt.backend.entity.LichSuTonKho;
 import com.noithat.qlnt.backend.repository.BienTheSanPhamRepository;
 import com.noithat.qlnt.backend.repository.LichSuTonKhoRepository;
+import com.noithat.qlnt.backend.service.inventory.AvailableStockCounter;
+import com.noithat.qlnt.backend.service.inventory.LowStockIndex;
+import com.noithat.qlnt.backend.service.inventory.StockMutationEngine;
+import com.noithat.qlnt.backend.service.inventory.StockReservationService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
@@ -11,7 +15,6 @@ import org.springframework.transaction.annotation.Transactional;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.time.LocalDateTime;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -29,187 +32,87 @@ public class QuanLyTonKhoService {
     @Autowired
     private LichSuTonKhoRepository lichSuTonKhoRepository;
     
+    @Autowired
+    private StockMutationEngine stockMutationEngine;
+
+    @Autowired
+    private StockReservationService stockReservationService;
+
+    @Autowired
+    private AvailableStockCounter availableStockCounter;
+
+    @Autowired
+    private LowStockIndex lowStockIndex;
+    
+    private static boolean isPositive(Integer quantity) {
+        return quantity != null && quantity > 0;
+    }
+
     // =================== STOCK OPERATIONS ===================
     
     /**
      * Nhập hàng vào kho
      */
     public boolean importStock(Integer maBienThe, Integer quantity, String nguoiThucHien, String lyDo) {
-        try {
-            Optional<BienTheSanPham> optionalBienThe = bienTheSanPhamRepository.findById(maBienThe);
-            if (optionalBienThe.isEmpty()) {
-                return false;
-            }
-            
-            BienTheSanPham bienThe = optionalBienThe.get();
-            Integer soLuongTruoc = bienThe.getSoLuongTon();
-            
-            // Cập nhật số lượng
-            bienThe.updateStock(quantity);
-            bienTheSanPhamRepository.save(bienThe);
-            
-            // Ghi lịch sử
-            LichSuTonKho lichSu = new LichSuTonKho(
-                bienThe, soLuongTruoc, quantity, bienThe.getSoLuongTon(),
-                "NHAP_KHO", null, lyDo, nguoiThucHien
-            );
-            lichSuTonKhoRepository.save(lichSu);
-            
-            return true;
-        } catch (Exception e) {
-            e.printStackTrace();
+        if (!isPositive(quantity)) {
             return false;
         }
+        return stockMutationEngine.apply(maBienThe, quantity, "NHAP_KHO", null, lyDo, nguoiThucHien).isPresent();
     }
     
     /**
      * Xuất hàng khỏi kho
      */
     public boolean exportStock(Integer maBienThe, Integer quantity, String maThamChieu, String nguoiThucHien, String lyDo) {
-        try {
-            Optional<BienTheSanPham> optionalBienThe = bienTheSanPhamRepository.findById(maBienThe);
-            if (optionalBienThe.isEmpty()) {
-                return false;
-            }
-            
-            BienTheSanPham bienThe = optionalBienThe.get();
-            Integer soLuongTruoc = bienThe.getSoLuongTon();
-            
-            // Kiểm tra đủ hàng để xuất
-            if (soLuongTruoc < quantity) {
-                return false;
-            }
-            
-            // Cập nhật số lượng (xuất = trừ)
-            bienThe.updateStock(-quantity);
-            bienTheSanPhamRepository.save(bienThe);
-            
-            // Ghi lịch sử
-            LichSuTonKho lichSu = new LichSuTonKho(
-                bienThe, soLuongTruoc, -quantity, bienThe.getSoLuongTon(),
-                "XUAT_KHO", maThamChieu, lyDo, nguoiThucHien
-            );
-            lichSuTonKhoRepository.save(lichSu);
-            
-            return true;
-        } catch (Exception e) {
-            e.printStackTrace();
+        if (!isPositive(quantity)) {
             return false;
         }
+        // Không đủ hàng để xuất -> câu UPDATE không khớp dòng nào
+        return stockMutationEngine.apply(maBienThe, -quantity, "XUAT_KHO", maThamChieu, lyDo, nguoiThucHien).isPresent();
     }
     
     /**
      * Đặt trước sản phẩm
      */
     public boolean reserveProduct(Integer maBienThe, Integer quantity, String maThamChieu, String nguoiThucHien) {
-        // Reservation feature removed; keep API but not supported
-        return false;
+        // Giữ có thời hạn; quá hạn thì StockReservationSweeper trả lại
+        return stockReservationService.reserve(maBienThe, quantity, maThamChieu);
     }
     
     /**
      * Hủy đặt trước
      */
     public boolean releaseReservation(Integer maBienThe, Integer quantity, String maThamChieu, String nguoiThucHien) {
-        // Release reservation not supported after removal
-        return false;
+        return stockReservationService.release(maBienThe, maThamChieu);
     }
     
     /**
      * Xác nhận bán hàng (trừ cả tồn kho và đặt trước)
      */
     public boolean confirmSale(Integer maBienThe, Integer quantity, String maThamChieu, String nguoiThucHien) {
-        try {
-            Optional<BienTheSanPham> optionalBienThe = bienTheSanPhamRepository.findById(maBienThe);
-            if (optionalBienThe.isEmpty()) {
-                return false;
-            }
-
-            BienTheSanPham bienThe = optionalBienThe.get();
-            Integer soLuongTruoc = bienThe.getSoLuongTon();
-
-            if (bienThe.getSoLuongTon() < quantity) {
-                return false;
-            }
-
-            // Reduce stock directly (reservation removed)
-            bienThe.updateStock(-quantity);
-            bienTheSanPhamRepository.save(bienThe);
-            
-            // Ghi lịch sử
-            LichSuTonKho lichSu = new LichSuTonKho(
-                bienThe, soLuongTruoc, -quantity, bienThe.getSoLuongTon(),
-                "BAN_HANG", maThamChieu, 
-                "Bán " + quantity + " sản phẩm", nguoiThucHien
-            );
-            lichSuTonKhoRepository.save(lichSu);
-            
-            return true;
-        } catch (Exception e) {
-            logger.error("confirmSale failed: {}", e.getMessage());
-            return false;
-        }
+        // Chuyển phần đang giữ của maThamChieu thành bán; không có thì trừ thẳng phần chưa bị giữ
+        return stockReservationService.confirm(maBienThe, quantity, maThamChieu, nguoiThucHien).isPresent();
     }
     
     /**
      * Trả hàng
      */
     public boolean returnProduct(Integer maBienThe, Integer quantity, String maThamChieu, String nguoiThucHien, String lyDo) {
-        try {
-            Optional<BienTheSanPham> optionalBienThe = bienTheSanPhamRepository.findById(maBienThe);
-            if (optionalBienThe.isEmpty()) {
-                return false;
-            }
-            
-            BienTheSanPham bienThe = optionalBienThe.get();
-            Integer soLuongTruoc = bienThe.getSoLuongTon();
-            
-            // Trả hàng = tăng tồn kho
-            bienThe.updateStock(quantity);
-            bienTheSanPhamRepository.save(bienThe);
-            
-            // Ghi lịch sử
-            LichSuTonKho lichSu = new LichSuTonKho(
-                bienThe, soLuongTruoc, quantity, bienThe.getSoLuongTon(),
-                "TRA_HANG", maThamChieu, lyDo, nguoiThucHien
-            );
-            lichSuTonKhoRepository.save(lichSu);
-            
-            return true;
-        } catch (Exception e) {
+        if (!isPositive(quantity)) {
             return false;
         }
+        // Trả hàng = tăng tồn kho
+        return stockMutationEngine.apply(maBienThe, quantity, "TRA_HANG", maThamChieu, lyDo, nguoiThucHien).isPresent();
     }
     
     /**
      * Điều chỉnh tồn kho (kiểm kê)
      */
     public boolean adjustStock(Integer maBienThe, Integer newQuantity, String lyDo, String nguoiThucHien) {
-        try {
-            Optional<BienTheSanPham> optionalBienThe = bienTheSanPhamRepository.findById(maBienThe);
-            if (optionalBienThe.isEmpty()) {
-                return false;
-            }
-            
-            BienTheSanPham bienThe = optionalBienThe.get();
-            Integer soLuongTruoc = bienThe.getSoLuongTon();
-            Integer chenhLech = newQuantity - soLuongTruoc;
-            
-            // Điều chỉnh tồn kho
-            bienThe.setSoLuongTon(newQuantity);
-            bienThe.setNgayCapNhatKho(LocalDateTime.now());
-            bienTheSanPhamRepository.save(bienThe);
-            
-            // Ghi lịch sử
-            LichSuTonKho lichSu = new LichSuTonKho(
-                bienThe, soLuongTruoc, chenhLech, newQuantity,
-                "DIEU_CHINH", null, lyDo, nguoiThucHien
-            );
-            lichSuTonKhoRepository.save(lichSu);
-            
-            return true;
-        } catch (Exception e) {
+        if (newQuantity == null) {
             return false;
         }
+        return stockMutationEngine.setQuantity(maBienThe, newQuantity, "DIEU_CHINH", lyDo, nguoiThucHien).isPresent();
     }
     
     // =================== QUERY OPERATIONS ===================
@@ -218,14 +121,24 @@ public class QuanLyTonKhoService {
      * Lấy danh sách sản phẩm sắp hết hàng
      */
     public List<BienTheSanPham> getLowStockProducts() {
-        return bienTheSanPhamRepository.findLowStockProducts();
+        return findInventoryInOrder(lowStockIndex.maBienTheSapHet());
     }
     
     /**
      * Lấy danh sách sản phẩm hết hàng
      */
     public List<BienTheSanPham> getOutOfStockProducts() {
-        return bienTheSanPhamRepository.findOutOfStockProducts();
+        return findInventoryInOrder(lowStockIndex.maBienTheHetHang());
+    }
+
+    // Danh sách lấy từ LowStockIndex, chỉ nạp entity của các biến thể trong danh sách (giữ thứ tự)
+    private List<BienTheSanPham> findInventoryInOrder(List<Integer> maBienThes) {
+        if (maBienThes.isEmpty())
+            return List.of();
+        Map<Integer, BienTheSanPham> byId = new HashMap<>();
+        for (BienTheSanPham b : bienTheSanPhamRepository.findInventoryByMaBienTheIn(maBienThes))
+            byId.put(b.getMaBienThe(), b);
+        return maBienThes.stream().map(byId::get).filter(java.util.Objects::nonNull).toList();
     }
     
     /**
@@ -239,15 +152,15 @@ public class QuanLyTonKhoService {
      * Kiểm tra khả năng bán
      */
     public boolean isAvailableForSale(Integer maBienThe, Integer quantity) {
-        Boolean result = bienTheSanPhamRepository.isAvailableForSale(maBienThe, quantity);
-        return result != null && result;
+        return quantity != null && availableStockCounter.available(maBienThe) >= quantity;
     }
     
     /**
      * Lấy số lượng có thể bán
      */
     public Integer getAvailableQuantity(Integer maBienThe) {
-        return bienTheSanPhamRepository.getAvailableQuantity(maBienThe);
+        // Có thể bán = tồn - đang giữ, trả lời từ bộ nhớ
+        return availableStockCounter.available(maBienThe);
     }
     
     /**
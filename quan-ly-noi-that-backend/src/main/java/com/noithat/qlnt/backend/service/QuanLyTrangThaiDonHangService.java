@@ -6,6 +6,7 @@ import com.noithat.qlnt.backend.entity.ChiTietDonHang;
 import com.noithat.qlnt.backend.repository.DonHangRepository;
 import com.noithat.qlnt.backend.repository.LichSuTrangThaiDonHangRepository;
 import com.noithat.qlnt.backend.repository.ChiTietDonHangRepository;
+import com.noithat.qlnt.backend.service.order.OrderStatusCounter;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -30,6 +31,9 @@ public class QuanLyTrangThaiDonHangService {
     
     @Autowired
     private QuanLyTonKhoService quanLyTonKhoService;
+
+    @Autowired
+    private OrderStatusCounter orderStatusCounter;
     
     // =================== ORDER STATUS MANAGEMENT ===================
     
@@ -62,6 +66,7 @@ public class QuanLyTrangThaiDonHangService {
             
             // Cập nhật trạng thái đơn hàng
             donHang.setTrangThaiDonHang(trangThaiMoi);
+            orderStatusCounter.ghiNhanDoiTrangThai(donHang, trangThaiCu, trangThaiMoi);
             donHangRepository.save(donHang);
             
             // Ghi lịch sử thay đổi
@@ -253,7 +258,7 @@ public class QuanLyTrangThaiDonHangService {
                 quanLyTonKhoService.releaseReservation(
                     chiTiet.getBienThe().getMaBienThe(),
                     chiTiet.getSoLuong(),
-                    "CANCEL-ORDER-" + donHang.getMaDonHang(),
+                    "ORDER-" + donHang.getMaDonHang(),
                     nguoiThayDoi
                 );
             }
@@ -321,12 +326,12 @@ public class QuanLyTrangThaiDonHangService {
     public Map<String, Long> countOrdersByStatus() {
         Map<String, Long> statusCounts = new HashMap<>();
         
-    statusCounts.put("CHO_XAC_NHAN", (long) donHangRepository.findByTrangThaiDonHang(CHO_XAC_NHAN).size());
-    statusCounts.put("XAC_NHAN", (long) donHangRepository.findByTrangThaiDonHang(XAC_NHAN).size());
-    statusCounts.put("DANG_CHUAN_BI", (long) donHangRepository.findByTrangThaiDonHang(DANG_CHUAN_BI).size());
-    statusCounts.put("DANG_GIAO", (long) donHangRepository.findByTrangThaiDonHang(DANG_GIAO).size());
-    statusCounts.put("HOAN_THANH", (long) donHangRepository.findByTrangThaiDonHang(HOAN_THANH).size());
-    statusCounts.put("HUY_BO", (long) donHangRepository.findByTrangThaiDonHang(HUY_BO).size());
+    statusCounts.put("CHO_XAC_NHAN", orderStatusCounter.soDon(CHO_XAC_NHAN));
+    statusCounts.put("XAC_NHAN", orderStatusCounter.soDon(XAC_NHAN));
+    statusCounts.put("DANG_CHUAN_BI", orderStatusCounter.soDon(DANG_CHUAN_BI));
+    statusCounts.put("DANG_GIAO", orderStatusCounter.soDon(DANG_GIAO));
+    statusCounts.put("HOAN_THANH", orderStatusCounter.soDon(HOAN_THANH));
+    statusCounts.put("HUY_BO", orderStatusCounter.soDon(HUY_BO));
         
         return statusCounts;
     }
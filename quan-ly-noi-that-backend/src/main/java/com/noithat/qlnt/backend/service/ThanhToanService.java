@@ -48,7 +48,8 @@ public interface ThanhToanService {
 
     /**
      * API 2: Lấy tóm tắt đơn hàng (khu vực bên phải).
-     * Sử dụng procedure: sp_GetCheckoutSummary.
+     * Sử dụng procedure: sp_GetCheckoutSummary, hoặc CheckoutPricingEngine khi
+     * app.checkout.pricing.engine=java.
      */
     CheckoutSummaryResponse getCheckoutSummary(CheckoutSummaryRequest request);
 
@@ -2,18 +2,14 @@ package com.noithat.qlnt.backend.service;
 
 import com.noithat.qlnt.backend.entity.HangThanhVien;
 import com.noithat.qlnt.backend.entity.KhachHang;
-import com.noithat.qlnt.backend.entity.VipBenefit;
-import com.noithat.qlnt.backend.repository.VipBenefitRepository;
+import com.noithat.qlnt.backend.service.vip.VipBenefitRuleCache;
+import com.noithat.qlnt.backend.service.vip.VipBenefitRuleCache.QuyTacHang;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.util.List;
-import java.util.Optional;
-
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
 /**
  * Service xử lý các ưu đãi VIP tự động
@@ -23,93 +19,37 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 @RequiredArgsConstructor
 public class VipBenefitProcessor {
 
-    private final VipBenefitRepository vipBenefitRepository;
-    private final ObjectMapper objectMapper = new ObjectMapper();
+    // Ưu đãi của hạng đã dịch sẵn từ vip_benefit; không truy vấn/parse JSON mỗi lần tính
+    private final VipBenefitRuleCache vipBenefitRuleCache;
 
     /**
      * Tính điểm thưởng VIP được tích lũy
      */
     public Integer calculateVipBonusPoints(KhachHang khachHang, BigDecimal thanhTien) {
-        if (khachHang == null || khachHang.getHangThanhVien() == null) {
-            return 0;
-        }
-        // Sum bonus points from all BONUS_POINTS benefits. Support fixed "points" param or percent-based rules.
-        List<VipBenefit> benefits = getVipBenefits(khachHang.getHangThanhVien());
-        int totalPoints = 0;
-        for (VipBenefit vb : benefits) {
-            if (!isActive(vb)) continue;
-            if (vb.getBenefitType() == null) continue;
-            if (vb.getBenefitType().equalsIgnoreCase("BONUS_POINTS") || vb.getBenefitType().equalsIgnoreCase("TICH_DIEM")) {
-                try {
-                    // fixed points value e.g. {"points":100}
-                    var fixedOpt = extractPointsFromParams(vb.getParams());
-                    if (fixedOpt.isPresent()) {
-                        totalPoints += fixedOpt.get();
-                        continue;
-                    }
-
-                    // fallback: percent based bonus (percent of order converted to points)
-                    BigDecimal percent = extractPercentFromParams(vb.getParams()).orElse(null);
-                    if (percent != null && thanhTien != null) {
-                        BigDecimal bonusPoints = thanhTien.multiply(percent)
-                                .divide(BigDecimal.valueOf(100), 4, RoundingMode.HALF_UP)
-                                .divide(BigDecimal.valueOf(1000), 0, RoundingMode.HALF_UP);
-                        totalPoints += bonusPoints.intValue();
-                    }
-                } catch (Exception e) {
-                    // ignore malformed params for this benefit
-                }
-            }
-        }
-        return totalPoints;
+        // Fixed "points" rules plus percent-based rules (percent of order converted to points)
+        return rules(khachHang).diemThuong(thanhTien);
     }
 
     /**
      * Kiểm tra có miễn phí vận chuyển không
      */
     public boolean hasFreshipping(KhachHang khachHang) {
-        if (khachHang == null || khachHang.getHangThanhVien() == null) {
-            return false;
-        }
-
-        // If any FREE_SHIPPING benefit exists without a minOrder param, treat as global free shipping
-        List<VipBenefit> benefits = getVipBenefits(khachHang.getHangThanhVien());
-        return benefits.stream()
-                .filter(this::isActive)
-                .anyMatch(vb -> vb.getBenefitType() != null && vb.getBenefitType().equalsIgnoreCase("FREE_SHIPPING")
-                        && !extractMinOrderFromParams(vb.getParams()).isPresent());
+        // Only FREE_SHIPPING benefits without a minOrder param count as global free shipping
+        return rules(khachHang).mienPhiShip(null);
     }
 
     /**
      * Order-total aware free-shipping check. If orderTotal is null, falls back to parameterless FREE_SHIPPING only.
      */
     public boolean hasFreeShipping(KhachHang khachHang, BigDecimal orderTotal) {
-        if (khachHang == null || khachHang.getHangThanhVien() == null) return false;
-        List<VipBenefit> benefits = getVipBenefits(khachHang.getHangThanhVien());
-        for (VipBenefit vb : benefits) {
-            if (!isActive(vb)) continue;
-            if (vb.getBenefitType() == null) continue;
-            if (vb.getBenefitType().equalsIgnoreCase("FREE_SHIPPING")) {
-                Optional<BigDecimal> minOrder = extractMinOrderFromParams(vb.getParams());
-                if (minOrder.isEmpty()) return true; // no threshold -> always free
-                if (orderTotal != null && orderTotal.compareTo(minOrder.get()) >= 0) return true;
-            }
-        }
-        return false;
+        return rules(khachHang).mienPhiShip(orderTotal);
     }
 
     /**
      * Kiểm tra có ưu tiên giao hàng không
      */
     public boolean hasPriorityShipping(KhachHang khachHang) {
-        if (khachHang == null || khachHang.getHangThanhVien() == null) {
-            return false;
-        }
-
-        List<VipBenefit> benefits = getVipBenefits(khachHang.getHangThanhVien());
-        return benefits.stream()
-                .filter(this::isActive)
-                .anyMatch(vb -> vb.getBenefitType() != null && (vb.getBenefitType().equalsIgnoreCase("PRIORITY_SHIPPING") || vb.getBenefitType().equalsIgnoreCase("PRIORITY")));
+        return rules(khachHang).uuTienGiaoHang();
     }
 
     /**
@@ -128,86 +68,11 @@ public class VipBenefitProcessor {
         return originalShippingCost;
     }
 
-    /**
-     * Parse danh sách ưu đãi từ JSON string
-     */
-    // Note: raw uuDai string was removed from HangThanhVien. We rely solely on
-    // the structured vip_benefit rows. No fallback parsing is performed.
-
-    /**
-     * Lấy danh sách ưu đãi dưới dạng List<String>.
-     * Thứ tự: đọc từ bảng `vip_benefit` nếu có; nếu không có thì fallback parse
-     * `HangThanhVien.uuDai`.
-     */
-    private List<String> getBenefitsAsList(HangThanhVien hang) {
-        return getVipBenefits(hang).stream()
-                .filter(this::isActive)
-                .map(vb -> {
-                    if (vb.getDescription() != null && !vb.getDescription().isBlank()) return vb.getDescription();
-                    if (vb.getParams() != null && !vb.getParams().isBlank()) return vb.getParams();
-                    return vb.getBenefitType();
-                })
-                .toList();
-    }
-
-    private List<VipBenefit> getVipBenefits(HangThanhVien hang) {
-        if (hang == null) return List.of();
-        try {
-            List<VipBenefit> rows = vipBenefitRepository.findByHangThanhVien(hang);
-            return rows != null ? rows : List.of();
-        } catch (Exception e) {
-            return List.of();
-        }
-    }
-
-    private boolean isActive(VipBenefit vb) {
-        return vb.getActive() == null || vb.getActive();
-    }
-
-    private Optional<BigDecimal> extractMinOrderFromParams(String params) {
-        if (params == null || params.isBlank()) return Optional.empty();
-        try {
-            JsonNode node = objectMapper.readTree(params);
-            if (node.has("minOrder")) {
-                return Optional.of(new BigDecimal(node.get("minOrder").asText()));
-            }
-        } catch (Exception e) {
-            // ignore
-        }
-        return Optional.empty();
-    }
-
-    private Optional<BigDecimal> extractPercentFromParams(String params) {
-        if (params == null || params.isBlank()) return Optional.empty();
-        try {
-            JsonNode node = objectMapper.readTree(params);
-            if (node.has("percent")) {
-                return Optional.of(new BigDecimal(node.get("percent").asText()));
-            }
-            // older param names
-            if (node.has("rate")) {
-                return Optional.of(new BigDecimal(node.get("rate").asText()));
-            }
-        } catch (Exception e) {
-            // ignore
-        }
-        return Optional.empty();
-    }
-
-    private Optional<Integer> extractPointsFromParams(String params) {
-        if (params == null || params.isBlank()) return Optional.empty();
-        try {
-            JsonNode node = objectMapper.readTree(params);
-            if (node.has("points")) {
-                return Optional.of(node.get("points").asInt());
-            }
-            if (node.has("point")) {
-                return Optional.of(node.get("point").asInt());
-            }
-        } catch (Exception e) {
-            // ignore malformed
+    private QuyTacHang rules(KhachHang khachHang) {
+        if (khachHang == null || khachHang.getHangThanhVien() == null) {
+            return vipBenefitRuleCache.theoHang(null);
         }
-        return Optional.empty();
+        return vipBenefitRuleCache.theoHang(khachHang.getHangThanhVien().getMaHangThanhVien());
     }
 
     /**
@@ -215,19 +80,7 @@ public class VipBenefitProcessor {
      */
     public BigDecimal calculatePercentDiscountAmount(KhachHang khachHang, BigDecimal orderTotal) {
         if (khachHang == null || khachHang.getHangThanhVien() == null || orderTotal == null) return BigDecimal.ZERO;
-        List<VipBenefit> benefits = getVipBenefits(khachHang.getHangThanhVien());
-        BigDecimal bestPercent = BigDecimal.ZERO;
-        for (VipBenefit vb : benefits) {
-            if (!isActive(vb)) continue;
-            if (vb.getBenefitType() == null) continue;
-            if (vb.getBenefitType().equalsIgnoreCase("PERCENT_DISCOUNT") || vb.getBenefitType().equalsIgnoreCase("DISCOUNT_PERCENT")) {
-                Optional<BigDecimal> percentOpt = extractPercentFromParams(vb.getParams());
-                if (percentOpt.isEmpty()) continue;
-                Optional<BigDecimal> minOrderOpt = extractMinOrderFromParams(vb.getParams());
-                if (minOrderOpt.isPresent() && orderTotal.compareTo(minOrderOpt.get()) < 0) continue;
-                if (percentOpt.get().compareTo(bestPercent) > 0) bestPercent = percentOpt.get();
-            }
-        }
+        BigDecimal bestPercent = rules(khachHang).phanTramGiam(orderTotal);
         return orderTotal.multiply(bestPercent).divide(BigDecimal.valueOf(100), 2, RoundingMode.HALF_UP);
     }
 
@@ -246,7 +99,7 @@ public class VipBenefitProcessor {
             summary.setBonusPointsEarned(calculateVipBonusPoints(khachHang, thanhTien));
             summary.setFreeShipping(hasFreshipping(khachHang));
             summary.setPriorityShipping(hasPriorityShipping(khachHang));
-            summary.setAppliedBenefits(getBenefitsAsList(hang));
+            summary.setAppliedBenefits(rules(khachHang).moTa());
         }
 
         return summary;
@@ -0,0 +1,31 @@
+package com.noithat.qlnt.backend.service.cache;
+
+import java.util.List;
+
+/**
+ * Tên các cache của service layer (xem CacheConfig).
+ */
+public final class CacheNames {
+
+    // Theo mã sản phẩm
+    public static final String PRODUCT_DETAIL = "productDetail";
+    public static final String PRODUCT_SUMMARY = "productSummary";
+    public static final String PRODUCT_WITH_IMAGES = "productWithImages";
+    // Danh sách sản phẩm (khóa 'all', 'basic')
+    public static final String PRODUCT_LISTS = "productLists";
+
+    public static final String CATEGORY_DESCENDANTS = "categoryDescendants";
+    // Danh sách (khóa 'all') và từng bộ sưu tập (khóa là mã)
+    public static final String COLLECTIONS = "collections";
+    public static final String ATTRIBUTES = "attributes";
+
+    public static final List<String> PER_PRODUCT = List.of(PRODUCT_DETAIL, PRODUCT_SUMMARY, PRODUCT_WITH_IMAGES);
+    // Các cache theo sản phẩm có hiển thị tồn kho (danh sách và ảnh thì không)
+    public static final List<String> PER_PRODUCT_WITH_STOCK = List.of(PRODUCT_DETAIL, PRODUCT_SUMMARY);
+
+    public static final List<String> ALL = List.of(PRODUCT_DETAIL, PRODUCT_SUMMARY, PRODUCT_WITH_IMAGES,
+            PRODUCT_LISTS, CATEGORY_DESCENDANTS, COLLECTIONS, ATTRIBUTES);
+
+    private CacheNames() {
+    }
+}
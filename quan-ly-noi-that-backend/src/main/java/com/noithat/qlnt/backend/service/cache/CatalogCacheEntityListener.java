@@ -0,0 +1,47 @@
+package com.noithat.qlnt.backend.service.cache;
+
+import org.springframework.stereotype.Component;
+
+import com.noithat.qlnt.backend.entity.BienTheSanPham;
+import com.noithat.qlnt.backend.entity.BoSuuTap;
+import com.noithat.qlnt.backend.entity.DanhMuc;
+import com.noithat.qlnt.backend.entity.HinhAnhSanPham;
+import com.noithat.qlnt.backend.entity.SanPham;
+
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+
+/**
+ * JPA entity listener (@EntityListeners) cho các entity catalog. Hibernate lấy
+ * bean này từ Spring nên inject được; việc xóa cache chỉ chạy sau khi
+ * transaction commit.
+ */
+@Component
+public class CatalogCacheEntityListener {
+
+    private final CatalogCacheInvalidator invalidator;
+
+    public CatalogCacheEntityListener(CatalogCacheInvalidator invalidator) {
+        this.invalidator = invalidator;
+    }
+
+    @PostPersist
+    @PostUpdate
+    @PostRemove
+    public void onChange(Object entity) {
+        if (entity instanceof SanPham sp) {
+            invalidator.productChangedAfterCommit(sp.getMaSanPham());
+        } else if (entity instanceof BienTheSanPham bt) {
+            if (bt.getSanPham() != null)
+                invalidator.productChangedAfterCommit(bt.getSanPham().getMaSanPham());
+        } else if (entity instanceof HinhAnhSanPham ha) {
+            if (ha.getSanPham() != null)
+                invalidator.productChangedAfterCommit(ha.getSanPham().getMaSanPham());
+        } else if (entity instanceof DanhMuc) {
+            invalidator.categoriesChangedAfterCommit();
+        } else if (entity instanceof BoSuuTap) {
+            invalidator.collectionsChangedAfterCommit();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.noithat.qlnt.backend.service.cache;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Set;
+
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.noithat.qlnt.backend.service.catalog.CatalogChangeListener;
+
+/**
+ * Xóa các mục cache bị ảnh hưởng khi catalog thay đổi.
+ *
+ * Nhận hai nguồn: thông báo từ ShopCatalogSnapshot (tồn kho, giảm giá, đánh
+ * giá... kể cả các cập nhật bằng JPQL) và sự kiện vòng đời entity qua
+ * CatalogCacheEntityListener (mọi lần lưu/xóa SanPham, BienTheSanPham,
+ * HinhAnhSanPham, DanhMuc, BoSuuTap). Thay đổi một sản phẩm chỉ xóa mục của
+ * sản phẩm đó cùng các danh sách; chỉ tồn kho đổi thì chỉ xóa mục có hiển thị
+ * tồn kho của sản phẩm đó (danh sách không chứa tồn kho); đổi danh mục/bộ sưu
+ * tập thì xóa hết cache sản phẩm vì tên của chúng được nhúng trong DTO.
+ */
+@Component
+public class CatalogCacheInvalidator implements CatalogChangeListener {
+
+    private final TwoTierCacheManager cacheManager;
+
+    public CatalogCacheInvalidator(TwoTierCacheManager cacheManager) {
+        this.cacheManager = cacheManager;
+    }
+
+    @Override
+    public void productsChanged(Set<Integer> maSanPhams) {
+        for (String name : CacheNames.PER_PRODUCT) {
+            TwoTierCache cache = cacheManager.getTwoTierCache(name);
+            maSanPhams.forEach(cache::evict);
+        }
+        cacheManager.getTwoTierCache(CacheNames.PRODUCT_LISTS).clear();
+    }
+
+    @Override
+    public void stockChanged(Set<Integer> maSanPhams) {
+        for (String name : CacheNames.PER_PRODUCT_WITH_STOCK) {
+            TwoTierCache cache = cacheManager.getTwoTierCache(name);
+            maSanPhams.forEach(cache::evict);
+        }
+    }
+
+    @Override
+    public void allChanged() {
+        clearProducts();
+    }
+
+    @Override
+    public void contentExpiresAt(LocalDateTime at) {
+        long millis = at != null ? at.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli() : Long.MAX_VALUE;
+        for (String name : CacheNames.PER_PRODUCT)
+            cacheManager.getTwoTierCache(name).expireAllAt(millis);
+        cacheManager.getTwoTierCache(CacheNames.PRODUCT_LISTS).expireAllAt(millis);
+    }
+
+    public void productChangedAfterCommit(Integer maSanPham) {
+        if (maSanPham != null)
+            afterCommit(() -> productsChanged(Set.of(maSanPham)));
+    }
+
+    public void categoriesChangedAfterCommit() {
+        afterCommit(() -> {
+            cacheManager.getTwoTierCache(CacheNames.CATEGORY_DESCENDANTS).clear();
+            clearProducts();
+        });
+    }
+
+    public void collectionsChangedAfterCommit() {
+        afterCommit(() -> {
+            cacheManager.getTwoTierCache(CacheNames.COLLECTIONS).clear();
+            clearProducts();
+        });
+    }
+
+    private void clearProducts() {
+        for (String name : CacheNames.PER_PRODUCT)
+            cacheManager.getTwoTierCache(name).clear();
+        cacheManager.getTwoTierCache(CacheNames.PRODUCT_LISTS).clear();
+    }
+
+    private void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+}
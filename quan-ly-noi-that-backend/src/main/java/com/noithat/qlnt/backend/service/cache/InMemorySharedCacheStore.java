@@ -0,0 +1,50 @@
+package com.noithat.qlnt.backend.service.cache;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * SharedCacheStore trong bộ nhớ của chính process: thay thế cho L2 thật khi
+ * chạy local/test (app.cache.shared.type=memory). Không giới hạn kích thước,
+ * mục hết hạn bị xóa khi đọc tới.
+ */
+public class InMemorySharedCacheStore implements SharedCacheStore {
+
+    private record Item(Object value, long expiresAt) {
+    }
+
+    private final Map<String, Map<Object, Item>> stores = new ConcurrentHashMap<>();
+
+    private Map<Object, Item> store(String cacheName) {
+        return stores.computeIfAbsent(cacheName, k -> new ConcurrentHashMap<>());
+    }
+
+    @Override
+    public Object get(String cacheName, Object key) {
+        Map<Object, Item> store = store(cacheName);
+        Item item = store.get(key);
+        if (item == null)
+            return null;
+        if (System.currentTimeMillis() >= item.expiresAt()) {
+            store.remove(key, item);
+            return null;
+        }
+        return item.value();
+    }
+
+    @Override
+    public void put(String cacheName, Object key, Object value, Duration ttl) {
+        store(cacheName).put(key, new Item(value, System.currentTimeMillis() + ttl.toMillis()));
+    }
+
+    @Override
+    public void evict(String cacheName, Object key) {
+        store(cacheName).remove(key);
+    }
+
+    @Override
+    public void clear(String cacheName) {
+        store(cacheName).clear();
+    }
+}
@@ -0,0 +1,21 @@
+package com.noithat.qlnt.backend.service.cache;
+
+import java.time.Duration;
+
+/**
+ * Tầng cache thứ hai (L2), dùng chung giữa các instance (Redis, Hazelcast...).
+ *
+ * Cài đặt tự lo việc serialize giá trị. get trả về null khi không có khóa;
+ * giá trị null của method được TwoTierCache bọc lại trước khi put nên không
+ * bị nhầm với miss.
+ */
+public interface SharedCacheStore {
+
+    Object get(String cacheName, Object key);
+
+    void put(String cacheName, Object key, Object value, Duration ttl);
+
+    void evict(String cacheName, Object key);
+
+    void clear(String cacheName);
+}
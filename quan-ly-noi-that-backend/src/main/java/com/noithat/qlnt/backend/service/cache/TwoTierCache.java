@@ -0,0 +1,211 @@
+package com.noithat.qlnt.backend.service.cache;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.cache.support.AbstractValueAdaptingCache;
+import org.springframework.lang.NonNull;
+
+/**
+ * Cache hai tầng: L1 cục bộ (LRU, giới hạn số mục và thời gian sống) và L2
+ * dùng chung tùy chọn (SharedCacheStore). Đọc L1 trước, trượt thì hỏi L2 rồi
+ * nạp lại vào L1; ghi và xóa đi qua cả hai tầng.
+ *
+ * get(key, loader) (dùng bởi @Cacheable(sync = true)) chỉ cho một luồng nạp
+ * mỗi khóa, và bỏ kết quả nếu cache bị xóa trong lúc nạp để không ghi đè dữ
+ * liệu cũ lên sau một lần invalidate.
+ */
+public class TwoTierCache extends AbstractValueAdaptingCache {
+
+    private record LocalEntry(Object value, long expiresAt) {
+    }
+
+    public record Stats(String name, int size, int maxSize, long ttlSeconds, long l1Hits, long l2Hits,
+            long misses, long loads, long evictions, long expirations, long invalidations) {
+    }
+
+    private final String name;
+    private final int maxSize;
+    private final Duration ttl;
+    private final SharedCacheStore shared;
+
+    private final Map<Object, LocalEntry> local;
+    private final Map<Object, CompletableFuture<Object>> loading = new ConcurrentHashMap<>();
+    // Tăng mỗi lần evict/clear; kết quả nạp chỉ được ghi nếu không đổi trong lúc nạp
+    private final AtomicLong epoch = new AtomicLong();
+    private volatile long expireAllAt = Long.MAX_VALUE;
+
+    private final LongAdder l1Hits = new LongAdder();
+    private final LongAdder l2Hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    public TwoTierCache(String name, int maxSize, Duration ttl, SharedCacheStore shared) {
+        super(true);
+        this.name = name;
+        this.maxSize = Math.max(1, maxSize);
+        this.ttl = ttl;
+        this.shared = shared;
+        this.local = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Object, LocalEntry> eldest) {
+                if (size() > TwoTierCache.this.maxSize) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    @Override
+    @NonNull
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    @NonNull
+    public Object getNativeCache() {
+        return local;
+    }
+
+    @Override
+    protected Object lookup(@NonNull Object key) {
+        checkExpireAll();
+        long now = System.currentTimeMillis();
+        synchronized (local) {
+            LocalEntry e = local.get(key);
+            if (e != null) {
+                if (now < e.expiresAt()) {
+                    l1Hits.increment();
+                    return e.value();
+                }
+                local.remove(key);
+                expirations.increment();
+            }
+        }
+        if (shared != null) {
+            Object value = shared.get(name, key);
+            if (value != null) {
+                l2Hits.increment();
+                putLocal(key, value);
+                return value;
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(@NonNull Object key, @NonNull Callable<T> valueLoader) {
+        long startEpoch = epoch.get();
+        Object stored = lookup(key);
+        if (stored != null)
+            return (T) fromStoreValue(stored);
+
+        CompletableFuture<Object> mine = new CompletableFuture<>();
+        CompletableFuture<Object> inFlight = loading.putIfAbsent(key, mine);
+        if (inFlight != null) {
+            try {
+                return (T) fromStoreValue(inFlight.join());
+            } catch (CompletionException ex) {
+                throw new ValueRetrievalException(key, valueLoader, ex.getCause());
+            }
+        }
+        try {
+            T value = valueLoader.call();
+            loads.increment();
+            Object storeValue = toStoreValue(value);
+            if (epoch.get() == startEpoch)
+                putBoth(key, storeValue);
+            mine.complete(storeValue);
+            return value;
+        } catch (Exception ex) {
+            mine.completeExceptionally(ex);
+            throw new ValueRetrievalException(key, valueLoader, ex);
+        } finally {
+            loading.remove(key, mine);
+        }
+    }
+
+    @Override
+    public void put(@NonNull Object key, Object value) {
+        putBoth(key, toStoreValue(value));
+    }
+
+    @Override
+    public void evict(@NonNull Object key) {
+        epoch.incrementAndGet();
+        invalidations.increment();
+        synchronized (local) {
+            local.remove(key);
+        }
+        if (shared != null)
+            shared.evict(name, key);
+    }
+
+    @Override
+    public void clear() {
+        epoch.incrementAndGet();
+        invalidations.increment();
+        synchronized (local) {
+            local.clear();
+        }
+        if (shared != null)
+            shared.clear(name);
+    }
+
+    /**
+     * Xóa toàn bộ cache khi tới thời điểm at (ví dụ mốc bắt đầu/kết thúc giảm
+     * giá làm thay đổi giá đã cache). Kiểm tra khi đọc, không cần lịch chạy.
+     */
+    public void expireAllAt(long epochMillis) {
+        expireAllAt = epochMillis;
+    }
+
+    public Stats stats() {
+        int size;
+        synchronized (local) {
+            size = local.size();
+        }
+        return new Stats(name, size, maxSize, ttl.toSeconds(), l1Hits.sum(), l2Hits.sum(), misses.sum(),
+                loads.sum(), evictions.sum(), expirations.sum(), invalidations.sum());
+    }
+
+    private void checkExpireAll() {
+        long at = expireAllAt;
+        if (at != Long.MAX_VALUE && System.currentTimeMillis() >= at) {
+            synchronized (this) {
+                if (expireAllAt != at)
+                    return;
+                expireAllAt = Long.MAX_VALUE;
+            }
+            clear();
+        }
+    }
+
+    private void putBoth(Object key, Object storeValue) {
+        putLocal(key, storeValue);
+        if (shared != null)
+            shared.put(name, key, storeValue, ttl);
+    }
+
+    private void putLocal(Object key, Object storeValue) {
+        LocalEntry e = new LocalEntry(storeValue, System.currentTimeMillis() + ttl.toMillis());
+        synchronized (local) {
+            local.put(key, e);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.noithat.qlnt.backend.service.cache;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.lang.NonNull;
+
+/**
+ * CacheManager với danh sách cache cố định (CacheNames); tên lạ trả về null để
+ * lỗi cấu hình @Cacheable lộ ra ngay thay vì âm thầm tạo cache mới.
+ */
+public class TwoTierCacheManager implements CacheManager {
+
+    private final Map<String, TwoTierCache> caches;
+
+    public TwoTierCacheManager(Collection<TwoTierCache> caches) {
+        Map<String, TwoTierCache> byName = new LinkedHashMap<>();
+        for (TwoTierCache c : caches)
+            byName.put(c.getName(), c);
+        this.caches = Collections.unmodifiableMap(byName);
+    }
+
+    @Override
+    public Cache getCache(@NonNull String name) {
+        return caches.get(name);
+    }
+
+    public TwoTierCache getTwoTierCache(String name) {
+        return caches.get(name);
+    }
+
+    @Override
+    @NonNull
+    public Collection<String> getCacheNames() {
+        return caches.keySet();
+    }
+
+    public List<TwoTierCache.Stats> stats() {
+        return caches.values().stream().map(TwoTierCache::stats).toList();
+    }
+}
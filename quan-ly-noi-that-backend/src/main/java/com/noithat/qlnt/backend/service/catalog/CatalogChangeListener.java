@@ -0,0 +1,33 @@
+package com.noithat.qlnt.backend.service.catalog;
+
+import java.time.LocalDateTime;
+import java.util.Set;
+
+/**
+ * Nhận thông báo khi dữ liệu catalog thay đổi (sau khi transaction commit).
+ *
+ * ShopCatalogSnapshot là điểm vào duy nhất cho các service ghi; các read model
+ * khác (chỉ mục tìm kiếm...) đăng ký qua interface này thay vì tự gắn hook.
+ */
+public interface CatalogChangeListener {
+
+    void productsChanged(Set<Integer> maSanPhams);
+
+    /**
+     * Chỉ tồn kho (số lượng, trạng thái kho) của các sản phẩm đổi - nhập, xuất,
+     * bán, trả hàng. Mặc định xử lý như productsChanged; read model không hiển
+     * thị tồn kho có thể bỏ qua.
+     */
+    default void stockChanged(Set<Integer> maSanPhams) {
+        productsChanged(maSanPhams);
+    }
+
+    void allChanged();
+
+    /**
+     * Mốc sớm nhất mà nội dung catalog tự thay đổi theo thời gian (giảm giá bắt
+     * đầu/kết thúc); null nếu không có.
+     */
+    default void contentExpiresAt(LocalDateTime at) {
+    }
+}
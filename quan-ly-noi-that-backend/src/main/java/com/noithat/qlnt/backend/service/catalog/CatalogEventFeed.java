@@ -0,0 +1,109 @@
+package com.noithat.qlnt.backend.service.catalog;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.noithat.qlnt.backend.repository.OutboxSuKienRepository;
+import com.noithat.qlnt.backend.service.event.DomainEvents;
+import com.noithat.qlnt.backend.service.event.PriceChanged;
+import com.noithat.qlnt.backend.service.event.StockChanged;
+
+/**
+ * Đồng bộ snapshot/cache/chỉ mục tìm kiếm giữa nhiều instance: mỗi instance tự
+ * đọc các sự kiện StockChanged/PriceChanged mới trong outbox (chỉ đọc, không
+ * nhận nên không tranh với OutboxDispatcher) và đánh dấu sản phẩm tương ứng qua
+ * ShopCatalogSnapshot.markProductsChanged, để thay đổi ghi ở instance khác
+ * cũng làm mất hiệu lực cache ở đây.
+ *
+ * Trong cùng instance markProductChanged đã được gọi sau commit nên chỉ cần bật
+ * khi chạy nhiều instance (app.events.catalog-feed.enabled=true). Mỗi lần đọc
+ * lùi lại một khoảng (lookback) để không bỏ sót transaction commit muộn hơn
+ * thời điểm ghi sự kiện; sự kiện đã thấy được nhớ theo mã cho tới khi ra khỏi
+ * khoảng đó.
+ */
+@Component
+@ConditionalOnProperty(name = "app.events.catalog-feed.enabled", havingValue = "true")
+public class CatalogEventFeed {
+
+    private static final Logger logger = LoggerFactory.getLogger(CatalogEventFeed.class);
+
+    private static final List<String> LOAI_SU_KIEN = List.of(DomainEvents.loaiSuKien(StockChanged.class),
+            DomainEvents.loaiSuKien(PriceChanged.class));
+
+    private final OutboxSuKienRepository outboxSuKienRepository;
+    private final ShopCatalogSnapshot shopCatalogSnapshot;
+    private final ObjectMapper objectMapper;
+    private final Duration lookback;
+    private final int batchSize;
+
+    // Mã sự kiện đã xử lý -> thời điểm ghi; chỉ luồng lịch chạy tail() đọc/ghi
+    private final Map<Long, LocalDateTime> daThay = new HashMap<>();
+    private LocalDateTime moc = LocalDateTime.now();
+
+    public CatalogEventFeed(OutboxSuKienRepository outboxSuKienRepository, ShopCatalogSnapshot shopCatalogSnapshot,
+            ObjectMapper objectMapper,
+            @Value("${app.events.catalog-feed.lookback-seconds:30}") long lookbackSeconds,
+            @Value("${app.events.catalog-feed.batch-size:1000}") int batchSize) {
+        this.outboxSuKienRepository = outboxSuKienRepository;
+        this.shopCatalogSnapshot = shopCatalogSnapshot;
+        this.objectMapper = objectMapper;
+        this.lookback = Duration.ofSeconds(Math.max(1, lookbackSeconds));
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    @Scheduled(fixedDelayString = "${app.events.catalog-feed.interval-ms:2000}",
+            initialDelayString = "${app.events.catalog-feed.interval-ms:2000}")
+    public void tail() {
+        try {
+            LocalDateTime tu = moc.minus(lookback);
+            List<Object[]> rows = outboxSuKienRepository.findGhiTu(tu, LOAI_SU_KIEN, batchSize);
+            Set<Integer> maSanPhams = new HashSet<>();
+            LocalDateTime mocMoi = moc;
+            for (Object[] row : rows) {
+                Long maSuKien = ((Number) row[0]).longValue();
+                LocalDateTime ngayTao = toLocalDateTime(row[1]);
+                if (ngayTao.isAfter(mocMoi))
+                    mocMoi = ngayTao;
+                if (daThay.putIfAbsent(maSuKien, ngayTao) != null)
+                    continue;
+                JsonNode maSanPham = objectMapper.readTree((String) row[2]).get("maSanPham");
+                if (maSanPham != null && maSanPham.canConvertToInt())
+                    maSanPhams.add(maSanPham.asInt());
+            }
+            if (rows.size() == batchSize) {
+                // Tồn đọng quá lớn: dựng lại toàn bộ thay vì đọc tiếp từng lô
+                shopCatalogSnapshot.markAllChanged();
+                mocMoi = LocalDateTime.now();
+                daThay.clear();
+            } else if (!maSanPhams.isEmpty()) {
+                shopCatalogSnapshot.markProductsChanged(maSanPhams);
+            }
+            moc = mocMoi;
+            LocalDateTime hetHan = moc.minus(lookback);
+            daThay.values().removeIf(t -> t.isBefore(hetHan));
+        } catch (Exception ex) {
+            logger.warn("Lỗi khi đọc sự kiện catalog từ outbox: {}", ex.getMessage());
+        }
+    }
+
+    private static LocalDateTime toLocalDateTime(Object value) {
+        if (value instanceof Timestamp ts)
+            return ts.toLocalDateTime();
+        return (LocalDateTime) value;
+    }
+}
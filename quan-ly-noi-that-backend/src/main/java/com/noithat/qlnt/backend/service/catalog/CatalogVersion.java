@@ -0,0 +1,157 @@
+package com.noithat.qlnt.backend.service.catalog;
+
+import java.time.LocalDateTime;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Số phiên bản của dữ liệu catalog, dùng làm ETag cho các API đọc catalog.
+ *
+ * Mỗi nhóm API (xem Nhom) có phiên bản riêng, và chi tiết sản phẩm có thêm
+ * phiên bản theo từng sản phẩm: sửa một sản phẩm không làm mọi trang chi tiết
+ * khác mất 304, và thay đổi chỉ tồn kho không đụng tới các API không hiển thị
+ * tồn kho. Sau commit, phiên bản tăng khi sản phẩm/biến thể/giá/tồn kho/ảnh
+ * hoặc danh mục/bộ sưu tập thay đổi; toàn bộ tăng khi tới mốc bắt đầu/kết thúc
+ * của một chương trình giảm giá, và sau mỗi max-age để bù cho thay đổi ngoài
+ * ứng dụng. ETag gồm cả thời điểm khởi động nên không trùng giữa các lần chạy.
+ */
+@Component
+public class CatalogVersion implements CatalogChangeListener {
+
+    /**
+     * Nhóm API catalog có chung phiên bản.
+     */
+    public enum Nhom {
+        // Danh mục, bộ sưu tập (kèm số sản phẩm, không có tồn kho)
+        DANH_MUC,
+        // Danh sách sản phẩm không hiển thị tồn kho (/basic)
+        DANH_SACH,
+        // Danh sách sản phẩm có tồn kho (/shop, sản phẩm của bộ sưu tập)
+        DANH_SACH_TON_KHO,
+        // Chi tiết một sản phẩm; ghép thêm phiên bản của riêng sản phẩm đó
+        CHI_TIET
+    }
+
+    // Nhóm tăng phiên bản chung khi sản phẩm / chỉ tồn kho đổi; CHI_TIET chỉ tăng
+    // phiên bản của các sản phẩm đó
+    private static final Set<Nhom> THEO_SAN_PHAM = EnumSet.of(Nhom.DANH_MUC, Nhom.DANH_SACH,
+            Nhom.DANH_SACH_TON_KHO);
+    private static final Set<Nhom> THEO_TON_KHO = EnumSet.of(Nhom.DANH_SACH_TON_KHO);
+
+    private record PhienBan(long so, long lastModified) {
+        static final PhienBan DAU = new PhienBan(0, System.currentTimeMillis());
+    }
+
+    private final long bootId = System.currentTimeMillis();
+    private final long maxAgeMillis;
+    private final AtomicLong counter = new AtomicLong();
+    private final Map<Nhom, PhienBan> theoNhom = new EnumMap<>(Nhom.class);
+    private final Map<Integer, PhienBan> theoSanPham = new ConcurrentHashMap<>();
+    private volatile LocalDateTime nextBoundary;
+
+    public CatalogVersion(@Value("${app.catalog.snapshot.max-age-seconds:600}") long maxAgeSeconds) {
+        this.maxAgeMillis = Math.max(1, maxAgeSeconds) * 1000L;
+        for (Nhom nhom : Nhom.values())
+            theoNhom.put(nhom, PhienBan.DAU);
+    }
+
+    @Override
+    public void productsChanged(Set<Integer> maSanPhams) {
+        bump(THEO_SAN_PHAM, maSanPhams);
+    }
+
+    @Override
+    public void stockChanged(Set<Integer> maSanPhams) {
+        bump(THEO_TON_KHO, maSanPhams);
+    }
+
+    @Override
+    public void allChanged() {
+        bumpAll();
+    }
+
+    @Override
+    public void contentExpiresAt(LocalDateTime at) {
+        nextBoundary = at;
+    }
+
+    /**
+     * Tăng phiên bản danh mục/bộ sưu tập sau khi transaction hiện tại commit
+     * (hoặc ngay nếu không có transaction). Dùng cho các thay đổi không đi qua
+     * ShopCatalogSnapshot như tạo/liên kết danh mục, bộ sưu tập; đổi tên (nhúng
+     * trong DTO sản phẩm) đi qua markAllChanged.
+     */
+    public void bumpAfterCommit() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    bump(EnumSet.of(Nhom.DANH_MUC), Set.of());
+                }
+            });
+        } else {
+            bump(EnumSet.of(Nhom.DANH_MUC), Set.of());
+        }
+    }
+
+    private PhienBan bump(Set<Nhom> nhoms, Set<Integer> maSanPhams) {
+        PhienBan moi = new PhienBan(counter.incrementAndGet(), System.currentTimeMillis());
+        synchronized (theoNhom) {
+            nhoms.forEach(nhom -> theoNhom.put(nhom, moi));
+        }
+        maSanPhams.forEach(id -> theoSanPham.put(id, moi));
+        return moi;
+    }
+
+    private void bumpAll() {
+        PhienBan moi = bump(EnumSet.allOf(Nhom.class), Set.of());
+        // Phiên bản chung của CHI_TIET vừa tăng nên bỏ phần theo sản phẩm cũ hơn nó
+        theoSanPham.values().removeIf(p -> p.so() < moi.so());
+    }
+
+    /**
+     * ETag của một nhóm; maSanPham chỉ dùng với CHI_TIET (null: chỉ phiên bản chung).
+     */
+    public String etag(Nhom nhom, Integer maSanPham) {
+        LocalDateTime boundary = nextBoundary;
+        if (boundary != null && !LocalDateTime.now().isBefore(boundary)) {
+            synchronized (this) {
+                if (boundary == nextBoundary) {
+                    nextBoundary = null;
+                    bumpAll();
+                }
+            }
+        }
+        long bucket = System.currentTimeMillis() / maxAgeMillis;
+        PhienBan rieng = rieng(nhom, maSanPham);
+        return "\"c" + bootId + "-" + nhom.ordinal() + "." + chung(nhom).so() + "." + rieng.so() + "-" + bucket
+                + "\"";
+    }
+
+    public long lastModified(Nhom nhom, Integer maSanPham) {
+        // Đầu chu kỳ max-age hiện tại cũng tính là một lần thay đổi (như trong ETag)
+        long bucketStart = System.currentTimeMillis() / maxAgeMillis * maxAgeMillis;
+        return Math.max(Math.max(chung(nhom).lastModified(), rieng(nhom, maSanPham).lastModified()), bucketStart);
+    }
+
+    private PhienBan chung(Nhom nhom) {
+        synchronized (theoNhom) {
+            return theoNhom.get(nhom);
+        }
+    }
+
+    private PhienBan rieng(Nhom nhom, Integer maSanPham) {
+        if (nhom != Nhom.CHI_TIET || maSanPham == null)
+            return PhienBan.DAU;
+        return theoSanPham.getOrDefault(maSanPham, PhienBan.DAU);
+    }
+}
@@ -0,0 +1,447 @@
+package com.noithat.qlnt.backend.service.catalog;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.noithat.qlnt.backend.entity.SanPham;
+import com.noithat.qlnt.backend.repository.BienTheSanPhamRepository;
+import com.noithat.qlnt.backend.repository.BienTheThuocTinhRepository;
+import com.noithat.qlnt.backend.repository.SanPhamRepository;
+
+/**
+ * Chỉ mục đảo (inverted index) trong bộ nhớ cho tìm kiếm sản phẩm/biến thể.
+ *
+ * Mỗi sản phẩm là một tài liệu gồm tên, mô tả, danh mục, bộ sưu tập, SKU và
+ * giá trị thuộc tính của các biến thể. Văn bản được bỏ dấu tiếng Việt trước khi
+ * tách từ nên "ban an" khớp "bàn ăn". Từ điển là một skip list đã sắp nên tra
+ * tiền tố (autocomplete) chỉ duyệt đúng dải khóa cần thiết; từ không khớp chính
+ * xác/tiền tố được thử với khoảng cách sửa 1-2 ký tự (gõ sai).
+ *
+ * Chỉ mục được cập nhật theo sản phẩm qua CatalogChangeListener (sau commit) và
+ * dựng lại toàn bộ định kỳ ngoài luồng request, giống ShopCatalogSnapshot.
+ */
+@Component
+public class ProductSearchIndex implements CatalogChangeListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProductSearchIndex.class);
+
+    // Trọng số theo trường
+    private static final float W_NAME = 3.0f;
+    private static final float W_SKU = 2.5f;
+    private static final float W_ATTRIBUTE = 1.5f;
+    private static final float W_CATEGORY = 1.5f;
+    private static final float W_COLLECTION = 1.0f;
+    private static final float W_DESCRIPTION = 0.5f;
+
+    private static final double PREFIX_FACTOR = 0.8;
+    private static final double FUZZY_FACTOR = 0.5;
+
+    private final SanPhamRepository sanPhamRepository;
+    private final BienTheSanPhamRepository bienTheSanPhamRepository;
+    private final BienTheThuocTinhRepository bienTheThuocTinhRepository;
+    private final Duration maxAge;
+    private final TransactionTemplate readOnlyTransaction;
+
+    /**
+     * Một từ trong một sản phẩm. productLevel = từ đến từ trường của sản phẩm
+     * (khớp mọi biến thể); ngược lại chỉ khớp các biến thể trong variantIds.
+     */
+    private record Posting(float weight, boolean productLevel, Set<Integer> variantIds) {
+    }
+
+    private record Doc(String tenSanPham, String tenKhongDau, Set<String> terms, List<Integer> variantIds) {
+    }
+
+    public record Suggestion(Integer maSanPham, String tenSanPham) {
+    }
+
+    // Dựng lại toàn bộ thì tạo cấu trúc mới rồi tráo, để truy vấn đang chạy không thấy chỉ mục rỗng
+    private volatile NavigableMap<String, Map<Integer, Posting>> dictionary = new ConcurrentSkipListMap<>();
+    private volatile Map<Integer, Doc> docs = new ConcurrentHashMap<>();
+    private final Set<Integer> dirty = ConcurrentHashMap.newKeySet();
+    private volatile boolean fullRebuildRequired = true;
+    private volatile Instant builtAt = Instant.EPOCH;
+    private volatile boolean loaded;
+    private volatile boolean rebuilding;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    public ProductSearchIndex(SanPhamRepository sanPhamRepository,
+            BienTheSanPhamRepository bienTheSanPhamRepository,
+            BienTheThuocTinhRepository bienTheThuocTinhRepository,
+            PlatformTransactionManager transactionManager,
+            @Value("${app.catalog.search.max-age-seconds:600}") long maxAgeSeconds) {
+        this.sanPhamRepository = sanPhamRepository;
+        this.bienTheSanPhamRepository = bienTheSanPhamRepository;
+        this.bienTheThuocTinhRepository = bienTheThuocTinhRepository;
+        this.maxAge = Duration.ofSeconds(Math.max(1, maxAgeSeconds));
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+    }
+
+    // =================== ĐỒNG BỘ ===================
+
+    @Override
+    public void productsChanged(Set<Integer> maSanPhams) {
+        dirty.addAll(maSanPhams);
+    }
+
+    @Override
+    public void stockChanged(Set<Integer> maSanPhams) {
+        // Chỉ mục tìm kiếm không chứa tồn kho
+    }
+
+    @Override
+    public void allChanged() {
+        fullRebuildRequired = true;
+    }
+
+    // =================== TÌM KIẾM ===================
+
+    /**
+     * Điểm liên quan của các sản phẩm khớp mọi từ trong truy vấn, sắp giảm dần.
+     */
+    public LinkedHashMap<Integer, Double> scoreProducts(String query) {
+        refreshIfNeeded();
+        List<String> tokens = SearchText.tokenize(query);
+        return rank(match(tokens), String.join(" ", tokens));
+    }
+
+    private LinkedHashMap<Integer, Double> rank(Map<Integer, Match> matches, String phrase) {
+        Map<Integer, Double> scores = new HashMap<>();
+        matches.forEach((id, m) -> {
+            double score = m.score;
+            Doc doc = docs.get(id);
+            // Ưu tiên tên chứa nguyên cụm từ, nhất là ở đầu tên
+            if (doc != null && !phrase.isEmpty()) {
+                int pos = doc.tenKhongDau().indexOf(phrase);
+                if (pos == 0)
+                    score += 3.0;
+                else if (pos > 0)
+                    score += 2.0;
+            }
+            scores.put(id, score);
+        });
+        LinkedHashMap<Integer, Double> ranked = new LinkedHashMap<>();
+        scores.entrySet().stream()
+                .sorted(Map.Entry.<Integer, Double>comparingByValue(Comparator.reverseOrder())
+                        .thenComparing(Map.Entry.comparingByKey()))
+                .forEach(e -> ranked.put(e.getKey(), e.getValue()));
+        return ranked;
+    }
+
+    public List<Integer> searchProducts(String query, int limit) {
+        return scoreProducts(query).keySet().stream().limit(Math.max(0, limit)).toList();
+    }
+
+    /**
+     * Mã biến thể khớp truy vấn, theo thứ tự liên quan của sản phẩm. Từ khớp tên
+     * /danh mục... trả mọi biến thể của sản phẩm; từ khớp SKU/thuộc tính chỉ trả
+     * các biến thể mang từ đó.
+     */
+    public List<Integer> searchVariants(String query, int limit) {
+        refreshIfNeeded();
+        List<String> tokens = SearchText.tokenize(query);
+        Map<Integer, Match> matches = match(tokens);
+        List<Integer> result = new ArrayList<>();
+        for (Integer maSanPham : rank(matches, String.join(" ", tokens)).keySet()) {
+            Match m = matches.get(maSanPham);
+            Doc doc = docs.get(maSanPham);
+            if (m == null || doc == null)
+                continue;
+            for (Integer maBienThe : doc.variantIds()) {
+                if (m.variantIds == null || m.variantIds.contains(maBienThe)) {
+                    result.add(maBienThe);
+                    if (result.size() >= limit)
+                        return result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Gợi ý tên sản phẩm khi đang gõ (mỗi từ đều được khớp như tiền tố).
+     */
+    public List<Suggestion> suggest(String prefix, int limit) {
+        List<Suggestion> out = new ArrayList<>();
+        for (Integer id : searchProducts(prefix, limit)) {
+            Doc doc = docs.get(id);
+            if (doc != null)
+                out.add(new Suggestion(id, doc.tenSanPham()));
+        }
+        return out;
+    }
+
+    /**
+     * Kết quả khớp tạm của một sản phẩm; variantIds null nghĩa là mọi biến thể.
+     */
+    private static final class Match {
+        double score;
+        Set<Integer> variantIds;
+    }
+
+    private Map<Integer, Match> match(List<String> tokens) {
+        if (tokens.isEmpty())
+            return Map.of();
+        int totalDocs = Math.max(1, docs.size());
+        Map<Integer, Match> result = null;
+        for (String token : tokens) {
+            Map<Integer, Match> tokenMatches = matchToken(token, totalDocs);
+            if (result == null) {
+                result = tokenMatches;
+            } else {
+                // AND: chỉ giữ sản phẩm khớp mọi từ
+                Map<Integer, Match> next = new HashMap<>();
+                for (Map.Entry<Integer, Match> e : result.entrySet()) {
+                    Match other = tokenMatches.get(e.getKey());
+                    if (other == null)
+                        continue;
+                    Match m = e.getValue();
+                    m.score += other.score;
+                    m.variantIds = intersect(m.variantIds, other.variantIds);
+                    if (m.variantIds != null && m.variantIds.isEmpty())
+                        continue;
+                    next.put(e.getKey(), m);
+                }
+                result = next;
+            }
+            if (result.isEmpty())
+                break;
+        }
+        return result;
+    }
+
+    private Map<Integer, Match> matchToken(String token, int totalDocs) {
+        Map<Integer, Match> out = new HashMap<>();
+        // Khớp chính xác và tiền tố: một dải liên tục trong từ điển đã sắp
+        for (Map.Entry<String, Map<Integer, Posting>> e : dictionary
+                .subMap(token, true, token + Character.MAX_VALUE, true).entrySet()) {
+            double factor = e.getKey().equals(token) ? 1.0 : PREFIX_FACTOR;
+            accumulate(out, e.getValue(), factor, totalDocs);
+        }
+        if (!out.isEmpty() || token.length() < 4)
+            return out;
+        // Gõ sai: thử các từ cùng ký tự đầu trong khoảng cách sửa cho phép
+        int maxDistance = token.length() >= 8 ? 2 : 1;
+        String first = token.substring(0, 1);
+        for (Map.Entry<String, Map<Integer, Posting>> e : dictionary
+                .subMap(first, true, first + Character.MAX_VALUE, true).entrySet()) {
+            if (SearchText.boundedEditDistance(token, e.getKey(), maxDistance) <= maxDistance)
+                accumulate(out, e.getValue(), FUZZY_FACTOR, totalDocs);
+        }
+        return out;
+    }
+
+    private void accumulate(Map<Integer, Match> out, Map<Integer, Posting> postings, double factor, int totalDocs) {
+        double idf = Math.log(1.0 + (double) totalDocs / Math.max(1, postings.size()));
+        for (Map.Entry<Integer, Posting> p : postings.entrySet()) {
+            Posting posting = p.getValue();
+            double score = posting.weight() * idf * factor;
+            Match m = out.get(p.getKey());
+            if (m == null) {
+                m = new Match();
+                m.variantIds = posting.productLevel() ? null : new HashSet<>(posting.variantIds());
+                out.put(p.getKey(), m);
+            } else if (m.variantIds != null) {
+                if (posting.productLevel())
+                    m.variantIds = null;
+                else
+                    m.variantIds.addAll(posting.variantIds());
+            }
+            m.score = Math.max(m.score, score);
+        }
+    }
+
+    private static Set<Integer> intersect(Set<Integer> a, Set<Integer> b) {
+        if (a == null)
+            return b;
+        if (b == null)
+            return a;
+        Set<Integer> out = new HashSet<>(a);
+        out.retainAll(b);
+        return out;
+    }
+
+    // =================== DỰNG CHỈ MỤC ===================
+
+    private void refreshIfNeeded() {
+        if (!loaded) {
+            lock.lock();
+            try {
+                if (!loaded)
+                    rebuildAll();
+            } finally {
+                lock.unlock();
+            }
+            return;
+        }
+        // Đang dựng lại toàn bộ: tìm trên chỉ mục hiện có, phần bẩn được làm ở lần sau
+        if (dirty.isEmpty() || rebuilding)
+            return;
+        lock.lock();
+        try {
+            if (!dirty.isEmpty()) {
+                List<Integer> ids = new ArrayList<>(dirty);
+                dirty.removeAll(ids);
+                ids.forEach(this::remove);
+                List<SanPham> products = new ArrayList<>();
+                ShopProductAssembler.forEachBatch(ids,
+                        batch -> products.addAll(sanPhamRepository.findAllForShopByIdIn(batch)));
+                index(products, dictionary, docs);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Dựng lại toàn bộ khi được yêu cầu hoặc quá max-age, ngoài luồng request.
+     */
+    @Scheduled(fixedDelayString = "${app.catalog.rebuild-check-ms:5000}",
+            initialDelayString = "${app.catalog.rebuild-check-ms:5000}")
+    public void scheduledRebuild() {
+        if (!loaded || (!fullRebuildRequired && Instant.now().isBefore(builtAt.plus(maxAge))))
+            return;
+        try {
+            readOnlyTransaction.executeWithoutResult(status -> {
+                lock.lock();
+                try {
+                    rebuildAll();
+                } finally {
+                    lock.unlock();
+                }
+            });
+        } catch (RuntimeException ex) {
+            logger.error("Lỗi khi dựng lại chỉ mục tìm kiếm sản phẩm", ex);
+        }
+    }
+
+    private void rebuildAll() {
+        // Như ShopCatalogSnapshot: xóa cờ và đóng dấu thời điểm trước khi dựng
+        fullRebuildRequired = false;
+        dirty.clear();
+        Instant startedAt = Instant.now();
+        builtAt = startedAt;
+        rebuilding = true;
+        try {
+            NavigableMap<String, Map<Integer, Posting>> newDictionary = new ConcurrentSkipListMap<>();
+            Map<Integer, Doc> newDocs = new ConcurrentHashMap<>();
+            // findAllForShop fetch-join danh mục và bộ sưu tập nên index() không nạp lười từng sản phẩm
+            index(sanPhamRepository.findAllForShop(), newDictionary, newDocs);
+            dictionary = newDictionary;
+            docs = newDocs;
+            loaded = true;
+            logger.info("Product search index rebuilt: {} products, {} terms in {} ms", docs.size(),
+                    dictionary.size(), Duration.between(startedAt, Instant.now()).toMillis());
+        } catch (RuntimeException ex) {
+            fullRebuildRequired = true;
+            throw ex;
+        } finally {
+            rebuilding = false;
+        }
+    }
+
+    private void remove(Integer maSanPham) {
+        Doc old = docs.remove(maSanPham);
+        if (old == null)
+            return;
+        for (String term : old.terms()) {
+            Map<Integer, Posting> postings = dictionary.get(term);
+            if (postings == null)
+                continue;
+            postings.remove(maSanPham);
+            if (postings.isEmpty())
+                dictionary.remove(term, postings);
+        }
+    }
+
+    private void index(List<SanPham> products, NavigableMap<String, Map<Integer, Posting>> dictionary,
+            Map<Integer, Doc> docs) {
+        if (products.isEmpty())
+            return;
+        List<Integer> ids = products.stream().map(SanPham::getMaSanPham).toList();
+        Map<Integer, List<Integer>> variantsByProduct = new HashMap<>();
+        Map<Integer, List<String[]>> variantTextByProduct = new HashMap<>();
+        ShopProductAssembler.forEachBatch(ids, batch -> {
+            for (Object[] r : bienTheSanPhamRepository.findShopRowsBySanPhamIdIn(batch)) {
+                Integer maSanPham = (Integer) r[0];
+                variantsByProduct.computeIfAbsent(maSanPham, k -> new ArrayList<>()).add((Integer) r[1]);
+                variantTextByProduct.computeIfAbsent(maSanPham, k -> new ArrayList<>())
+                        .add(new String[] { String.valueOf(r[1]), "sku", (String) r[2] });
+            }
+            for (Object[] r : bienTheThuocTinhRepository.findSearchRowsBySanPhamIdIn(batch)) {
+                variantTextByProduct.computeIfAbsent((Integer) r[0], k -> new ArrayList<>())
+                        .add(new String[] { String.valueOf(r[1]), "attr", (String) r[2] });
+            }
+        });
+
+        for (SanPham sp : products) {
+            Map<String, Posting> terms = new HashMap<>();
+            addProductField(terms, sp.getTenSanPham(), W_NAME);
+            addProductField(terms, sp.getMoTa(), W_DESCRIPTION);
+            if (sp.getDanhMuc() != null)
+                addProductField(terms, sp.getDanhMuc().getTenDanhMuc(), W_CATEGORY);
+            if (sp.getBoSuuTap() != null)
+                addProductField(terms, sp.getBoSuuTap().getTenBoSuuTap(), W_COLLECTION);
+            for (String[] v : variantTextByProduct.getOrDefault(sp.getMaSanPham(), List.of())) {
+                Integer maBienThe = Integer.valueOf(v[0]);
+                boolean sku = "sku".equals(v[1]);
+                addVariantField(terms, maBienThe, v[2], sku ? W_SKU : W_ATTRIBUTE);
+                if (sku) {
+                    // SKU viết liền ("BAN-001" -> "ban001") để gõ không dấu gạch vẫn khớp
+                    addVariantField(terms, maBienThe, String.join("", SearchText.tokenize(v[2])), W_SKU);
+                }
+            }
+            Integer id = sp.getMaSanPham();
+            terms.forEach((term, posting) -> dictionary
+                    .computeIfAbsent(term, k -> new ConcurrentHashMap<>())
+                    .put(id, posting));
+            docs.put(id, new Doc(sp.getTenSanPham(), String.join(" ", SearchText.tokenize(sp.getTenSanPham())),
+                    Set.copyOf(terms.keySet()),
+                    List.copyOf(variantsByProduct.getOrDefault(id, List.of()))));
+        }
+    }
+
+    private static void addProductField(Map<String, Posting> terms, String text, float weight) {
+        for (String token : SearchText.tokenize(text)) {
+            terms.merge(token, new Posting(weight, true, Set.of()), ProductSearchIndex::mergePosting);
+        }
+    }
+
+    private static void addVariantField(Map<String, Posting> terms, Integer maBienThe, String text, float weight) {
+        for (String token : SearchText.tokenize(text)) {
+            terms.merge(token, new Posting(weight, false, Set.of(maBienThe)), ProductSearchIndex::mergePosting);
+        }
+    }
+
+    private static Posting mergePosting(Posting a, Posting b) {
+        boolean productLevel = a.productLevel() || b.productLevel();
+        Set<Integer> variants = Set.of();
+        if (!productLevel) {
+            Set<Integer> merged = new HashSet<>(a.variantIds());
+            merged.addAll(b.variantIds());
+            variants = Set.copyOf(merged);
+        }
+        return new Posting(Math.max(a.weight(), b.weight()), productLevel, variants);
+    }
+}
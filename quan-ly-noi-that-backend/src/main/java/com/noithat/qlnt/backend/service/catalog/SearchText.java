@@ -0,0 +1,64 @@
+package com.noithat.qlnt.backend.service.catalog;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Chuẩn hóa văn bản cho tìm kiếm: bỏ dấu tiếng Việt ("bàn ăn" -> "ban an"),
+ * chữ thường, tách từ theo ký tự không phải chữ/số.
+ */
+public final class SearchText {
+
+    private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
+    private static final Pattern NON_ALNUM = Pattern.compile("[^a-z0-9]+");
+
+    private SearchText() {
+    }
+
+    public static String fold(String text) {
+        if (text == null)
+            return "";
+        // đ/Đ không phải ký tự tổ hợp nên NFD không tách được
+        String s = text.replace('đ', 'd').replace('Đ', 'D');
+        s = Normalizer.normalize(s, Normalizer.Form.NFD);
+        return COMBINING_MARKS.matcher(s).replaceAll("").toLowerCase();
+    }
+
+    public static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        for (String t : NON_ALNUM.split(fold(text))) {
+            if (!t.isEmpty())
+                tokens.add(t);
+        }
+        return tokens;
+    }
+
+    /**
+     * Khoảng cách Levenshtein, dừng sớm khi vượt quá max (trả về max + 1).
+     */
+    public static int boundedEditDistance(String a, String b, int max) {
+        if (Math.abs(a.length() - b.length()) > max)
+            return max + 1;
+        int[] prev = new int[b.length() + 1];
+        int[] curr = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++)
+            prev[j] = j;
+        for (int i = 1; i <= a.length(); i++) {
+            curr[0] = i;
+            int rowMin = curr[0];
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                curr[j] = Math.min(Math.min(curr[j - 1] + 1, prev[j] + 1), prev[j - 1] + cost);
+                rowMin = Math.min(rowMin, curr[j]);
+            }
+            if (rowMin > max)
+                return max + 1;
+            int[] tmp = prev;
+            prev = curr;
+            curr = tmp;
+        }
+        return prev[b.length()];
+    }
+}
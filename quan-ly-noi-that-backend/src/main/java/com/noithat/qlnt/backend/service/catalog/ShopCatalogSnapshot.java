@@ -0,0 +1,435 @@
+package com.noithat.qlnt.backend.service.catalog;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.noithat.qlnt.backend.dto.response.ShopProductPageResponseDto;
+import com.noithat.qlnt.backend.dto.response.ShopProductResponseDto;
+import com.noithat.qlnt.backend.entity.SanPham;
+import com.noithat.qlnt.backend.repository.SanPhamRepository;
+
+/**
+ * Read model đã tính sẵn cho trang shop: mỗi sản phẩm giữ một
+ * ShopProductResponseDto (khoảng giá, tồn kho, biến thể rẻ nhất, đánh giá...).
+ *
+ * Các service ghi gọi markProductChanged sau khi sửa sản phẩm/biến thể/tồn
+ * kho/giảm giá/đánh giá; sản phẩm được đánh dấu bẩn khi transaction commit và
+ * chỉ những sản phẩm đó được dựng lại (theo lô) ở lần đọc kế tiếp. Mốc bắt
+ * đầu/kết thúc của chương trình giảm giá cũng làm sản phẩm hết hạn, và toàn bộ
+ * snapshot được dựng lại định kỳ (max-age) để bù cho các thay đổi ngoài ứng
+ * dụng (trigger DB, script...).
+ *
+ * Chỉ lần đọc đầu tiên dựng toàn bộ trên luồng request. Sau đó việc dựng lại
+ * toàn bộ (markAllChanged, quá max-age) chạy trên luồng định kỳ, các request
+ * vẫn đọc snapshot cũ tới khi dựng xong.
+ */
+@Component
+public class ShopCatalogSnapshot {
+
+    private static final Logger logger = LoggerFactory.getLogger(ShopCatalogSnapshot.class);
+
+    private final SanPhamRepository sanPhamRepository;
+    private final ShopProductAssembler shopProductAssembler;
+    private final Duration maxAge;
+    private final List<CatalogChangeListener> listeners;
+    private final TransactionTemplate readOnlyTransaction;
+
+    private final NavigableMap<Integer, ShopProductAssembler.Entry> entries = new ConcurrentSkipListMap<>();
+    private final Set<Integer> dirty = ConcurrentHashMap.newKeySet();
+    private volatile boolean fullRebuildRequired = true;
+    private volatile Instant builtAt = Instant.EPOCH;
+    private volatile boolean loaded;
+    private volatile boolean rebuilding;
+    private final ReentrantLock lock = new ReentrantLock();
+    private volatile LocalDateTime nextExpiry;
+    // Tăng mỗi lần snapshot thay đổi; các danh sách đã sắp cũ hơn sẽ bị dựng lại
+    private volatile long version;
+    private final Map<ShopSort, SortedView> sortedViews = new ConcurrentHashMap<>();
+
+    private record SortedView(long version, List<ShopProductAssembler.Entry> entries) {
+    }
+
+    public ShopCatalogSnapshot(SanPhamRepository sanPhamRepository,
+            ShopProductAssembler shopProductAssembler,
+            List<CatalogChangeListener> listeners,
+            PlatformTransactionManager transactionManager,
+            @Value("${app.catalog.snapshot.max-age-seconds:600}") long maxAgeSeconds) {
+        this.sanPhamRepository = sanPhamRepository;
+        this.shopProductAssembler = shopProductAssembler;
+        this.listeners = listeners;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.maxAge = Duration.ofSeconds(Math.max(1, maxAgeSeconds));
+    }
+
+    // =================== WRITE SIDE ===================
+
+    /**
+     * Đánh dấu sản phẩm cần dựng lại. Nếu đang trong transaction thì chỉ có hiệu
+     * lực sau khi commit, để lần đọc kế tiếp thấy dữ liệu đã ghi.
+     */
+    public void markProductChanged(Integer maSanPham) {
+        if (maSanPham == null)
+            return;
+        markProductsChanged(Set.of(maSanPham));
+    }
+
+    public void markProductsChanged(Iterable<Integer> maSanPhams) {
+        if (maSanPhams == null)
+            return;
+        Set<Integer> ids = new HashSet<>();
+        maSanPhams.forEach(id -> {
+            if (id != null)
+                ids.add(id);
+        });
+        if (!ids.isEmpty())
+            afterCommit(() -> {
+                dirty.addAll(ids);
+                listeners.forEach(l -> l.productsChanged(ids));
+            });
+    }
+
+    /**
+     * Như markProductChanged nhưng chỉ tồn kho đổi (StockMutationEngine): các
+     * listener không hiển thị tồn kho không phải xóa gì.
+     */
+    public void markStockChanged(Integer maSanPham) {
+        if (maSanPham == null)
+            return;
+        Set<Integer> ids = Set.of(maSanPham);
+        afterCommit(() -> {
+            dirty.addAll(ids);
+            listeners.forEach(l -> l.stockChanged(ids));
+        });
+    }
+
+    /**
+     * Dựng lại toàn bộ ở lần kiểm tra định kỳ kế tiếp (ví dụ khi đổi tên danh
+     * mục/nhà cung cấp).
+     */
+    public void markAllChanged() {
+        afterCommit(() -> {
+            fullRebuildRequired = true;
+            listeners.forEach(CatalogChangeListener::allChanged);
+        });
+    }
+
+    private void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    // =================== READ SIDE ===================
+
+    /**
+     * Lọc, sắp xếp và phân trang trên snapshot. danhMucIds là tập danh mục
+     * (đã mở rộng con cháu) cần lọc, null nếu không lọc theo danh mục.
+     * relevance là điểm của các sản phẩm khớp từ khóa (từ ProductSearchIndex),
+     * null nếu không tìm theo từ khóa.
+     *
+     * Với cursor, vị trí bắt đầu được tìm nhị phân trên danh sách đã sắp nên
+     * trang sâu không phải quét lại các trang trước; totalItems/totalPages khi
+     * đó là -1 (không đếm). Không có cursor thì phân trang theo page như cũ.
+     */
+    public ShopProductPageResponseDto query(ShopProductQuery query, Set<Integer> danhMucIds,
+            Map<Integer, Double> relevance) {
+        refreshIfNeeded();
+        ShopSort sort = query.sapXep();
+        Function<ShopProductAssembler.Entry, Comparable<?>> keyFn;
+        List<ShopProductAssembler.Entry> sorted;
+        if (sort == ShopSort.RELEVANCE && relevance != null) {
+            // Điểm phụ thuộc truy vấn nên sắp riêng tập kết quả (thường nhỏ)
+            keyFn = e -> relevance.get(e.dto().getMaSanPham());
+            sorted = new ArrayList<>(relevance.size());
+            for (Integer id : relevance.keySet()) {
+                ShopProductAssembler.Entry e = entries.get(id);
+                if (e != null)
+                    sorted.add(e);
+            }
+            sorted.sort((a, b) -> sort.compare(keyFn.apply(a), a.dto().getMaSanPham(), keyFn.apply(b),
+                    b.dto().getMaSanPham()));
+        } else {
+            keyFn = e -> sort.keyOf(e.dto());
+            sorted = sortedView(sort);
+        }
+        Predicate<ShopProductAssembler.Entry> filter = buildFilter(query, danhMucIds, relevance);
+        int limit = query.size() != null ? Math.max(1, query.size()) : Integer.MAX_VALUE;
+
+        List<ShopProductResponseDto> items = new ArrayList<>();
+        boolean hasNext = false;
+        int page;
+        long totalItems;
+        if (query.cursor() != null) {
+            ShopSort.Cursor cursor = sort.decodeCursor(query.cursor());
+            for (int i = firstAfter(sorted, sort, keyFn, cursor); i < sorted.size(); i++) {
+                ShopProductAssembler.Entry e = sorted.get(i);
+                if (!filter.test(e))
+                    continue;
+                if (items.size() >= limit) {
+                    hasNext = true;
+                    break;
+                }
+                items.add(e.dto());
+            }
+            page = -1;
+            totalItems = -1;
+        } else {
+            page = limit == Integer.MAX_VALUE || query.page() == null ? 0 : Math.max(0, query.page());
+            long skip = (long) page * (limit == Integer.MAX_VALUE ? 0 : limit);
+            totalItems = 0;
+            for (ShopProductAssembler.Entry e : sorted) {
+                if (!filter.test(e))
+                    continue;
+                totalItems++;
+                if (skip > 0) {
+                    skip--;
+                    continue;
+                }
+                if (items.size() < limit)
+                    items.add(e.dto());
+                else
+                    hasNext = true;
+            }
+        }
+
+        int size = limit == Integer.MAX_VALUE ? items.size() : limit;
+        return ShopProductPageResponseDto.builder()
+                .items(items)
+                .page(page)
+                .size(size)
+                .totalItems(totalItems)
+                .totalPages(totalItems < 0 ? -1 : (size == 0 ? 0 : (int) Math.ceil((double) totalItems / size)))
+                .hasNext(hasNext)
+                .nextCursor(hasNext && !items.isEmpty() ? encodeCursor(sort, keyFn, items.get(items.size() - 1)) : null)
+                .build();
+    }
+
+    private String encodeCursor(ShopSort sort, Function<ShopProductAssembler.Entry, Comparable<?>> keyFn,
+            ShopProductResponseDto last) {
+        ShopProductAssembler.Entry e = entries.get(last.getMaSanPham());
+        return sort.encodeCursor(last.getMaSanPham(), e != null ? keyFn.apply(e) : null);
+    }
+
+    private Predicate<ShopProductAssembler.Entry> buildFilter(ShopProductQuery q, Set<Integer> danhMucIds,
+            Map<Integer, Double> relevance) {
+        return e -> {
+            ShopProductResponseDto dto = e.dto();
+            if (danhMucIds != null
+                    && (dto.getCategory() == null || !danhMucIds.contains(dto.getCategory().getId())))
+                return false;
+            if (q.boSuuTapId() != null && !q.boSuuTapId().equals(e.maBoSuuTap()))
+                return false;
+            if (q.nhaCungCapId() != null
+                    && (dto.getSupplier() == null || !q.nhaCungCapId().equals(dto.getSupplier().getId())))
+                return false;
+            if (q.giaTu() != null || q.giaDen() != null) {
+                Double price = ShopSort.effectivePrice(dto);
+                if (price == null)
+                    return false;
+                if (q.giaTu() != null && price < q.giaTu())
+                    return false;
+                if (q.giaDen() != null && price > q.giaDen())
+                    return false;
+            }
+            if (q.conHang() && (dto.getTotalStock() == null || dto.getTotalStock() <= 0))
+                return false;
+            if (q.dangGiamGia() && !e.dangGiamGia())
+                return false;
+            if (relevance != null && !relevance.containsKey(dto.getMaSanPham()))
+                return false;
+            return true;
+        };
+    }
+
+    /**
+     * Vị trí đầu tiên nằm sau cursor trong danh sách đã sắp.
+     */
+    private int firstAfter(List<ShopProductAssembler.Entry> sorted, ShopSort sort,
+            Function<ShopProductAssembler.Entry, Comparable<?>> keyFn, ShopSort.Cursor cursor) {
+        int lo = 0;
+        int hi = sorted.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            ShopProductAssembler.Entry e = sorted.get(mid);
+            if (sort.compare(keyFn.apply(e), e.dto().getMaSanPham(), cursor.key(), cursor.maSanPham()) <= 0)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Danh sách entry đã sắp theo một kiểu, dựng lại khi snapshot đổi phiên bản.
+     */
+    private List<ShopProductAssembler.Entry> sortedView(ShopSort sort) {
+        long current = version;
+        SortedView view = sortedViews.get(sort);
+        if (view != null && view.version() == current)
+            return view.entries();
+        List<ShopProductAssembler.Entry> list = new ArrayList<>(entries.values());
+        if (sort != ShopSort.FEATURED) {
+            Comparator<ShopProductResponseDto> cmp = sort.comparator();
+            list.sort((a, b) -> cmp.compare(a.dto(), b.dto()));
+        }
+        sortedViews.put(sort, new SortedView(current, list));
+        return list;
+    }
+
+    /**
+     * Dựng lại phần bẩn của snapshot. Phải được gọi trong một transaction
+     * (readOnly là đủ) vì assembler truy vấn DB.
+     */
+    private void refreshIfNeeded() {
+        if (!loaded) {
+            lock.lock();
+            try {
+                if (!loaded)
+                    rebuildAll();
+            } finally {
+                lock.unlock();
+            }
+            return;
+        }
+        collectExpired();
+        // Đang dựng lại toàn bộ: đọc snapshot hiện có, phần bẩn được làm ở lần đọc sau
+        if (dirty.isEmpty() || rebuilding)
+            return;
+        lock.lock();
+        try {
+            if (!dirty.isEmpty())
+                refreshDirty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Dựng lại toàn bộ khi được yêu cầu hoặc snapshot quá max-age, ngoài luồng
+     * request. Chưa ai đọc thì chưa dựng (lần đọc đầu sẽ dựng).
+     */
+    @Scheduled(fixedDelayString = "${app.catalog.rebuild-check-ms:5000}",
+            initialDelayString = "${app.catalog.rebuild-check-ms:5000}")
+    public void scheduledRebuild() {
+        if (!loaded || (!fullRebuildRequired && Instant.now().isBefore(builtAt.plus(maxAge))))
+            return;
+        try {
+            readOnlyTransaction.executeWithoutResult(status -> {
+                lock.lock();
+                try {
+                    rebuildAll();
+                } finally {
+                    lock.unlock();
+                }
+            });
+        } catch (RuntimeException ex) {
+            logger.error("Lỗi khi dựng lại snapshot trang shop", ex);
+        }
+    }
+
+    private void collectExpired() {
+        LocalDateTime expiry = nextExpiry;
+        if (expiry == null)
+            return;
+        LocalDateTime now = LocalDateTime.now();
+        if (now.isBefore(expiry))
+            return;
+        for (Map.Entry<Integer, ShopProductAssembler.Entry> e : entries.entrySet()) {
+            LocalDateTime validUntil = e.getValue().validUntil();
+            if (validUntil != null && !now.isBefore(validUntil))
+                dirty.add(e.getKey());
+        }
+    }
+
+    private void rebuildAll() {
+        // Xóa cờ và đóng dấu thời điểm trước khi dựng: thay đổi commit trong lúc dựng sẽ bật
+        // lại cờ/dirty, còn lần kiểm tra định kỳ không thấy snapshot quá hạn mà dựng lần nữa
+        fullRebuildRequired = false;
+        dirty.clear();
+        Instant startedAt = Instant.now();
+        builtAt = startedAt;
+        rebuilding = true;
+        try {
+            List<SanPham> products = sanPhamRepository.findAllForShop();
+            List<ShopProductAssembler.Entry> built = shopProductAssembler.assembleEntries(products);
+            Set<Integer> present = new HashSet<>();
+            for (ShopProductAssembler.Entry e : built) {
+                entries.put(e.dto().getMaSanPham(), e);
+                present.add(e.dto().getMaSanPham());
+            }
+            entries.keySet().retainAll(present);
+            recomputeNextExpiry();
+            version++;
+            loaded = true;
+            logger.info("Shop catalog snapshot rebuilt: {} products in {} ms", built.size(),
+                    Duration.between(startedAt, Instant.now()).toMillis());
+        } catch (RuntimeException ex) {
+            fullRebuildRequired = true;
+            throw ex;
+        } finally {
+            rebuilding = false;
+        }
+    }
+
+    private void refreshDirty() {
+        List<Integer> ids = new ArrayList<>(dirty);
+        dirty.removeAll(ids);
+        List<SanPham> products = new ArrayList<>();
+        ShopProductAssembler.forEachBatch(ids, batch -> products.addAll(sanPhamRepository.findAllForShopByIdIn(batch)));
+        Set<Integer> found = new HashSet<>();
+        for (ShopProductAssembler.Entry e : shopProductAssembler.assembleEntries(products)) {
+            entries.put(e.dto().getMaSanPham(), e);
+            found.add(e.dto().getMaSanPham());
+        }
+        // Sản phẩm đã bị xóa
+        for (Integer id : ids) {
+            if (!found.contains(id))
+                entries.remove(id);
+        }
+        recomputeNextExpiry();
+        version++;
+    }
+
+    private void recomputeNextExpiry() {
+        LocalDateTime next = null;
+        for (ShopProductAssembler.Entry e : entries.values()) {
+            LocalDateTime validUntil = e.validUntil();
+            if (validUntil != null && (next == null || validUntil.isBefore(next)))
+                next = validUntil;
+        }
+        nextExpiry = next;
+        LocalDateTime at = next;
+        listeners.forEach(l -> l.contentExpiresAt(at));
+    }
+}
@@ -0,0 +1,277 @@
+package com.noithat.qlnt.backend.service.catalog;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import org.springframework.stereotype.Component;
+
+import com.noithat.qlnt.backend.dto.response.ShopProductResponseDto;
+import com.noithat.qlnt.backend.entity.SanPham;
+import com.noithat.qlnt.backend.repository.BienTheGiamGiaRepository;
+import com.noithat.qlnt.backend.repository.BienTheSanPhamRepository;
+import com.noithat.qlnt.backend.repository.DanhGiaSanPhamRepository;
+import com.noithat.qlnt.backend.repository.HinhAnhSanPhamRepository;
+
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Dựng ShopProductResponseDto cho trang shop theo lô.
+ *
+ * Với một danh sách sản phẩm (đã fetch sẵn danh mục & nhà cung cấp), chỉ chạy
+ * 4 truy vấn theo tập (biến thể, ảnh, đánh giá, giảm giá) cho mỗi lô mã sản
+ * phẩm, rồi ghép kết quả trong bộ nhớ. Số round-trip không phụ thuộc vào số
+ * sản phẩm hay số biến thể.
+ */
+@Component
+@RequiredArgsConstructor
+public class ShopProductAssembler {
+
+    // SQL Server giới hạn 2100 tham số mỗi câu lệnh; chia mệnh đề IN thành các lô nhỏ hơn
+    static final int IN_CLAUSE_BATCH_SIZE = 1000;
+
+    private final BienTheSanPhamRepository bienTheSanPhamRepository;
+    private final HinhAnhSanPhamRepository hinhAnhSanPhamRepository;
+    private final DanhGiaSanPhamRepository danhGiaSanPhamRepository;
+    private final BienTheGiamGiaRepository bienTheGiamGiaRepository;
+
+    private record VariantRow(Integer maBienThe, String sku, BigDecimal giaBan, Integer soLuongTon) {
+    }
+
+    private record DiscountRow(BigDecimal giaSauGiam, LocalDateTime ngayBatDau, LocalDateTime ngayKetThuc) {
+    }
+
+    private record RatingRow(Double average, Long count) {
+    }
+
+    /**
+     * Kết quả dựng của một sản phẩm. validUntil là thời điểm sớm nhất mà một
+     * chương trình giảm giá của sản phẩm bắt đầu/kết thúc, sau đó DTO cần dựng lại
+     * (null nếu không có mốc nào trong tương lai). maBoSuuTap và dangGiamGia chỉ
+     * dùng để lọc, không có trong DTO trả về.
+     */
+    public record Entry(ShopProductResponseDto dto, LocalDateTime validUntil, Integer maBoSuuTap,
+            boolean dangGiamGia) {
+    }
+
+    /**
+     * Dựng DTO cho các sản phẩm theo đúng thứ tự đầu vào.
+     */
+    public List<ShopProductResponseDto> assemble(List<SanPham> products) {
+        return assembleEntries(products).stream().map(Entry::dto).toList();
+    }
+
+    /**
+     * Như assemble nhưng trả kèm thời hạn hiệu lực của từng DTO.
+     */
+    public List<Entry> assembleEntries(List<SanPham> products) {
+        if (products == null || products.isEmpty()) {
+            return new ArrayList<>();
+        }
+        List<Integer> ids = products.stream().map(SanPham::getMaSanPham).toList();
+
+        Map<Integer, List<VariantRow>> variantsByProduct = new HashMap<>();
+        Map<Integer, List<String>> imagesByProduct = new HashMap<>();
+        Map<Integer, RatingRow> ratingByProduct = new HashMap<>();
+        // Chỉ giữ mapping đầu tiên của mỗi biến thể (tương đương discounts.get(0) trước đây)
+        Map<Integer, DiscountRow> discountByVariant = new HashMap<>();
+
+        forEachBatch(ids, batch -> {
+            for (Object[] r : bienTheSanPhamRepository.findShopRowsBySanPhamIdIn(batch)) {
+                variantsByProduct.computeIfAbsent((Integer) r[0], k -> new ArrayList<>())
+                        .add(new VariantRow((Integer) r[1], (String) r[2], (BigDecimal) r[3], (Integer) r[4]));
+            }
+            for (Object[] r : hinhAnhSanPhamRepository.findImageUrlsBySanPhamIdIn(batch)) {
+                imagesByProduct.computeIfAbsent((Integer) r[0], k -> new ArrayList<>()).add((String) r[1]);
+            }
+            for (Object[] r : danhGiaSanPhamRepository.findRatingSummaryByProductIdIn(batch)) {
+                ratingByProduct.put((Integer) r[0],
+                        new RatingRow(r[1] != null ? ((Number) r[1]).doubleValue() : null,
+                                r[2] != null ? ((Number) r[2]).longValue() : 0L));
+            }
+            for (Object[] r : bienTheGiamGiaRepository.findDiscountRowsBySanPhamIdIn(batch)) {
+                discountByVariant.putIfAbsent((Integer) r[0],
+                        new DiscountRow((BigDecimal) r[1], (LocalDateTime) r[2], (LocalDateTime) r[3]));
+            }
+        });
+
+        LocalDateTime now = LocalDateTime.now();
+        List<Entry> result = new ArrayList<>(products.size());
+        for (SanPham sp : products) {
+            List<VariantRow> variants = variantsByProduct.getOrDefault(sp.getMaSanPham(), Collections.emptyList());
+            result.add(new Entry(
+                    toDto(sp, variants,
+                            imagesByProduct.getOrDefault(sp.getMaSanPham(), new ArrayList<>()),
+                            ratingByProduct.get(sp.getMaSanPham()),
+                            discountByVariant,
+                            now),
+                    nextDiscountBoundary(variants, discountByVariant, now),
+                    sp.getBoSuuTap() != null ? sp.getBoSuuTap().getMaBoSuuTap() : null,
+                    hasActiveDiscount(variants, discountByVariant, now)));
+        }
+        return result;
+    }
+
+    private boolean hasActiveDiscount(List<VariantRow> variants, Map<Integer, DiscountRow> discountByVariant,
+            LocalDateTime now) {
+        for (VariantRow bt : variants) {
+            DiscountRow disc = discountByVariant.get(bt.maBienThe());
+            if (disc != null && disc.giaSauGiam() != null && isActive(disc, now))
+                return true;
+        }
+        return false;
+    }
+
+    private static boolean isActive(DiscountRow disc, LocalDateTime now) {
+        return (disc.ngayBatDau() == null || !now.isBefore(disc.ngayBatDau()))
+                && (disc.ngayKetThuc() == null || !now.isAfter(disc.ngayKetThuc()));
+    }
+
+    private LocalDateTime nextDiscountBoundary(List<VariantRow> variants, Map<Integer, DiscountRow> discountByVariant,
+            LocalDateTime now) {
+        LocalDateTime next = null;
+        for (VariantRow bt : variants) {
+            DiscountRow disc = discountByVariant.get(bt.maBienThe());
+            if (disc == null)
+                continue;
+            LocalDateTime boundary = null;
+            if (disc.ngayBatDau() != null && now.isBefore(disc.ngayBatDau())) {
+                boundary = disc.ngayBatDau();
+            } else if (disc.ngayKetThuc() != null && !now.isAfter(disc.ngayKetThuc())) {
+                // Hết hiệu lực ngay sau ngayKetThuc
+                boundary = disc.ngayKetThuc().plusNanos(1);
+            }
+            if (boundary != null && (next == null || boundary.isBefore(next)))
+                next = boundary;
+        }
+        return next;
+    }
+
+    /**
+     * Chạy hàm truy vấn trên từng lô mã (tối đa IN_CLAUSE_BATCH_SIZE phần tử).
+     */
+    public static <T> void forEachBatch(List<T> ids, Consumer<List<T>> query) {
+        for (int from = 0; from < ids.size(); from += IN_CLAUSE_BATCH_SIZE) {
+            query.accept(ids.subList(from, Math.min(ids.size(), from + IN_CLAUSE_BATCH_SIZE)));
+        }
+    }
+
+    private ShopProductResponseDto toDto(SanPham sp, List<VariantRow> variants, List<String> imageUrls,
+            RatingRow rating, Map<Integer, DiscountRow> discountByVariant, LocalDateTime now) {
+        double min = Double.MAX_VALUE;
+        double max = 0.0;
+        int totalStock = 0;
+        int availableVariantCount = 0;
+
+        // Giá gốc tham gia vào khoảng giá (min/max) giống như trước
+        for (VariantRow bt : variants) {
+            if (bt.giaBan() != null) {
+                double price = bt.giaBan().doubleValue();
+                if (price < min)
+                    min = price;
+                if (price > max)
+                    max = price;
+            }
+            int qty = bt.soLuongTon() == null ? 0 : bt.soLuongTon();
+            totalStock += qty;
+            if (qty > 0)
+                availableVariantCount++;
+        }
+
+        if (min == Double.MAX_VALUE)
+            min = 0.0;
+
+        Double lowestFinalPrice = null;
+        Integer lowestFinalVariantId = null;
+        String lowestFinalVariantSku = null;
+        Double lowestFinalVariantOriginalPrice = null;
+        Integer lowestFinalVariantDiscountPercent = null;
+        Double lowestFinalVariantDiscountAmount = null;
+
+        for (VariantRow bt : variants) {
+            Double variantOriginal = bt.giaBan() != null ? bt.giaBan().doubleValue() : null;
+            Double variantFinal = variantOriginal;
+
+            DiscountRow disc = discountByVariant.get(bt.maBienThe());
+            if (disc != null) {
+                if (isActive(disc, now) && disc.giaSauGiam() != null) {
+                    variantFinal = disc.giaSauGiam().doubleValue();
+                }
+            }
+
+            if (variantFinal != null) {
+                if (variantFinal < min)
+                    min = variantFinal;
+                if (variantFinal > max)
+                    max = variantFinal;
+
+                if (lowestFinalPrice == null || variantFinal < lowestFinalPrice) {
+                    lowestFinalPrice = variantFinal;
+                    lowestFinalVariantId = bt.maBienThe();
+                    lowestFinalVariantSku = bt.sku();
+                    lowestFinalVariantOriginalPrice = variantOriginal;
+                    if (variantOriginal != null && variantOriginal > 0) {
+                        double amt = variantOriginal - variantFinal;
+                        lowestFinalVariantDiscountAmount = amt;
+                        lowestFinalVariantDiscountPercent = (int) Math.round((amt / variantOriginal) * 100.0);
+                    } else {
+                        lowestFinalVariantDiscountAmount = null;
+                        lowestFinalVariantDiscountPercent = null;
+                    }
+                }
+            }
+        }
+
+        // Không suy ra % giảm từ khoảng giá; chỉ dùng giảm giá thực của biến thể
+        int discountPercent = lowestFinalVariantDiscountPercent != null ? lowestFinalVariantDiscountPercent : 0;
+
+        ShopProductResponseDto.ShopProductResponseDtoBuilder builder = ShopProductResponseDto.builder()
+                .maSanPham(sp.getMaSanPham())
+                .tenSanPham(sp.getTenSanPham())
+                .moTa(sp.getMoTa())
+                .id(sp.getMaSanPham())
+                .name(sp.getTenSanPham())
+                // include category and supplier details for frontend filtering
+                .category(sp.getDanhMuc() != null
+                        ? ShopProductResponseDto.CategoryDto.builder()
+                                .id(sp.getDanhMuc().getMaDanhMuc())
+                                .name(sp.getDanhMuc().getTenDanhMuc())
+                                .build()
+                        : null)
+                .supplier(sp.getNhaCungCap() != null
+                        ? ShopProductResponseDto.SupplierDto.builder()
+                                .id(sp.getNhaCungCap().getMaNhaCungCap())
+                                .name(sp.getNhaCungCap().getTenNhaCungCap())
+                                .build()
+                        : null)
+                .price(min > 0 ? min : null)
+                .originalPrice(max > 0 ? max : null)
+                .stockQuantity(totalStock)
+                .minPrice(min)
+                .maxPrice(max)
+                .totalStock(totalStock)
+                .availableVariantCount(availableVariantCount)
+                .soLuongBienThe(variants.size())
+                .images(imageUrls)
+                .discountPercent(discountPercent)
+                .averageRating(rating != null ? rating.average() : null)
+                .reviewCount(rating != null ? rating.count().intValue() : 0)
+                .diemThuong(sp.getDiemThuong());
+
+        if (lowestFinalVariantId != null) {
+            builder.lowestVariantId(lowestFinalVariantId)
+                    .lowestVariantSku(lowestFinalVariantSku)
+                    .lowestVariantPrice(lowestFinalPrice)
+                    .lowestVariantOriginalPrice(lowestFinalVariantOriginalPrice)
+                    .lowestVariantDiscountAmount(lowestFinalVariantDiscountAmount)
+                    .lowestVariantDiscountPercent(lowestFinalVariantDiscountPercent);
+        }
+
+        return builder.build();
+    }
+}
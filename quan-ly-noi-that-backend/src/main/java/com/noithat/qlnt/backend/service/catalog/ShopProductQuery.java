@@ -0,0 +1,40 @@
+package com.noithat.qlnt.backend.service.catalog;
+
+/**
+ * Bộ lọc, sắp xếp và phân trang cho /api/products/shop.
+ *
+ * danhMucId lọc cả các danh mục con cháu. Có tuKhoa mà không chọn kiểu sắp
+ * xếp thì sắp theo độ liên quan. Nếu có cursor thì phân trang
+ * keyset (bỏ qua page); nếu không thì page là số trang tính từ 0. size null
+ * nghĩa là trả toàn bộ kết quả.
+ */
+public record ShopProductQuery(
+        String tuKhoa,
+        Integer danhMucId,
+        Integer boSuuTapId,
+        Integer nhaCungCapId,
+        Double giaTu,
+        Double giaDen,
+        boolean conHang,
+        boolean dangGiamGia,
+        ShopSort sapXep,
+        String cursor,
+        Integer page,
+        Integer size) {
+
+    public ShopProductQuery {
+        if (tuKhoa != null && tuKhoa.isBlank())
+            tuKhoa = null;
+        if (cursor != null && cursor.isBlank())
+            cursor = null;
+        if (sapXep == null)
+            sapXep = tuKhoa != null ? ShopSort.RELEVANCE : ShopSort.FEATURED;
+        if (sapXep == ShopSort.RELEVANCE && tuKhoa == null)
+            sapXep = ShopSort.FEATURED;
+    }
+
+    public static ShopProductQuery all() {
+        return new ShopProductQuery(null, null, null, null, null, null, false, false, ShopSort.FEATURED, null, null,
+                null);
+    }
+}
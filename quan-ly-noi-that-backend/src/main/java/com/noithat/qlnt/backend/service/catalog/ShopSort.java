@@ -0,0 +1,120 @@
+package com.noithat.qlnt.backend.service.catalog;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.function.Function;
+
+import com.noithat.qlnt.backend.dto.response.ShopProductResponseDto;
+
+/**
+ * Các kiểu sắp xếp của trang shop (tham số sap_xep) và mã hóa cursor keyset.
+ *
+ * Mỗi kiểu sắp theo (khóa, mã sản phẩm) nên thứ tự là toàn phần; cursor chỉ
+ * cần lưu cặp giá trị của phần tử cuối trang để tìm vị trí trang sau.
+ * RELEVANCE lấy khóa là điểm từ chỉ mục tìm kiếm (không nằm trong DTO).
+ */
+public enum ShopSort {
+    FEATURED("featured", false, null, false, false, false),
+    NEWEST("newest", false, null, false, false, true),
+    PRICE_LOW("price-low", true, ShopSort::effectivePrice, true, false, false),
+    PRICE_HIGH("price-high", true, ShopSort::effectivePrice, true, true, false),
+    RATING("rating", true, ShopProductResponseDto::getAverageRating, true, true, false),
+    NAME("name", true, dto -> dto.getTenSanPham() != null ? dto.getTenSanPham().toLowerCase() : null, false, false,
+            false),
+    RELEVANCE("relevance", true, null, true, true, false);
+
+    private final String code;
+    private final boolean keyed;
+    private final Function<ShopProductResponseDto, Comparable<?>> keyExtractor;
+    private final boolean numericKey;
+    private final boolean keyDescending;
+    private final boolean idDescending;
+
+    ShopSort(String code, boolean keyed, Function<ShopProductResponseDto, Comparable<?>> keyExtractor,
+            boolean numericKey, boolean keyDescending, boolean idDescending) {
+        this.code = code;
+        this.keyed = keyed;
+        this.keyExtractor = keyExtractor;
+        this.numericKey = numericKey;
+        this.keyDescending = keyDescending;
+        this.idDescending = idDescending;
+    }
+
+    public String getCode() {
+        return code;
+    }
+
+    /**
+     * Giá hiển thị: giá cuối (sau giảm) của biến thể rẻ nhất, nếu không có thì giá min.
+     */
+    public static Double effectivePrice(ShopProductResponseDto dto) {
+        return dto.getLowestVariantPrice() != null ? dto.getLowestVariantPrice() : dto.getMinPrice();
+    }
+
+    /**
+     * Mặc định FEATURED (theo mã sản phẩm) khi tham số rỗng hoặc không hợp lệ.
+     */
+    public static ShopSort fromCode(String code) {
+        if (code != null) {
+            for (ShopSort s : values()) {
+                if (s.code.equalsIgnoreCase(code.trim()))
+                    return s;
+            }
+        }
+        return FEATURED;
+    }
+
+    public Comparable<?> keyOf(ShopProductResponseDto dto) {
+        return keyExtractor != null ? keyExtractor.apply(dto) : null;
+    }
+
+    public Comparator<ShopProductResponseDto> comparator() {
+        return (a, b) -> compare(keyOf(a), a.getMaSanPham(), keyOf(b), b.getMaSanPham());
+    }
+
+    /**
+     * So sánh hai vị trí (khóa, mã). Khóa null luôn xếp cuối.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public int compare(Comparable keyA, Integer idA, Comparable keyB, Integer idB) {
+        if (keyed) {
+            if (keyA == null || keyB == null) {
+                if (keyA != keyB)
+                    return keyA == null ? 1 : -1;
+            } else {
+                int c = keyA.compareTo(keyB);
+                if (c != 0)
+                    return keyDescending ? -c : c;
+            }
+        }
+        int c = Integer.compare(idA, idB);
+        return idDescending ? -c : c;
+    }
+
+    // =================== CURSOR ===================
+
+    public record Cursor(Integer maSanPham, Comparable<?> key) {
+    }
+
+    public String encodeCursor(Integer maSanPham, Comparable<?> key) {
+        String raw = maSanPham + "|" + (key != null ? key.toString() : "");
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public Cursor decodeCursor(String cursor) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int sep = raw.indexOf('|');
+            Integer id = Integer.valueOf(raw.substring(0, sep));
+            String keyText = raw.substring(sep + 1);
+            Comparable<?> key = null;
+            if (keyed && !keyText.isEmpty()) {
+                key = numericKey ? Double.valueOf(keyText) : keyText;
+            }
+            return new Cursor(id, key);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Cursor không hợp lệ: " + cursor);
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package com.noithat.qlnt.backend.service.checkout;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.noithat.qlnt.backend.dto.request.CheckoutSummaryRequest;
+import com.noithat.qlnt.backend.dto.request.ThanhToanRequest;
+import com.noithat.qlnt.backend.dto.response.CheckoutSummaryResponse;
+import com.noithat.qlnt.backend.entity.KhachHang;
+import com.noithat.qlnt.backend.entity.Voucher;
+import com.noithat.qlnt.backend.repository.KhachHangRepository;
+import com.noithat.qlnt.backend.service.CauHinhService;
+import com.noithat.qlnt.backend.service.VipBenefitProcessor;
+import com.noithat.qlnt.backend.service.checkout.VariantPriceCache.GiaBienThe;
+import com.noithat.qlnt.backend.service.voucher.VoucherEligibilityIndex;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Tính tóm tắt thanh toán trong Java, cùng kết quả với dbo.sp_GetCheckoutSummary
+ * nhưng không cần TVP SQL Server và không đi DB cho mỗi lần đổi giỏ hàng (giá
+ * từ VariantPriceCache, voucher từ VoucherEligibilityIndex).
+ *
+ * Thứ tự tính:
+ * 1. Tạm tính = tổng (giá hiển thị x số lượng), giá hiển thị là giá giảm nếu
+ *    chương trình đang chạy.
+ * 2. Giảm VIP = phần trăm tốt nhất của hạng trên tạm tính (VipBenefitProcessor).
+ * 3. Giảm voucher: voucher còn dùng được cho hạng và tạm tính; PERCENTAGE tính
+ *    trên tạm tính, chặn bởi mức giảm tối đa; FIXED giảm thẳng.
+ * 4. Giảm điểm = điểm dùng x redeem_money_per_point.
+ *    Các khoản giảm không vượt tạm tính.
+ * 5. Phí giao hàng theo cấu hình (configKeyShip), "Miễn phí" nếu hạng được
+ *    miễn phí vận chuyển cho tạm tính này.
+ * 6. Điểm nhận được = (tiền hàng sau giảm / reward_money_per_point) x
+ *    reward_point_per_money + điểm sản phẩm x số lượng + điểm thưởng VIP.
+ *
+ * app.checkout.pricing.engine chọn nơi tính: procedure (mặc định), java, hoặc
+ * shadow (trả kết quả procedure; một phần yêu cầu theo shadow-sample-rate được
+ * tính lại ở đây trên một luồng nền và ghi log mọi chênh lệch) để đối chiếu
+ * trên giỏ hàng thật trước khi chuyển sang java. Việc đối chiếu không làm chậm
+ * yêu cầu: hàng đợi đầy thì bỏ qua lần đó.
+ */
+@Component
+public class CheckoutPricingEngine {
+
+    private static final Logger logger = LoggerFactory.getLogger(CheckoutPricingEngine.class);
+
+    public static final String MIEN_PHI = "Miễn phí";
+    static final String SHIP_MAC_DINH = "SHIPPING_FEE_STANDARD";
+
+    private final VariantPriceCache variantPriceCache;
+    private final KhachHangRepository khachHangRepository;
+    private final VipBenefitProcessor vipBenefitProcessor;
+    private final VoucherEligibilityIndex voucherEligibilityIndex;
+    private final CauHinhService cauHinhService;
+    private final String engine;
+    private final double tiLeDoiChieu;
+    private final ThreadPoolExecutor doiChieuExecutor;
+
+    public CheckoutPricingEngine(VariantPriceCache variantPriceCache, KhachHangRepository khachHangRepository,
+            VipBenefitProcessor vipBenefitProcessor, VoucherEligibilityIndex voucherEligibilityIndex,
+            CauHinhService cauHinhService,
+            @Value("${app.checkout.pricing.engine:procedure}") String engine,
+            @Value("${app.checkout.pricing.shadow-sample-rate:0.1}") double tiLeDoiChieu) {
+        this.variantPriceCache = variantPriceCache;
+        this.khachHangRepository = khachHangRepository;
+        this.vipBenefitProcessor = vipBenefitProcessor;
+        this.voucherEligibilityIndex = voucherEligibilityIndex;
+        this.cauHinhService = cauHinhService;
+        this.engine = engine != null ? engine.trim().toLowerCase() : "procedure";
+        this.tiLeDoiChieu = Math.max(0, Math.min(1, tiLeDoiChieu));
+        this.doiChieuExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(100), r -> {
+                    Thread t = new Thread(r, "checkout-shadow");
+                    t.setDaemon(true);
+                    return t;
+                }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @PreDestroy
+    void shutdown() {
+        doiChieuExecutor.shutdownNow();
+    }
+
+    /**
+     * Tính bằng engine này thay cho stored procedure.
+     */
+    public boolean thayProcedure() {
+        return "java".equals(engine);
+    }
+
+    /**
+     * Vẫn dùng stored procedure nhưng đối chiếu với engine này.
+     */
+    public boolean doiChieu() {
+        return "shadow".equals(engine);
+    }
+
+    public CheckoutSummaryResponse tinh(CheckoutSummaryRequest request) {
+        LocalDateTime now = LocalDateTime.now();
+        List<ThanhToanRequest> items = request.getChiTietDonHang() != null ? request.getChiTietDonHang() : List.of();
+
+        // 1. Tạm tính và điểm sản phẩm
+        Map<Integer, GiaBienThe> gia = variantPriceCache.layGia(items.stream().map(ThanhToanRequest::getMaBienThe).toList());
+        BigDecimal tamTinh = BigDecimal.ZERO;
+        int diemSanPham = 0;
+        for (ThanhToanRequest item : items) {
+            GiaBienThe g = gia.get(item.getMaBienThe());
+            int soLuong = item.getSoLuong() != null ? item.getSoLuong() : 0;
+            if (g == null || soLuong <= 0)
+                continue;
+            tamTinh = tamTinh.add(g.giaTai(now).multiply(BigDecimal.valueOf(soLuong)));
+            diemSanPham += g.diemThuong() * soLuong;
+        }
+        tamTinh = tien(tamTinh);
+
+        KhachHang khachHang = request.getMaKhachHang() != null && request.getMaKhachHang() > 0
+                ? khachHangRepository.findById(request.getMaKhachHang()).orElse(null)
+                : null;
+        Integer maHang = khachHang != null && khachHang.getHangThanhVien() != null
+                ? khachHang.getHangThanhVien().getMaHangThanhVien()
+                : null;
+
+        // 2. Giảm VIP
+        BigDecimal conLai = tamTinh;
+        BigDecimal giamGiaVip = chan(vipBenefitProcessor.calculatePercentDiscountAmount(khachHang, tamTinh), conLai);
+        conLai = conLai.subtract(giamGiaVip);
+
+        // 3. Giảm voucher
+        BigDecimal giamGiaVoucher = chan(giamVoucher(request.getMaVoucherCode(), maHang, tamTinh, now), conLai);
+        conLai = conLai.subtract(giamGiaVoucher);
+
+        // 4. Giảm điểm
+        int diemSuDung = Math.max(0, request.getDiemSuDung());
+        BigDecimal giaTriDiem = BigDecimal.valueOf(cauHinhService.getInt("redeem_money_per_point", 1000));
+        BigDecimal giamGiaDiem = chan(giaTriDiem.multiply(BigDecimal.valueOf(diemSuDung)), conLai);
+        conLai = conLai.subtract(giamGiaDiem);
+
+        // 5. Phí giao hàng
+        String configKey = request.getConfigKeyShip();
+        if (configKey == null || configKey.trim().isEmpty())
+            configKey = SHIP_MAC_DINH;
+        BigDecimal phi = BigDecimal.ZERO;
+        boolean mienPhi = vipBenefitProcessor.hasFreeShipping(khachHang, tamTinh);
+        if (!mienPhi) {
+            phi = tien(cauHinhService.getDecimal(configKey, BigDecimal.ZERO));
+            mienPhi = phi.signum() == 0;
+        }
+
+        // 6. Điểm nhận được
+        int rewardMoneyPerPoint = cauHinhService.getInt("reward_money_per_point", 100000);
+        int rewardPointPerMoney = cauHinhService.getInt("reward_point_per_money", 10);
+        long diemTuTien = rewardMoneyPerPoint > 0
+                ? conLai.divide(BigDecimal.valueOf(rewardMoneyPerPoint), 0, RoundingMode.FLOOR).longValue()
+                        * rewardPointPerMoney
+                : 0;
+        BigDecimal tongCong = conLai.add(phi);
+        long diemVip = vipBenefitProcessor.calculateVipBonusPoints(khachHang, conLai);
+
+        CheckoutSummaryResponse summary = new CheckoutSummaryResponse();
+        summary.setTamTinh(tamTinh);
+        summary.setGiamGiaVip(giamGiaVip);
+        summary.setGiamGiaVoucher(giamGiaVoucher);
+        summary.setGiamGiaDiem(giamGiaDiem);
+        summary.setPhiGiaoHang(mienPhi ? MIEN_PHI : phi.toPlainString());
+        summary.setTongCong(tongCong);
+        summary.setDiemThuongNhanDuoc(BigDecimal.valueOf(diemTuTien + diemSanPham + diemVip));
+        summary.setTongGiamGia(giamGiaVip.add(giamGiaVoucher).add(giamGiaDiem));
+        return summary;
+    }
+
+    private BigDecimal giamVoucher(String maCode, Integer maHang, BigDecimal tamTinh, LocalDateTime now) {
+        if (maCode == null || maCode.isBlank())
+            return BigDecimal.ZERO;
+        Voucher voucher = voucherEligibilityIndex.apDungDuoc(maHang, tamTinh, now).stream()
+                .filter(v -> maCode.trim().equalsIgnoreCase(v.getMaCode()))
+                .findFirst().orElse(null);
+        if (voucher == null || voucher.getGiaTriGiam() == null)
+            return BigDecimal.ZERO;
+        if ("PERCENTAGE".equalsIgnoreCase(voucher.getLoaiGiamGia())) {
+            BigDecimal giam = tamTinh.multiply(voucher.getGiaTriGiam()).divide(BigDecimal.valueOf(100), 2,
+                    RoundingMode.HALF_UP);
+            if (voucher.getGiaTriGiamToiDa() != null && giam.compareTo(voucher.getGiaTriGiamToiDa()) > 0)
+                giam = voucher.getGiaTriGiamToiDa();
+            return tien(giam);
+        }
+        return tien(voucher.getGiaTriGiam());
+    }
+
+    /**
+     * Đưa một yêu cầu (theo tỉ lệ lấy mẫu) vào hàng đợi đối chiếu rồi trả về
+     * ngay. Bên gọi không được sửa request/tuProcedure sau khi gọi.
+     */
+    public void guiDoiChieu(CheckoutSummaryRequest request, CheckoutSummaryResponse tuProcedure) {
+        if (tiLeDoiChieu <= 0 || ThreadLocalRandom.current().nextDouble() >= tiLeDoiChieu)
+            return;
+        try {
+            doiChieuExecutor.execute(() -> doiChieu(request, tuProcedure));
+        } catch (RejectedExecutionException ex) {
+            logger.debug("Bỏ qua đối chiếu tóm tắt thanh toán: hàng đợi đầy");
+        }
+    }
+
+    /**
+     * Đối chiếu kết quả của stored procedure với engine này ngay trên luồng gọi;
+     * chỉ ghi log, không bao giờ làm hỏng yêu cầu.
+     */
+    public void doiChieu(CheckoutSummaryRequest request, CheckoutSummaryResponse tuProcedure) {
+        try {
+            CheckoutSummaryResponse tuJava = tinh(request);
+            List<String> lech = new ArrayList<>();
+            soSanh(lech, "TamTinh", tuProcedure.getTamTinh(), tuJava.getTamTinh());
+            soSanh(lech, "GiamGiaVip", tuProcedure.getGiamGiaVip(), tuJava.getGiamGiaVip());
+            soSanh(lech, "GiamGiaVoucher", tuProcedure.getGiamGiaVoucher(), tuJava.getGiamGiaVoucher());
+            soSanh(lech, "GiamGiaDiem", tuProcedure.getGiamGiaDiem(), tuJava.getGiamGiaDiem());
+            soSanh(lech, "TongCong", tuProcedure.getTongCong(), tuJava.getTongCong());
+            soSanh(lech, "DiemThuongNhanDuoc", tuProcedure.getDiemThuongNhanDuoc(), tuJava.getDiemThuongNhanDuoc());
+            if (!Objects.equals(phiGiaoHang(tuProcedure.getPhiGiaoHang()), phiGiaoHang(tuJava.getPhiGiaoHang())))
+                lech.add("PhiGiaoHang: procedure=" + tuProcedure.getPhiGiaoHang() + ", java=" + tuJava.getPhiGiaoHang());
+            if (!lech.isEmpty()) {
+                logger.warn("Tóm tắt thanh toán lệch với sp_GetCheckoutSummary (khách {}, voucher {}, điểm {}, ship {}, {} dòng): {}",
+                        request.getMaKhachHang(), request.getMaVoucherCode(), request.getDiemSuDung(),
+                        request.getConfigKeyShip(),
+                        request.getChiTietDonHang() != null ? request.getChiTietDonHang().size() : 0, lech);
+            }
+        } catch (RuntimeException ex) {
+            logger.warn("Không đối chiếu được tóm tắt thanh toán: {}", ex.getMessage());
+        }
+    }
+
+    private static void soSanh(List<String> lech, String ten, BigDecimal procedure, BigDecimal java) {
+        BigDecimal a = procedure != null ? procedure : BigDecimal.ZERO;
+        BigDecimal b = java != null ? java : BigDecimal.ZERO;
+        if (a.compareTo(b) != 0)
+            lech.add(ten + ": procedure=" + a.toPlainString() + ", java=" + b.toPlainString());
+    }
+
+    // "Miễn phí" và 0 coi như nhau; số so sánh theo giá trị
+    private static BigDecimal phiGiaoHang(String phi) {
+        if (phi == null || MIEN_PHI.equalsIgnoreCase(phi.trim()))
+            return BigDecimal.ZERO.setScale(2);
+        try {
+            return tien(new BigDecimal(phi.trim()));
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    private static BigDecimal chan(BigDecimal giam, BigDecimal toiDa) {
+        if (giam == null || giam.signum() <= 0)
+            return tien(BigDecimal.ZERO);
+        return tien(giam.min(toiDa));
+    }
+
+    private static BigDecimal tien(BigDecimal v) {
+        return v.setScale(2, RoundingMode.HALF_UP);
+    }
+}
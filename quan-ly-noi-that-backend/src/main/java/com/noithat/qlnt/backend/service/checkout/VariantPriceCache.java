@@ -0,0 +1,115 @@
+package com.noithat.qlnt.backend.service.checkout;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.stereotype.Component;
+
+import com.noithat.qlnt.backend.repository.BienTheGiamGiaRepository;
+import com.noithat.qlnt.backend.repository.BienTheSanPhamRepository;
+import com.noithat.qlnt.backend.service.catalog.CatalogChangeListener;
+
+/**
+ * Giá bán, giá giảm (kèm thời hạn) và điểm thưởng sản phẩm của từng biến thể,
+ * giữ trong bộ nhớ cho CheckoutPricingEngine.
+ *
+ * Biến thể được nạp theo lô khi hỏi lần đầu rồi giữ tới khi sản phẩm đổi (giá,
+ * biến thể, chương trình giảm giá đều đi qua ShopCatalogSnapshot). Giá giảm
+ * lưu kèm mốc bắt đầu/kết thúc nên chương trình bắt đầu hay hết hạn không cần
+ * nạp lại. Như ShopProductAssembler, mỗi biến thể chỉ lấy chương trình đầu tiên.
+ */
+@Component
+public class VariantPriceCache implements CatalogChangeListener {
+
+    public record GiaBienThe(Integer maBienThe, Integer maSanPham, BigDecimal giaBan, int diemThuong,
+            BigDecimal giaSauGiam, LocalDateTime ngayBatDau, LocalDateTime ngayKetThuc) {
+
+        /**
+         * Giá hiển thị tại thời điểm now: giá giảm nếu chương trình đang chạy.
+         */
+        public BigDecimal giaTai(LocalDateTime now) {
+            if (giaSauGiam != null && (ngayBatDau == null || !now.isBefore(ngayBatDau))
+                    && (ngayKetThuc == null || !now.isAfter(ngayKetThuc)))
+                return giaSauGiam;
+            return giaBan != null ? giaBan : BigDecimal.ZERO;
+        }
+    }
+
+    private final BienTheSanPhamRepository bienTheSanPhamRepository;
+    private final BienTheGiamGiaRepository bienTheGiamGiaRepository;
+
+    private final Map<Integer, GiaBienThe> entries = new ConcurrentHashMap<>();
+    // Tăng mỗi lần xóa; lần nạp bắt đầu trước đó không được ghi đè giá trị mới
+    private final AtomicLong epoch = new AtomicLong();
+
+    public VariantPriceCache(BienTheSanPhamRepository bienTheSanPhamRepository,
+            BienTheGiamGiaRepository bienTheGiamGiaRepository) {
+        this.bienTheSanPhamRepository = bienTheSanPhamRepository;
+        this.bienTheGiamGiaRepository = bienTheGiamGiaRepository;
+    }
+
+    /**
+     * Giá của các biến thể; biến thể không tồn tại không có trong kết quả.
+     */
+    public Map<Integer, GiaBienThe> layGia(Collection<Integer> maBienThes) {
+        Map<Integer, GiaBienThe> ketQua = new HashMap<>();
+        List<Integer> thieu = new ArrayList<>();
+        for (Integer ma : maBienThes) {
+            if (ma == null || ketQua.containsKey(ma))
+                continue;
+            GiaBienThe gia = entries.get(ma);
+            if (gia != null)
+                ketQua.put(ma, gia);
+            else if (!thieu.contains(ma))
+                thieu.add(ma);
+        }
+        if (thieu.isEmpty())
+            return ketQua;
+
+        long start = epoch.get();
+        Map<Integer, Object[]> giamGia = new HashMap<>();
+        for (Object[] r : bienTheGiamGiaRepository.findDiscountRowsByMaBienTheIn(thieu))
+            giamGia.putIfAbsent((Integer) r[0], r);
+        List<GiaBienThe> moi = new ArrayList<>();
+        for (Object[] r : bienTheSanPhamRepository.findPricingRowsByMaBienTheIn(thieu)) {
+            Object[] g = giamGia.get((Integer) r[0]);
+            moi.add(new GiaBienThe((Integer) r[0], (Integer) r[1], (BigDecimal) r[2],
+                    r[3] != null ? ((Number) r[3]).intValue() : 0,
+                    g != null ? (BigDecimal) g[1] : null,
+                    g != null ? (LocalDateTime) g[2] : null,
+                    g != null ? (LocalDateTime) g[3] : null));
+        }
+        boolean conHieuLuc = epoch.get() == start;
+        for (GiaBienThe gia : moi) {
+            ketQua.put(gia.maBienThe(), gia);
+            if (conHieuLuc)
+                entries.put(gia.maBienThe(), gia);
+        }
+        return ketQua;
+    }
+
+    @Override
+    public void productsChanged(Set<Integer> maSanPhams) {
+        epoch.incrementAndGet();
+        entries.values().removeIf(e -> maSanPhams.contains(e.maSanPham()));
+    }
+
+    @Override
+    public void stockChanged(Set<Integer> maSanPhams) {
+        // Chỉ giữ giá, không có tồn kho
+    }
+
+    @Override
+    public void allChanged() {
+        epoch.incrementAndGet();
+        entries.clear();
+    }
+}
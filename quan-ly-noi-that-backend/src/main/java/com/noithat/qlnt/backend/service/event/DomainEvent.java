@@ -0,0 +1,20 @@
+package com.noithat.qlnt.backend.service.event;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+/**
+ * Sự kiện nghiệp vụ, được ghi vào outbox cùng transaction với thay đổi tạo ra
+ * nó (DomainEventPublisher) và giao cho các DomainEventSubscriber.
+ *
+ * Các sự kiện của cùng một đối tượng (loaiDoiTuong, maDoiTuong) được giao đúng
+ * thứ tự ghi; giao ít nhất một lần nên subscriber phải chịu được nhận lặp.
+ */
+public sealed interface DomainEvent
+        permits OrderPlaced, OrderStatusChanged, StockChanged, PriceChanged, VoucherRedeemed, VipTierChanged {
+
+    @JsonIgnore
+    String loaiDoiTuong();
+
+    @JsonIgnore
+    Object maDoiTuong();
+}
@@ -0,0 +1,37 @@
+package com.noithat.qlnt.backend.service.event;
+
+import java.util.Collection;
+
+import org.springframework.stereotype.Component;
+
+import com.noithat.qlnt.backend.service.outbox.OutboxPublisher;
+
+/**
+ * Ghi sự kiện nghiệp vụ vào outbox; phải được gọi trong transaction của thay
+ * đổi nghiệp vụ.
+ */
+@Component
+public class DomainEventPublisher {
+
+    private final OutboxPublisher outboxPublisher;
+
+    public DomainEventPublisher(OutboxPublisher outboxPublisher) {
+        this.outboxPublisher = outboxPublisher;
+    }
+
+    public void publish(DomainEvent event) {
+        outboxPublisher.publish(event.loaiDoiTuong(), event.maDoiTuong(), DomainEvents.loaiSuKien(event.getClass()),
+                event);
+    }
+
+    /**
+     * Ghi nhiều sự kiện với số câu lệnh cố định (ví dụ biến động tồn kho của một
+     * đơn nhiều dòng).
+     */
+    public void publishAll(Collection<? extends DomainEvent> events) {
+        outboxPublisher.publishAll(events.stream()
+                .map(e -> new OutboxPublisher.Entry(e.loaiDoiTuong(), e.maDoiTuong(),
+                        DomainEvents.loaiSuKien(e.getClass()), e))
+                .toList());
+    }
+}
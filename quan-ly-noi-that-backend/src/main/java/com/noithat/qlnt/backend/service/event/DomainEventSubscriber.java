@@ -0,0 +1,43 @@
+package com.noithat.qlnt.backend.service.event;
+
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.noithat.qlnt.backend.entity.OutboxSuKien;
+import com.noithat.qlnt.backend.service.outbox.OutboxHandler;
+
+/**
+ * Nhận sự kiện nghiệp vụ từ outbox (qua OutboxDispatcher). Mỗi subscriber là
+ * một bước xử lý: các subscriber của cùng loại sự kiện chạy lần lượt theo
+ * @Order, mỗi subscriber trong transaction riêng.
+ */
+public abstract class DomainEventSubscriber implements OutboxHandler {
+
+    private final ObjectMapper objectMapper;
+    private final Set<String> loaiSuKiens;
+
+    protected DomainEventSubscriber(ObjectMapper objectMapper, Set<Class<? extends DomainEvent>> kieuSuKien) {
+        this.objectMapper = objectMapper;
+        this.loaiSuKiens = kieuSuKien.stream().map(DomainEvents::loaiSuKien).collect(Collectors.toUnmodifiableSet());
+    }
+
+    @Override
+    public boolean supports(String loaiSuKien) {
+        return loaiSuKiens.contains(loaiSuKien);
+    }
+
+    @Override
+    public void handle(OutboxSuKien suKien) {
+        DomainEvent event;
+        try {
+            event = objectMapper.readValue(suKien.getDuLieu(), DomainEvents.kieu(suKien.getLoaiSuKien()));
+        } catch (JsonProcessingException ex) {
+            throw new IllegalArgumentException("Dữ liệu sự kiện " + suKien.getMaSuKien() + " không hợp lệ", ex);
+        }
+        on(event, suKien);
+    }
+
+    protected abstract void on(DomainEvent event, OutboxSuKien suKien);
+}
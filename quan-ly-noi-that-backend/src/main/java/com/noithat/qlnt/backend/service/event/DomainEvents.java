@@ -0,0 +1,44 @@
+package com.noithat.qlnt.backend.service.event;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tên loại sự kiện lưu trong outbox_su_kien.loai_su_kien. Đổi tên ở đây làm các
+ * sự kiện đã ghi với tên cũ không còn được giao.
+ */
+public final class DomainEvents {
+
+    public static final String DON_HANG = "DON_HANG";
+    public static final String BIEN_THE = "BIEN_THE";
+    public static final String VOUCHER = "VOUCHER";
+    public static final String KHACH_HANG = "KHACH_HANG";
+
+    private static final Map<Class<? extends DomainEvent>, String> LOAI = Map.of(
+            OrderPlaced.class, "DON_HANG_DA_DAT",
+            OrderStatusChanged.class, "DON_HANG_DOI_TRANG_THAI",
+            StockChanged.class, "TON_KHO_THAY_DOI",
+            PriceChanged.class, "GIA_THAY_DOI",
+            VoucherRedeemed.class, "VOUCHER_DA_DUNG",
+            VipTierChanged.class, "KHACH_HANG_DOI_HANG");
+
+    private static final Map<String, Class<? extends DomainEvent>> KIEU = new HashMap<>();
+
+    static {
+        LOAI.forEach((kieu, loai) -> KIEU.put(loai, kieu));
+    }
+
+    private DomainEvents() {
+    }
+
+    public static String loaiSuKien(Class<? extends DomainEvent> kieu) {
+        String loai = LOAI.get(kieu);
+        if (loai == null)
+            throw new IllegalArgumentException("Chưa đăng ký loại sự kiện cho " + kieu.getName());
+        return loai;
+    }
+
+    public static Class<? extends DomainEvent> kieu(String loaiSuKien) {
+        return KIEU.get(loaiSuKien);
+    }
+}
@@ -0,0 +1,24 @@
+package com.noithat.qlnt.backend.service.event;
+
+import java.math.BigDecimal;
+
+/**
+ * Đơn hàng vừa được tạo. kenh: ONLINE (khách đặt / admin đặt hộ qua luồng
+ * thanh toán) hoặc TAI_QUAY (bán hàng tại quầy).
+ */
+public record OrderPlaced(Integer maDonHang, Integer maKhachHang, String kenh, BigDecimal thanhTien, int soDong)
+        implements DomainEvent {
+
+    public static final String ONLINE = "ONLINE";
+    public static final String TAI_QUAY = "TAI_QUAY";
+
+    @Override
+    public String loaiDoiTuong() {
+        return DomainEvents.DON_HANG;
+    }
+
+    @Override
+    public Object maDoiTuong() {
+        return maDonHang;
+    }
+}
@@ -0,0 +1,30 @@
+package com.noithat.qlnt.backend.service.event;
+
+import com.noithat.qlnt.backend.service.IQuanLyTrangThaiDonHangService;
+
+/**
+ * Đơn hàng đổi trạng thái. trangThaiCu là trạng thái cũ đã chuẩn hóa về các
+ * hằng của IQuanLyTrangThaiDonHangService.
+ */
+public record OrderStatusChanged(Integer maDonHang, String trangThaiCu, String trangThaiMoi, String nguoiThayDoi)
+        implements DomainEvent {
+
+    @Override
+    public String loaiDoiTuong() {
+        return DomainEvents.DON_HANG;
+    }
+
+    @Override
+    public Object maDoiTuong() {
+        return maDonHang;
+    }
+
+    public boolean laHuy() {
+        return IQuanLyTrangThaiDonHangService.DA_HUY.equals(trangThaiMoi)
+                || IQuanLyTrangThaiDonHangService.HUY_BO.equals(trangThaiMoi);
+    }
+
+    public boolean moiChuyenSang(String trangThai) {
+        return trangThai.equals(trangThaiMoi) && !trangThai.equals(trangThaiCu);
+    }
+}
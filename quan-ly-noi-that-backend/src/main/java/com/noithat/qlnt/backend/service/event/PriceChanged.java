@@ -0,0 +1,20 @@
+package com.noithat.qlnt.backend.service.event;
+
+import java.math.BigDecimal;
+
+/**
+ * Giá bán của một biến thể vừa thay đổi.
+ */
+public record PriceChanged(Integer maBienThe, Integer maSanPham, BigDecimal giaCu, BigDecimal giaMoi)
+        implements DomainEvent {
+
+    @Override
+    public String loaiDoiTuong() {
+        return DomainEvents.BIEN_THE;
+    }
+
+    @Override
+    public Object maDoiTuong() {
+        return maBienThe;
+    }
+}
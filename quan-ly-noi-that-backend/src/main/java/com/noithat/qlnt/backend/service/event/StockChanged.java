@@ -0,0 +1,18 @@
+package com.noithat.qlnt.backend.service.event;
+
+/**
+ * Tồn kho của một biến thể vừa thay đổi (một dòng LichSuTonKho).
+ */
+public record StockChanged(Integer maBienThe, Integer maSanPham, int soLuongTruoc, int soLuongThayDoi,
+        int soLuongSau, String loaiGiaoDich, String maThamChieu) implements DomainEvent {
+
+    @Override
+    public String loaiDoiTuong() {
+        return DomainEvents.BIEN_THE;
+    }
+
+    @Override
+    public Object maDoiTuong() {
+        return maBienThe;
+    }
+}
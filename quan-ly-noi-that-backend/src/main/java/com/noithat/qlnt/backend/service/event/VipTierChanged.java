@@ -0,0 +1,18 @@
+package com.noithat.qlnt.backend.service.event;
+
+/**
+ * Khách hàng vừa chuyển hạng thành viên (maHangCu null nếu trước đó chưa có
+ * hạng).
+ */
+public record VipTierChanged(Integer maKhachHang, Integer maHangCu, Integer maHangMoi) implements DomainEvent {
+
+    @Override
+    public String loaiDoiTuong() {
+        return DomainEvents.KHACH_HANG;
+    }
+
+    @Override
+    public Object maDoiTuong() {
+        return maKhachHang;
+    }
+}
@@ -0,0 +1,18 @@
+package com.noithat.qlnt.backend.service.event;
+
+/**
+ * Voucher vừa được dùng cho một đơn hàng.
+ */
+public record VoucherRedeemed(Integer maVoucher, String maCode, Integer maDonHang, Integer maKhachHang)
+        implements DomainEvent {
+
+    @Override
+    public String loaiDoiTuong() {
+        return DomainEvents.VOUCHER;
+    }
+
+    @Override
+    public Object maDoiTuong() {
+        return maVoucher;
+    }
+}
@@ -3,12 +3,16 @@ package com.noithat.qlnt.backend.service.impl;
 import java.util.List;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.Cacheable;
 import org.springframework.stereotype.Service;
 
 import com.noithat.qlnt.backend.dto.common.ThuocTinhDto;
 import com.noithat.qlnt.backend.entity.ThuocTinh;
 import com.noithat.qlnt.backend.repository.ThuocTinhRepository;
 import com.noithat.qlnt.backend.service.IAttributeService;
+import com.noithat.qlnt.backend.service.cache.CacheNames;
+import com.noithat.qlnt.backend.service.catalog.ShopCatalogSnapshot;
 
 import jakarta.persistence.EntityNotFoundException;
 import org.springframework.web.server.ResponseStatusException;
@@ -18,8 +22,10 @@ import org.springframework.transaction.annotation.Transactional;
 @Service
 public class AttributeServiceImpl implements IAttributeService {
     @Autowired private ThuocTinhRepository thuocTinhRepository;
+    @Autowired private ShopCatalogSnapshot shopCatalogSnapshot;
 
     // ----- Quản lý Thuộc Tính -----
+    @CacheEvict(cacheNames = CacheNames.ATTRIBUTES, allEntries = true)
     public ThuocTinh createThuocTinh(ThuocTinhDto dto) {
         // Validate input
         if (dto == null || dto.tenThuocTinh() == null || dto.tenThuocTinh().isBlank()) {
@@ -38,11 +44,13 @@ public class AttributeServiceImpl implements IAttributeService {
         return saved;
     }
 
+    @Cacheable(cacheNames = CacheNames.ATTRIBUTES, key = "'all'", sync = true)
     public List<ThuocTinh> getAllThuocTinh() {
         return thuocTinhRepository.findAll();
     }
 
     // ----- HÀM MỚI -----
+    @CacheEvict(cacheNames = CacheNames.ATTRIBUTES, allEntries = true)
     public ThuocTinh updateThuocTinh(Integer id, ThuocTinhDto dto) {
         ThuocTinh tt = thuocTinhRepository.findById(id)
                 .orElseThrow(() -> new EntityNotFoundException("Không tìm thấy thuộc tính với id: " + id));
@@ -57,18 +65,25 @@ public class AttributeServiceImpl implements IAttributeService {
         }
         
         tt.setTenThuocTinh(dto.tenThuocTinh().trim());
-        return thuocTinhRepository.save(tt);
+        ThuocTinh saved = thuocTinhRepository.save(tt);
+        // Tên thuộc tính nằm trong chi tiết sản phẩm đã cache
+        shopCatalogSnapshot.markAllChanged();
+        return saved;
     }
 
     @Transactional
+    @CacheEvict(cacheNames = CacheNames.ATTRIBUTES, allEntries = true)
     public void deleteThuocTinh(Integer id) {
         if (!thuocTinhRepository.existsById(id)) {
             throw new EntityNotFoundException("Không tìm thấy thuộc tính với id: " + id);
         }
 
         thuocTinhRepository.deleteById(id);
+        // Giá trị thuộc tính của biến thể nằm trong chỉ mục tìm kiếm
+        shopCatalogSnapshot.markAllChanged();
     }
 
+    @CacheEvict(cacheNames = CacheNames.ATTRIBUTES, allEntries = true)
     public void deleteGiaTriThuocTinh(Integer id) {
         if (!thuocTinhRepository.existsById(id)) {
             throw new EntityNotFoundException("Không tìm thấy giá trị thuộc tính với id: " + id);
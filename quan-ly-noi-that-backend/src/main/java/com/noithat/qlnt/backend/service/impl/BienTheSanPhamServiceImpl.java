@@ -14,6 +14,10 @@ import com.noithat.qlnt.backend.repository.BienTheThuocTinhRepository;
 import com.noithat.qlnt.backend.repository.SanPhamRepository;
 import com.noithat.qlnt.backend.repository.ThuocTinhRepository;
 import com.noithat.qlnt.backend.service.IBienTheSanPhamService;
+import com.noithat.qlnt.backend.service.catalog.ShopCatalogSnapshot;
+import com.noithat.qlnt.backend.service.event.DomainEventPublisher;
+import com.noithat.qlnt.backend.service.event.PriceChanged;
+import com.noithat.qlnt.backend.service.inventory.StockMutationEngine;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -32,29 +36,67 @@ public class BienTheSanPhamServiceImpl implements IBienTheSanPhamService {
     private final BienTheThuocTinhRepository bienTheThuocTinhRepository;
     private final ThuocTinhRepository thuocTinhRepository;
     private final BienTheGiamGiaRepository bienTheGiamGiaRepository;
+    private final ShopCatalogSnapshot shopCatalogSnapshot;
+    private final DomainEventPublisher domainEventPublisher;
+    private final StockMutationEngine stockMutationEngine;
 
     public BienTheSanPhamServiceImpl(BienTheSanPhamRepository bienTheSanPhamRepository,
             SanPhamRepository sanPhamRepository,
             BienTheThuocTinhRepository bienTheThuocTinhRepository,
             ThuocTinhRepository thuocTinhRepository,
-            BienTheGiamGiaRepository bienTheGiamGiaRepository) {
+            BienTheGiamGiaRepository bienTheGiamGiaRepository,
+            ShopCatalogSnapshot shopCatalogSnapshot,
+            DomainEventPublisher domainEventPublisher,
+            StockMutationEngine stockMutationEngine) {
         this.bienTheSanPhamRepository = bienTheSanPhamRepository;
         this.sanPhamRepository = sanPhamRepository;
         this.bienTheThuocTinhRepository = bienTheThuocTinhRepository;
         this.thuocTinhRepository = thuocTinhRepository;
         this.bienTheGiamGiaRepository = bienTheGiamGiaRepository;
+        this.shopCatalogSnapshot = shopCatalogSnapshot;
+        this.domainEventPublisher = domainEventPublisher;
+        this.stockMutationEngine = stockMutationEngine;
     } // Basic CRUD from interface
 
+    // Báo cho read model trang shop rằng sản phẩm chứa biến thể này đã thay đổi
+    private void markProductChanged(BienTheSanPham bienThe) {
+        if (bienThe != null && bienThe.getSanPham() != null) {
+            shopCatalogSnapshot.markProductChanged(bienThe.getSanPham().getMaSanPham());
+        }
+    }
+
+    // Ghi sự kiện PriceChanged (cùng transaction) nếu giá bán thực sự đổi
+    private void publishPriceChanged(BienTheSanPham bienThe, BigDecimal giaCu) {
+        BigDecimal giaMoi = bienThe.getGiaBan();
+        boolean doiGia = giaCu == null ? giaMoi != null : giaMoi == null || giaCu.compareTo(giaMoi) != 0;
+        if (doiGia) {
+            domainEventPublisher.publish(new PriceChanged(bienThe.getMaBienThe(),
+                    bienThe.getSanPham() != null ? bienThe.getSanPham().getMaSanPham() : null, giaCu, giaMoi));
+        }
+    }
+
+    // Đặt tồn kho qua StockMutationEngine như màn kiểm kê (ghi lịch sử, bảng tổng
+    // hợp, sự kiện); không cho đặt thấp hơn phần đang giữ cho đơn
+    private void datSoLuongTon(BienTheSanPham bienThe, Integer soLuong, String lyDo) {
+        if (soLuong == null || Objects.equals(bienThe.getSoLuongTon(), soLuong))
+            return;
+        if (soLuong < 0)
+            throw new IllegalArgumentException("Số lượng tồn không được âm");
+        if (stockMutationEngine.setQuantity(bienThe.getMaBienThe(), soLuong, "DIEU_CHINH", lyDo, "SYSTEM").isEmpty())
+            throw new IllegalStateException("Không thể đặt tồn kho biến thể " + bienThe.getMaBienThe() + " về "
+                    + soLuong + ": thấp hơn số đang giữ cho đơn hoặc tồn kho đang thay đổi");
+    }
+
     @Override
     @Transactional(readOnly = true)
     public List<BienTheSanPham> getAll() {
-        return bienTheSanPhamRepository.findAll();
+        return bienTheSanPhamRepository.findAllDetailed();
     }
 
     @Override
     @Transactional(readOnly = true)
     public BienTheSanPham getById(Integer id) {
-        return bienTheSanPhamRepository.findById(id)
+        return bienTheSanPhamRepository.findDetailByMaBienThe(id)
                 .orElseThrow(() -> new ResourceNotFoundException("Biến thể không tồn tại: " + id));
     }
 
@@ -72,13 +114,19 @@ public class BienTheSanPhamServiceImpl implements IBienTheSanPhamService {
         }
         if (bienThe.getNgayCapNhatKho() == null)
             bienThe.setNgayCapNhatKho(LocalDateTime.now());
-        return bienTheSanPhamRepository.save(bienThe);
+        Integer soLuongTon = bienThe.getSoLuongTon();
+        bienThe.setSoLuongTon(0);
+        markProductChanged(bienThe);
+        BienTheSanPham saved = bienTheSanPhamRepository.saveAndFlush(bienThe);
+        datSoLuongTon(saved, soLuongTon, "Tồn ban đầu khi tạo biến thể");
+        return saved;
     }
 
     @Override
     @Transactional
     public BienTheSanPham update(Integer id, BienTheSanPham bienThe) {
         BienTheSanPham existing = getById(id);
+        BigDecimal giaCu = existing.getGiaBan();
         if (bienThe.getSku() != null && !Objects.equals(existing.getSku(), bienThe.getSku())) {
             if (bienTheSanPhamRepository.existsBySku(bienThe.getSku())) {
                 throw new IllegalArgumentException("SKU đã tồn tại: " + bienThe.getSku());
@@ -90,8 +138,7 @@ public class BienTheSanPhamServiceImpl implements IBienTheSanPhamService {
             existing.setGiaBan(bienThe.getGiaBan());
         if (bienThe.getGiaMua() != null)
             existing.setGiaMua(bienThe.getGiaMua());
-        if (bienThe.getSoLuongTon() != null)
-            existing.setSoLuongTon(bienThe.getSoLuongTon());
+        datSoLuongTon(existing, bienThe.getSoLuongTon(), "Cập nhật biến thể");
         if (bienThe.getMucTonToiThieu() != null)
             existing.setMucTonToiThieu(bienThe.getMucTonToiThieu());
         if (bienThe.getTrangThaiKho() != null)
@@ -99,15 +146,17 @@ public class BienTheSanPhamServiceImpl implements IBienTheSanPhamService {
 
         existing.setNgayCapNhatKho(LocalDateTime.now());
 
+        publishPriceChanged(existing, giaCu);
+        markProductChanged(existing);
         return bienTheSanPhamRepository.save(existing);
     }
 
     @Override
     @Transactional
     public void delete(Integer id) {
-        if (!bienTheSanPhamRepository.existsById(id)) {
-            throw new ResourceNotFoundException("Biến thể không tồn tại: " + id);
-        }
+        BienTheSanPham existing = bienTheSanPhamRepository.findById(id)
+                .orElseThrow(() -> new ResourceNotFoundException("Biến thể không tồn tại: " + id));
+        markProductChanged(existing);
         // remove attribute links
         bienTheThuocTinhRepository.deleteByBienTheSanPham_MaBienThe(id);
         bienTheSanPhamRepository.deleteById(id);
@@ -131,14 +180,16 @@ public class BienTheSanPhamServiceImpl implements IBienTheSanPhamService {
         bt.setSku(request.sku());
         bt.setGiaMua(request.giaMua());
         bt.setGiaBan(request.giaBan());
-        bt.setSoLuongTon(request.soLuongTon() != null ? request.soLuongTon() : 0);
+        bt.setSoLuongTon(0);
         if (request.mucTonToiThieu() != null)
             bt.setMucTonToiThieu(request.mucTonToiThieu());
         if (request.trangThaiKho() != null)
             bt.setTrangThaiKho(request.trangThaiKho());
         bt.setNgayCapNhatKho(LocalDateTime.now());
 
-        BienTheSanPham saved = bienTheSanPhamRepository.save(bt);
+        BienTheSanPham saved = bienTheSanPhamRepository.saveAndFlush(bt);
+        datSoLuongTon(saved, request.soLuongTon(), "Tồn ban đầu khi tạo biến thể");
+        shopCatalogSnapshot.markProductChanged(maSanPham);
         // If free-text attribute mappings are provided, create BienTheThuocTinh entries
         if (request.thuocTinhGiaTriTuDo() != null && !request.thuocTinhGiaTriTuDo().isEmpty()) {
             request.thuocTinhGiaTriTuDo().forEach(mapping -> {
@@ -164,6 +215,7 @@ public class BienTheSanPhamServiceImpl implements IBienTheSanPhamService {
     @Transactional
     public BienTheSanPham updateBienTheSanPham(Integer id, BienTheUpdateRequestDto request) {
         BienTheSanPham existing = getById(id);
+        BigDecimal giaCu = existing.getGiaBan();
 
         if (!Objects.equals(existing.getSku(), request.sku()) && bienTheSanPhamRepository.existsBySku(request.sku())) {
             throw new IllegalArgumentException("SKU đã tồn tại: " + request.sku());
@@ -172,7 +224,7 @@ public class BienTheSanPhamServiceImpl implements IBienTheSanPhamService {
         existing.setSku(request.sku());
         existing.setGiaMua(request.giaMua());
         existing.setGiaBan(request.giaBan());
-        existing.setSoLuongTon(request.soLuongTon());
+        datSoLuongTon(existing, request.soLuongTon(), "Cập nhật biến thể");
         if (request.trangThaiKho() != null) {
             existing.setTrangThaiKho(request.trangThaiKho());
         }
@@ -197,6 +249,8 @@ public class BienTheSanPhamServiceImpl implements IBienTheSanPhamService {
             });
         }
 
+        publishPriceChanged(existing, giaCu);
+        markProductChanged(existing);
         return bienTheSanPhamRepository.save(existing);
     }
 
@@ -208,6 +262,7 @@ public class BienTheSanPhamServiceImpl implements IBienTheSanPhamService {
     @Transactional
     public BienTheSanPham patchBienTheSanPham(Integer id, BienThePatchRequestDto request) {
         BienTheSanPham existing = getById(id);
+        BigDecimal giaCu = existing.getGiaBan();
 
         // Only update fields that are provided (non-null)
         if (request.giaMua() != null) {
@@ -241,6 +296,8 @@ public class BienTheSanPhamServiceImpl implements IBienTheSanPhamService {
             });
         }
 
+        publishPriceChanged(existing, giaCu);
+        markProductChanged(existing);
         return bienTheSanPhamRepository.save(existing);
     }
 
@@ -249,11 +306,8 @@ public class BienTheSanPhamServiceImpl implements IBienTheSanPhamService {
         BienTheSanPham existing = getById(id);
         if (soLuong == null)
             throw new IllegalArgumentException("Số lượng không được null");
-        existing.setSoLuongTon(soLuong);
-        existing.setNgayCapNhatKho(LocalDateTime.now());
-        // update trạng thái kho
-        // use entity helper by updating stock with difference if needed
-        bienTheSanPhamRepository.save(existing);
+        // Tồn, trạng thái kho và ngày cập nhật kho do StockMutationEngine ghi (kèm lịch sử)
+        datSoLuongTon(existing, soLuong, "Cập nhật số lượng tồn");
         return existing;
     }
 
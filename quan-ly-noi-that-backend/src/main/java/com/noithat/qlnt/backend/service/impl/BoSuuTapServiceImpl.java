@@ -3,6 +3,7 @@ package com.noithat.qlnt.backend.service.impl;
 import java.util.List;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.annotation.Cacheable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -12,6 +13,9 @@ import com.noithat.qlnt.backend.entity.SanPham;
 import com.noithat.qlnt.backend.repository.BoSuuTapRepository;
 import com.noithat.qlnt.backend.repository.SanPhamRepository;
 import com.noithat.qlnt.backend.service.IBoSuuTapService;
+import com.noithat.qlnt.backend.service.cache.CacheNames;
+import com.noithat.qlnt.backend.service.catalog.CatalogVersion;
+import com.noithat.qlnt.backend.service.catalog.ShopCatalogSnapshot;
 
 import jakarta.persistence.EntityNotFoundException;
 
@@ -21,7 +25,12 @@ public class BoSuuTapServiceImpl implements IBoSuuTapService {
     private BoSuuTapRepository boSuuTapRepository;
     @Autowired
     private SanPhamRepository sanPhamRepository;
+    @Autowired
+    private ShopCatalogSnapshot shopCatalogSnapshot;
+    @Autowired
+    private CatalogVersion catalogVersion;
 
+    @Cacheable(cacheNames = CacheNames.COLLECTIONS, key = "'all'", sync = true)
     public List<BoSuuTap> getAll() {
         return boSuuTapRepository.findAll();
     }
@@ -30,6 +39,7 @@ public class BoSuuTapServiceImpl implements IBoSuuTapService {
         BoSuuTap bst = new BoSuuTap();
         bst.setTenBoSuuTap(dto.tenBoSuuTap());
         bst.setMoTa(dto.moTa());
+        catalogVersion.bumpAfterCommit();
         return boSuuTapRepository.save(bst);
     }
 
@@ -39,6 +49,8 @@ public class BoSuuTapServiceImpl implements IBoSuuTapService {
 
         bst.setTenBoSuuTap(dto.tenBoSuuTap());
         bst.setMoTa(dto.moTa());
+        // Tên bộ sưu tập được đánh chỉ mục tìm kiếm
+        shopCatalogSnapshot.markAllChanged();
         return boSuuTapRepository.save(bst);
     }
 
@@ -54,8 +66,10 @@ public class BoSuuTapServiceImpl implements IBoSuuTapService {
                 sp.setBoSuuTap(null);
             }
             sanPhamRepository.saveAll(products);
+            shopCatalogSnapshot.markProductsChanged(products.stream().map(SanPham::getMaSanPham).toList());
         }
         boSuuTapRepository.deleteById(id);
+        catalogVersion.bumpAfterCommit();
     }
 
     public void addProductToCollection(Integer collectionId, Integer productId) {
@@ -67,6 +81,7 @@ public class BoSuuTapServiceImpl implements IBoSuuTapService {
         // Set bộ sưu tập cho sản phẩm (quan hệ 1-N)
         sp.setBoSuuTap(bst);
         sanPhamRepository.save(sp);
+        shopCatalogSnapshot.markProductChanged(productId);
     }
 
     public void removeProductFromCollection(Integer collectionId, Integer productId) {
@@ -81,6 +96,7 @@ public class BoSuuTapServiceImpl implements IBoSuuTapService {
         // Xóa bộ sưu tập khỏi sản phẩm
         sp.setBoSuuTap(null);
         sanPhamRepository.save(sp);
+        shopCatalogSnapshot.markProductChanged(productId);
     }
 
     public List<SanPham> getProductsInCollection(Integer collectionId) {
@@ -93,6 +109,7 @@ public class BoSuuTapServiceImpl implements IBoSuuTapService {
         return sanPhamRepository.findByBoSuuTap_MaBoSuuTap(collectionId);
     }
 
+    @Cacheable(cacheNames = CacheNames.COLLECTIONS, key = "#id", sync = true)
     public BoSuuTap getById(Integer id) {
         return boSuuTapRepository.findById(id)
                 .orElseThrow(() -> new EntityNotFoundException("Không tìm thấy bộ sưu tập với id: " + id));
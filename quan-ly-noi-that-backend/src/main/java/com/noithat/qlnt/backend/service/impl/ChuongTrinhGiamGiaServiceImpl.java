@@ -6,6 +6,7 @@ import com.noithat.qlnt.backend.entity.*;
 import com.noithat.qlnt.backend.exception.ResourceNotFoundException;
 import com.noithat.qlnt.backend.repository.*;
 import com.noithat.qlnt.backend.service.IChuongTrinhGiamGiaService;
+import com.noithat.qlnt.backend.service.catalog.ShopCatalogSnapshot;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -19,13 +20,28 @@ public class ChuongTrinhGiamGiaServiceImpl implements IChuongTrinhGiamGiaService
     private final ChuongTrinhGiamGiaRepository chuongTrinhGiamGiaRepository;
     private final BienTheGiamGiaRepository bienTheGiamGiaRepository;
     private final BienTheSanPhamRepository bienTheSanPhamRepository;
+    private final ShopCatalogSnapshot shopCatalogSnapshot;
 
     public ChuongTrinhGiamGiaServiceImpl(ChuongTrinhGiamGiaRepository chuongTrinhGiamGiaRepository,
             BienTheGiamGiaRepository bienTheGiamGiaRepository,
-            BienTheSanPhamRepository bienTheSanPhamRepository) {
+            BienTheSanPhamRepository bienTheSanPhamRepository,
+            ShopCatalogSnapshot shopCatalogSnapshot) {
         this.chuongTrinhGiamGiaRepository = chuongTrinhGiamGiaRepository;
         this.bienTheGiamGiaRepository = bienTheGiamGiaRepository;
         this.bienTheSanPhamRepository = bienTheSanPhamRepository;
+        this.shopCatalogSnapshot = shopCatalogSnapshot;
+    }
+
+    // Giá sau giảm của các sản phẩm trong chương trình thay đổi -> dựng lại read model trang shop
+    private void markProgramProductsChanged(Integer maChuongTrinh) {
+        shopCatalogSnapshot.markProductsChanged(bienTheGiamGiaRepository.findProductIdsByChuongTrinh(maChuongTrinh));
+    }
+
+    private void markVariantProductsChanged(List<BienTheGiamGiaRequest> danhSachBienThe) {
+        if (danhSachBienThe == null || danhSachBienThe.isEmpty())
+            return;
+        List<Integer> variantIds = danhSachBienThe.stream().map(BienTheGiamGiaRequest::getMaBienThe).toList();
+        shopCatalogSnapshot.markProductsChanged(bienTheSanPhamRepository.findProductIdsByMaBienTheIn(variantIds));
     }
 
     @Override
@@ -105,6 +121,7 @@ public class ChuongTrinhGiamGiaServiceImpl implements IChuongTrinhGiamGiaService
         ct.setTenChuongTrinh(ten);
         ct.setNgayBatDau(start);
         ct.setNgayKetThuc(end);
+        markProgramProductsChanged(id);
         return chuongTrinhGiamGiaRepository.save(ct);
     }
 
@@ -112,6 +129,7 @@ public class ChuongTrinhGiamGiaServiceImpl implements IChuongTrinhGiamGiaService
     @Transactional
     public void delete(Integer id) {
         ChuongTrinhGiamGia ct = getById(id);
+        markProgramProductsChanged(id);
         chuongTrinhGiamGiaRepository.delete(ct);
     }
 
@@ -121,6 +139,7 @@ public class ChuongTrinhGiamGiaServiceImpl implements IChuongTrinhGiamGiaService
         ChuongTrinhGiamGia ct = getById(id);
         ct.setTrangThai(trangThai);
         chuongTrinhGiamGiaRepository.save(ct);
+        markProgramProductsChanged(id);
     }
 
     // Variant-level discount operations removed. This service now manages
@@ -167,6 +186,7 @@ public class ChuongTrinhGiamGiaServiceImpl implements IChuongTrinhGiamGiaService
                 bienTheGiamGiaRepository.save(btg);
             }
         }
+        markVariantProductsChanged(request.getDanhSachBienThe());
 
         return convertToResponse(ct, true);
     }
@@ -199,6 +219,9 @@ public class ChuongTrinhGiamGiaServiceImpl implements IChuongTrinhGiamGiaService
             }
         }
 
+        // Sản phẩm thuộc mapping cũ cũng phải dựng lại (có thể bị gỡ khỏi chương trình)
+        markProgramProductsChanged(id);
+
         // Remove existing variant-level mappings for this program
         List<BienTheGiamGia> oldItems = bienTheGiamGiaRepository.findByChuongTrinhGiamGia_MaChuongTrinhGiamGia(id);
         ct.getBienTheGiamGias().clear();
@@ -228,6 +251,7 @@ public class ChuongTrinhGiamGiaServiceImpl implements IChuongTrinhGiamGiaService
                 bienTheGiamGiaRepository.save(btg);
             }
         }
+        markVariantProductsChanged(request.getDanhSachBienThe());
 
         return convertToResponse(ct, true);
     }
@@ -6,6 +6,7 @@ import com.noithat.qlnt.backend.repository.DanhGiaSanPhamRepository;
 import com.noithat.qlnt.backend.repository.KhachHangRepository;
 import com.noithat.qlnt.backend.repository.SanPhamRepository;
 import com.noithat.qlnt.backend.service.IDanhGiaSanPhamService;
+import com.noithat.qlnt.backend.service.catalog.ShopCatalogSnapshot;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -18,13 +19,16 @@ public class DanhGiaSanPhamServiceImpl implements IDanhGiaSanPhamService {
     private final DanhGiaSanPhamRepository danhGiaRepo;
     private final KhachHangRepository khachHangRepo;
     private final SanPhamRepository sanPhamRepo;
+    private final ShopCatalogSnapshot shopCatalogSnapshot;
 
     public DanhGiaSanPhamServiceImpl(DanhGiaSanPhamRepository danhGiaRepo,
                                      KhachHangRepository khachHangRepo,
-                                     SanPhamRepository sanPhamRepo) {
+                                     SanPhamRepository sanPhamRepo,
+                                     ShopCatalogSnapshot shopCatalogSnapshot) {
         this.danhGiaRepo = danhGiaRepo;
         this.khachHangRepo = khachHangRepo;
         this.sanPhamRepo = sanPhamRepo;
+        this.shopCatalogSnapshot = shopCatalogSnapshot;
     }
 
     @Override
@@ -43,6 +47,7 @@ public class DanhGiaSanPhamServiceImpl implements IDanhGiaSanPhamService {
         danhGia.setKhachHang(kh);
         danhGia.setNgayTao(LocalDateTime.now());
         danhGia.setNgayCapNhat(LocalDateTime.now());
+        shopCatalogSnapshot.markProductChanged(danhGia.getSanPham().getMaSanPham());
         return danhGiaRepo.save(danhGia);
     }
 
@@ -60,6 +65,7 @@ public class DanhGiaSanPhamServiceImpl implements IDanhGiaSanPhamService {
         if (capNhat.getTieuDe() != null) exist.setTieuDe(capNhat.getTieuDe());
         if (capNhat.getNoiDung() != null) exist.setNoiDung(capNhat.getNoiDung());
         exist.setNgayCapNhat(LocalDateTime.now());
+        shopCatalogSnapshot.markProductChanged(exist.getSanPham().getMaSanPham());
         return danhGiaRepo.save(exist);
     }
 
@@ -71,6 +77,7 @@ public class DanhGiaSanPhamServiceImpl implements IDanhGiaSanPhamService {
         if (!exist.getKhachHang().getMaKhachHang().equals(currentKhachHangId)) {
             throw new SecurityException("Not allowed to delete this review");
         }
+        shopCatalogSnapshot.markProductChanged(exist.getSanPham().getMaSanPham());
         danhGiaRepo.delete(exist);
     }
 
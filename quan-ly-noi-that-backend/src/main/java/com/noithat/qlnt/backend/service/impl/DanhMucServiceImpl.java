@@ -1,28 +1,56 @@
 package com.noithat.qlnt.backend.service.impl;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.Set;
 import java.util.List;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.annotation.Cacheable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import com.noithat.qlnt.backend.dto.common.DanhMucDto;
+import com.noithat.qlnt.backend.dto.common.DanhMucPathItem;
 import com.noithat.qlnt.backend.entity.DanhMuc;
+import com.noithat.qlnt.backend.entity.DanhMucClosure;
+import com.noithat.qlnt.backend.repository.DanhMucClosureRepository;
 import com.noithat.qlnt.backend.repository.DanhMucRepository;
 import com.noithat.qlnt.backend.service.IDanhMucService;
+import com.noithat.qlnt.backend.service.cache.CacheNames;
+import com.noithat.qlnt.backend.service.catalog.CatalogVersion;
+import com.noithat.qlnt.backend.service.catalog.ShopCatalogSnapshot;
 
 import jakarta.persistence.EntityNotFoundException;
 
 /**
  * Implementation của IDanhMucService
  * Xử lý logic nghiệp vụ quản lý danh mục sản phẩm
+ *
+ * Cây danh mục lưu ở hai dạng: cột parent (adjacency list) và bảng closure
+ * danh_muc_closure. Mọi thao tác đổi cây (tạo, liên kết, hủy liên kết, xóa)
+ * cập nhật cả hai trong cùng transaction; các truy vấn theo cây con/đường
+ * dẫn chỉ đọc bảng closure.
  */
 @Service
 public class DanhMucServiceImpl implements IDanhMucService {
 
+    private static final Logger logger = LoggerFactory.getLogger(DanhMucServiceImpl.class);
+
     @Autowired
     private DanhMucRepository danhMucRepository;
+    @Autowired
+    private DanhMucClosureRepository danhMucClosureRepository;
+    @Autowired
+    private ShopCatalogSnapshot shopCatalogSnapshot;
+    @Autowired
+    private CatalogVersion catalogVersion;
 
     private DanhMuc findCategoryById(Integer id) {
         return danhMucRepository.findById(id)
@@ -41,7 +69,10 @@ public class DanhMucServiceImpl implements IDanhMucService {
         DanhMuc danhMuc = new DanhMuc();
         danhMuc.setTenDanhMuc(dto.tenDanhMuc());
         danhMuc.setMoTa(dto.moTa());
-        return danhMucRepository.save(danhMuc);
+        catalogVersion.bumpAfterCommit();
+        DanhMuc saved = danhMucRepository.saveAndFlush(danhMuc);
+        danhMucClosureRepository.insertSelf(saved.getMaDanhMuc());
+        return saved;
     }
 
     @Override
@@ -52,9 +83,20 @@ public class DanhMucServiceImpl implements IDanhMucService {
         }
         DanhMuc child = findCategoryById(childId);
         DanhMuc parent = findCategoryById(parentId);
-        // With adjacency-list design, assign single parent
+        if (danhMucClosureRepository.isAncestor(childId, parentId)) {
+            throw new IllegalArgumentException("Không thể gán danh mục con cháu làm danh mục cha (tạo vòng).");
+        }
+        if (child.getParent() != null && child.getParent().getMaDanhMuc().equals(parentId)) {
+            return;
+        }
+        // With adjacency-list design, assign single parent: tách khỏi cha cũ (nếu có) rồi nối vào cha mới
+        if (child.getParent() != null) {
+            danhMucClosureRepository.deleteAncestorLinks(childId, 1);
+        }
+        danhMucClosureRepository.linkSubtree(childId, parentId);
         child.setParent(parent);
         danhMucRepository.save(child);
+        catalogVersion.bumpAfterCommit();
     }
     
     @Override
@@ -63,6 +105,8 @@ public class DanhMucServiceImpl implements IDanhMucService {
         DanhMuc danhMucToUpdate = findCategoryById(id);
         danhMucToUpdate.setTenDanhMuc(dto.tenDanhMuc());
         danhMucToUpdate.setMoTa(dto.moTa());
+        // Tên danh mục được nhúng trong snapshot trang shop
+        shopCatalogSnapshot.markAllChanged();
         return danhMucRepository.save(danhMucToUpdate);
     }
     
@@ -73,16 +117,18 @@ public class DanhMucServiceImpl implements IDanhMucService {
         DanhMuc parent = findCategoryById(parentId);
         // Only unlink if current parent matches
         if (child.getParent() != null && child.getParent().getMaDanhMuc().equals(parent.getMaDanhMuc())) {
+            danhMucClosureRepository.deleteAncestorLinks(childId, 1);
             child.setParent(null);
             danhMucRepository.save(child);
+            catalogVersion.bumpAfterCommit();
         }
     }
 
     @Override
     @Transactional(readOnly = true)
     public Set<DanhMuc> getChildren(Integer parentId) {
-        DanhMuc parent = findCategoryById(parentId);
-        return parent.getChildren();
+        findCategoryById(parentId);
+        return new LinkedHashSet<>(danhMucClosureRepository.findDescendantsAtDepth(parentId, 1));
     }
 
     @Override
@@ -93,6 +139,70 @@ public class DanhMucServiceImpl implements IDanhMucService {
         return child.getParent() != null ? Set.of(child.getParent()) : Set.of();
     }
 
+    @Override
+    @Transactional(readOnly = true)
+    @Cacheable(cacheNames = CacheNames.CATEGORY_DESCENDANTS, key = "#id", sync = true)
+    public Set<Integer> getSelfAndDescendantIds(Integer id) {
+        List<Integer> ids = danhMucClosureRepository.findSelfAndDescendantIds(id);
+        // Danh mục không tồn tại: vẫn lọc theo đúng mã được yêu cầu như trước
+        // (Set.copyOf bất biến vì giá trị được cache và dùng chung)
+        return ids.isEmpty() ? Set.of(id) : Set.copyOf(ids);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<DanhMucPathItem> getPath(Integer id) {
+        List<DanhMucPathItem> path = new ArrayList<>();
+        for (Object[] r : danhMucClosureRepository.findPathRows(id)) {
+            path.add(new DanhMucPathItem((Integer) r[0], (String) r[1]));
+        }
+        if (path.isEmpty()) {
+            throw new EntityNotFoundException("Không tìm thấy danh mục với id: " + id);
+        }
+        return path;
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public long countProductsInSubtree(Integer id) {
+        return danhMucClosureRepository.countProductsInSubtree(id);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public Map<Integer, Long> countProductsBySubtree() {
+        Map<Integer, Long> counts = new HashMap<>();
+        for (Object[] r : danhMucClosureRepository.countProductsBySubtree()) {
+            counts.put((Integer) r[0], ((Number) r[1]).longValue());
+        }
+        return counts;
+    }
+
+    @Override
+    @Transactional
+    public void rebuildClosureIfInconsistent() {
+        long categories = danhMucRepository.count();
+        if (danhMucClosureRepository.countSelfRows() == categories) {
+            return;
+        }
+        // Danh mục được tạo ngoài service (seed dữ liệu, script...): dựng lại từ cột parent
+        Map<Integer, Integer> parentOf = new HashMap<>();
+        for (Object[] link : danhMucRepository.findAllParentLinks()) {
+            parentOf.put((Integer) link[0], (Integer) link[1]);
+        }
+        List<DanhMucClosure> rows = new ArrayList<>();
+        for (Integer id : parentOf.keySet()) {
+            Set<Integer> seen = new HashSet<>();
+            int depth = 0;
+            for (Integer cur = id; cur != null && seen.add(cur); cur = parentOf.get(cur)) {
+                rows.add(new DanhMucClosure(new DanhMucClosure.DanhMucClosureId(cur, id), depth++));
+            }
+        }
+        danhMucClosureRepository.deleteAllRows();
+        danhMucClosureRepository.saveAll(rows);
+        logger.info("Category closure rebuilt: {} categories, {} rows", categories, rows.size());
+    }
+
     @Override
     @Transactional(readOnly = true)
     public List<DanhMuc> getAll() {
@@ -103,10 +213,13 @@ public class DanhMucServiceImpl implements IDanhMucService {
     @Transactional
     public void deleteDanhMuc(Integer id) {
         DanhMuc categoryToDelete = findCategoryById(id);
+        // Con trực tiếp trở thành gốc: bỏ mọi dòng nối (id và tổ tiên) với cây con
+        danhMucClosureRepository.deleteAncestorLinks(id, 0);
         // For adjacency-list: clear parent reference from children
         for (DanhMuc child : categoryToDelete.getChildren()) {
             child.setParent(null);
             danhMucRepository.save(child);
+            catalogVersion.bumpAfterCommit();
         }
         categoryToDelete.getChildren().clear();
 
@@ -116,5 +229,6 @@ public class DanhMucServiceImpl implements IDanhMucService {
         }
 
         danhMucRepository.delete(categoryToDelete);
+        shopCatalogSnapshot.markAllChanged();
     }
 }
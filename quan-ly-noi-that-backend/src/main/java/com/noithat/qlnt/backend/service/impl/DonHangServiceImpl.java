@@ -1,10 +1,12 @@
 package com.noithat.qlnt.backend.service.impl;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.noithat.qlnt.backend.dto.request.CheckoutSummaryRequest;
 import com.noithat.qlnt.backend.dto.request.DonHangRequest;
 import com.noithat.qlnt.backend.dto.request.ThanhToanRequest;
 import com.noithat.qlnt.backend.dto.response.ChiTietDonHangResponse;
 import com.noithat.qlnt.backend.dto.response.CheckoutSummaryResponse;
+import com.noithat.qlnt.backend.dto.response.DonHangPageResponse;
 import com.noithat.qlnt.backend.dto.response.DonHangResponse;
 import com.noithat.qlnt.backend.dto.response.ThongKeBanHangResponse;
 import com.noithat.qlnt.backend.entity.*;
@@ -13,15 +15,36 @@ import com.noithat.qlnt.backend.repository.*;
 import com.noithat.qlnt.backend.service.IDonHangService;
 import com.noithat.qlnt.backend.service.IQuanLyTrangThaiDonHangService;
 import com.noithat.qlnt.backend.service.ThanhToanService;
+import com.noithat.qlnt.backend.service.event.DomainEventPublisher;
+import com.noithat.qlnt.backend.service.event.OrderPlaced;
+import com.noithat.qlnt.backend.service.event.VoucherRedeemed;
+import com.noithat.qlnt.backend.service.inventory.StockMutationEngine;
+import com.noithat.qlnt.backend.service.inventory.StockReservationService;
+import com.noithat.qlnt.backend.service.order.OrderHistoryQuery;
+import com.noithat.qlnt.backend.service.order.OrderStatusCounter;
+import com.noithat.qlnt.backend.service.voucher.VoucherRedemptionService;
 import lombok.RequiredArgsConstructor;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 @RequiredArgsConstructor
@@ -37,6 +60,11 @@ public class DonHangServiceImpl implements IDonHangService {
     private final com.noithat.qlnt.backend.repository.CauHinhHeThongRepository cauHinhHeThongRepository;
     private final BienTheGiamGiaRepository bienTheGiamGiaRepository;
     private final IQuanLyTrangThaiDonHangService quanLyTrangThaiDonHangService;
+    private final StockMutationEngine stockMutationEngine;
+    private final DomainEventPublisher domainEventPublisher;
+    private final OrderStatusCounter orderStatusCounter;
+    private final VoucherRedemptionService voucherRedemptionService;
+    private final ObjectMapper objectMapper;
 
     @Override
     @Transactional
@@ -97,8 +125,8 @@ public class DonHangServiceImpl implements IDonHangService {
         if (request.getMaVoucherCode() != null && !request.getMaVoucherCode().isEmpty()) {
             Voucher voucher = voucherRepository.findByMaCode(request.getMaVoucherCode()).orElse(null);
             if (voucher != null) {
+                // Lượt dùng được giữ sau khi lưu đơn (VoucherRedemptionService)
                 donHang.setVoucher(voucher);
-                voucher.setSoLuongDaSuDung(voucher.getSoLuongDaSuDung() + 1);
             }
         }
 
@@ -131,19 +159,28 @@ public class DonHangServiceImpl implements IDonHangService {
             khachHangRepository.save(khachHang);
         }
 
-        // 7. Tạo ChiTietDonHang và trừ kho (thông báo do DB trigger xử lý)
-        List<ChiTietDonHang> chiTietList = new ArrayList<>();
-        for (ThanhToanRequest ct : request.getChiTietDonHangList()) {
-            BienTheSanPham bienThe = bienTheSanPhamRepository.findById(ct.getMaBienThe())
-                    .orElseThrow(() -> new AppException(404, "Không tìm thấy biến thể sản phẩm."));
+        // 7. Tạo ChiTietDonHang: nạp mọi biến thể và giảm giá của chúng bằng một truy vấn IN mỗi loại
+        List<ThanhToanRequest> dongDatHang = request.getChiTietDonHangList();
+        Set<Integer> maBienThes = dongDatHang.stream().map(ThanhToanRequest::getMaBienThe)
+                .collect(Collectors.toCollection(TreeSet::new));
+        Map<Integer, BienTheSanPham> bienTheTheoMa = bienTheSanPhamRepository.findCheckoutByMaBienTheIn(maBienThes)
+                .stream().collect(Collectors.toMap(BienTheSanPham::getMaBienThe, b -> b));
+        // Giảm giá chỉ cần cho các dòng frontend không gửi giá
+        Set<Integer> canTimGiamGia = dongDatHang.stream()
+                .filter(ct -> ct.getDonGia() == null || ct.getDonGia().compareTo(BigDecimal.ZERO) <= 0)
+                .map(ThanhToanRequest::getMaBienThe).collect(Collectors.toSet());
+        Map<Integer, List<BienTheGiamGia>> giamGiaTheoBienThe = canTimGiamGia.isEmpty() ? Map.of()
+                : bienTheGiamGiaRepository.findWithProgramByMaBienTheIn(canTimGiamGia).stream()
+                        .collect(Collectors.groupingBy(g -> g.getId().getMaBienThe()));
 
-            if (bienThe.getSoLuongTon() < ct.getSoLuong()) {
-                throw new AppException(400, "Sản phẩm " + bienThe.getSku() + " không đủ số lượng tồn kho.");
+        List<ChiTietDonHang> chiTietList = new ArrayList<>();
+        LocalDateTime now = LocalDateTime.now();
+        for (ThanhToanRequest ct : dongDatHang) {
+            BienTheSanPham bienThe = bienTheTheoMa.get(ct.getMaBienThe());
+            if (bienThe == null) {
+                throw new AppException(404, "Không tìm thấy biến thể sản phẩm.");
             }
 
-            Integer afterStock = bienThe.getSoLuongTon() - ct.getSoLuong();
-            bienThe.setSoLuongTon(afterStock);
-
             ChiTietDonHang chiTiet = new ChiTietDonHang();
             chiTiet.setDonHang(donHang);
             chiTiet.setBienThe(bienThe);
@@ -157,11 +194,10 @@ public class DonHangServiceImpl implements IDonHangService {
                 // Frontend đã gửi giá đã tính (bao gồm giảm giá), sử dụng giá đó
                 donGiaThucTe = ct.getDonGia();
             } else {
-                // Không có giá từ request, tìm giá giảm từ database
-                List<BienTheGiamGia> danhSachGiamGia = bienTheGiamGiaRepository
-                    .findByBienTheSanPham_MaBienThe(bienThe.getMaBienThe());
+                // Không có giá từ request, dùng giá giảm đã nạp từ database
+                List<BienTheGiamGia> danhSachGiamGia = giamGiaTheoBienThe
+                    .getOrDefault(bienThe.getMaBienThe(), List.of());
                 
-                LocalDateTime now = LocalDateTime.now();
                 for (BienTheGiamGia btgg : danhSachGiamGia) {
                     ChuongTrinhGiamGia ct_gg = btgg.getChuongTrinhGiamGia();
                     // Kiểm tra chương trình còn hiệu lực và đang active
@@ -187,8 +223,42 @@ public class DonHangServiceImpl implements IDonHangService {
         }
         donHang.setChiTietDonHangs(chiTietList);
 
+        // Kiểm tra tồn trên dữ liệu vừa nạp để báo đúng sản phẩm thiếu (đã gộp các dòng cùng biến thể)
+        Map<Integer, Integer> soLuongTheoBienThe = StockReservationService.tongTheoBienThe(chiTietList);
+        soLuongTheoBienThe.forEach((maBienThe, soLuong) -> {
+            BienTheSanPham bienThe = bienTheTheoMa.get(maBienThe);
+            int coTheBan = (bienThe.getSoLuongTon() != null ? bienThe.getSoLuongTon() : 0)
+                    - (bienThe.getSoLuongDatTruoc() != null ? bienThe.getSoLuongDatTruoc() : 0);
+            if (coTheBan < soLuong) {
+                throw new AppException(400, "Sản phẩm " + bienThe.getSku() + " không đủ số lượng tồn kho.");
+            }
+        });
+
         // 8. Lưu tất cả thay đổi
         DonHang savedDonHang = donHangRepository.save(donHang);
+        orderStatusCounter.ghiNhanDonMoi(savedDonHang);
+
+        // 9. Trừ kho mọi dòng bằng một câu lệnh; thiếu hàng (do đơn khác vừa bán) thì lỗi và rollback cả đơn
+        if (stockMutationEngine.sellBatch(soLuongTheoBienThe,
+                StockReservationService.orderRef(savedDonHang.getMaDonHang()), "Tạo đơn hàng", null).isEmpty()) {
+            throw new AppException(400, "Một số sản phẩm không đủ số lượng tồn kho.");
+        }
+
+        // Giữ lượt voucher cuối cùng: câu UPDATE có điều kiện khóa dòng voucher tới khi commit, hết lượt thì rollback cả đơn
+        if (savedDonHang.getVoucher() != null) {
+            voucherRedemptionService.claim(savedDonHang.getVoucher(), savedDonHang.getMaDonHang(),
+                    khachHang != null ? khachHang.getMaKhachHang() : null);
+        }
+
+        // 10. Sự kiện cho các subscriber (thông báo...), ghi cùng transaction với đơn
+        Integer maKhachHang = khachHang != null ? khachHang.getMaKhachHang() : null;
+        domainEventPublisher.publish(new OrderPlaced(savedDonHang.getMaDonHang(), maKhachHang, OrderPlaced.TAI_QUAY,
+                savedDonHang.getThanhTien(), chiTietList.size()));
+        Voucher voucherDaDung = savedDonHang.getVoucher();
+        if (voucherDaDung != null) {
+            domainEventPublisher.publish(new VoucherRedeemed(voucherDaDung.getMaVoucher(), voucherDaDung.getMaCode(),
+                    savedDonHang.getMaDonHang(), maKhachHang));
+        }
 
         // Notifications are handled by DB triggers now; skip programmatic creation
 
@@ -209,6 +279,89 @@ public class DonHangServiceImpl implements IDonHangService {
                 .collect(Collectors.toList());
     }
 
+    @Override
+    @Transactional(readOnly = true)
+    public DonHangPageResponse timDonHang(OrderHistoryQuery query) {
+        OrderHistoryQuery.Cursor cursor = query.decodeCursor();
+        // Lấy dư một mã để biết còn trang sau
+        List<Integer> ids = donHangRepository.findHistoryPage(query.trangThai(), query.trangThaiThanhToan(),
+                query.maKhachHang(), query.tuNgay(), query.denNgay(), query.tienTu(), query.tienDen(),
+                cursor != null ? cursor.ngayDatHang() : null, cursor != null ? cursor.maDonHang() : null,
+                PageRequest.of(0, query.size() + 1));
+        boolean hasNext = ids.size() > query.size();
+        if (hasNext)
+            ids = ids.subList(0, query.size());
+
+        Map<Integer, DonHang> theoMa = ids.isEmpty() ? Map.of()
+                : donHangRepository.findForHistoryByMaDonHangIn(ids).stream()
+                        .collect(Collectors.toMap(DonHang::getMaDonHang, d -> d));
+        List<DonHangResponse> items = ids.stream().map(theoMa::get).map(this::mapToResponse)
+                .collect(Collectors.toList());
+
+        DonHangResponse last = items.isEmpty() ? null : items.get(items.size() - 1);
+        return DonHangPageResponse.builder()
+                .items(items)
+                .size(query.size())
+                .hasNext(hasNext)
+                .nextCursor(hasNext && last != null
+                        ? OrderHistoryQuery.encodeCursor(last.getNgayDatHang(), last.getMaDonHang())
+                        : null)
+                .build();
+    }
+
+    // Thứ tự cột khớp DonHangRepository.streamForExport
+    private static final String[] EXPORT_COLUMNS = { "maDonHang", "ngayDatHang", "trangThaiDonHang",
+            "trangThaiThanhToan", "phuongThucThanhToan", "maKhachHang", "tenKhachHang", "soDienThoaiKhachHang",
+            "tenNguoiNhan", "soDienThoaiNhan", "diaChiGiaoHang", "tongTienGoc", "giamGiaVip", "giamGiaVoucher",
+            "giamGiaDiemThuong", "phiGiaoHang", "thanhTien", "voucherCode" };
+
+    @Override
+    @Transactional(readOnly = true)
+    public void xuatDonHang(OrderHistoryQuery query, String dinhDang, OutputStream out) throws IOException {
+        boolean csv = "csv".equalsIgnoreCase(dinhDang);
+        if (!csv && !"ndjson".equalsIgnoreCase(dinhDang))
+            throw new IllegalArgumentException("Định dạng xuất không hỗ trợ: " + dinhDang);
+
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        if (csv) {
+            writer.write('\uFEFF'); // BOM để Excel đọc đúng tiếng Việt
+            writer.write(String.join(",", EXPORT_COLUMNS));
+            writer.write('\n');
+        }
+        // Chỉ đọc các cột cần xuất nên persistence context không phình theo số đơn
+        try (Stream<Object[]> rows = donHangRepository.streamForExport(query.trangThai(),
+                query.trangThaiThanhToan(), query.maKhachHang(), query.tuNgay(), query.denNgay(), query.tienTu(),
+                query.tienDen())) {
+            Iterator<Object[]> it = rows.iterator();
+            while (it.hasNext()) {
+                Object[] row = it.next();
+                if (csv) {
+                    for (int i = 0; i < row.length; i++) {
+                        if (i > 0)
+                            writer.write(',');
+                        writer.write(csvValue(row[i]));
+                    }
+                } else {
+                    Map<String, Object> json = new LinkedHashMap<>();
+                    for (int i = 0; i < row.length; i++)
+                        json.put(EXPORT_COLUMNS[i], row[i] instanceof LocalDateTime t ? t.toString() : row[i]);
+                    writer.write(objectMapper.writeValueAsString(json));
+                }
+                writer.write('\n');
+            }
+        }
+        writer.flush();
+    }
+
+    private static String csvValue(Object value) {
+        if (value == null)
+            return "";
+        String text = value instanceof BigDecimal b ? b.toPlainString() : value.toString();
+        if (text.indexOf(',') < 0 && text.indexOf('"') < 0 && text.indexOf('\n') < 0 && text.indexOf('\r') < 0)
+            return text;
+        return '"' + text.replace("\"", "\"\"") + '"';
+    }
+
     @Override
     public List<DonHangResponse> getDonHangByKhachHang(Integer maKhachHang) {
         return donHangRepository.findByKhachHang(maKhachHang).stream()
@@ -258,10 +411,12 @@ public class DonHangServiceImpl implements IDonHangService {
 
     @Override
     public ThongKeBanHangResponse thongKeBanHang() {
-        long tongDonHang = donHangRepository.count();
-        long choXuLy = donHangRepository.countByTrangThaiDonHang("CHO_XU_LY");
-        long hoanThanh = donHangRepository.countByTrangThaiDonHang("HOAN_THANH");
-        BigDecimal doanhThu = donHangRepository.sumThanhTienByTrangThaiDonHang("HOAN_THANH");
+        // Một lần đọc bộ đếm theo trạng thái thay cho bốn câu đếm/cộng trên bảng đơn hàng
+        long tongDonHang = orderStatusCounter.tongSoDon();
+        long choXuLy = orderStatusCounter.soDon("CHO_XU_LY");
+        OrderStatusCounter.Dem hoanThanhDem = orderStatusCounter.get("HOAN_THANH");
+        long hoanThanh = hoanThanhDem.soDon();
+        BigDecimal doanhThu = hoanThanhDem.tongThanhTien();
 
         ThongKeBanHangResponse response = new ThongKeBanHangResponse();
         response.setTongDonHang(tongDonHang);
@@ -306,6 +461,7 @@ public class DonHangServiceImpl implements IDonHangService {
         // Jpa tự xử lý xóa ChiTietDonHang nhờ CascadeType.ALL
 
         // Cuối cùng xóa đơn hàng
+        orderStatusCounter.ghiNhanXoa(donHang);
         donHangRepository.delete(donHang);
     }
 
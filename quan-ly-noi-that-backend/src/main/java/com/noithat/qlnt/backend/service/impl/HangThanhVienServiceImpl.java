@@ -43,6 +43,9 @@ public class HangThanhVienServiceImpl implements IHangThanhVienService {
     @Autowired
     private com.noithat.qlnt.backend.service.IVipBenefitService vipBenefitService;
 
+    @Autowired
+    private com.noithat.qlnt.backend.service.event.DomainEventPublisher domainEventPublisher;
+
     private final ObjectMapper objectMapper = new ObjectMapper();
 
     @Override
@@ -373,10 +376,13 @@ public class HangThanhVienServiceImpl implements IHangThanhVienService {
                 .orElseThrow(() -> new EntityNotFoundException("Không tìm thấy khách hàng với ID: " + maKhachHang));
 
         HangThanhVien hangMoi = xacDinhHangThanhVien(khachHang.getDiemThuong());
+        HangThanhVien hangCu = khachHang.getHangThanhVien();
 
-        if (!hangMoi.getMaHangThanhVien().equals(khachHang.getHangThanhVien().getMaHangThanhVien())) {
+        if (hangCu == null || !hangMoi.getMaHangThanhVien().equals(hangCu.getMaHangThanhVien())) {
             khachHang.setHangThanhVien(hangMoi);
             khachHangRepository.save(khachHang);
+            domainEventPublisher.publish(new com.noithat.qlnt.backend.service.event.VipTierChanged(maKhachHang,
+                    hangCu != null ? hangCu.getMaHangThanhVien() : null, hangMoi.getMaHangThanhVien()));
         }
     }
 
@@ -6,6 +6,7 @@ import com.noithat.qlnt.backend.entity.SanPham;
 import com.noithat.qlnt.backend.repository.HinhAnhSanPhamRepository;
 import com.noithat.qlnt.backend.repository.SanPhamRepository;
 import com.noithat.qlnt.backend.service.IHinhAnhSanPhamService;
+import com.noithat.qlnt.backend.service.catalog.ShopCatalogSnapshot;
 import lombok.RequiredArgsConstructor;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
@@ -20,6 +21,7 @@ public class HinhAnhSanPhamServiceImpl implements IHinhAnhSanPhamService {
 
     private final HinhAnhSanPhamRepository hinhAnhRepository;
     private final SanPhamRepository sanPhamRepository;
+    private final ShopCatalogSnapshot shopCatalogSnapshot;
 
     @Override
     public Page<HinhAnhSanPham> getAllHinhAnh(Pageable pageable) {
@@ -65,6 +67,7 @@ public class HinhAnhSanPhamServiceImpl implements IHinhAnhSanPhamService {
             .trangThai(request.trangThai())
             .build();
 
+        shopCatalogSnapshot.markProductChanged(maSanPham);
         return hinhAnhRepository.save(hinhAnh);
     }
 
@@ -91,16 +94,16 @@ public class HinhAnhSanPhamServiceImpl implements IHinhAnhSanPhamService {
         hinhAnh.setMoTa(request.moTa());
         hinhAnh.setTrangThai(request.trangThai());
 
+        shopCatalogSnapshot.markProductChanged(hinhAnh.getSanPham().getMaSanPham());
         return hinhAnhRepository.save(hinhAnh);
     }
 
     @Override
     @Transactional
     public void deleteHinhAnh(Integer id) {
-        if (!hinhAnhRepository.existsById(id)) {
-            throw new RuntimeException("Không tìm thấy hình ảnh với ID: " + id);
-        }
-        hinhAnhRepository.deleteById(id);
+        HinhAnhSanPham hinhAnh = getHinhAnhById(id);
+        shopCatalogSnapshot.markProductChanged(hinhAnh.getSanPham().getMaSanPham());
+        hinhAnhRepository.delete(hinhAnh);
     }
 
     @Override
@@ -124,6 +127,7 @@ public class HinhAnhSanPhamServiceImpl implements IHinhAnhSanPhamService {
     public HinhAnhSanPham updateThuTu(Integer id, Integer thuTu) {
         HinhAnhSanPham hinhAnh = getHinhAnhById(id);
         hinhAnh.setThuTu(thuTu);
+        shopCatalogSnapshot.markProductChanged(hinhAnh.getSanPham().getMaSanPham());
         return hinhAnhRepository.save(hinhAnh);
     }
 
@@ -131,5 +135,6 @@ public class HinhAnhSanPhamServiceImpl implements IHinhAnhSanPhamService {
     @Transactional
     public void deleteAllBySanPham(Integer maSanPham) {
         hinhAnhRepository.deleteBySanPhamMaSanPham(maSanPham);
+        shopCatalogSnapshot.markProductChanged(maSanPham);
     }
 }
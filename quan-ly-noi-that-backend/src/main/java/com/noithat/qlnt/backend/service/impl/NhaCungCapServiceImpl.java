@@ -9,6 +9,7 @@ import com.noithat.qlnt.backend.dto.common.NhaCungCapDto;
 import com.noithat.qlnt.backend.entity.NhaCungCap;
 import com.noithat.qlnt.backend.repository.NhaCungCapRepository;
 import com.noithat.qlnt.backend.service.INhaCungCapService;
+import com.noithat.qlnt.backend.service.catalog.ShopCatalogSnapshot;
 
 import jakarta.persistence.EntityNotFoundException;
 
@@ -21,6 +22,8 @@ public class NhaCungCapServiceImpl implements INhaCungCapService {
 
     @Autowired
     private NhaCungCapRepository nhaCungCapRepository;
+    @Autowired
+    private ShopCatalogSnapshot shopCatalogSnapshot;
 
     @Override
     public List<NhaCungCap> getAllNhaCungCaps() {
@@ -39,6 +42,8 @@ public class NhaCungCapServiceImpl implements INhaCungCapService {
         NhaCungCap ncc = nhaCungCapRepository.findById(id)
                 .orElseThrow(() -> new EntityNotFoundException("Không tìm thấy nhà cung cấp với id: " + id));
         ncc.setTenNhaCungCap(dto.tenNhaCungCap());
+        // Tên nhà cung cấp được nhúng trong snapshot trang shop
+        shopCatalogSnapshot.markAllChanged();
         return nhaCungCapRepository.save(ncc);
     }
 
@@ -48,5 +53,6 @@ public class NhaCungCapServiceImpl implements INhaCungCapService {
             throw new EntityNotFoundException("Không tìm thấy nhà cung cấp với id: " + id);
         }
         nhaCungCapRepository.deleteById(id);
+        shopCatalogSnapshot.markAllChanged();
     }
 }
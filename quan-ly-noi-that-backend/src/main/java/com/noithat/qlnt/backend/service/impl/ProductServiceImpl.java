@@ -3,12 +3,16 @@ package com.noithat.qlnt.backend.service.impl;
 import java.util.List;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.Cacheable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import com.noithat.qlnt.backend.dto.request.BienTheRequestDto;
 import com.noithat.qlnt.backend.dto.request.SanPhamRequestDto;
 import com.noithat.qlnt.backend.dto.response.ProductDetailDto;
+import com.noithat.qlnt.backend.dto.response.ProductDetailWithVariantsDto;
 import com.noithat.qlnt.backend.entity.BienTheGiamGia;
 import com.noithat.qlnt.backend.entity.BienTheSanPham;
 import com.noithat.qlnt.backend.entity.BoSuuTap;
@@ -26,9 +30,17 @@ import com.noithat.qlnt.backend.repository.DanhGiaSanPhamRepository;
 import com.noithat.qlnt.backend.repository.BienTheGiamGiaRepository;
 import com.noithat.qlnt.backend.service.IProductService;
 import com.noithat.qlnt.backend.service.CloudinaryService;
+import com.noithat.qlnt.backend.service.IDanhMucService;
+import com.noithat.qlnt.backend.service.cache.CacheNames;
+import com.noithat.qlnt.backend.service.catalog.ProductSearchIndex;
+import com.noithat.qlnt.backend.service.catalog.ShopCatalogSnapshot;
+import com.noithat.qlnt.backend.service.catalog.ShopProductQuery;
+import com.noithat.qlnt.backend.service.catalog.ShopSort;
+import com.noithat.qlnt.backend.service.inventory.StockMutationEngine;
 import com.noithat.qlnt.backend.dto.response.SanPhamWithImagesResponseDto;
-import com.noithat.qlnt.backend.repository.LichSuTonKhoRepository;
-import com.noithat.qlnt.backend.dto.response.ProductCompareResponse;
+import com.noithat.qlnt.backend.repository.TonKhoTongHopRepository;
+import com.noithat.qlnt.backend.repository.BienTheThuocTinhRepository;
+import com.noithat.qlnt.backend.dto.response.ProductCompareMatrixResponse;
 
 import jakarta.persistence.EntityNotFoundException;
 
@@ -54,6 +66,7 @@ public class ProductServiceImpl implements IProductService {
                 SanPham sp = findProductById(productId);
                 sp.setDanhMuc(null);
                 sanPhamRepository.save(sp);
+                shopCatalogSnapshot.markProductChanged(productId);
         }
 
         @Autowired
@@ -66,49 +79,96 @@ public class ProductServiceImpl implements IProductService {
         }
 
         @Autowired
-        private LichSuTonKhoRepository lichSuTonKhoRepository;
+        private TonKhoTongHopRepository tonKhoTongHopRepository;
+        @Autowired
+        private BienTheThuocTinhRepository bienTheThuocTinhRepository;
+
+        private static final int MAX_COMPARE_PRODUCTS = 50;
 
+        /**
+         * So sánh tối đa 50 sản phẩm: mỗi loại dữ liệu một truy vấn gộp theo lô mã
+         * (tên, giá/tồn, tổng nhập/xuất đã cộng dồn sẵn, thuộc tính), điền thẳng vào
+         * các mảng theo cột thay vì quét LichSuTonKho của từng biến thể.
+         */
         @Override
         @Transactional(readOnly = true)
-        public java.util.List<ProductCompareResponse> compareProductsAggregate(java.util.List<Integer> productIds) {
-                if (productIds == null || productIds.isEmpty())
-                        return java.util.Collections.emptyList();
-                // Lấy tất cả sản phẩm cần so sánh
-                List<SanPham> products = sanPhamRepository.findAllById(productIds);
-                java.util.Map<Integer, ProductCompareResponse> resultMap = new java.util.HashMap<>();
-                for (SanPham sp : products) {
-                        resultMap.put(sp.getMaSanPham(), new ProductCompareResponse(
-                                        sp.getMaSanPham(),
-                                        sp.getTenSanPham(),
-                                        0, // nhập
-                                        0 // xuất
-                        ));
+        public ProductCompareMatrixResponse compareProductsAggregate(java.util.List<Integer> productIds) {
+                List<Integer> requested = productIds == null ? List.of()
+                                : productIds.stream().filter(java.util.Objects::nonNull).distinct().toList();
+                if (requested.size() > MAX_COMPARE_PRODUCTS) {
+                        throw new IllegalArgumentException(
+                                        "Chỉ so sánh được tối đa " + MAX_COMPARE_PRODUCTS + " sản phẩm");
+                }
+                java.util.Map<Integer, String> names = new java.util.HashMap<>();
+                if (!requested.isEmpty()) {
+                        for (Object[] r : sanPhamRepository.findNamesByIdIn(requested))
+                                names.put((Integer) r[0], (String) r[1]);
+                }
+
+                // Giữ thứ tự yêu cầu, bỏ mã không tồn tại; col là chỉ số cột của sản phẩm
+                int n = (int) requested.stream().filter(names::containsKey).count();
+                int[] ids = new int[n];
+                String[] tenSanPham = new String[n];
+                java.util.Map<Integer, Integer> col = new java.util.HashMap<>();
+                for (Integer id : requested) {
+                        if (names.containsKey(id)) {
+                                int c = col.size();
+                                col.put(id, c);
+                                ids[c] = id;
+                                tenSanPham[c] = names.get(id);
+                        }
+                }
+                java.math.BigDecimal[] giaMin = new java.math.BigDecimal[n];
+                java.math.BigDecimal[] giaMax = new java.math.BigDecimal[n];
+                long[] tonKho = new long[n];
+                long[] totalNhap = new long[n];
+                long[] totalXuat = new long[n];
+                List<ProductCompareMatrixResponse.AttributeRow> attributes = new java.util.ArrayList<>();
+                if (n == 0) {
+                        return new ProductCompareMatrixResponse(ids, tenSanPham, giaMin, giaMax, tonKho, totalNhap,
+                                        totalXuat, attributes);
+                }
+
+                java.util.Set<Integer> found = col.keySet();
+                for (Object[] r : bienTheRepository.findCompareStatsBySanPhamIdIn(found)) {
+                        int c = col.get((Integer) r[0]);
+                        giaMin[c] = (java.math.BigDecimal) r[1];
+                        giaMax[c] = (java.math.BigDecimal) r[2];
+                        tonKho[c] = r[3] != null ? ((Number) r[3]).longValue() : 0L;
                 }
-                // Lấy lịch sử nhập/xuất của các biến thể thuộc các sản phẩm này
-                // (truy vấn tất cả lịch sử liên quan các biến thể của các sản phẩm này)
-                List<BienTheSanPham> allVariants = bienTheRepository.findAllBySanPham_MaSanPhamIn(productIds);
-                java.util.Set<Integer> variantIds = allVariants.stream().map(BienTheSanPham::getMaBienThe)
-                                .collect(java.util.stream.Collectors.toSet());
-                if (variantIds.isEmpty())
-                        return new java.util.ArrayList<>(resultMap.values());
-                List<com.noithat.qlnt.backend.entity.LichSuTonKho> histories = lichSuTonKhoRepository
-                                .findByBienTheSanPham_MaBienTheIn(new java.util.ArrayList<>(variantIds));
-                for (com.noithat.qlnt.backend.entity.LichSuTonKho ls : histories) {
-                        Integer pid = ls.getBienTheSanPham().getSanPham().getMaSanPham();
-                        ProductCompareResponse resp = resultMap.get(pid);
-                        if (resp == null)
-                                continue;
-                        if (ls.getSoLuongThayDoi() > 0) {
-                                resp.setTotalNhap(resp.getTotalNhap() + ls.getSoLuongThayDoi());
-                        } else if (ls.getSoLuongThayDoi() < 0) {
-                                resp.setTotalXuat(resp.getTotalXuat() + Math.abs(ls.getSoLuongThayDoi()));
+                for (Object[] r : tonKhoTongHopRepository.sumBySanPhamIdIn(found)) {
+                        int c = col.get((Integer) r[0]);
+                        totalNhap[c] = r[1] != null ? ((Number) r[1]).longValue() : 0L;
+                        totalXuat[c] = r[2] != null ? ((Number) r[2]).longValue() : 0L;
+                }
+
+                // Các dòng đã sắp theo thuộc tính nên mỗi hàng của ma trận được điền liền một lượt
+                String[] values = null;
+                Integer currentAttr = null;
+                // (cột, giá trị) đã có trong hàng hiện tại, để mỗi ô không lặp giá trị giữa các biến thể
+                java.util.Set<String> seen = new java.util.HashSet<>();
+                for (Object[] r : bienTheThuocTinhRepository.findCompareRowsBySanPhamIdIn(found)) {
+                        Integer maThuocTinh = (Integer) r[1];
+                        if (!maThuocTinh.equals(currentAttr)) {
+                                currentAttr = maThuocTinh;
+                                values = new String[n];
+                                seen.clear();
+                                attributes.add(new ProductCompareMatrixResponse.AttributeRow(maThuocTinh,
+                                                (String) r[2], values));
+                        }
+                        int c = col.get((Integer) r[0]);
+                        String giaTri = (String) r[3];
+                        if (seen.add(c + "|" + giaTri)) {
+                                values[c] = values[c] == null ? giaTri : values[c] + ", " + giaTri;
                         }
                 }
-                return new java.util.ArrayList<>(resultMap.values());
+                return new ProductCompareMatrixResponse(ids, tenSanPham, giaMin, giaMax, tonKho, totalNhap, totalXuat,
+                                attributes);
         }
 
         @Override
         @Transactional(readOnly = true)
+        @Cacheable(cacheNames = CacheNames.PRODUCT_LISTS, key = "'all'", sync = true)
         public java.util.List<SanPhamWithImagesResponseDto> getAllProducts() {
                 // Return products with images and timestamps to match frontend expectations
                 return sanPhamRepository.findAll().stream()
@@ -194,12 +254,14 @@ public class ProductServiceImpl implements IProductService {
 
         @Override
         @Transactional(readOnly = true)
+        @Cacheable(cacheNames = CacheNames.PRODUCT_SUMMARY, key = "#id", sync = true)
         public ProductDetailDto getProductDetailById(Integer id) {
                 return mapToDto(findProductById(id));
         }
 
         @Override
         @Transactional(readOnly = true)
+        @Cacheable(cacheNames = CacheNames.PRODUCT_WITH_IMAGES, key = "#id", sync = true)
         public SanPhamWithImagesResponseDto getProductWithImagesById(Integer id) {
                 SanPham sp = findProductById(id);
 
@@ -298,7 +360,9 @@ public class ProductServiceImpl implements IProductService {
 
                 // Note: chieuDai, chieuRong, chieuCao, canNang đã chuyển sang lưu ở
                 // BienTheSanPham
-                return sanPhamRepository.save(sp);
+                SanPham saved = sanPhamRepository.save(sp);
+                shopCatalogSnapshot.markProductChanged(saved.getMaSanPham());
+                return saved;
         }
 
         @Override
@@ -344,6 +408,7 @@ public class ProductServiceImpl implements IProductService {
 
                 // Note: chieuDai, chieuRong, chieuCao, canNang đã chuyển sang lưu ở
                 // BienTheSanPham
+                shopCatalogSnapshot.markProductChanged(id);
                 return sanPhamRepository.save(sp);
         }
 
@@ -357,6 +422,7 @@ public class ProductServiceImpl implements IProductService {
                         existing.setTrangThai(request.trangThai());
                 }
 
+                shopCatalogSnapshot.markProductChanged(id);
                 return sanPhamRepository.save(existing);
         }
 
@@ -367,6 +433,7 @@ public class ProductServiceImpl implements IProductService {
                         throw new EntityNotFoundException("Không tìm thấy sản phẩm với id: " + id);
                 }
                 sanPhamRepository.deleteById(id);
+                shopCatalogSnapshot.markProductChanged(id);
         }
 
         @Override
@@ -378,6 +445,7 @@ public class ProductServiceImpl implements IProductService {
                                                 "Không tìm thấy danh mục với id: " + categoryId));
                 sp.setDanhMuc(dm);
                 sanPhamRepository.save(sp);
+                shopCatalogSnapshot.markProductChanged(productId);
         }
 
         @Override
@@ -395,8 +463,16 @@ public class ProductServiceImpl implements IProductService {
                 bt.setSanPham(sp);
                 bt.setSku(dto.sku());
                 bt.setGiaBan(dto.giaBan());
-                bt.setSoLuongTon(dto.soLuongTon());
-                BienTheSanPham savedBienThe = bienTheRepository.save(bt);
+                bt.setSoLuongTon(0);
+                BienTheSanPham savedBienThe = bienTheRepository.saveAndFlush(bt);
+                // Tồn ban đầu đi qua StockMutationEngine để có dòng lịch sử và bảng tổng hợp
+                Integer soLuongTon = dto.soLuongTon();
+                if (soLuongTon != null && soLuongTon != 0 && stockMutationEngine.setQuantity(
+                                savedBienThe.getMaBienThe(), soLuongTon, "DIEU_CHINH",
+                                "Tồn ban đầu khi tạo biến thể", "SYSTEM").isEmpty()) {
+                        throw new IllegalArgumentException("Số lượng tồn không hợp lệ: " + soLuongTon);
+                }
+                shopCatalogSnapshot.markProductChanged(sanPhamId);
 
                 return savedBienThe;
         }
@@ -529,377 +605,85 @@ public class ProductServiceImpl implements IProductService {
         @Override
         @Transactional(readOnly = true)
         public java.util.List<com.noithat.qlnt.backend.dto.response.ShopProductResponseDto> getProductsForShop() {
-                return sanPhamRepository.findAll().stream().map(sp -> {
-                        // gather variants
-                        java.util.List<BienTheSanPham> variants = sp.getBienTheList() == null
-                                        ? java.util.Collections.emptyList()
-                                        : sp.getBienTheList();
-
-                        double min = Double.MAX_VALUE;
-                        double max = 0.0;
-                        int totalStock = 0;
-                        int availableVariantCount = 0;
-
-                        for (BienTheSanPham bt : variants) {
-                                if (bt.getGiaBan() != null) {
-                                        double price = bt.getGiaBan().doubleValue();
-                                        if (price < min)
-                                                min = price;
-                                        if (price > max)
-                                                max = price;
-                                }
-                                int qty = bt.getSoLuongTon() == null ? 0 : bt.getSoLuongTon();
-                                totalStock += qty;
-                                if (qty > 0)
-                                        availableVariantCount++;
-                        }
-
-                        if (min == Double.MAX_VALUE)
-                                min = 0.0;
-
-                        java.util.List<String> imageUrls = hinhAnhSanPhamRepository
-                                        .findBySanPhamMaSanPhamOrderByThuTuAsc(sp.getMaSanPham())
-                                        .stream()
-                                        .map(h -> h.getDuongDanHinhAnh())
-                                        .collect(java.util.stream.Collectors.toList());
-
-                        // Determine per-variant final price (giaSauGiam) if there is an active
-                        // BienTheGiamGia
-                        Double lowestFinalPrice = null;
-                        Integer lowestFinalVariantId = null;
-                        String lowestFinalVariantSku = null;
-                        Double lowestFinalVariantOriginalPrice = null;
-                        Integer lowestFinalVariantDiscountPercent = null;
-                        Double lowestFinalVariantDiscountAmount = null;
-
-                        for (BienTheSanPham bt : variants) {
-                                Double variantOriginal = bt.getGiaBan() != null ? bt.getGiaBan().doubleValue() : null;
-                                Double variantFinal = variantOriginal;
-
-                                // check discounts for this variant
-                                java.util.List<BienTheGiamGia> discounts = bienTheGiamGiaRepository
-                                                .findByBienTheSanPham_MaBienThe(bt.getMaBienThe());
-                                if (!discounts.isEmpty()) {
-                                        BienTheGiamGia disc = discounts.get(0);
-                                        com.noithat.qlnt.backend.entity.ChuongTrinhGiamGia chuongTrinh = disc
-                                                        .getChuongTrinhGiamGia();
-                                        java.time.LocalDateTime now = java.time.LocalDateTime.now();
-                                        boolean isActive = (chuongTrinh.getNgayBatDau() == null
-                                                        || !now.isBefore(chuongTrinh.getNgayBatDau())) &&
-                                                        (chuongTrinh.getNgayKetThuc() == null
-                                                                        || !now.isAfter(chuongTrinh.getNgayKetThuc()));
-                                        if (isActive && disc.getGiaSauGiam() != null) {
-                                                variantFinal = disc.getGiaSauGiam().doubleValue();
-                                        }
-                                }
-
-                                if (variantFinal != null) {
-                                        if (variantFinal < min)
-                                                min = variantFinal;
-                                        if (variantFinal > max)
-                                                max = variantFinal;
-                                } else if (variantOriginal != null) {
-                                        double price = variantOriginal;
-                                        if (price < min)
-                                                min = price;
-                                        if (price > max)
-                                                max = price;
-                                }
-
-                                int qty = bt.getSoLuongTon() == null ? 0 : bt.getSoLuongTon();
-                                totalStock += qty;
-                                if (qty > 0)
-                                        availableVariantCount++;
-
-                                // track lowest final price variant
-                                if (variantFinal != null) {
-                                        if (lowestFinalPrice == null || variantFinal < lowestFinalPrice) {
-                                                lowestFinalPrice = variantFinal;
-                                                lowestFinalVariantId = bt.getMaBienThe();
-                                                lowestFinalVariantSku = bt.getSku();
-                                                lowestFinalVariantOriginalPrice = variantOriginal;
-                                                // compute percent/amount
-                                                if (variantOriginal != null && variantOriginal > 0) {
-                                                        double amt = variantOriginal - variantFinal;
-                                                        lowestFinalVariantDiscountAmount = amt;
-                                                        lowestFinalVariantDiscountPercent = (int) Math
-                                                                        .round((amt / variantOriginal) * 100.0);
-                                                } else {
-                                                        lowestFinalVariantDiscountAmount = null;
-                                                        lowestFinalVariantDiscountPercent = null;
-                                                }
-                                        }
-                                }
-                        }
-                        // Determine discount percent: prefer a real variant-level discount (giaSauGiam)
-                        // if present.
-                        // Do NOT infer discount from max/min price range.
-                        int discountPercent = 0;
-                        if (lowestFinalVariantDiscountPercent != null) {
-                                discountPercent = lowestFinalVariantDiscountPercent;
-                        } else {
-                                discountPercent = 0;
-                        }
-
-                        // Map to frontend-friendly fields: price=min, originalPrice=max,
-                        // stockQuantity=totalStock
-                        com.noithat.qlnt.backend.dto.response.ShopProductResponseDto.ShopProductResponseDtoBuilder builder = com.noithat.qlnt.backend.dto.response.ShopProductResponseDto
-                                        .builder()
-                                        .maSanPham(sp.getMaSanPham())
-                                        .tenSanPham(sp.getTenSanPham())
-                                        .moTa(sp.getMoTa())
-                                        .id(sp.getMaSanPham())
-                                        .name(sp.getTenSanPham())
-                                        .category(sp.getDanhMuc() != null
-                                                        ? com.noithat.qlnt.backend.dto.response.ShopProductResponseDto.CategoryDto
-                                                                        .builder().id(sp.getDanhMuc().getMaDanhMuc())
-                                                                        .name(sp.getDanhMuc().getTenDanhMuc()).build()
-                                                        : null)
-                                        .supplier(sp.getNhaCungCap() != null
-                                                        ? com.noithat.qlnt.backend.dto.response.ShopProductResponseDto.SupplierDto
-                                                                        .builder()
-                                                                        .id(sp.getNhaCungCap().getMaNhaCungCap())
-                                                                        .name(sp.getNhaCungCap().getTenNhaCungCap())
-                                                                        .build()
-                                                        : null)
-                                        // include category and supplier details for frontend filtering
-                                        .category(sp.getDanhMuc() != null
-                                                        ? com.noithat.qlnt.backend.dto.response.ShopProductResponseDto.CategoryDto
-                                                                        .builder().id(sp.getDanhMuc().getMaDanhMuc())
-                                                                        .name(sp.getDanhMuc().getTenDanhMuc()).build()
-                                                        : null)
-                                        .supplier(sp.getNhaCungCap() != null
-                                                        ? com.noithat.qlnt.backend.dto.response.ShopProductResponseDto.SupplierDto
-                                                                        .builder()
-                                                                        .id(sp.getNhaCungCap().getMaNhaCungCap())
-                                                                        .name(sp.getNhaCungCap().getTenNhaCungCap())
-                                                                        .build()
-                                                        : null)
-                                        .price(min > 0 ? min : null)
-                                        .originalPrice(max > 0 ? max : null)
-                                        .stockQuantity(totalStock)
-                                        .minPrice(min)
-                                        .maxPrice(max)
-                                        .totalStock(totalStock)
-                                        .availableVariantCount(availableVariantCount)
-                                        .soLuongBienThe(variants.size())
-                                        .images(imageUrls)
-                                        .discountPercent(discountPercent)
-                                        .averageRating(danhGiaSanPhamRepository
-                                                        .findAverageByProductId(sp.getMaSanPham()))
-                                        .reviewCount(danhGiaSanPhamRepository.countByProductId(sp.getMaSanPham())
-                                                        .intValue())
-                                        .diemThuong(sp.getDiemThuong());
-
-                        // attach lowest variant info if found
-                        if (lowestFinalVariantId != null) {
-                                builder.lowestVariantId(lowestFinalVariantId)
-                                                .lowestVariantSku(lowestFinalVariantSku)
-                                                .lowestVariantPrice(lowestFinalPrice)
-                                                .lowestVariantOriginalPrice(lowestFinalVariantOriginalPrice)
-                                                .lowestVariantDiscountAmount(lowestFinalVariantDiscountAmount)
-                                                .lowestVariantDiscountPercent(lowestFinalVariantDiscountPercent);
-                        }
-
-                        return builder.build();
-                }).collect(java.util.stream.Collectors.toList());
+                // Đọc từ read model đã tính sẵn; chỉ các sản phẩm vừa thay đổi được dựng lại (theo lô)
+                return shopCatalogSnapshot.query(ShopProductQuery.all(), null, null).getItems();
         }
 
         @Override
         @Transactional(readOnly = true)
         public com.noithat.qlnt.backend.dto.response.ShopProductPageResponseDto getProductsForShop(int page, int size) {
-                org.springframework.data.domain.PageRequest pr = org.springframework.data.domain.PageRequest
-                                .of(Math.max(0, page), Math.max(1, size));
-                org.springframework.data.domain.Page<SanPham> p = sanPhamRepository.findAll(pr);
-
-                java.util.List<com.noithat.qlnt.backend.dto.response.ShopProductResponseDto> items = p.stream()
-                                .map(sp -> {
-                                        java.util.List<BienTheSanPham> variants = sp.getBienTheList() == null
-                                                        ? java.util.Collections.emptyList()
-                                                        : sp.getBienTheList();
-
-                                        double min = Double.MAX_VALUE;
-                                        double max = 0.0;
-                                        int totalStock = 0;
-                                        int availableVariantCount = 0;
-
-                                        for (BienTheSanPham bt : variants) {
-                                                if (bt.getGiaBan() != null) {
-                                                        double price = bt.getGiaBan().doubleValue();
-                                                        if (price < min)
-                                                                min = price;
-                                                        if (price > max)
-                                                                max = price;
-                                                }
-                                                int qty = bt.getSoLuongTon() == null ? 0 : bt.getSoLuongTon();
-                                                totalStock += qty;
-                                                if (qty > 0)
-                                                        availableVariantCount++;
-                                        }
-
-                                        if (min == Double.MAX_VALUE)
-                                                min = 0.0;
-
-                                        java.util.List<String> imageUrls = hinhAnhSanPhamRepository
-                                                        .findBySanPhamMaSanPhamOrderByThuTuAsc(sp.getMaSanPham())
-                                                        .stream()
-                                                        .map(h -> h.getDuongDanHinhAnh())
-                                                        .collect(java.util.stream.Collectors.toList());
-
-                                        // Determine per-variant final price (giaSauGiam) if there is an active
-                                        // BienTheGiamGia
-                                        Double lowestFinalPrice2 = null;
-                                        Integer lowestFinalVariantId2 = null;
-                                        String lowestFinalVariantSku2 = null;
-                                        Double lowestFinalVariantOriginalPrice2 = null;
-                                        Integer lowestFinalVariantDiscountPercent2 = null;
-                                        Double lowestFinalVariantDiscountAmount2 = null;
-
-                                        for (BienTheSanPham bt : variants) {
-                                                Double variantOriginal = bt.getGiaBan() != null
-                                                                ? bt.getGiaBan().doubleValue()
-                                                                : null;
-                                                Double variantFinal = variantOriginal;
-
-                                                java.util.List<BienTheGiamGia> discounts = bienTheGiamGiaRepository
-                                                                .findByBienTheSanPham_MaBienThe(bt.getMaBienThe());
-                                                if (!discounts.isEmpty()) {
-                                                        BienTheGiamGia disc = discounts.get(0);
-                                                        com.noithat.qlnt.backend.entity.ChuongTrinhGiamGia chuongTrinh = disc
-                                                                        .getChuongTrinhGiamGia();
-                                                        java.time.LocalDateTime now = java.time.LocalDateTime.now();
-                                                        boolean isActive = (chuongTrinh.getNgayBatDau() == null
-                                                                        || !now.isBefore(chuongTrinh.getNgayBatDau()))
-                                                                        &&
-                                                                        (chuongTrinh.getNgayKetThuc() == null
-                                                                                        || !now.isAfter(chuongTrinh
-                                                                                                        .getNgayKetThuc()));
-                                                        if (isActive && disc.getGiaSauGiam() != null) {
-                                                                variantFinal = disc.getGiaSauGiam().doubleValue();
-                                                        }
-                                                }
-
-                                                if (variantFinal != null) {
-                                                        if (variantFinal < min)
-                                                                min = variantFinal;
-                                                        if (variantFinal > max)
-                                                                max = variantFinal;
-                                                } else if (variantOriginal != null) {
-                                                        double price = variantOriginal;
-                                                        if (price < min)
-                                                                min = price;
-                                                        if (price > max)
-                                                                max = price;
-                                                }
-
-                                                int qty = bt.getSoLuongTon() == null ? 0 : bt.getSoLuongTon();
-                                                totalStock += qty;
-                                                if (qty > 0)
-                                                        availableVariantCount++;
-
-                                                // track lowest final price variant
-                                                if (variantFinal != null) {
-                                                        if (lowestFinalPrice2 == null
-                                                                        || variantFinal < lowestFinalPrice2) {
-                                                                lowestFinalPrice2 = variantFinal;
-                                                                lowestFinalVariantId2 = bt.getMaBienThe();
-                                                                lowestFinalVariantSku2 = bt.getSku();
-                                                                lowestFinalVariantOriginalPrice2 = variantOriginal;
-                                                                if (variantOriginal != null && variantOriginal > 0) {
-                                                                        double amt = variantOriginal - variantFinal;
-                                                                        lowestFinalVariantDiscountAmount2 = amt;
-                                                                        lowestFinalVariantDiscountPercent2 = (int) Math
-                                                                                        .round((amt / variantOriginal)
-                                                                                                        * 100.0);
-                                                                } else {
-                                                                        lowestFinalVariantDiscountAmount2 = null;
-                                                                        lowestFinalVariantDiscountPercent2 = null;
-                                                                }
-                                                        }
-                                                }
-                                        }
-
-                                        // Determine discount percent: prefer variant-level discounted percent when
-                                        // available.
-                                        // Avoid inferring discount from min/max price range.
-                                        int discountPercent2 = 0;
-                                        if (lowestFinalVariantDiscountPercent2 != null) {
-                                                discountPercent2 = lowestFinalVariantDiscountPercent2;
-                                        } else {
-                                                discountPercent2 = 0;
-                                        }
-
-                                        com.noithat.qlnt.backend.dto.response.ShopProductResponseDto.ShopProductResponseDtoBuilder builder2 = com.noithat.qlnt.backend.dto.response.ShopProductResponseDto
-                                                        .builder()
-                                                        .maSanPham(sp.getMaSanPham())
-                                                        .tenSanPham(sp.getTenSanPham())
-                                                        .moTa(sp.getMoTa())
-                                                        .id(sp.getMaSanPham())
-                                                        .name(sp.getTenSanPham())
-                                                        .price(min > 0 ? min : null)
-                                                        .originalPrice(max > 0 ? max : null)
-                                                        .stockQuantity(totalStock)
-                                                        .minPrice(min)
-                                                        .maxPrice(max)
-                                                        .totalStock(totalStock)
-                                                        .availableVariantCount(availableVariantCount)
-                                                        .soLuongBienThe(variants.size())
-                                                        .images(imageUrls)
-                                                        .discountPercent(discountPercent2)
-                                                        .averageRating(danhGiaSanPhamRepository
-                                                                        .findAverageByProductId(sp.getMaSanPham()))
-                                                        .reviewCount(danhGiaSanPhamRepository
-                                                                        .countByProductId(sp.getMaSanPham())
-                                                                        .intValue());
-
-                                        // attach lowest variant info if found
-                                        if (lowestFinalVariantId2 != null) {
-                                                builder2.lowestVariantId(lowestFinalVariantId2)
-                                                                .lowestVariantSku(lowestFinalVariantSku2)
-                                                                .lowestVariantPrice(lowestFinalPrice2)
-                                                                .lowestVariantOriginalPrice(
-                                                                                lowestFinalVariantOriginalPrice2)
-                                                                .lowestVariantDiscountAmount(
-                                                                                lowestFinalVariantDiscountAmount2)
-                                                                .lowestVariantDiscountPercent(
-                                                                                lowestFinalVariantDiscountPercent2);
-                                        }
-
-                                        return builder2.build();
-                                }).collect(java.util.stream.Collectors.toList());
+                return shopCatalogSnapshot.query(new ShopProductQuery(null, null, null, null, null, null, false, false,
+                                ShopSort.FEATURED, null, page, size), null, null);
+        }
 
-                com.noithat.qlnt.backend.dto.response.ShopProductPageResponseDto pageDto = com.noithat.qlnt.backend.dto.response.ShopProductPageResponseDto
-                                .builder()
-                                .items(items)
-                                .page(p.getNumber())
-                                .size(p.getSize())
-                                .totalItems(p.getTotalElements())
-                                .totalPages(p.getTotalPages())
-                                .build();
+        @Override
+        @Transactional(readOnly = true)
+        public com.noithat.qlnt.backend.dto.response.ShopProductPageResponseDto getProductsForShop(ShopProductQuery query) {
+                // Lọc theo danh mục bao gồm cả các danh mục con cháu
+                java.util.Set<Integer> danhMucIds = query.danhMucId() != null
+                                ? danhMucService.getSelfAndDescendantIds(query.danhMucId())
+                                : null;
+                // Từ khóa được tra trên chỉ mục tìm kiếm (bỏ dấu, xếp hạng), không dùng LIKE
+                java.util.Map<Integer, Double> relevance = query.tuKhoa() != null
+                                ? productSearchIndex.scoreProducts(query.tuKhoa())
+                                : null;
+                return shopCatalogSnapshot.query(query, danhMucIds, relevance);
+        }
 
-                return pageDto;
+        @Override
+        public java.util.List<ProductSearchIndex.Suggestion> suggestProducts(String prefix, int limit) {
+                return productSearchIndex.suggest(prefix, limit);
         }
 
         @Autowired
         private BienTheGiamGiaRepository bienTheGiamGiaRepository;
+        @Autowired
+        private ShopCatalogSnapshot shopCatalogSnapshot;
+        @Autowired
+        private StockMutationEngine stockMutationEngine;
+        @Autowired
+        private IDanhMucService danhMucService;
+        @Autowired
+        private ProductSearchIndex productSearchIndex;
+        @Autowired
+        private CacheManager cacheManager;
 
         /**
-         * Lấy chi tiết sản phẩm đầy đủ với biến thể, thuộc tính và giá giảm
+         * Lấy chi tiết sản phẩm đầy đủ với biến thể, thuộc tính và giá giảm.
+         *
+         * Phần của riêng sản phẩm được cache theo mã (bị xóa khi sản phẩm đổi);
+         * sản phẩm liên quan phụ thuộc dữ liệu của sản phẩm khác nên luôn lấy lại
+         * từ snapshot trang shop (trong bộ nhớ).
          */
         @Override
         @Transactional(readOnly = true)
-        public com.noithat.qlnt.backend.dto.response.ProductDetailWithVariantsDto getProductDetailWithVariants(
-                        Integer id) {
-                SanPham sp = findProductById(id);
+        public ProductDetailWithVariantsDto getProductDetailWithVariants(Integer id) {
+                ProductDetailWithVariantsDto detail;
+                try {
+                        detail = cacheManager.getCache(CacheNames.PRODUCT_DETAIL).get(id, () -> buildProductDetail(id));
+                } catch (Cache.ValueRetrievalException e) {
+                        if (e.getCause() instanceof RuntimeException re)
+                                throw re;
+                        throw e;
+                }
+                return detail.toBuilder()
+                                .sanPhamLienQuan(findRelatedProducts(detail.getMaSanPham(),
+                                                detail.getDanhMuc() != null ? detail.getDanhMuc().getMaDanhMuc() : null,
+                                                detail.getBoSuuTap() != null ? detail.getBoSuuTap().getMaBoSuuTap() : null))
+                                .build();
+        }
 
-                // Load hình ảnh
-                List<HinhAnhSanPham> images = hinhAnhSanPhamRepository
-                                .findBySanPhamMaSanPhamOrderByThuTuAsc(sp.getMaSanPham());
+        private ProductDetailWithVariantsDto buildProductDetail(Integer id) {
+                // Sản phẩm kèm danh mục, nhà cung cấp, bộ sưu tập trong một truy vấn
+                SanPham sp = sanPhamRepository.findAllForShopByIdIn(List.of(id)).stream().findFirst()
+                                .orElseThrow(() -> new EntityNotFoundException(
+                                                "Không tìm thấy sản phẩm với id: " + id));
 
-                List<com.noithat.qlnt.backend.dto.response.ProductDetailWithVariantsDto.ImageDto> imageDtos = images
+                // Load hình ảnh
+                List<ProductDetailWithVariantsDto.ImageDto> imageDtos = hinhAnhSanPhamRepository
+                                .findBySanPhamMaSanPhamOrderByThuTuAsc(sp.getMaSanPham())
                                 .stream()
-                                .map(h -> com.noithat.qlnt.backend.dto.response.ProductDetailWithVariantsDto.ImageDto
-                                                .builder()
+                                .map(h -> ProductDetailWithVariantsDto.ImageDto.builder()
                                                 .maHinhAnh(h.getMaHinhAnh())
                                                 .duongDanHinhAnh(h.getDuongDanHinhAnh())
                                                 .thuTu(h.getThuTu())
@@ -908,9 +692,16 @@ public class ProductServiceImpl implements IProductService {
                                                 .build())
                                 .collect(java.util.stream.Collectors.toList());
 
-                // Load biến thể với thuộc tính
-                List<BienTheSanPham> variants = sp.getBienTheList() != null ? sp.getBienTheList()
-                                : new java.util.ArrayList<>();
+                // Biến thể + thuộc tính (fetch join) và giảm giá của mọi biến thể: mỗi thứ một truy vấn
+                List<BienTheSanPham> variants = bienTheRepository.findBySanPham_MaSanPhamWithAttributes(sp.getMaSanPham())
+                                .stream()
+                                .sorted(java.util.Comparator.comparing(BienTheSanPham::getMaBienThe))
+                                .toList();
+                java.util.Map<Integer, BienTheGiamGia> discountByVariant = new java.util.HashMap<>();
+                for (BienTheGiamGia g : bienTheGiamGiaRepository.findWithProgramBySanPhamId(sp.getMaSanPham())) {
+                        // Giữ mapping đầu tiên của mỗi biến thể như trước
+                        discountByVariant.putIfAbsent(g.getBienTheSanPham().getMaBienThe(), g);
+                }
 
                 // Tính giá min/max và tổng số lượng
                 java.math.BigDecimal giaMin = null;
@@ -918,11 +709,13 @@ public class ProductServiceImpl implements IProductService {
                 java.math.BigDecimal giaGocMin = null;
                 java.math.BigDecimal giaGocMax = null;
                 int tongSoLuong = 0;
+                java.time.LocalDateTime now = java.time.LocalDateTime.now();
 
-                List<com.noithat.qlnt.backend.dto.response.ProductDetailWithVariantsDto.VariantDetailDto> variantDtos = new java.util.ArrayList<>();
+                List<ProductDetailWithVariantsDto.VariantDetailDto> variantDtos = new java.util.ArrayList<>();
+                // Thông số kỹ thuật tổng hợp từ thuộc tính của các biến thể
+                java.util.Map<String, java.util.Set<String>> specsMap = new java.util.LinkedHashMap<>();
 
                 for (BienTheSanPham bt : variants) {
-                        // Cập nhật giá min/max
                         if (bt.getGiaBan() != null) {
                                 if (giaMin == null || bt.getGiaBan().compareTo(giaMin) < 0) {
                                         giaMin = bt.getGiaBan();
@@ -944,38 +737,30 @@ public class ProductServiceImpl implements IProductService {
 
                         tongSoLuong += (bt.getSoLuongTon() != null ? bt.getSoLuongTon() : 0);
 
-                        // Load thuộc tính của biến thể
-                        List<com.noithat.qlnt.backend.dto.response.ProductDetailWithVariantsDto.AttributeDto> attributeDtos = bt
-                                        .getBienTheThuocTinhs() != null
-                                                        ? bt.getBienTheThuocTinhs().stream()
-                                                                        .map(btt -> com.noithat.qlnt.backend.dto.response.ProductDetailWithVariantsDto.AttributeDto
-                                                                                        .builder()
-                                                                                        .maThuocTinh(btt.getThuocTinh()
-                                                                                                        .getMaThuocTinh())
-                                                                                        .tenThuocTinh(btt.getThuocTinh()
-                                                                                                        .getTenThuocTinh())
-                                                                                        .giaTri(btt.getGiaTri())
-                                                                                        .build())
-                                                                        .collect(java.util.stream.Collectors.toList())
-                                                        : new java.util.ArrayList<>();
-
-                        // Load giảm giá cho biến thể (nếu có)
-                        List<BienTheGiamGia> discounts = bienTheGiamGiaRepository
-                                        .findByBienTheSanPham_MaBienThe(bt.getMaBienThe());
-
-                        com.noithat.qlnt.backend.dto.response.ProductDetailWithVariantsDto.DiscountDto discountDto = null;
+                        List<ProductDetailWithVariantsDto.AttributeDto> attributeDtos = new java.util.ArrayList<>();
+                        if (bt.getBienTheThuocTinhs() != null) {
+                                for (var btt : bt.getBienTheThuocTinhs()) {
+                                        attributeDtos.add(ProductDetailWithVariantsDto.AttributeDto.builder()
+                                                        .maThuocTinh(btt.getThuocTinh().getMaThuocTinh())
+                                                        .tenThuocTinh(btt.getThuocTinh().getTenThuocTinh())
+                                                        .giaTri(btt.getGiaTri())
+                                                        .build());
+                                        specsMap.computeIfAbsent(btt.getThuocTinh().getTenThuocTinh(),
+                                                        k -> new java.util.LinkedHashSet<>()).add(btt.getGiaTri());
+                                }
+                        }
+
+                        ProductDetailWithVariantsDto.DiscountDto discountDto = null;
                         java.math.BigDecimal giaSauGiam = bt.getGiaBan();
                         java.math.BigDecimal phanTramGiam = null;
                         java.math.BigDecimal soTienGiam = null;
 
-                        if (!discounts.isEmpty()) {
-                                // Lấy discount đầu tiên (hoặc có thể lọc theo ngày hiệu lực)
-                                BienTheGiamGia discount = discounts.get(0);
+                        BienTheGiamGia discount = discountByVariant.get(bt.getMaBienThe());
+                        if (discount != null) {
                                 com.noithat.qlnt.backend.entity.ChuongTrinhGiamGia chuongTrinh = discount
                                                 .getChuongTrinhGiamGia();
 
                                 // Kiểm tra chương trình có đang hiệu lực không
-                                java.time.LocalDateTime now = java.time.LocalDateTime.now();
                                 boolean isActive = (chuongTrinh.getNgayBatDau() == null
                                                 || !now.isBefore(chuongTrinh.getNgayBatDau())) &&
                                                 (chuongTrinh.getNgayKetThuc() == null
@@ -994,8 +779,7 @@ public class ProductServiceImpl implements IProductService {
                                                                 .multiply(new java.math.BigDecimal(100));
                                         }
 
-                                        discountDto = com.noithat.qlnt.backend.dto.response.ProductDetailWithVariantsDto.DiscountDto
-                                                        .builder()
+                                        discountDto = ProductDetailWithVariantsDto.DiscountDto.builder()
                                                         .maChuongTrinh(chuongTrinh.getMaChuongTrinhGiamGia())
                                                         .tenChuongTrinh(chuongTrinh.getTenChuongTrinh())
                                                         .loaiGiam(chuongTrinh.getLoaiGiamGia())
@@ -1010,9 +794,7 @@ public class ProductServiceImpl implements IProductService {
                                 }
                         }
 
-                        // Build variant DTO
-                        com.noithat.qlnt.backend.dto.response.ProductDetailWithVariantsDto.VariantDetailDto variantDto = com.noithat.qlnt.backend.dto.response.ProductDetailWithVariantsDto.VariantDetailDto
-                                        .builder()
+                        variantDtos.add(ProductDetailWithVariantsDto.VariantDetailDto.builder()
                                         .maBienThe(bt.getMaBienThe())
                                         .sku(bt.getSku())
                                         .giaBan(bt.getGiaBan())
@@ -1024,123 +806,42 @@ public class ProductServiceImpl implements IProductService {
                                         .giaSauGiam(giaSauGiam)
                                         .phanTramGiam(phanTramGiam)
                                         .soTienGiam(soTienGiam)
-                                        .build();
-
-                        variantDtos.add(variantDto);
+                                        .build());
                 }
 
-                // Tạo thông số kỹ thuật từ thuộc tính của các biến thể
-                java.util.Map<String, java.util.Set<String>> specsMap = new java.util.LinkedHashMap<>();
-                for (BienTheSanPham bt : variants) {
-                        if (bt.getBienTheThuocTinhs() != null) {
-                                for (var btt : bt.getBienTheThuocTinhs()) {
-                                        String tenThuocTinh = btt.getThuocTinh().getTenThuocTinh();
-                                        String giaTri = btt.getGiaTri();
-
-                                        specsMap.putIfAbsent(tenThuocTinh, new java.util.LinkedHashSet<>());
-                                        specsMap.get(tenThuocTinh).add(giaTri);
-                                }
-                        }
-                }
-
-                List<com.noithat.qlnt.backend.dto.response.ProductDetailWithVariantsDto.SpecificationDto> specDtos = specsMap
-                                .entrySet().stream()
-                                .map(entry -> com.noithat.qlnt.backend.dto.response.ProductDetailWithVariantsDto.SpecificationDto
-                                                .builder()
+                List<ProductDetailWithVariantsDto.SpecificationDto> specDtos = specsMap.entrySet().stream()
+                                .map(entry -> ProductDetailWithVariantsDto.SpecificationDto.builder()
                                                 .tenThuocTinh(entry.getKey())
                                                 .giaTriList(new java.util.ArrayList<>(entry.getValue()))
                                                 .build())
                                 .collect(java.util.stream.Collectors.toList());
 
-                // Lấy sản phẩm liên quan (cùng danh mục hoặc bộ sưu tập)
-                List<com.noithat.qlnt.backend.dto.response.ProductDetailWithVariantsDto.RelatedProductDto> relatedProducts = new java.util.ArrayList<>();
-
-                // Tìm sản phẩm cùng danh mục hoặc bộ sưu tập
-                List<SanPham> relatedList = new java.util.ArrayList<>();
-                if (sp.getDanhMuc() != null) {
-                        relatedList.addAll(sanPhamRepository.findByDanhMuc_MaDanhMuc(sp.getDanhMuc().getMaDanhMuc())
-                                        .stream()
-                                        .filter(p -> !p.getMaSanPham().equals(sp.getMaSanPham()))
-                                        .limit(3)
-                                        .collect(java.util.stream.Collectors.toList()));
+                // Điểm trung bình + số lượt đánh giá trong một truy vấn
+                Double danhGia = null;
+                int soLuotDanhGia = 0;
+                for (Object[] r : danhGiaSanPhamRepository.findRatingSummaryByProductIdIn(List.of(sp.getMaSanPham()))) {
+                        danhGia = r[1] != null ? ((Number) r[1]).doubleValue() : null;
+                        soLuotDanhGia = r[2] != null ? ((Number) r[2]).intValue() : 0;
                 }
 
-                if (relatedList.size() < 6 && sp.getBoSuuTap() != null) {
-                        relatedList.addAll(sanPhamRepository.findByBoSuuTap_MaBoSuuTap(sp.getBoSuuTap().getMaBoSuuTap())
-                                        .stream()
-                                        .filter(p -> !p.getMaSanPham().equals(sp.getMaSanPham()) &&
-                                                        !relatedList.contains(p))
-                                        .limit(6 - relatedList.size())
-                                        .collect(java.util.stream.Collectors.toList()));
-                }
-
-                for (SanPham relatedSp : relatedList) {
-                        // Tính giá min/max cho sản phẩm liên quan
-                        java.math.BigDecimal relGiaMin = null;
-                        java.math.BigDecimal relGiaMax = null;
-                        int relTongSoLuong = 0;
-
-                        List<BienTheSanPham> relVariants = relatedSp.getBienTheList() != null
-                                        ? relatedSp.getBienTheList()
-                                        : new java.util.ArrayList<>();
-
-                        for (BienTheSanPham relBt : relVariants) {
-                                if (relBt.getGiaBan() != null) {
-                                        if (relGiaMin == null || relBt.getGiaBan().compareTo(relGiaMin) < 0) {
-                                                relGiaMin = relBt.getGiaBan();
-                                        }
-                                        if (relGiaMax == null || relBt.getGiaBan().compareTo(relGiaMax) > 0) {
-                                                relGiaMax = relBt.getGiaBan();
-                                        }
-                                }
-                                relTongSoLuong += (relBt.getSoLuongTon() != null ? relBt.getSoLuongTon() : 0);
-                        }
-
-                        // Lấy ảnh chính
-                        List<HinhAnhSanPham> relImages = hinhAnhSanPhamRepository
-                                        .findBySanPhamMaSanPhamOrderByThuTuAsc(relatedSp.getMaSanPham());
-                        String mainImage = relImages.isEmpty() ? null : relImages.get(0).getDuongDanHinhAnh();
-
-                        relatedProducts.add(
-                                        com.noithat.qlnt.backend.dto.response.ProductDetailWithVariantsDto.RelatedProductDto
-                                                        .builder()
-                                                        .maSanPham(relatedSp.getMaSanPham())
-                                                        .tenSanPham(relatedSp.getTenSanPham())
-                                                        .moTa(relatedSp.getMoTa())
-                                                        .giaMin(relGiaMin)
-                                                        .giaMax(relGiaMax)
-                                                        .hinhAnh(mainImage)
-                                                        .danhGia(danhGiaSanPhamRepository.findAverageByProductId(
-                                                                        relatedSp.getMaSanPham()))
-                                                        .soLuotDanhGia(danhGiaSanPhamRepository
-                                                                        .countByProductId(relatedSp.getMaSanPham())
-                                                                        .intValue())
-                                                        .soLuongTon(relTongSoLuong)
-                                                        .build());
-                }
-
-                // Build response DTO
-                return com.noithat.qlnt.backend.dto.response.ProductDetailWithVariantsDto.builder()
+                return ProductDetailWithVariantsDto.builder()
                                 .maSanPham(sp.getMaSanPham())
                                 .tenSanPham(sp.getTenSanPham())
                                 .moTa(sp.getMoTa())
                                 .danhMuc(sp.getDanhMuc() != null
-                                                ? com.noithat.qlnt.backend.dto.response.ProductDetailWithVariantsDto.CategoryDto
-                                                                .builder()
+                                                ? ProductDetailWithVariantsDto.CategoryDto.builder()
                                                                 .maDanhMuc(sp.getDanhMuc().getMaDanhMuc())
                                                                 .tenDanhMuc(sp.getDanhMuc().getTenDanhMuc())
                                                                 .build()
                                                 : null)
                                 .nhaCungCap(sp.getNhaCungCap() != null
-                                                ? com.noithat.qlnt.backend.dto.response.ProductDetailWithVariantsDto.SupplierDto
-                                                                .builder()
+                                                ? ProductDetailWithVariantsDto.SupplierDto.builder()
                                                                 .maNhaCungCap(sp.getNhaCungCap().getMaNhaCungCap())
                                                                 .tenNhaCungCap(sp.getNhaCungCap().getTenNhaCungCap())
                                                                 .build()
                                                 : null)
                                 .boSuuTap(sp.getBoSuuTap() != null
-                                                ? com.noithat.qlnt.backend.dto.response.ProductDetailWithVariantsDto.CollectionDto
-                                                                .builder()
+                                                ? ProductDetailWithVariantsDto.CollectionDto.builder()
                                                                 .maBoSuuTap(sp.getBoSuuTap().getMaBoSuuTap())
                                                                 .tenBoSuuTap(sp.getBoSuuTap().getTenBoSuuTap())
                                                                 .build()
@@ -1152,33 +853,86 @@ public class ProductServiceImpl implements IProductService {
                                 .giaGocMin(giaGocMin)
                                 .giaGocMax(giaGocMax)
                                 .tongSoLuong(tongSoLuong)
-                                .danhGia(danhGiaSanPhamRepository.findAverageByProductId(sp.getMaSanPham()))
-                                .soLuotDanhGia(danhGiaSanPhamRepository.countByProductId(sp.getMaSanPham()).intValue())
-                                .danhGiaKhachHang(danhGiaSanPhamRepository.findBySanPham_MaSanPham(sp.getMaSanPham())
-                                                .stream().map(dg -> {
-                                                        var builder = com.noithat.qlnt.backend.dto.response.ProductDetailWithVariantsDto.ReviewDto
-                                                                        .builder()
-                                                                        .id(dg.getMaDanhGia())
-                                                                        .tenKhachHang(dg.getKhachHang() != null
-                                                                                        ? dg.getKhachHang().getHoTen()
-                                                                                        : null)
-                                                                        .danhGia(dg.getDiem())
-                                                                        .tieuDe(dg.getTieuDe())
-                                                                        .noiDung(dg.getNoiDung())
-                                                                        .ngayDanhGia(dg.getNgayTao() != null
-                                                                                        ? dg.getNgayTao().toString()
-                                                                                        : null);
-                                                        if (dg.getKhachHang() != null)
-                                                                builder.maKhachHang(dg.getKhachHang().getMaKhachHang());
-                                                        return builder.build();
-                                                }).collect(java.util.stream.Collectors.toList()))
+                                .danhGia(danhGia)
+                                .soLuotDanhGia(soLuotDanhGia)
+                                // Chỉ trang đánh giá đầu tiên; các trang sau qua GET /api/products/{id}/reviews
+                                .danhGiaKhachHang(getProductReviews(sp.getMaSanPham(), 0, REVIEW_PAGE_SIZE).getContent())
                                 .thongSoKyThuat(specDtos)
-                                .sanPhamLienQuan(relatedProducts)
                                 .build();
         }
 
+        // Sản phẩm liên quan: tối đa 3 cùng danh mục, bù đến 6 bằng sản phẩm cùng bộ sưu tập
+        private static final int RELATED_FROM_CATEGORY = 3;
+        private static final int RELATED_LIMIT = 6;
+        private static final int REVIEW_PAGE_SIZE = 10;
+
+        /**
+         * Lấy sản phẩm liên quan từ snapshot trang shop (đã tính sẵn giá, ảnh, đánh
+         * giá, tồn kho) thay vì duyệt biến thể và truy vấn đánh giá cho từng sản phẩm.
+         */
+        private List<ProductDetailWithVariantsDto.RelatedProductDto> findRelatedProducts(Integer maSanPham,
+                        Integer maDanhMuc, Integer maBoSuuTap) {
+                java.util.LinkedHashMap<Integer, com.noithat.qlnt.backend.dto.response.ShopProductResponseDto> related = new java.util.LinkedHashMap<>();
+                if (maDanhMuc != null) {
+                        // Lấy dư một phần tử vì có thể gặp chính sản phẩm đang xem
+                        shopCatalogSnapshot.query(new ShopProductQuery(null, null, null, null, null, null, false, false,
+                                        ShopSort.FEATURED, null, 0, RELATED_FROM_CATEGORY + 1),
+                                        java.util.Set.of(maDanhMuc), null)
+                                        .getItems().stream()
+                                        .filter(p -> !p.getMaSanPham().equals(maSanPham))
+                                        .limit(RELATED_FROM_CATEGORY)
+                                        .forEach(p -> related.put(p.getMaSanPham(), p));
+                }
+                if (related.size() < RELATED_LIMIT && maBoSuuTap != null) {
+                        shopCatalogSnapshot.query(new ShopProductQuery(null, null, maBoSuuTap, null,
+                                        null, null, false, false, ShopSort.FEATURED, null, 0,
+                                        RELATED_LIMIT + RELATED_FROM_CATEGORY + 1), null, null)
+                                        .getItems().stream()
+                                        .filter(p -> !p.getMaSanPham().equals(maSanPham)
+                                                        && !related.containsKey(p.getMaSanPham()))
+                                        .limit(RELATED_LIMIT - related.size())
+                                        .forEach(p -> related.put(p.getMaSanPham(), p));
+                }
+                return related.values().stream()
+                                .map(p -> ProductDetailWithVariantsDto.RelatedProductDto.builder()
+                                                .maSanPham(p.getMaSanPham())
+                                                .tenSanPham(p.getTenSanPham())
+                                                .moTa(p.getMoTa())
+                                                .giaMin(p.getMinPrice() != null ? java.math.BigDecimal.valueOf(p.getMinPrice()) : null)
+                                                .giaMax(p.getMaxPrice() != null ? java.math.BigDecimal.valueOf(p.getMaxPrice()) : null)
+                                                .hinhAnh(p.getImages() != null && !p.getImages().isEmpty() ? p.getImages().get(0) : null)
+                                                .danhGia(p.getAverageRating())
+                                                .soLuotDanhGia(p.getReviewCount())
+                                                .soLuongTon(p.getTotalStock())
+                                                .build())
+                                .collect(java.util.stream.Collectors.toList());
+        }
+
+        @Override
+        @Transactional(readOnly = true)
+        public org.springframework.data.domain.Page<ProductDetailWithVariantsDto.ReviewDto> getProductReviews(Integer id,
+                        int page, int size) {
+                var pageable = org.springframework.data.domain.PageRequest.of(Math.max(0, page),
+                                Math.min(Math.max(1, size), 50),
+                                org.springframework.data.domain.Sort.by("ngayTao").descending()
+                                                .and(org.springframework.data.domain.Sort.by("maDanhGia").descending()));
+                return danhGiaSanPhamRepository.findPageBySanPhamIdWithKhachHang(id, pageable).map(dg -> {
+                        var builder = ProductDetailWithVariantsDto.ReviewDto.builder()
+                                        .id(dg.getMaDanhGia())
+                                        .tenKhachHang(dg.getKhachHang() != null ? dg.getKhachHang().getHoTen() : null)
+                                        .danhGia(dg.getDiem())
+                                        .tieuDe(dg.getTieuDe())
+                                        .noiDung(dg.getNoiDung())
+                                        .ngayDanhGia(dg.getNgayTao() != null ? dg.getNgayTao().toString() : null);
+                        if (dg.getKhachHang() != null)
+                                builder.maKhachHang(dg.getKhachHang().getMaKhachHang());
+                        return builder.build();
+                });
+        }
+
         @Override
         @Transactional(readOnly = true)
+        @Cacheable(cacheNames = CacheNames.PRODUCT_LISTS, key = "'basic'", sync = true)
         public java.util.List<com.noithat.qlnt.backend.dto.response.ProductBasicResponse> getBasicProducts() {
                 return sanPhamRepository.findAll().stream()
                                 .map(sp -> {
@@ -5,6 +5,10 @@ import com.noithat.qlnt.backend.entity.LichSuTonKho;
 import com.noithat.qlnt.backend.repository.BienTheSanPhamRepository;
 import com.noithat.qlnt.backend.repository.LichSuTonKhoRepository;
 import com.noithat.qlnt.backend.service.IQuanLyTonKhoService;
+import com.noithat.qlnt.backend.service.inventory.AvailableStockCounter;
+import com.noithat.qlnt.backend.service.inventory.LowStockIndex;
+import com.noithat.qlnt.backend.service.inventory.StockMutationEngine;
+import com.noithat.qlnt.backend.service.inventory.StockReservationService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
@@ -30,185 +34,94 @@ public class QuanLyTonKhoServiceImpl implements IQuanLyTonKhoService {
     @Autowired
     private LichSuTonKhoRepository lichSuTonKhoRepository;
 
-    @Override
-    public boolean importStock(Integer maBienThe, Integer quantity, String nguoiThucHien, String lyDo, Integer maNhaCungCap) {
-        try {
-            Optional<BienTheSanPham> optionalBienThe = bienTheSanPhamRepository.findById(maBienThe);
-            if (optionalBienThe.isEmpty()) {
-                return false;
-            }
+    @Autowired
+    private StockMutationEngine stockMutationEngine;
 
-            BienTheSanPham bienThe = optionalBienThe.get();
-            Integer soLuongTruoc = bienThe.getSoLuongTon();
+    @Autowired
+    private StockReservationService stockReservationService;
 
-            bienThe.updateStock(quantity);
-            bienTheSanPhamRepository.save(bienThe);
+    @Autowired
+    private AvailableStockCounter availableStockCounter;
 
-            String maThamChieu = null;
-            if (maNhaCungCap != null) {
-                maThamChieu = "NCC" + maNhaCungCap; // simple reference to supplier
-            }
+    @Autowired
+    private LowStockIndex lowStockIndex;
 
-            LichSuTonKho lichSu = new LichSuTonKho(
-                bienThe, soLuongTruoc, quantity, bienThe.getSoLuongTon(),
-                "NHAP_KHO", maThamChieu, lyDo, nguoiThucHien
-            );
-            lichSuTonKhoRepository.save(lichSu);
+    private static boolean isPositive(Integer quantity) {
+        return quantity != null && quantity > 0;
+    }
 
-            return true;
-        } catch (Exception e) {
-            e.printStackTrace();
+    @Override
+    public boolean importStock(Integer maBienThe, Integer quantity, String nguoiThucHien, String lyDo, Integer maNhaCungCap) {
+        if (!isPositive(quantity)) {
             return false;
         }
+        String maThamChieu = null;
+        if (maNhaCungCap != null) {
+            maThamChieu = "NCC" + maNhaCungCap; // simple reference to supplier
+        }
+        return stockMutationEngine.apply(maBienThe, quantity, "NHAP_KHO", maThamChieu, lyDo, nguoiThucHien).isPresent();
     }
 
     @Override
     public boolean exportStock(Integer maBienThe, Integer quantity, String maThamChieu, String nguoiThucHien, String lyDo) {
-        try {
-            Optional<BienTheSanPham> optionalBienThe = bienTheSanPhamRepository.findById(maBienThe);
-            if (optionalBienThe.isEmpty()) {
-                return false;
-            }
-
-            BienTheSanPham bienThe = optionalBienThe.get();
-            Integer soLuongTruoc = bienThe.getSoLuongTon();
-
-            if (soLuongTruoc < quantity) {
-                return false;
-            }
-
-            bienThe.updateStock(-quantity);
-            bienTheSanPhamRepository.save(bienThe);
-
-            LichSuTonKho lichSu = new LichSuTonKho(
-                bienThe, soLuongTruoc, -quantity, bienThe.getSoLuongTon(),
-                "XUAT_KHO", maThamChieu, lyDo, nguoiThucHien
-            );
-            lichSuTonKhoRepository.save(lichSu);
-
-            return true;
-        } catch (Exception e) {
-            e.printStackTrace();
+        if (!isPositive(quantity)) {
             return false;
         }
+        // Không đủ hàng -> câu UPDATE không khớp dòng nào
+        return stockMutationEngine.apply(maBienThe, -quantity, "XUAT_KHO", maThamChieu, lyDo, nguoiThucHien).isPresent();
     }
 
     @Override
     public boolean reserveProduct(Integer maBienThe, Integer quantity, String maThamChieu, String nguoiThucHien) {
-        try {
-                // Reservation functionality was removed (soLuongDatTruoc field removed).
-                // Keep API but return false to indicate reservation is not supported.
-                return false;
-        } catch (Exception e) {
-            return false;
-        }
+        // Giữ có thời hạn; quá hạn thì StockReservationSweeper trả lại
+        return stockReservationService.reserve(maBienThe, quantity, maThamChieu);
     }
 
     @Override
     public boolean releaseReservation(Integer maBienThe, Integer quantity, String maThamChieu, String nguoiThucHien) {
-        try {
-                // Release reservation not supported after removing reservation fields.
-                return false;
-        } catch (Exception e) {
-            return false;
-        }
+        return stockReservationService.release(maBienThe, maThamChieu);
     }
 
     @Override
     public boolean confirmSale(Integer maBienThe, Integer quantity, String maThamChieu, String nguoiThucHien) {
-        try {
-            Optional<BienTheSanPham> optionalBienThe = bienTheSanPhamRepository.findById(maBienThe);
-            if (optionalBienThe.isEmpty()) {
-                return false;
-            }
-
-            BienTheSanPham bienThe = optionalBienThe.get();
-            Integer soLuongTruoc = bienThe.getSoLuongTon();
-
-                if (bienThe.getSoLuongTon() < quantity) {
-                    return false;
-                }
-
-                // Confirm sale: directly reduce stock (no reservation logic)
-                bienThe.updateStock(-quantity);
-                bienTheSanPhamRepository.save(bienThe);
-
-            LichSuTonKho lichSu = new LichSuTonKho(
-                bienThe, soLuongTruoc, -quantity, bienThe.getSoLuongTon(),
-                "BAN_HANG", maThamChieu,
-                "Bán " + quantity + " sản phẩm", nguoiThucHien
-            );
-            lichSuTonKhoRepository.save(lichSu);
-
-            return true;
-        } catch (Exception e) {
-            e.printStackTrace();
-            return false;
-        }
+        // Chuyển phần đang giữ của maThamChieu thành bán; không có thì trừ thẳng phần chưa bị giữ
+        return stockReservationService.confirm(maBienThe, quantity, maThamChieu, nguoiThucHien).isPresent();
     }
 
     @Override
     public boolean returnProduct(Integer maBienThe, Integer quantity, String maThamChieu, String nguoiThucHien, String lyDo) {
-        try {
-            Optional<BienTheSanPham> optionalBienThe = bienTheSanPhamRepository.findById(maBienThe);
-            if (optionalBienThe.isEmpty()) {
-                return false;
-            }
-
-            BienTheSanPham bienThe = optionalBienThe.get();
-            Integer soLuongTruoc = bienThe.getSoLuongTon();
-
-            bienThe.updateStock(quantity);
-            bienTheSanPhamRepository.save(bienThe);
-
-            LichSuTonKho lichSu = new LichSuTonKho(
-                bienThe, soLuongTruoc, quantity, bienThe.getSoLuongTon(),
-                "TRA_HANG", maThamChieu, lyDo, nguoiThucHien
-            );
-            lichSuTonKhoRepository.save(lichSu);
-
-            return true;
-        } catch (Exception e) {
+        if (!isPositive(quantity)) {
             return false;
         }
+        return stockMutationEngine.apply(maBienThe, quantity, "TRA_HANG", maThamChieu, lyDo, nguoiThucHien).isPresent();
     }
 
     @Override
     public boolean adjustStock(Integer maBienThe, Integer newQuantity, String lyDo, String nguoiThucHien) {
-        try {
-            Optional<BienTheSanPham> optionalBienThe = bienTheSanPhamRepository.findById(maBienThe);
-            if (optionalBienThe.isEmpty()) {
-                return false;
-            }
-
-            BienTheSanPham bienThe = optionalBienThe.get();
-            Integer soLuongTruoc = bienThe.getSoLuongTon();
-            Integer chenhLech = newQuantity - soLuongTruoc;
-
-            bienThe.setSoLuongTon(newQuantity);
-            bienThe.setNgayCapNhatKho(LocalDateTime.now());
-            bienTheSanPhamRepository.save(bienThe);
-
-            LichSuTonKho lichSu = new LichSuTonKho(
-                bienThe, soLuongTruoc, chenhLech, newQuantity,
-                "DIEU_CHINH", null, lyDo, nguoiThucHien
-            );
-            lichSuTonKhoRepository.save(lichSu);
-
-            return true;
-        } catch (Exception e) {
+        if (newQuantity == null) {
             return false;
         }
+        return stockMutationEngine.setQuantity(maBienThe, newQuantity, "DIEU_CHINH", lyDo, nguoiThucHien).isPresent();
     }
 
     @Override
     public List<BienTheSanPham> getLowStockProducts() {
-        return bienTheSanPhamRepository.findLowStockProducts();
+        return findInventoryInOrder(lowStockIndex.maBienTheSapHet());
     }
 
     @Override
     public List<BienTheSanPham> getOutOfStockProducts() {
-        return bienTheSanPhamRepository.findOutOfStockProducts();
+        return findInventoryInOrder(lowStockIndex.maBienTheHetHang());
+    }
+
+    // Danh sách lấy từ LowStockIndex, chỉ nạp entity của các biến thể trong danh sách (giữ thứ tự)
+    private List<BienTheSanPham> findInventoryInOrder(List<Integer> maBienThes) {
+        if (maBienThes.isEmpty())
+            return List.of();
+        Map<Integer, BienTheSanPham> byId = new HashMap<>();
+        for (BienTheSanPham b : bienTheSanPhamRepository.findInventoryByMaBienTheIn(maBienThes))
+            byId.put(b.getMaBienThe(), b);
+        return maBienThes.stream().map(byId::get).filter(java.util.Objects::nonNull).toList();
     }
 
     @Override
@@ -238,13 +151,13 @@ public class QuanLyTonKhoServiceImpl implements IQuanLyTonKhoService {
 
     @Override
     public boolean isAvailableForSale(Integer maBienThe, Integer quantity) {
-        Boolean result = bienTheSanPhamRepository.isAvailableForSale(maBienThe, quantity);
-        return result != null && result;
+        return quantity != null && availableStockCounter.available(maBienThe) >= quantity;
     }
 
     @Override
     public Integer getAvailableQuantity(Integer maBienThe) {
-        return bienTheSanPhamRepository.getAvailableQuantity(maBienThe);
+        // Có thể bán = tồn - đang giữ, trả lời từ bộ nhớ
+        return availableStockCounter.available(maBienThe);
     }
 
     @Override
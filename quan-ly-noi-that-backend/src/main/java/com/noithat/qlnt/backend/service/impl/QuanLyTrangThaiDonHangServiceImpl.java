@@ -2,19 +2,16 @@ package com.noithat.qlnt.backend.service.impl;
 
 import com.noithat.qlnt.backend.entity.DonHang;
 import com.noithat.qlnt.backend.entity.LichSuTrangThaiDonHang;
-import com.noithat.qlnt.backend.entity.KhachHang;
-import com.noithat.qlnt.backend.entity.Voucher;
-import com.noithat.qlnt.backend.entity.ChiTietDonHang;
-import com.noithat.qlnt.backend.entity.BienTheSanPham;
 import com.noithat.qlnt.backend.repository.DonHangRepository;
 import com.noithat.qlnt.backend.repository.LichSuTrangThaiDonHangRepository;
-import com.noithat.qlnt.backend.repository.KhachHangRepository;
-import com.noithat.qlnt.backend.repository.VoucherRepository;
-import com.noithat.qlnt.backend.repository.BienTheSanPhamRepository;
 import com.noithat.qlnt.backend.service.IQuanLyTrangThaiDonHangService;
+import com.noithat.qlnt.backend.service.event.DomainEventPublisher;
+import com.noithat.qlnt.backend.service.event.OrderStatusChanged;
+import com.noithat.qlnt.backend.service.order.OrderStatusCounter;
 import jakarta.transaction.Transactional;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
 
 import java.util.*;
 
@@ -24,9 +21,9 @@ public class QuanLyTrangThaiDonHangServiceImpl implements IQuanLyTrangThaiDonHan
 
     private final DonHangRepository donHangRepository;
     private final LichSuTrangThaiDonHangRepository lichSuTrangThaiDonHangRepository;
-    private final KhachHangRepository khachHangRepository;
-    private final VoucherRepository voucherRepository;
-    private final BienTheSanPhamRepository bienTheSanPhamRepository;
+    private final com.noithat.qlnt.backend.service.inventory.StockReservationService stockReservationService;
+    private final DomainEventPublisher domainEventPublisher;
+    private final OrderStatusCounter orderStatusCounter;
 
     // Status constants matching database values
     private static final String CHO_XU_LY = "CHO_XU_LY";
@@ -78,8 +75,18 @@ public class QuanLyTrangThaiDonHangServiceImpl implements IQuanLyTrangThaiDonHan
             return false;
         }
 
+        // Đơn rời CHO_XU_LY (không phải hủy): chuyển phần hàng đang giữ thành bán
+        boolean huyDon = DA_HUY.equals(trangThaiMoi) || HUY_BO.equals(trangThaiMoi);
+        if (CHO_XU_LY.equals(trangThaiCu) && !huyDon && !stockReservationService
+                .confirmOrder(maDonHang, donHang.getChiTietDonHangs(), nguoiThayDoi)) {
+            // Không đủ hàng: bỏ phần đã trừ của các dòng trước
+            TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+            return false;
+        }
+
         // Update order status
         donHang.setTrangThaiDonHang(trangThaiMoi);
+        orderStatusCounter.ghiNhanDoiTrangThai(donHang, trangThaiCuRaw, trangThaiMoi);
 
         // Nếu trạng thái mới là HOAN_THANH thì auto-mark payment là PAID
         if (IQuanLyTrangThaiDonHangService.HOAN_THANH.equals(trangThaiMoi)) {
@@ -97,79 +104,9 @@ public class QuanLyTrangThaiDonHangServiceImpl implements IQuanLyTrangThaiDonHan
                 ghiChu);
         lichSuTrangThaiDonHangRepository.save(lichSu);
 
-        // --- Side-effects: award/refund points, rollback voucher usage, restore stock
-        // ---
-        try {
-            // Khi trạng thái chuyển sang HOAN_THANH hoặc DA_GIAO_HANG thì cộng thống kê cho
-            // khách hàng
-            boolean shouldUpdateStats = false;
-            if ((IQuanLyTrangThaiDonHangService.HOAN_THANH.equals(trangThaiMoi)
-                    && !IQuanLyTrangThaiDonHangService.HOAN_THANH.equals(trangThaiCu))
-                    || (DA_GIAO_HANG.equals(trangThaiMoi) && !DA_GIAO_HANG.equals(trangThaiCu))) {
-                shouldUpdateStats = true;
-            }
-            if (shouldUpdateStats) {
-                KhachHang kh = donHang.getKhachHang();
-                if (kh != null) {
-                    // Award loyalty points (chỉ khi HOAN_THANH)
-                    if (IQuanLyTrangThaiDonHangService.HOAN_THANH.equals(trangThaiMoi)) {
-                        Integer toAward = donHang.getDiemThuongNhanDuoc() != null ? donHang.getDiemThuongNhanDuoc() : 0;
-                        if (toAward > 0) {
-                            int current = kh.getDiemThuong() != null ? kh.getDiemThuong() : 0;
-                            kh.setDiemThuong(current + toAward);
-                        }
-                    }
-                    // Update total spending and order count (payment is PAID)
-                    if ("PAID".equals(donHang.getTrangThaiThanhToan())) {
-                        Integer currentOrderCount = kh.getTongDonHang() != null ? kh.getTongDonHang() : 0;
-                        kh.setTongDonHang(currentOrderCount + 1);
-
-                        java.math.BigDecimal currentSpending = kh.getTongChiTieu() != null ? kh.getTongChiTieu()
-                                : java.math.BigDecimal.ZERO;
-                        java.math.BigDecimal orderTotal = donHang.getThanhTien() != null ? donHang.getThanhTien()
-                                : java.math.BigDecimal.ZERO;
-                        kh.setTongChiTieu(currentSpending.add(orderTotal));
-                        // kh.setDiemThuong(maDonHang);
-                    }
-                    khachHangRepository.save(kh);
-                }
-            }
-
-            // When order is cancelled (DA_HUY / HUY_BO): refund used points, rollback
-            // voucher usage, restore inventory
-            if (DA_HUY.equals(trangThaiMoi) || HUY_BO.equals(trangThaiMoi)) {
-                // Refund points used
-                KhachHang kh = donHang.getKhachHang();
-                if (kh != null && donHang.getDiemThuongSuDung() != null && donHang.getDiemThuongSuDung() > 0) {
-                    int used = donHang.getDiemThuongSuDung();
-                    int current = kh.getDiemThuong() != null ? kh.getDiemThuong() : 0;
-                    kh.setDiemThuong(current + used);
-                    khachHangRepository.save(kh);
-                }
-
-                // Rollback voucher usage count
-                Voucher v = donHang.getVoucher();
-                if (v != null) {
-                    v.setSoLuongDaSuDung(Math.max(0, v.getSoLuongDaSuDung() - 1));
-                    voucherRepository.save(v);
-                }
-
-                // Restore stock quantities
-                if (donHang.getChiTietDonHangs() != null) {
-                    for (ChiTietDonHang ct : donHang.getChiTietDonHangs()) {
-                        BienTheSanPham bt = ct.getBienThe();
-                        if (bt != null) {
-                            bt.setSoLuongTon(bt.getSoLuongTon() + ct.getSoLuong());
-                            bienTheSanPhamRepository.save(bt);
-                        }
-                    }
-                }
-            }
-        } catch (Exception ex) {
-            // Log but do not fail the status update; side-effect failures should be
-            // investigated separately. In a future change we may want to make these
-            // operations more robust and transactional across services.
-        }
+        // Tác vụ phụ (hoàn kho khi hủy, điểm thưởng/thống kê khách hàng, hoàn voucher, hạng VIP,
+        // thông báo) chạy bất đồng bộ qua outbox, theo thứ tự từng đơn (xem service/order/Order*Stage)
+        domainEventPublisher.publish(new OrderStatusChanged(maDonHang, trangThaiCu, trangThaiMoi, nguoiThayDoi));
 
         return true;
     }
@@ -298,16 +235,16 @@ public class QuanLyTrangThaiDonHangServiceImpl implements IQuanLyTrangThaiDonHan
 
     @Override
     public Map<String, Long> countOrdersByStatus() {
+        // Đọc từ bộ đếm theo trạng thái (OrderStatusCounter), không nạp danh sách đơn
         Map<String, Long> statusCounts = new HashMap<>();
 
-        statusCounts.put(CHO_XAC_NHAN, (long) donHangRepository.findByTrangThaiDonHang(CHO_XAC_NHAN).size());
-        statusCounts.put(XAC_NHAN, (long) donHangRepository.findByTrangThaiDonHang(XAC_NHAN).size());
-        statusCounts.put(DANG_CHUAN_BI, (long) donHangRepository.findByTrangThaiDonHang(DANG_CHUAN_BI).size());
+        statusCounts.put(CHO_XAC_NHAN, orderStatusCounter.soDon(CHO_XAC_NHAN));
+        statusCounts.put(XAC_NHAN, orderStatusCounter.soDon(XAC_NHAN));
+        statusCounts.put(DANG_CHUAN_BI, orderStatusCounter.soDon(DANG_CHUAN_BI));
         // Count both DANG_GIAO and DANG_GIAO_HANG for backward compatibility
-        statusCounts.put("DANG_GIAO_HANG",
-                (long) donHangRepository.findByTrangThaiDonHangIn(Arrays.asList(DANG_GIAO, DANG_GIAO_HANG)).size());
-        statusCounts.put(HOAN_THANH, (long) donHangRepository.findByTrangThaiDonHang(HOAN_THANH).size());
-        statusCounts.put(HUY_BO, (long) donHangRepository.findByTrangThaiDonHang(HUY_BO).size());
+        statusCounts.put("DANG_GIAO_HANG", orderStatusCounter.soDon(DANG_GIAO, DANG_GIAO_HANG));
+        statusCounts.put(HOAN_THANH, orderStatusCounter.soDon(HOAN_THANH));
+        statusCounts.put(HUY_BO, orderStatusCounter.soDon(HUY_BO));
 
         return statusCounts;
     }
@@ -8,6 +8,14 @@ import com.noithat.qlnt.backend.entity.*;
 import com.noithat.qlnt.backend.exception.AppException;
 import com.noithat.qlnt.backend.repository.*;
 import com.noithat.qlnt.backend.service.ThanhToanService;
+import com.noithat.qlnt.backend.service.checkout.CheckoutPricingEngine;
+import com.noithat.qlnt.backend.service.event.DomainEventPublisher;
+import com.noithat.qlnt.backend.service.event.OrderPlaced;
+import com.noithat.qlnt.backend.service.event.VoucherRedeemed;
+import com.noithat.qlnt.backend.service.inventory.StockReservationService;
+import com.noithat.qlnt.backend.service.order.OrderStatusCounter;
+import com.noithat.qlnt.backend.service.voucher.VoucherEligibilityIndex;
+import com.noithat.qlnt.backend.service.voucher.VoucherRedemptionService;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -20,7 +28,9 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 @Service
@@ -34,6 +44,12 @@ public class ThanhToanServiceImpl implements ThanhToanService {
     private final VoucherRepository voucherRepository;
     private final BienTheSanPhamRepository bienTheSanPhamRepository;
     private final com.noithat.qlnt.backend.service.CauHinhService cauHinhService;
+    private final StockReservationService stockReservationService;
+    private final DomainEventPublisher domainEventPublisher;
+    private final OrderStatusCounter orderStatusCounter;
+    private final VoucherEligibilityIndex voucherEligibilityIndex;
+    private final VoucherRedemptionService voucherRedemptionService;
+    private final CheckoutPricingEngine checkoutPricingEngine;
 
     @Override
     public ThongKeThanhToanResponse getThongKe() {
@@ -131,6 +147,25 @@ public class ThanhToanServiceImpl implements ThanhToanService {
 
     @Override
     public CheckoutSummaryResponse getCheckoutSummary(CheckoutSummaryRequest request) {
+        CheckoutSummaryResponse summary;
+        if (checkoutPricingEngine.thayProcedure()) {
+            summary = checkoutPricingEngine.tinh(request);
+        } else {
+            summary = callCheckoutSummaryProc(request);
+        }
+
+        // Lấy cấu hình quy đổi điểm thưởng từ hệ thống
+        Integer rewardMoneyPerPoint = cauHinhService.getInt("reward_money_per_point", 100000);
+        Integer rewardPointPerMoney = cauHinhService.getInt("reward_point_per_money", 10);
+        summary.setRewardMoneyPerPoint(rewardMoneyPerPoint);
+        summary.setRewardPointPerMoney(rewardPointPerMoney);
+        // Đối chiếu trên luồng nền sau khi summary không còn bị sửa
+        if (checkoutPricingEngine.doiChieu())
+            checkoutPricingEngine.guiDoiChieu(request, summary);
+        return summary;
+    }
+
+    private CheckoutSummaryResponse callCheckoutSummaryProc(CheckoutSummaryRequest request) {
         CheckoutSummaryResponse summary = new CheckoutSummaryResponse();
         SQLServerDataTable tvp = createCartTvp(request.getChiTietDonHang());
 
@@ -177,12 +212,6 @@ public class ThanhToanServiceImpl implements ThanhToanService {
         } catch (SQLException ex) {
             throw new RuntimeException("Lỗi khi gọi sp_GetCheckoutSummary: " + ex.getMessage(), ex);
         }
-
-        // Lấy cấu hình quy đổi điểm thưởng từ hệ thống
-        Integer rewardMoneyPerPoint = cauHinhService.getInt("reward_money_per_point", 100000);
-        Integer rewardPointPerMoney = cauHinhService.getInt("reward_point_per_money", 10);
-        summary.setRewardMoneyPerPoint(rewardMoneyPerPoint);
-        summary.setRewardPointPerMoney(rewardPointPerMoney);
         return summary;
     }
 
@@ -193,47 +222,11 @@ public class ThanhToanServiceImpl implements ThanhToanService {
             // Lấy khách hàng để kiểm tra hạng thành viên
             KhachHang khachHang = khachHangRepository.findById(maKhachHang).orElse(null);
 
-            // Lấy tất cả voucher đang hoạt động
-            List<Voucher> allVouchers = voucherRepository.findAll();
-            List<Voucher> eligibleVouchers = new ArrayList<>();
-
-            LocalDateTime now = LocalDateTime.now();
-
-            for (Voucher v : allVouchers) {
-                // Kiểm tra trạng thái và thời gian
-                if (!"DANG_HOAT_DONG".equals(v.getTrangThai()))
-                    continue;
-                if (v.getNgayBatDau() != null && v.getNgayBatDau().isAfter(now))
-                    continue;
-                if (v.getNgayKetThuc() != null && v.getNgayKetThuc().isBefore(now))
-                    continue;
-
-                // Kiểm tra số lượng
-                if (v.getSoLuongDaSuDung() != null && v.getSoLuongToiDa() != null
-                        && v.getSoLuongDaSuDung() >= v.getSoLuongToiDa())
-                    continue;
-
-                // Kiểm tra giá trị đơn hàng tối thiểu
-                if (v.getGiaTriDonHangToiThieu() != null
-                        && tongTienDonHang.compareTo(v.getGiaTriDonHangToiThieu()) < 0)
-                    continue;
-
-                // Kiểm tra hạn chế hạng thành viên
-                if (v.getApDungChoMoiNguoi() != null && v.getApDungChoMoiNguoi()) {
-                    eligibleVouchers.add(v);
-                } else if (khachHang != null && khachHang.getHangThanhVien() != null
-                        && v.getHanCheHangThanhVien() != null) {
-                    // Kiểm tra xem hạng của khách hàng có trong danh sách hạn chế không
-                    boolean isEligible = v.getHanCheHangThanhVien().stream()
-                            .anyMatch(link -> link.getHangThanhVien().getMaHangThanhVien()
-                                    .equals(khachHang.getHangThanhVien().getMaHangThanhVien()));
-                    if (isEligible) {
-                        eligibleVouchers.add(v);
-                    }
-                }
-            }
-
-            return eligibleVouchers;
+            Integer maHangThanhVien = khachHang != null && khachHang.getHangThanhVien() != null
+                    ? khachHang.getHangThanhVien().getMaHangThanhVien()
+                    : null;
+            // Trạng thái, thời hạn, lượt còn lại, đơn tối thiểu và hạng: tra chỉ mục trong bộ nhớ
+            return voucherEligibilityIndex.apDungDuoc(maHangThanhVien, tongTienDonHang, LocalDateTime.now());
         } catch (Exception ex) {
             throw new RuntimeException("Lỗi khi lấy danh sách voucher: " + ex.getMessage(), ex);
         }
@@ -355,8 +348,8 @@ public class ThanhToanServiceImpl implements ThanhToanService {
         if (request.getMaVoucherCode() != null && !request.getMaVoucherCode().isEmpty()) {
             Voucher voucher = voucherRepository.findByMaCode(request.getMaVoucherCode()).orElse(null);
             if (voucher != null) {
+                // Lượt dùng được giữ sau khi lưu đơn (VoucherRedemptionService)
                 donHang.setVoucher(voucher);
-                voucher.setSoLuongDaSuDung(voucher.getSoLuongDaSuDung() + 1);
             }
         }
 
@@ -373,23 +366,28 @@ public class ThanhToanServiceImpl implements ThanhToanService {
         // 7. Lấy lại chi tiết giỏ hàng để có giá thực tế của từng sản phẩm
         List<CartDetailItemResponse> cartDetails = this.getCartDetails(request.getChiTietDonHangList());
 
-        // 8. Tạo ChiTietDonHang và Trừ kho
+        // 8. Tạo ChiTietDonHang (kho không bị trừ ở đây mà được giữ sau khi lưu đơn, xem bước 10);
+        // mọi biến thể được nạp bằng một truy vấn IN
+        Map<Integer, BienTheSanPham> bienTheTheoMa = bienTheSanPhamRepository
+                .findCheckoutByMaBienTheIn(request.getChiTietDonHangList().stream()
+                        .map(ThanhToanRequest::getMaBienThe).collect(Collectors.toSet()))
+                .stream().collect(Collectors.toMap(BienTheSanPham::getMaBienThe, b -> b));
+        Map<Integer, CartDetailItemResponse> chiTietGioTheoMa = new HashMap<>();
+        for (CartDetailItemResponse item : cartDetails) {
+            chiTietGioTheoMa.putIfAbsent(item.getMaBienThe(), item);
+        }
         List<ChiTietDonHang> chiTietList = new ArrayList<>();
         for (ThanhToanRequest ct : request.getChiTietDonHangList()) {
-            BienTheSanPham bienThe = bienTheSanPhamRepository.findById(ct.getMaBienThe())
-                    .orElseThrow(() -> new AppException(404, "Không tìm thấy biến thể sản phẩm."));
-
-            // Trừ kho
-            if (bienThe.getSoLuongTon() < ct.getSoLuong()) {
-                throw new AppException(400, "Sản phẩm " + bienThe.getSku() + " không đủ số lượng tồn kho.");
+            BienTheSanPham bienThe = bienTheTheoMa.get(ct.getMaBienThe());
+            if (bienThe == null) {
+                throw new AppException(404, "Không tìm thấy biến thể sản phẩm.");
             }
-            bienThe.setSoLuongTon(bienThe.getSoLuongTon() - ct.getSoLuong());
 
             // Tìm giá thực tế từ kết quả đã gọi sp_GetCartDetails
-            CartDetailItemResponse detail = cartDetails.stream()
-                    .filter(item -> item.getMaBienThe() == ct.getMaBienThe())
-                    .findFirst()
-                    .orElseThrow(() -> new RuntimeException("Lỗi logic: không tìm thấy chi tiết sản phẩm."));
+            CartDetailItemResponse detail = chiTietGioTheoMa.get(ct.getMaBienThe());
+            if (detail == null) {
+                throw new RuntimeException("Lỗi logic: không tìm thấy chi tiết sản phẩm.");
+            }
 
             ChiTietDonHang chiTiet = new ChiTietDonHang();
             chiTiet.setDonHang(donHang);
@@ -410,8 +408,39 @@ public class ThanhToanServiceImpl implements ThanhToanService {
 
         // 9. Lưu đơn hàng
         DonHang savedDonHang = donHangRepository.save(donHang);
+        orderStatusCounter.ghiNhanDonMoi(savedDonHang);
+
+        // 10. Giữ hàng cho đơn: xác nhận đơn sẽ chuyển phần giữ thành bán, hủy đơn thì trả lại.
+        // Kiểm tra trên dữ liệu vừa nạp để báo đúng sản phẩm thiếu, rồi giữ mọi dòng bằng một câu lệnh
+        StockReservationService.tongTheoBienThe(chiTietList).forEach((maBienThe, soLuong) -> {
+            BienTheSanPham bienThe = bienTheTheoMa.get(maBienThe);
+            int coTheBan = (bienThe.getSoLuongTon() != null ? bienThe.getSoLuongTon() : 0)
+                    - (bienThe.getSoLuongDatTruoc() != null ? bienThe.getSoLuongDatTruoc() : 0);
+            if (coTheBan < soLuong) {
+                throw new AppException(400, "Sản phẩm " + bienThe.getSku() + " không đủ số lượng tồn kho.");
+            }
+        });
+        if (!stockReservationService.reserveOrder(savedDonHang.getMaDonHang(), chiTietList)) {
+            throw new AppException(400, "Một số sản phẩm không đủ số lượng tồn kho.");
+        }
+
+        // Giữ lượt voucher cuối cùng: câu UPDATE có điều kiện khóa dòng voucher tới khi commit, hết lượt thì rollback cả đơn
+        if (savedDonHang.getVoucher() != null) {
+            voucherRedemptionService.claim(savedDonHang.getVoucher(), savedDonHang.getMaDonHang(),
+                    khachHang != null ? khachHang.getMaKhachHang() : null);
+        }
+
+        // 11. Sự kiện cho các subscriber (thông báo...), ghi cùng transaction với đơn
+        Integer maKhachHang = khachHang != null ? khachHang.getMaKhachHang() : null;
+        domainEventPublisher.publish(new OrderPlaced(savedDonHang.getMaDonHang(), maKhachHang, OrderPlaced.ONLINE,
+                savedDonHang.getThanhTien(), chiTietList.size()));
+        Voucher voucherDaDung = savedDonHang.getVoucher();
+        if (voucherDaDung != null) {
+            domainEventPublisher.publish(new VoucherRedeemed(voucherDaDung.getMaVoucher(), voucherDaDung.getMaCode(),
+                    savedDonHang.getMaDonHang(), maKhachHang));
+        }
 
-        // 10. Trả về kết quả - sử dụng CheckoutSummaryResponse với thông tin đầy đủ từ stored procedure
+        // 12. Trả về kết quả - sử dụng CheckoutSummaryResponse với thông tin đầy đủ từ stored procedure
         summary.setMaDonHang(savedDonHang.getMaDonHang());
         summary.setMaDonHangStr("DH" + String.format("%03d", savedDonHang.getMaDonHang()));
         return summary;
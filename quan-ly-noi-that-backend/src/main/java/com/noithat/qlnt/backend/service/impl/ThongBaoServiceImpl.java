@@ -354,6 +354,26 @@ public class ThongBaoServiceImpl implements IThongBaoService {
         }
     }
 
+    @Override
+    @Transactional
+    public void taoThongBaoThanhToanCanXuLy(Integer maDonHang, String lyDo) {
+        try {
+            ThongBaoRequest request = new ThongBaoRequest();
+            request.setLoai("warning");
+            request.setTieuDe("Đơn đã thanh toán cần xử lý");
+            request.setNoiDung("Đơn hàng #" + maDonHang + " đã thanh toán online nhưng chưa thể hoàn tất"
+                    + (lyDo != null ? " (" + lyDo + ")" : ""));
+            request.setLoaiNguoiNhan("ALL");
+            request.setDuongDanHanhDong("/admin/don-hang/" + maDonHang);
+            request.setDoUuTien("high");
+            request.setLienKetId(maDonHang);
+            request.setLoaiLienKet("DON_HANG");
+            
+            ThongBao created = create(request);
+        } catch (Exception e) {
+        }
+    }
+
     private void publishIfCustomerFacing(ThongBaoRequest request, ThongBao created) {
         try {
             if (created == null) return;
@@ -15,6 +15,7 @@ import com.noithat.qlnt.backend.exception.ResourceNotFoundException;
 import com.noithat.qlnt.backend.service.IVoucherService;
 import com.noithat.qlnt.backend.service.IKhachHangService;
 import com.noithat.qlnt.backend.service.IChuongTrinhGiamGiaService;
+import com.noithat.qlnt.backend.service.voucher.VoucherEligibilityIndex;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import java.math.BigDecimal;
@@ -31,13 +32,16 @@ public class VoucherServiceImpl implements IVoucherService {
     private final IKhachHangService khachHangService;
     private final HangThanhVienRepository hangThanhVienRepository;
     private final IChuongTrinhGiamGiaService chuongTrinhGiamGiaService;
+    private final VoucherEligibilityIndex voucherEligibilityIndex;
 
     public VoucherServiceImpl(VoucherRepository voucherRepository, IKhachHangService khachHangService,
-            HangThanhVienRepository hangThanhVienRepository, IChuongTrinhGiamGiaService chuongTrinhGiamGiaService) {
+            HangThanhVienRepository hangThanhVienRepository, IChuongTrinhGiamGiaService chuongTrinhGiamGiaService,
+            VoucherEligibilityIndex voucherEligibilityIndex) {
         this.voucherRepository = voucherRepository;
         this.khachHangService = khachHangService;
         this.hangThanhVienRepository = hangThanhVienRepository;
         this.chuongTrinhGiamGiaService = chuongTrinhGiamGiaService;
+        this.voucherEligibilityIndex = voucherEligibilityIndex;
     }
 
     @Override
@@ -46,14 +50,7 @@ public class VoucherServiceImpl implements IVoucherService {
         List<com.noithat.qlnt.backend.dto.response.VoucherByTierResponse> result = new java.util.ArrayList<>();
         for (HangThanhVien hang : hangs) {
             Integer maHang = hang.getMaHangThanhVien();
-            List<Voucher> matched = voucherRepository.findAll().stream()
-                    .filter(v -> {
-                        if (Boolean.TRUE.equals(v.getApDungChoMoiNguoi()))
-                            return true;
-                        return v.getHanCheHangThanhVien().stream()
-                                .anyMatch(link -> link.getHangThanhVien().getMaHangThanhVien().equals(maHang));
-                    })
-                    .collect(Collectors.toList());
+            List<Voucher> matched = voucherEligibilityIndex.theoHang(maHang);
 
             result.add(com.noithat.qlnt.backend.dto.response.VoucherByTierResponse.builder()
                     .maHangThanhVien(maHang)
@@ -62,9 +59,7 @@ public class VoucherServiceImpl implements IVoucherService {
                     .build());
         }
 
-        List<Voucher> onlyPublic = voucherRepository.findAll().stream()
-                .filter(v -> Boolean.TRUE.equals(v.getApDungChoMoiNguoi()))
-                .collect(Collectors.toList());
+        List<Voucher> onlyPublic = voucherEligibilityIndex.congKhai();
         if (!onlyPublic.isEmpty()) {
             result.add(com.noithat.qlnt.backend.dto.response.VoucherByTierResponse.builder()
                     .maHangThanhVien(0)
@@ -82,14 +77,7 @@ public class VoucherServiceImpl implements IVoucherService {
                 .orElseThrow(() -> new ResourceNotFoundException(
                         "Hạng thành viên ID: " + maHangThanhVien + " không tồn tại."));
 
-        List<Voucher> matched = voucherRepository.findAll().stream()
-                .filter(v -> {
-                    if (Boolean.TRUE.equals(v.getApDungChoMoiNguoi()))
-                        return true;
-                    return v.getHanCheHangThanhVien().stream()
-                            .anyMatch(link -> link.getHangThanhVien().getMaHangThanhVien().equals(maHangThanhVien));
-                })
-                .collect(Collectors.toList());
+        List<Voucher> matched = voucherEligibilityIndex.theoHang(maHangThanhVien);
 
         return matched.stream().map(this::convertToResponse).collect(Collectors.toList());
     }
@@ -128,19 +116,10 @@ public class VoucherServiceImpl implements IVoucherService {
     @Override
     public List<Voucher> getEligibleVouchersForCustomer(Integer maKhachHang) {
         KhachHang khachHang = khachHangService.getKhachHangProfile(maKhachHang);
-        Integer maHangThanhVien = khachHang.getHangThanhVien().getMaHangThanhVien();
-        LocalDateTime now = LocalDateTime.now();
-
-        return voucherRepository.findAll().stream()
-                .filter(v -> v.getNgayBatDau().isBefore(now) && v.getNgayKetThuc().isAfter(now))
-                .filter(v -> {
-                    if (Boolean.TRUE.equals(v.getApDungChoMoiNguoi())) {
-                        return true;
-                    }
-                    return v.getHanCheHangThanhVien().stream()
-                            .anyMatch(link -> link.getHangThanhVien().getMaHangThanhVien().equals(maHangThanhVien));
-                })
-                .collect(Collectors.toList());
+        Integer maHangThanhVien = khachHang.getHangThanhVien() != null
+                ? khachHang.getHangThanhVien().getMaHangThanhVien()
+                : null;
+        return voucherEligibilityIndex.dangHieuLuc(maHangThanhVien, LocalDateTime.now());
     }
 
     @Override
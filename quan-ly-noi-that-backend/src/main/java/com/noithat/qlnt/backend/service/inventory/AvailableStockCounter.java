@@ -0,0 +1,87 @@
+package com.noithat.qlnt.backend.service.inventory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.noithat.qlnt.backend.repository.BienTheSanPhamRepository;
+import com.noithat.qlnt.backend.service.catalog.CatalogChangeListener;
+
+/**
+ * Số lượng có thể bán (tồn - đang giữ) của từng biến thể, giữ trong bộ nhớ.
+ *
+ * Biến thể được nạp khi hỏi lần đầu rồi trả lời không cần DB cho tới khi bị
+ * xóa: mọi thay đổi tồn kho đều đi qua ShopCatalogSnapshot.markStockChanged
+ * (nhận ở stockChanged/productsChanged sau commit), còn giữ/trả hàng do
+ * StockReservationService báo trực tiếp theo biến thể.
+ */
+@Component
+public class AvailableStockCounter implements CatalogChangeListener {
+
+    private record Entry(Integer maSanPham, int available) {
+    }
+
+    private final BienTheSanPhamRepository bienTheSanPhamRepository;
+
+    private final Map<Integer, Entry> entries = new ConcurrentHashMap<>();
+    // Tăng mỗi lần xóa; lần nạp bắt đầu trước đó không được ghi đè giá trị mới
+    private final AtomicLong epoch = new AtomicLong();
+
+    public AvailableStockCounter(BienTheSanPhamRepository bienTheSanPhamRepository) {
+        this.bienTheSanPhamRepository = bienTheSanPhamRepository;
+    }
+
+    public int available(Integer maBienThe) {
+        if (maBienThe == null)
+            return 0;
+        Entry entry = entries.get(maBienThe);
+        if (entry != null)
+            return entry.available();
+
+        long start = epoch.get();
+        List<Object[]> rows = bienTheSanPhamRepository.findAvailableRow(maBienThe);
+        if (rows.isEmpty())
+            return 0;
+        Object[] row = rows.get(0);
+        entry = new Entry((Integer) row[1], Math.max(0, ((Number) row[0]).intValue()));
+        if (epoch.get() == start)
+            entries.put(maBienThe, entry);
+        return entry.available();
+    }
+
+    public void invalidate(Integer maBienThe) {
+        epoch.incrementAndGet();
+        entries.remove(maBienThe);
+    }
+
+    public void invalidateAfterCommit(Integer maBienThe) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    invalidate(maBienThe);
+                }
+            });
+        } else {
+            invalidate(maBienThe);
+        }
+    }
+
+    @Override
+    public void productsChanged(Set<Integer> maSanPhams) {
+        epoch.incrementAndGet();
+        entries.values().removeIf(e -> maSanPhams.contains(e.maSanPham()));
+    }
+
+    @Override
+    public void allChanged() {
+        epoch.incrementAndGet();
+        entries.clear();
+    }
+}
@@ -0,0 +1,59 @@
+package com.noithat.qlnt.backend.service.inventory;
+
+import java.sql.PreparedStatement;
+import java.util.Map;
+
+import org.hibernate.Session;
+import org.hibernate.dialect.SQLServerDialect;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+
+import com.microsoft.sqlserver.jdbc.SQLServerDataTable;
+import com.microsoft.sqlserver.jdbc.SQLServerException;
+import com.microsoft.sqlserver.jdbc.SQLServerPreparedStatement;
+
+import jakarta.persistence.EntityManager;
+
+/**
+ * Chạy một câu lệnh trên nhiều biến thể cùng lúc: danh sách (ma_bien_the,
+ * so_luong) được truyền thành một table-valued parameter kiểu dbo.CartItemType
+ * (cùng kiểu các procedure giỏ hàng dùng), nên đơn 200 dòng vẫn chỉ tốn một
+ * round trip cho mỗi câu lệnh.
+ *
+ * Câu lệnh chạy trên connection của transaction JPA hiện tại; TVP phải là tham
+ * số đầu tiên (dấu ? đầu tiên trong câu lệnh). TVP và MERGE chỉ có trên SQL
+ * Server: bên gọi kiểm tra supported() và dùng các câu JPQL từng dòng với CSDL
+ * khác.
+ */
+final class BatchStockStatements {
+
+    static final String TVP_TYPE = "dbo.CartItemType";
+
+    private BatchStockStatements() {
+    }
+
+    static boolean supported(EntityManager entityManager) {
+        return entityManager.getEntityManagerFactory().unwrap(SessionFactoryImplementor.class).getJdbcServices()
+                .getDialect() instanceof SQLServerDialect;
+    }
+
+    static int executeUpdate(EntityManager entityManager, String sql, Map<Integer, Integer> soLuongTheoBienThe,
+            Object... thamSo) {
+        return entityManager.unwrap(Session.class).doReturningWork(connection -> {
+            try (PreparedStatement ps = connection.prepareStatement(sql)) {
+                ps.unwrap(SQLServerPreparedStatement.class).setStructured(1, TVP_TYPE, tvp(soLuongTheoBienThe));
+                for (int i = 0; i < thamSo.length; i++)
+                    ps.setObject(i + 2, thamSo[i]);
+                return ps.executeUpdate();
+            }
+        });
+    }
+
+    private static SQLServerDataTable tvp(Map<Integer, Integer> soLuongTheoBienThe) throws SQLServerException {
+        SQLServerDataTable tvp = new SQLServerDataTable();
+        tvp.addColumnMetadata("ma_bien_the", java.sql.Types.INTEGER);
+        tvp.addColumnMetadata("so_luong", java.sql.Types.INTEGER);
+        for (Map.Entry<Integer, Integer> e : soLuongTheoBienThe.entrySet())
+            tvp.addRow(e.getKey(), e.getValue());
+        return tvp;
+    }
+}
@@ -0,0 +1,274 @@
+package com.noithat.qlnt.backend.service.inventory;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.noithat.qlnt.backend.repository.BienTheSanPhamRepository;
+import com.noithat.qlnt.backend.service.IThongBaoService;
+import com.noithat.qlnt.backend.service.inventory.StockMutationEngine.StockMovement;
+
+/**
+ * Danh sách biến thể sắp hết (tồn <= mức tối thiểu) và hết hàng, giữ trong bộ
+ * nhớ để các màn hình cảnh báo tồn kho không phải quét bảng BienTheSanPham.
+ *
+ * Nạp một lần khi hỏi lần đầu, sau đó StockMutationEngine báo từng biến động
+ * (áp dụng sau commit). Khi biến động làm biến thể vừa vượt xuống một ngưỡng
+ * (xuống dưới mức tối thiểu, hoặc hết hàng) thì tạo đúng một thông báo; cùng
+ * biến thể và ngưỡng đó không báo lại trong debounce-minutes dù tồn dao động
+ * quanh ngưỡng. Nạp lại định kỳ để nhận các thay đổi không đi qua engine (sửa
+ * mức tối thiểu, instance khác); nạp lại không tạo thông báo.
+ */
+@Component
+public class LowStockIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(LowStockIndex.class);
+
+    public enum MucCanhBao {
+        SAP_HET, HET_HANG
+    }
+
+    /**
+     * Một biến thể đang dưới ngưỡng.
+     */
+    public record CanhBaoTonKho(Integer maBienThe, Integer maSanPham, String tenSanPham, String sku, int soLuongTon,
+            int mucTonToiThieu, MucCanhBao mucCanhBao) {
+    }
+
+    private final BienTheSanPhamRepository bienTheSanPhamRepository;
+    private final IThongBaoService thongBaoService;
+    private final TransactionTemplate alertTransaction;
+    private final boolean alertsEnabled;
+    private final Duration debounce;
+
+    private final Map<Integer, CanhBaoTonKho> entries = new ConcurrentHashMap<>();
+    // Lần báo gần nhất theo "maBienThe:mucCanhBao"
+    private final Map<String, Instant> lastAlert = new ConcurrentHashMap<>();
+    private final Object loadLock = new Object();
+    private volatile boolean loaded;
+    // Khác null khi đang nạp lại: các biến thể đổi trong lúc nạp (rỗng = đã lên trên ngưỡng)
+    private volatile Map<Integer, Optional<CanhBaoTonKho>> changedWhileLoading;
+
+    public LowStockIndex(BienTheSanPhamRepository bienTheSanPhamRepository, IThongBaoService thongBaoService,
+            PlatformTransactionManager transactionManager,
+            @Value("${app.inventory.low-stock.alerts-enabled:true}") boolean alertsEnabled,
+            @Value("${app.inventory.low-stock.debounce-minutes:30}") long debounceMinutes) {
+        this.bienTheSanPhamRepository = bienTheSanPhamRepository;
+        this.thongBaoService = thongBaoService;
+        this.alertTransaction = new TransactionTemplate(transactionManager);
+        this.alertTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.alertsEnabled = alertsEnabled;
+        this.debounce = Duration.ofMinutes(Math.max(0, debounceMinutes));
+    }
+
+    public static MucCanhBao mucCanhBao(int soLuongTon, int mucTonToiThieu) {
+        if (soLuongTon <= 0)
+            return MucCanhBao.HET_HANG;
+        if (soLuongTon <= mucTonToiThieu)
+            return MucCanhBao.SAP_HET;
+        return null;
+    }
+
+    /**
+     * Biến thể có tồn <= mức tối thiểu (gồm cả hết hàng), ít hàng nhất trước.
+     */
+    public List<CanhBaoTonKho> sapHet() {
+        ensureLoaded();
+        return sorted(entries.values().stream().filter(e -> e.soLuongTon() <= e.mucTonToiThieu()).toList());
+    }
+
+    /**
+     * Biến thể hết hàng.
+     */
+    public List<CanhBaoTonKho> hetHang() {
+        ensureLoaded();
+        return sorted(entries.values().stream().filter(e -> e.mucCanhBao() == MucCanhBao.HET_HANG).toList());
+    }
+
+    public List<Integer> maBienTheSapHet() {
+        return sapHet().stream().map(CanhBaoTonKho::maBienThe).toList();
+    }
+
+    public List<Integer> maBienTheHetHang() {
+        return hetHang().stream().map(CanhBaoTonKho::maBienThe).toList();
+    }
+
+    public int soSapHet() {
+        ensureLoaded();
+        return (int) entries.values().stream().filter(e -> e.soLuongTon() <= e.mucTonToiThieu()).count();
+    }
+
+    public int soHetHang() {
+        ensureLoaded();
+        return (int) entries.values().stream().filter(e -> e.mucCanhBao() == MucCanhBao.HET_HANG).count();
+    }
+
+    /**
+     * Ghi nhận các biến động vừa áp dụng (gọi trong transaction của biến động, có
+     * hiệu lực sau commit).
+     *
+     * @param mucTonToiThieu mức tối thiểu theo mã biến thể
+     */
+    public void onMovements(List<StockMovement> movements, Map<Integer, Integer> mucTonToiThieu) {
+        if (movements.isEmpty())
+            return;
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    apply(movements, mucTonToiThieu);
+                }
+            });
+        } else {
+            apply(movements, mucTonToiThieu);
+        }
+    }
+
+    private void apply(List<StockMovement> movements, Map<Integer, Integer> mucTonToiThieu) {
+        try {
+            List<StockMovement> vuotNguong = new ArrayList<>();
+            List<Integer> canNapThongTin = new ArrayList<>();
+            for (StockMovement m : movements) {
+                int muc = mucTonToiThieu.getOrDefault(m.maBienThe(), 0);
+                MucCanhBao truoc = mucCanhBao(m.soLuongTruoc(), muc);
+                MucCanhBao sau = mucCanhBao(m.soLuongSau(), muc);
+                if (sau == null) {
+                    put(m.maBienThe(), null);
+                    continue;
+                }
+                CanhBaoTonKho cu = entries.get(m.maBienThe());
+                if (cu != null) {
+                    put(m.maBienThe(), new CanhBaoTonKho(cu.maBienThe(), cu.maSanPham(), cu.tenSanPham(), cu.sku(),
+                            m.soLuongSau(), muc, sau));
+                } else {
+                    canNapThongTin.add(m.maBienThe());
+                }
+                // Chỉ báo khi nặng hơn: vượt xuống mức tối thiểu, hoặc hết hàng
+                if (truoc == null || (sau == MucCanhBao.HET_HANG && truoc != MucCanhBao.HET_HANG))
+                    vuotNguong.add(m);
+            }
+            // Biến thể mới vào danh sách cần tên/SKU: một truy vấn cho cả lô, chỉ khi vượt ngưỡng
+            Map<Integer, CanhBaoTonKho> moi = new HashMap<>();
+            if (!canNapThongTin.isEmpty()) {
+                for (Object[] row : bienTheSanPhamRepository.findLowStockRowsByMaBienTheIn(canNapThongTin)) {
+                    CanhBaoTonKho e = toEntry(row);
+                    if (e.mucCanhBao() != null)
+                        moi.put(e.maBienThe(), e);
+                }
+                canNapThongTin.forEach(ma -> put(ma, moi.get(ma)));
+            }
+            for (StockMovement m : vuotNguong)
+                alert(entries.get(m.maBienThe()));
+        } catch (RuntimeException ex) {
+            // Danh sách sẽ được sửa ở lần nạp lại định kỳ
+            logger.warn("Không cập nhật được danh sách cảnh báo tồn kho: {}", ex.getMessage());
+        }
+    }
+
+    private void put(Integer maBienThe, CanhBaoTonKho entry) {
+        if (entry == null)
+            entries.remove(maBienThe);
+        else
+            entries.put(maBienThe, entry);
+        Map<Integer, Optional<CanhBaoTonKho>> changed = changedWhileLoading;
+        if (changed != null)
+            changed.put(maBienThe, Optional.ofNullable(entry));
+    }
+
+    private void alert(CanhBaoTonKho e) {
+        if (!alertsEnabled || e == null)
+            return;
+        Instant now = Instant.now();
+        String key = e.maBienThe() + ":" + e.mucCanhBao();
+        boolean[] bao = { false };
+        lastAlert.compute(key, (k, truoc) -> {
+            if (truoc != null && truoc.plus(debounce).isAfter(now))
+                return truoc;
+            bao[0] = true;
+            return now;
+        });
+        if (!bao[0])
+            return;
+        String ten = e.tenSanPham() + (e.sku() != null ? " (" + e.sku() + ")" : "");
+        // Transaction của biến động đã commit: thông báo ghi trong transaction riêng
+        alertTransaction.executeWithoutResult(status -> {
+            if (e.mucCanhBao() == MucCanhBao.HET_HANG)
+                thongBaoService.taoThongBaoHetHang(e.maSanPham(), ten);
+            else
+                thongBaoService.taoThongBaoCanhBaoTonKho(e.maSanPham(), ten, e.soLuongTon());
+        });
+    }
+
+    private void ensureLoaded() {
+        if (!loaded)
+            reload();
+    }
+
+    @Scheduled(fixedDelayString = "${app.inventory.low-stock.resync-interval-ms:300000}",
+            initialDelayString = "${app.inventory.low-stock.resync-interval-ms:300000}")
+    public void resync() {
+        try {
+            reload();
+        } catch (RuntimeException ex) {
+            logger.error("Lỗi khi nạp lại danh sách cảnh báo tồn kho", ex);
+        }
+    }
+
+    private void reload() {
+        synchronized (loadLock) {
+            Map<Integer, Optional<CanhBaoTonKho>> changed = new ConcurrentHashMap<>();
+            changedWhileLoading = changed;
+            try {
+                Map<Integer, CanhBaoTonKho> fresh = new HashMap<>();
+                for (Object[] row : bienTheSanPhamRepository.findLowStockRows()) {
+                    CanhBaoTonKho e = toEntry(row);
+                    fresh.put(e.maBienThe(), e);
+                }
+                entries.keySet().retainAll(fresh.keySet());
+                entries.putAll(fresh);
+                // Biến động commit trong lúc nạp mới hơn kết quả truy vấn
+                changed.forEach((ma, e) -> {
+                    if (e.isPresent())
+                        entries.put(ma, e.get());
+                    else
+                        entries.remove(ma);
+                });
+                loaded = true;
+            } finally {
+                changedWhileLoading = null;
+            }
+        }
+        Instant moc = Instant.now().minus(debounce);
+        lastAlert.values().removeIf(t -> t.isBefore(moc));
+    }
+
+    private static CanhBaoTonKho toEntry(Object[] row) {
+        int soLuongTon = ((Number) row[4]).intValue();
+        int muc = ((Number) row[5]).intValue();
+        return new CanhBaoTonKho((Integer) row[0], (Integer) row[1], (String) row[2], (String) row[3], soLuongTon,
+                muc, mucCanhBao(soLuongTon, muc));
+    }
+
+    private static List<CanhBaoTonKho> sorted(List<CanhBaoTonKho> list) {
+        return list.stream()
+                .sorted(Comparator.comparingInt(CanhBaoTonKho::soLuongTon).thenComparing(CanhBaoTonKho::maBienThe))
+                .toList();
+    }
+}
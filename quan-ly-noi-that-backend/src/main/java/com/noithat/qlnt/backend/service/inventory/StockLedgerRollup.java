@@ -0,0 +1,142 @@
+package com.noithat.qlnt.backend.service.inventory;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.noithat.qlnt.backend.entity.TonKhoTheoNgay;
+import com.noithat.qlnt.backend.repository.LichSuTonKhoRepository;
+import com.noithat.qlnt.backend.repository.TonKhoTheoNgayRepository;
+
+/**
+ * Báo cáo tồn kho theo ngày/kỳ đọc từ ảnh chụp theo ngày (ton_kho_theo_ngay, do
+ * StockMutationEngine cộng dồn) thay vì quét LichSuTonKho: tồn tại một ngày là
+ * một lần tìm theo khóa cho mỗi biến thể, biến động trong kỳ chỉ đọc các dòng
+ * của những ngày có biến động trong kỳ.
+ *
+ * Nhờ đó các dòng lịch sử cũ không còn cần cho báo cáo: job lưu trữ chuyển các
+ * dòng quá retention-days sang lich_su_ton_kho_luu_tru theo từng lô, giữ bảng
+ * lịch sử chỉ chứa phần gần đây (màn hình lịch sử xuất nhập đọc bảng này).
+ */
+@Service
+public class StockLedgerRollup {
+
+    private static final Logger logger = LoggerFactory.getLogger(StockLedgerRollup.class);
+
+    static final int MAX_PERIOD_DAYS = 3660;
+
+    /**
+     * Tồn cuối ngày của một biến thể; ngayBienDongGanNhat null nếu chưa có biến
+     * động nào tới ngày đó.
+     */
+    public record TonCuoiNgay(Integer maBienThe, Integer maSanPham, String tenSanPham, String sku, int tonKho,
+            LocalDate ngayBienDongGanNhat) {
+    }
+
+    /**
+     * Biến động của một biến thể trong kỳ.
+     */
+    public record BienDongKy(Integer maBienThe, Integer maSanPham, String tenSanPham, String sku, int tonDau,
+            long tongNhap, long tongXuat, long tongDieuChinh, long tonCuoi) {
+    }
+
+    private final TonKhoTheoNgayRepository tonKhoTheoNgayRepository;
+    private final LichSuTonKhoRepository lichSuTonKhoRepository;
+    private final int retentionDays;
+    private final int archiveBatchSize;
+
+    public StockLedgerRollup(TonKhoTheoNgayRepository tonKhoTheoNgayRepository,
+            LichSuTonKhoRepository lichSuTonKhoRepository,
+            @Value("${app.inventory.ledger.retention-days:365}") int retentionDays,
+            @Value("${app.inventory.ledger.archive-batch-size:5000}") int archiveBatchSize) {
+        this.tonKhoTheoNgayRepository = tonKhoTheoNgayRepository;
+        this.lichSuTonKhoRepository = lichSuTonKhoRepository;
+        this.retentionDays = retentionDays;
+        this.archiveBatchSize = Math.max(1, archiveBatchSize);
+    }
+
+    /**
+     * Tồn cuối ngày của mọi biến thể (hoặc các biến thể của một sản phẩm).
+     */
+    @Transactional(readOnly = true)
+    public List<TonCuoiNgay> tonCuoiNgay(LocalDate ngay, Integer maSanPham) {
+        if (ngay == null)
+            throw new IllegalArgumentException("Thiếu ngày cần xem tồn kho");
+        return tonKhoTheoNgayRepository.tonCuoiNgay(ngay, maSanPham).stream()
+                .map(row -> new TonCuoiNgay((Integer) row[0], (Integer) row[1], (String) row[2], (String) row[3],
+                        ((Number) row[4]).intValue(), toLocalDate(row[5])))
+                .toList();
+    }
+
+    /**
+     * Tồn đầu kỳ, tổng nhập/xuất/điều chỉnh và tồn cuối kỳ của mọi biến thể
+     * (hoặc các biến thể của một sản phẩm) trong kỳ [tuNgay, denNgay].
+     */
+    @Transactional(readOnly = true)
+    public List<BienDongKy> bienDongTrongKy(LocalDate tuNgay, LocalDate denNgay, Integer maSanPham) {
+        kiemTraKy(tuNgay, denNgay);
+        return tonKhoTheoNgayRepository.bienDongTrongKy(tuNgay, denNgay, maSanPham).stream()
+                .map(row -> {
+                    int tonDau = ((Number) row[4]).intValue();
+                    long nhap = ((Number) row[5]).longValue();
+                    long xuat = ((Number) row[6]).longValue();
+                    long dieuChinh = ((Number) row[7]).longValue();
+                    return new BienDongKy((Integer) row[0], (Integer) row[1], (String) row[2], (String) row[3],
+                            tonDau, nhap, xuat, dieuChinh, tonDau + nhap - xuat + dieuChinh);
+                })
+                .toList();
+    }
+
+    /**
+     * Ảnh chụp các ngày có biến động của một biến thể trong kỳ.
+     */
+    @Transactional(readOnly = true)
+    public List<TonKhoTheoNgay> theoNgay(Integer maBienThe, LocalDate tuNgay, LocalDate denNgay) {
+        kiemTraKy(tuNgay, denNgay);
+        return tonKhoTheoNgayRepository.findTheoBienThe(maBienThe, tuNgay, denNgay);
+    }
+
+    @Scheduled(cron = "${app.inventory.ledger.archive-cron:0 30 2 * * *}")
+    public void luuTruLichSuCu() {
+        if (retentionDays <= 0)
+            return;
+        // Giữ nguyên các ngày chưa trọn: mốc là đầu ngày
+        LocalDateTime moc = LocalDate.now().minusDays(retentionDays).atStartOfDay();
+        try {
+            int tong = 0;
+            int daChuyen;
+            do {
+                daChuyen = lichSuTonKhoRepository.chuyenSangLuuTru(moc, archiveBatchSize);
+                tong += daChuyen;
+            } while (daChuyen == archiveBatchSize);
+            if (tong > 0)
+                logger.info("Đã chuyển {} dòng lịch sử tồn kho trước {} sang bảng lưu trữ", tong, moc);
+        } catch (RuntimeException ex) {
+            logger.error("Lỗi khi lưu trữ lịch sử tồn kho", ex);
+        }
+    }
+
+    private static void kiemTraKy(LocalDate tuNgay, LocalDate denNgay) {
+        if (tuNgay == null || denNgay == null)
+            throw new IllegalArgumentException("Thiếu ngày bắt đầu hoặc ngày kết thúc của kỳ");
+        if (tuNgay.isAfter(denNgay))
+            throw new IllegalArgumentException("Ngày bắt đầu phải trước hoặc bằng ngày kết thúc");
+        if (tuNgay.plusDays(MAX_PERIOD_DAYS).isBefore(denNgay))
+            throw new IllegalArgumentException("Kỳ báo cáo không được dài quá " + MAX_PERIOD_DAYS + " ngày");
+    }
+
+    private static LocalDate toLocalDate(Object value) {
+        if (value == null)
+            return null;
+        if (value instanceof java.sql.Date d)
+            return d.toLocalDate();
+        return (LocalDate) value;
+    }
+}
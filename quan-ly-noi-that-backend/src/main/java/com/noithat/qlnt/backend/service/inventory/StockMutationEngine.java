@@ -0,0 +1,287 @@
+package com.noithat.qlnt.backend.service.inventory;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+
+import org.hibernate.Hibernate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.noithat.qlnt.backend.entity.BienTheSanPham;
+import com.noithat.qlnt.backend.entity.LichSuTonKho;
+import com.noithat.qlnt.backend.repository.BienTheSanPhamRepository;
+import com.noithat.qlnt.backend.repository.LichSuTonKhoRepository;
+import com.noithat.qlnt.backend.repository.TonKhoTheoNgayRepository;
+import com.noithat.qlnt.backend.repository.TonKhoTongHopRepository;
+import com.noithat.qlnt.backend.service.catalog.ShopCatalogSnapshot;
+import com.noithat.qlnt.backend.service.event.DomainEventPublisher;
+import com.noithat.qlnt.backend.service.event.StockChanged;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+
+/**
+ * Điểm duy nhất thay đổi tồn kho của biến thể.
+ *
+ * Mỗi biến động (nhập, xuất, bán, trả) là một câu UPDATE có điều kiện trên
+ * dòng BienTheSanPham nên không có read-modify-write trong Java: hai giao dịch
+ * song song không thể ghi đè lên nhau và tồn không bao giờ âm. Sau UPDATE, dòng
+ * bị khóa bởi transaction hiện tại nên số lượng đọc lại chính là kết quả của
+ * lần ghi này; lịch sử (LichSuTonKho + ton_kho_tong_hop + ton_kho_theo_ngay)
+ * được ghi trong cùng transaction, cùng sự kiện StockChanged cho các
+ * subscriber. Phần đang giữ cho đơn (soLuongDatTruoc) không bị xuất/bán trực
+ * tiếp, chỉ bán qua consumeReserved. Biến động vượt ngưỡng tồn tối thiểu được báo
+ * cho LowStockIndex. Đơn nhiều dòng bán qua sellBatch với số câu
+ * lệnh cố định. Điều chỉnh về số tuyệt đối (kiểm kê) dùng compare-and-set với
+ * số lần thử giới hạn.
+ */
+@Component
+public class StockMutationEngine {
+
+    private static final Logger logger = LoggerFactory.getLogger(StockMutationEngine.class);
+
+    static final int MAX_CAS_ATTEMPTS = 5;
+
+    /**
+     * Kết quả một biến động tồn kho đã áp dụng.
+     */
+    public record StockMovement(Integer maBienThe, Integer maSanPham, int soLuongTruoc, int soLuongThayDoi,
+            int soLuongSau) {
+    }
+
+    private final BienTheSanPhamRepository bienTheSanPhamRepository;
+    private final LichSuTonKhoRepository lichSuTonKhoRepository;
+    private final TonKhoTongHopRepository tonKhoTongHopRepository;
+    private final TonKhoTheoNgayRepository tonKhoTheoNgayRepository;
+    private final ShopCatalogSnapshot shopCatalogSnapshot;
+    private final DomainEventPublisher domainEventPublisher;
+    private final LowStockIndex lowStockIndex;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    public StockMutationEngine(BienTheSanPhamRepository bienTheSanPhamRepository,
+            LichSuTonKhoRepository lichSuTonKhoRepository,
+            TonKhoTongHopRepository tonKhoTongHopRepository,
+            TonKhoTheoNgayRepository tonKhoTheoNgayRepository,
+            ShopCatalogSnapshot shopCatalogSnapshot,
+            DomainEventPublisher domainEventPublisher,
+            LowStockIndex lowStockIndex) {
+        this.bienTheSanPhamRepository = bienTheSanPhamRepository;
+        this.lichSuTonKhoRepository = lichSuTonKhoRepository;
+        this.tonKhoTongHopRepository = tonKhoTongHopRepository;
+        this.tonKhoTheoNgayRepository = tonKhoTheoNgayRepository;
+        this.shopCatalogSnapshot = shopCatalogSnapshot;
+        this.domainEventPublisher = domainEventPublisher;
+        this.lowStockIndex = lowStockIndex;
+    }
+
+    /**
+     * Cộng (delta > 0) hoặc trừ (delta < 0) tồn kho và ghi lịch sử.
+     *
+     * @return rỗng nếu không có biến thể hoặc không đủ hàng để trừ
+     */
+    @Transactional
+    public Optional<StockMovement> apply(Integer maBienThe, int delta, String loaiGiaoDich, String maThamChieu,
+            String lyDo, String nguoiThucHien) {
+        if (maBienThe == null)
+            return Optional.empty();
+        if (bienTheSanPhamRepository.applyStockDelta(maBienThe, delta, LocalDateTime.now()) == 0)
+            return Optional.empty();
+        return Optional.of(applied(maBienThe, delta, loaiGiaoDich, maThamChieu, lyDo, nguoiThucHien));
+    }
+
+    /**
+     * Bán phần hàng đã giữ trước (StockReservationService): trừ tồn kho và số
+     * đang giữ trong cùng một câu lệnh.
+     *
+     * @return rỗng nếu số đang giữ hoặc tồn kho nhỏ hơn soLuong
+     */
+    @Transactional
+    public Optional<StockMovement> consumeReserved(Integer maBienThe, int soLuong, String maThamChieu,
+            String lyDo, String nguoiThucHien) {
+        if (maBienThe == null || soLuong <= 0)
+            return Optional.empty();
+        if (bienTheSanPhamRepository.consumeReserved(maBienThe, soLuong, LocalDateTime.now()) == 0)
+            return Optional.empty();
+        return Optional.of(applied(maBienThe, -soLuong, "BAN_HANG", maThamChieu, lyDo, nguoiThucHien));
+    }
+
+    /**
+     * Bán nhiều biến thể cùng lúc (đơn nhiều dòng): một câu UPDATE trừ tồn cho mọi
+     * dòng, một câu ghi LichSuTonKho và một câu cộng dồn cho mỗi bảng tổng hợp
+     * (ton_kho_tong_hop, ton_kho_theo_ngay), số round trip không phụ thuộc số dòng. Phần đang giữ cho đơn khác không bị bán.
+     * Dòng có số lượng không dương bị bỏ qua. Trên CSDL không phải SQL Server (không có TVP/MERGE)
+     * bán từng dòng qua apply.
+     *
+     * @param soLuongTheoBienThe số lượng bán theo mã biến thể (mỗi biến thể một mục)
+     * @return rỗng nếu có biến thể không tồn tại hoặc không đủ hàng; khi đó các dòng
+     *         khác đã bị trừ nên bên gọi phải rollback transaction (ví dụ ném lỗi)
+     */
+    @Transactional
+    public Optional<List<StockMovement>> sellBatch(Map<Integer, Integer> soLuongTheoBienThe, String maThamChieu,
+            String lyDo, String nguoiThucHien) {
+        Map<Integer, Integer> duong = new TreeMap<>(soLuongTheoBienThe);
+        duong.values().removeIf(soLuong -> soLuong == null || soLuong <= 0);
+        soLuongTheoBienThe = duong;
+        if (soLuongTheoBienThe.isEmpty())
+            return Optional.of(List.of());
+        if (!BatchStockStatements.supported(entityManager)) {
+            List<StockMovement> movements = new ArrayList<>(soLuongTheoBienThe.size());
+            for (Map.Entry<Integer, Integer> e : soLuongTheoBienThe.entrySet()) {
+                Optional<StockMovement> movement = apply(e.getKey(), -e.getValue(), "BAN_HANG", maThamChieu, lyDo,
+                        nguoiThucHien);
+                if (movement.isEmpty())
+                    return Optional.empty();
+                movements.add(movement.get());
+            }
+            return Optional.of(movements);
+        }
+        int soDong = BatchStockStatements.executeUpdate(entityManager, """
+                WITH v AS (SELECT ma_bien_the, so_luong FROM ?)
+                UPDATE b SET so_luong_ton = COALESCE(b.so_luong_ton, 0) - v.so_luong, ngay_cap_nhat_kho = SYSDATETIME(),
+                    trang_thai_kho = CASE WHEN COALESCE(b.so_luong_ton, 0) - v.so_luong <= 0 THEN 'OUT_OF_STOCK'
+                        WHEN COALESCE(b.so_luong_ton, 0) - v.so_luong <= COALESCE(b.muc_ton_toi_thieu, 0) THEN 'LOW_STOCK'
+                        ELSE 'ACTIVE' END
+                FROM bien_the_san_pham b JOIN v ON v.ma_bien_the = b.ma_bien_the
+                WHERE v.so_luong > 0 AND COALESCE(b.so_luong_ton, 0) - b.so_luong_dat_truoc >= v.so_luong
+                """, soLuongTheoBienThe);
+        if (soDong != soLuongTheoBienThe.size())
+            return Optional.empty();
+
+        BatchStockStatements.executeUpdate(entityManager, """
+                WITH v AS (SELECT ma_bien_the, so_luong FROM ?)
+                INSERT INTO lich_su_ton_kho (ma_bien_the, so_luong_truoc, so_luong_thay_doi, so_luong_sau,
+                    loai_giao_dich, ma_tham_chieu, ly_do, nguoi_thuc_hien, thoi_gian_thuc_hien)
+                SELECT b.ma_bien_the, COALESCE(b.so_luong_ton, 0) + v.so_luong, -v.so_luong, COALESCE(b.so_luong_ton, 0),
+                    'BAN_HANG', ?, ?, ?, SYSDATETIME()
+                FROM v JOIN bien_the_san_pham b ON b.ma_bien_the = v.ma_bien_the
+                """, soLuongTheoBienThe, maThamChieu, lyDo, nguoiThucHien);
+        BatchStockStatements.executeUpdate(entityManager, """
+                MERGE ton_kho_tong_hop WITH (HOLDLOCK) AS t
+                USING (SELECT ma_bien_the, so_luong FROM ?) AS s ON t.ma_bien_the = s.ma_bien_the
+                WHEN MATCHED THEN
+                    UPDATE SET tong_xuat = t.tong_xuat + s.so_luong, ngay_cap_nhat = SYSDATETIME()
+                WHEN NOT MATCHED THEN
+                    INSERT (ma_bien_the, tong_nhap, tong_xuat, ngay_cap_nhat) VALUES (s.ma_bien_the, 0, s.so_luong, SYSDATETIME());
+                """, soLuongTheoBienThe);
+        BatchStockStatements.executeUpdate(entityManager, """
+                MERGE ton_kho_theo_ngay WITH (HOLDLOCK) AS t
+                USING (SELECT v.ma_bien_the, v.so_luong, COALESCE(b.so_luong_ton, 0) AS ton_sau,
+                           CAST(SYSDATETIME() AS DATE) AS ngay
+                       FROM ? v JOIN bien_the_san_pham b ON b.ma_bien_the = v.ma_bien_the) AS s
+                    ON t.ma_bien_the = s.ma_bien_the AND t.ngay = s.ngay
+                WHEN MATCHED THEN
+                    UPDATE SET tong_xuat = t.tong_xuat + s.so_luong, ton_cuoi = s.ton_sau, ngay_cap_nhat = SYSDATETIME()
+                WHEN NOT MATCHED THEN
+                    INSERT (ma_bien_the, ngay, ton_dau, tong_nhap, tong_xuat, tong_dieu_chinh, ton_cuoi, ngay_cap_nhat)
+                    VALUES (s.ma_bien_the, s.ngay, s.ton_sau + s.so_luong, 0, s.so_luong, 0, s.ton_sau, SYSDATETIME());
+                """, soLuongTheoBienThe);
+
+        List<StockMovement> movements = new ArrayList<>(soDong);
+        List<StockChanged> events = new ArrayList<>(soDong);
+        Map<Integer, Integer> mucTonToiThieu = new HashMap<>();
+        for (Object[] row : bienTheSanPhamRepository.findStockRowsByMaBienTheIn(soLuongTheoBienThe.keySet())) {
+            Integer maBienThe = (Integer) row[0];
+            int soLuongSau = ((Number) row[1]).intValue();
+            int soLuong = soLuongTheoBienThe.get(maBienThe);
+            StockMovement movement = new StockMovement(maBienThe, (Integer) row[2], soLuongSau + soLuong, -soLuong,
+                    soLuongSau);
+            syncLoaded(movement, (String) row[3], (LocalDateTime) row[4]);
+            if (movement.maSanPham() != null)
+                shopCatalogSnapshot.markStockChanged(movement.maSanPham());
+            movements.add(movement);
+            events.add(stockChanged(movement, "BAN_HANG", maThamChieu));
+            mucTonToiThieu.put(maBienThe, ((Number) row[5]).intValue());
+        }
+        domainEventPublisher.publishAll(events);
+        lowStockIndex.onMovements(movements, mucTonToiThieu);
+        return Optional.of(movements);
+    }
+
+    private StockMovement applied(Integer maBienThe, int delta, String loaiGiaoDich, String maThamChieu,
+            String lyDo, String nguoiThucHien) {
+        // Dòng vừa được UPDATE trong transaction này nên chắc chắn còn
+        Object[] row = bienTheSanPhamRepository.findStockRow(maBienThe).get(0);
+        int soLuongSau = ((Number) row[0]).intValue();
+        StockMovement movement = new StockMovement(maBienThe, (Integer) row[1], soLuongSau - delta, delta, soLuongSau);
+        record(movement, row, loaiGiaoDich, maThamChieu, lyDo, nguoiThucHien);
+        return movement;
+    }
+
+    /**
+     * Đặt tồn kho về một số tuyệt đối (kiểm kê) và ghi lịch sử phần chênh lệch.
+     * Không cho đặt thấp hơn phần đang giữ cho đơn (số có thể bán sẽ âm).
+     *
+     * @return rỗng nếu không có biến thể, soLuongMoi nhỏ hơn phần đang giữ, hoặc
+     *         tồn vẫn thay đổi liên tục sau MAX_CAS_ATTEMPTS lần thử
+     */
+    @Transactional
+    public Optional<StockMovement> setQuantity(Integer maBienThe, int soLuongMoi, String loaiGiaoDich,
+            String lyDo, String nguoiThucHien) {
+        if (maBienThe == null || soLuongMoi < 0)
+            return Optional.empty();
+        for (int attempt = 0; attempt < MAX_CAS_ATTEMPTS; attempt++) {
+            List<Object[]> rows = bienTheSanPhamRepository.findStockRow(maBienThe);
+            if (rows.isEmpty())
+                return Optional.empty();
+            Object[] row = rows.get(0);
+            int soLuongTruoc = ((Number) row[0]).intValue();
+            int soLuongDatTruoc = ((Number) row[5]).intValue();
+            if (soLuongMoi < soLuongDatTruoc) {
+                logger.warn("Không điều chỉnh tồn kho biến thể {} về {}: đang giữ {} cho đơn", maBienThe,
+                        soLuongMoi, soLuongDatTruoc);
+                return Optional.empty();
+            }
+            if (bienTheSanPhamRepository.compareAndSetStock(maBienThe, soLuongTruoc, soLuongMoi,
+                    LocalDateTime.now()) == 1) {
+                StockMovement movement = new StockMovement(maBienThe, (Integer) row[1], soLuongTruoc,
+                        soLuongMoi - soLuongTruoc, soLuongMoi);
+                // Đọc lại dòng vừa ghi (đang bị khóa) để lịch sử có trạng thái kho mới
+                record(movement, bienTheSanPhamRepository.findStockRow(maBienThe).get(0), loaiGiaoDich, null,
+                        lyDo, nguoiThucHien);
+                return Optional.of(movement);
+            }
+        }
+        logger.warn("Không điều chỉnh được tồn kho biến thể {} sau {} lần thử", maBienThe, MAX_CAS_ATTEMPTS);
+        return Optional.empty();
+    }
+
+    private void record(StockMovement movement, Object[] row, String loaiGiaoDich, String maThamChieu,
+            String lyDo, String nguoiThucHien) {
+        BienTheSanPham bienThe = syncLoaded(movement, (String) row[2], (LocalDateTime) row[3]);
+        lichSuTonKhoRepository.save(new LichSuTonKho(bienThe, movement.soLuongTruoc(), movement.soLuongThayDoi(),
+                movement.soLuongSau(), loaiGiaoDich, maThamChieu, lyDo, nguoiThucHien));
+        tonKhoTongHopRepository.ghiNhan(movement.maBienThe(), movement.soLuongThayDoi());
+        tonKhoTheoNgayRepository.ghiNhan(movement.maBienThe(), movement.soLuongTruoc(), movement.soLuongThayDoi(),
+                movement.soLuongSau(), loaiGiaoDich);
+        if (movement.maSanPham() != null)
+            shopCatalogSnapshot.markStockChanged(movement.maSanPham());
+        domainEventPublisher.publish(stockChanged(movement, loaiGiaoDich, maThamChieu));
+        lowStockIndex.onMovements(List.of(movement), Map.of(movement.maBienThe(), ((Number) row[4]).intValue()));
+    }
+
+    private static StockChanged stockChanged(StockMovement movement, String loaiGiaoDich, String maThamChieu) {
+        return new StockChanged(movement.maBienThe(), movement.maSanPham(), movement.soLuongTruoc(),
+                movement.soLuongThayDoi(), movement.soLuongSau(), loaiGiaoDich, maThamChieu);
+    }
+
+    private BienTheSanPham syncLoaded(StockMovement movement, String trangThaiKho, LocalDateTime ngayCapNhatKho) {
+        BienTheSanPham bienThe = entityManager.getReference(BienTheSanPham.class, movement.maBienThe());
+        // UPDATE hàng loạt bỏ qua persistence context: nếu biến thể đã được nạp thì đồng bộ
+        // các cột tồn kho để một lần flush sau đó không ghi lại số lượng cũ
+        if (Hibernate.isInitialized(bienThe)) {
+            bienThe.setSoLuongTon(movement.soLuongSau());
+            bienThe.setTrangThaiKho(trangThaiKho);
+            bienThe.setNgayCapNhatKho(ngayCapNhatKho);
+        }
+        return bienThe;
+    }
+}
@@ -0,0 +1,340 @@
+package com.noithat.qlnt.backend.service.inventory;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.noithat.qlnt.backend.entity.ChiTietDonHang;
+import com.noithat.qlnt.backend.entity.DatTruocTonKho;
+import com.noithat.qlnt.backend.repository.BienTheSanPhamRepository;
+import com.noithat.qlnt.backend.repository.DatTruocTonKhoRepository;
+import com.noithat.qlnt.backend.service.inventory.StockMutationEngine.StockMovement;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+
+/**
+ * Giữ hàng có thời hạn cho đơn chưa được xác nhận.
+ *
+ * Khi đặt hàng, mỗi dòng được giữ (BienTheSanPham.soLuongDatTruoc tăng bằng
+ * một câu UPDATE có điều kiện nên không giữ quá số tồn); khi đơn được xác nhận
+ * phần giữ được chuyển thành bán, khi hủy thì trả lại.
+ *
+ * Lần giữ của đơn hàng không có hạn: đơn chờ xác nhận vẫn có thể được thanh
+ * toán hay xác nhận bất cứ lúc nào, nên phần giữ chỉ kết thúc khi đơn được xác
+ * nhận hoặc hủy. Lần giữ lẻ qua reserve có hạn (ttl) và được
+ * StockReservationSweeper trả lại theo lô khi quá hạn.
+ */
+@Service
+public class StockReservationService {
+
+    private final DatTruocTonKhoRepository datTruocTonKhoRepository;
+    private final BienTheSanPhamRepository bienTheSanPhamRepository;
+    private final StockMutationEngine stockMutationEngine;
+    private final AvailableStockCounter availableStockCounter;
+    private final Duration ttl;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    public StockReservationService(DatTruocTonKhoRepository datTruocTonKhoRepository,
+            BienTheSanPhamRepository bienTheSanPhamRepository,
+            StockMutationEngine stockMutationEngine,
+            AvailableStockCounter availableStockCounter,
+            @Value("${app.inventory.reservation.ttl-minutes:30}") long ttlMinutes) {
+        this.datTruocTonKhoRepository = datTruocTonKhoRepository;
+        this.bienTheSanPhamRepository = bienTheSanPhamRepository;
+        this.stockMutationEngine = stockMutationEngine;
+        this.availableStockCounter = availableStockCounter;
+        this.ttl = Duration.ofMinutes(Math.max(1, ttlMinutes));
+    }
+
+    /**
+     * Mã tham chiếu của các lần giữ cho một đơn hàng.
+     */
+    public static String orderRef(Integer maDonHang) {
+        return "ORDER-" + maDonHang;
+    }
+
+    public boolean hasReservations(String maThamChieu) {
+        return datTruocTonKhoRepository.existsByMaThamChieu(maThamChieu);
+    }
+
+    /**
+     * Gộp số lượng theo biến thể (một đơn có thể có nhiều dòng cùng biến thể),
+     * theo thứ tự mã để các câu lệnh khóa dòng theo cùng một thứ tự. Biến thể có
+     * tổng không dương bị bỏ (không có gì để giữ/bán).
+     */
+    public static Map<Integer, Integer> tongTheoBienThe(Collection<ChiTietDonHang> chiTiets) {
+        Map<Integer, Integer> tong = new TreeMap<>();
+        for (ChiTietDonHang ct : chiTiets) {
+            if (ct.getBienThe() != null && ct.getSoLuong() != null)
+                tong.merge(ct.getBienThe().getMaBienThe(), ct.getSoLuong(), Integer::sum);
+        }
+        tong.values().removeIf(soLuong -> soLuong <= 0);
+        return tong;
+    }
+
+    /**
+     * Giữ hàng cho tất cả dòng của một đơn vừa tạo (chưa có bản ghi giữ nào), không
+     * có hạn: một câu UPDATE giữ cho mọi biến thể và một câu INSERT các bản ghi giữ
+     * (trên CSDL không phải SQL Server thì giữ từng dòng).
+     *
+     * @return false nếu có biến thể không đủ hàng; khi đó các dòng khác đã được
+     *         giữ nên bên gọi phải rollback transaction (ví dụ ném lỗi)
+     */
+    @Transactional
+    public boolean reserveOrder(Integer maDonHang, Collection<ChiTietDonHang> chiTiets) {
+        Map<Integer, Integer> tong = tongTheoBienThe(chiTiets);
+        if (tong.isEmpty())
+            return true;
+        if (!BatchStockStatements.supported(entityManager)) {
+            String maThamChieu = orderRef(maDonHang);
+            return tong.entrySet().stream().allMatch(e -> reserve(e.getKey(), e.getValue(), maThamChieu, null));
+        }
+        int soDong = BatchStockStatements.executeUpdate(entityManager, """
+                WITH v AS (SELECT ma_bien_the, so_luong FROM ?)
+                UPDATE b SET so_luong_dat_truoc = b.so_luong_dat_truoc + v.so_luong
+                FROM bien_the_san_pham b JOIN v ON v.ma_bien_the = b.ma_bien_the
+                WHERE v.so_luong > 0 AND COALESCE(b.so_luong_ton, 0) - b.so_luong_dat_truoc >= v.so_luong
+                """, tong);
+        if (soDong != tong.size())
+            return false;
+
+        LocalDateTime now = LocalDateTime.now();
+        BatchStockStatements.executeUpdate(entityManager, """
+                WITH v AS (SELECT ma_bien_the, so_luong FROM ?)
+                INSERT INTO dat_truoc_ton_kho (ma_bien_the, so_luong, ma_tham_chieu, trang_thai, het_han, ngay_tao)
+                SELECT v.ma_bien_the, v.so_luong, ?, ?, NULL, ? FROM v
+                """, tong, orderRef(maDonHang), DatTruocTonKho.DANG_GIU, now);
+        tong.keySet().forEach(availableStockCounter::invalidateAfterCommit);
+        return true;
+    }
+
+    /**
+     * Đơn được xác nhận: chuyển phần giữ của từng dòng thành bán. Đơn không có
+     * bản ghi giữ hàng (đã trừ kho lúc tạo) thì không làm gì.
+     *
+     * @return false nếu có dòng không đủ hàng (bên gọi phải rollback)
+     */
+    @Transactional
+    public boolean confirmOrder(Integer maDonHang, Collection<ChiTietDonHang> chiTiets, String nguoiThucHien) {
+        String maThamChieu = orderRef(maDonHang);
+        if (!hasReservations(maThamChieu))
+            return true;
+        for (Map.Entry<Integer, Integer> e : tongTheoBienThe(chiTiets).entrySet()) {
+            if (confirm(e.getKey(), e.getValue(), maThamChieu, nguoiThucHien).isEmpty())
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Như confirmOrder nhưng kiểm tra đủ hàng cho mọi dòng trước khi bán: khóa các
+     * dòng biến thể của đơn (theo thứ tự mã) tới khi commit rồi mới kiểm tra, nên
+     * khi trả false chưa có gì bị trừ và bên gọi vẫn commit được phần việc của mình
+     * (callback thanh toán vẫn phải ghi nhận tiền đã nhận).
+     *
+     * @return false nếu có dòng không đủ hàng; khi đó tồn kho và các lần giữ không đổi
+     */
+    @Transactional
+    public boolean tryConfirmOrder(Integer maDonHang, Collection<ChiTietDonHang> chiTiets, String nguoiThucHien) {
+        String maThamChieu = orderRef(maDonHang);
+        if (!hasReservations(maThamChieu))
+            return true;
+        Map<Integer, Integer> tong = tongTheoBienThe(chiTiets);
+        if (tong.isEmpty())
+            return true;
+        bienTheSanPhamRepository.lockStockRows(tong.keySet());
+        for (Map.Entry<Integer, Integer> e : tong.entrySet()) {
+            List<Object[]> rows = bienTheSanPhamRepository.findAvailableRow(e.getKey());
+            if (rows.isEmpty())
+                return false;
+            int coTheBan = ((Number) rows.get(0)[0]).intValue();
+            // Phần đang giữ cho chính đơn này cũng dùng được (confirm bán từ đó hoặc trả rồi bán)
+            int dangGiu = datTruocTonKhoRepository.findByMaBienTheAndMaThamChieu(e.getKey(), maThamChieu)
+                    .filter(d -> DatTruocTonKho.DANG_GIU.equals(d.getTrangThai()))
+                    .map(DatTruocTonKho::getSoLuong)
+                    .orElse(0);
+            if (coTheBan + dangGiu < e.getValue())
+                return false;
+        }
+        if (!confirmOrder(maDonHang, chiTiets, nguoiThucHien))
+            // Không xảy ra khi các dòng đang bị khóa; nếu có thì bỏ cả transaction thay vì bán dở
+            throw new IllegalStateException("Không xác nhận được hàng đã kiểm tra cho đơn hàng: " + maDonHang);
+        return true;
+    }
+
+    /**
+     * Đơn bị hủy: trả phần đang giữ hoặc nhập lại phần đã bán.
+     *
+     * @return các biến thể không có bản ghi giữ hàng (đơn cũ đã trừ kho lúc tạo)
+     *         mà bên gọi cần tự hoàn kho
+     */
+    @Transactional
+    public Map<Integer, Integer> cancelOrder(Integer maDonHang, Collection<ChiTietDonHang> chiTiets,
+            String nguoiThucHien) {
+        String maThamChieu = orderRef(maDonHang);
+        Map<Integer, Integer> chuaXuLy = new TreeMap<>();
+        tongTheoBienThe(chiTiets).forEach((maBienThe, soLuong) -> {
+            if (!cancel(maBienThe, maThamChieu, nguoiThucHien))
+                chuaXuLy.put(maBienThe, soLuong);
+        });
+        return chuaXuLy;
+    }
+
+    /**
+     * Giữ soLuong của biến thể cho maThamChieu trong thời hạn mặc định. Giữ lại
+     * đúng số lượng đang giữ chỉ gia hạn.
+     *
+     * @return false nếu phần chưa bị giữ không đủ
+     */
+    @Transactional
+    public boolean reserve(Integer maBienThe, Integer soLuong, String maThamChieu) {
+        return reserve(maBienThe, soLuong, maThamChieu, LocalDateTime.now().plus(ttl));
+    }
+
+    // hetHan null: giữ tới khi được xác nhận hoặc trả
+    private boolean reserve(Integer maBienThe, Integer soLuong, String maThamChieu, LocalDateTime hetHan) {
+        if (maBienThe == null || soLuong == null || soLuong <= 0 || maThamChieu == null)
+            return false;
+        LocalDateTime now = LocalDateTime.now();
+
+        Optional<DatTruocTonKho> existing = datTruocTonKhoRepository.findByMaBienTheAndMaThamChieu(maBienThe,
+                maThamChieu);
+        if (existing.isPresent() && DatTruocTonKho.DANG_GIU.equals(existing.get().getTrangThai())) {
+            DatTruocTonKho d = existing.get();
+            if (d.getSoLuong().equals(soLuong) && datTruocTonKhoRepository.giaHan(d.getMaDatTruoc(), hetHan, now) == 1)
+                return true;
+            // Khác số lượng: trả phần cũ rồi giữ lại từ đầu
+            endHold(d, DatTruocTonKho.DA_TRA, now);
+        }
+
+        if (bienTheSanPhamRepository.reserveStock(maBienThe, soLuong) == 0)
+            return false;
+        if (existing.isPresent()) {
+            datTruocTonKhoRepository.datLai(existing.get().getMaDatTruoc(), DatTruocTonKho.DANG_GIU, soLuong, hetHan,
+                    now);
+        } else {
+            datTruocTonKhoRepository.save(new DatTruocTonKho(maBienThe, soLuong, maThamChieu, hetHan));
+        }
+        availableStockCounter.invalidateAfterCommit(maBienThe);
+        return true;
+    }
+
+    /**
+     * Trả lại lần giữ đang hiệu lực.
+     *
+     * @return false nếu không có lần giữ nào đang hiệu lực
+     */
+    @Transactional
+    public boolean release(Integer maBienThe, String maThamChieu) {
+        Optional<DatTruocTonKho> existing = datTruocTonKhoRepository.findByMaBienTheAndMaThamChieu(maBienThe,
+                maThamChieu);
+        return existing.isPresent() && endHold(existing.get(), DatTruocTonKho.DA_TRA, LocalDateTime.now());
+    }
+
+    /**
+     * Bán soLuong của biến thể cho maThamChieu: dùng phần đang giữ nếu còn (đúng
+     * số lượng), không thì trừ thẳng vào phần chưa bị giữ.
+     *
+     * @return rỗng nếu không đủ hàng
+     */
+    @Transactional
+    public Optional<StockMovement> confirm(Integer maBienThe, Integer soLuong, String maThamChieu,
+            String nguoiThucHien) {
+        if (maBienThe == null || soLuong == null || soLuong <= 0)
+            return Optional.empty();
+        LocalDateTime now = LocalDateTime.now();
+        String lyDo = "Bán " + soLuong + " sản phẩm";
+        Optional<DatTruocTonKho> existing = maThamChieu != null
+                ? datTruocTonKhoRepository.findByMaBienTheAndMaThamChieu(maBienThe, maThamChieu)
+                : Optional.empty();
+
+        if (existing.isPresent()) {
+            DatTruocTonKho d = existing.get();
+            if (DatTruocTonKho.DANG_GIU.equals(d.getTrangThai()) && d.getSoLuong().equals(soLuong)
+                    && datTruocTonKhoRepository.chuyenTrangThai(d.getMaDatTruoc(), DatTruocTonKho.DANG_GIU,
+                            DatTruocTonKho.DA_BAN, now) == 1) {
+                Optional<StockMovement> movement = stockMutationEngine.consumeReserved(maBienThe, soLuong,
+                        maThamChieu, lyDo, nguoiThucHien);
+                if (movement.isEmpty()) {
+                    // Tồn đã bị điều chỉnh xuống dưới phần giữ: giữ nguyên trạng thái cũ
+                    datTruocTonKhoRepository.chuyenTrangThai(d.getMaDatTruoc(), DatTruocTonKho.DA_BAN,
+                            DatTruocTonKho.DANG_GIU, now);
+                }
+                availableStockCounter.invalidateAfterCommit(maBienThe);
+                return movement;
+            }
+            endHold(d, DatTruocTonKho.DA_TRA, now);
+        }
+
+        Optional<StockMovement> movement = stockMutationEngine.apply(maBienThe, -soLuong, "BAN_HANG", maThamChieu,
+                lyDo, nguoiThucHien);
+        // Ghi nhận đơn đã lấy hàng để khi hủy biết cần nhập lại
+        if (movement.isPresent() && existing.isPresent()) {
+            datTruocTonKhoRepository.datLai(existing.get().getMaDatTruoc(), DatTruocTonKho.DA_BAN, soLuong, now, now);
+        }
+        return movement;
+    }
+
+    /**
+     * Hủy dòng đơn: trả phần đang giữ, hoặc nhập lại phần đã bán qua giữ hàng.
+     *
+     * @return false nếu dòng đơn không có bản ghi giữ hàng (đơn tạo trước khi
+     *         có giữ hàng, đã trừ kho lúc tạo) để bên gọi tự hoàn kho
+     */
+    @Transactional
+    public boolean cancel(Integer maBienThe, String maThamChieu, String nguoiThucHien) {
+        Optional<DatTruocTonKho> existing = datTruocTonKhoRepository.findByMaBienTheAndMaThamChieu(maBienThe,
+                maThamChieu);
+        if (existing.isEmpty())
+            return false;
+        DatTruocTonKho d = existing.get();
+        LocalDateTime now = LocalDateTime.now();
+        if (DatTruocTonKho.DANG_GIU.equals(d.getTrangThai())) {
+            endHold(d, DatTruocTonKho.DA_TRA, now);
+        } else if (DatTruocTonKho.DA_BAN.equals(d.getTrangThai())
+                && datTruocTonKhoRepository.chuyenTrangThai(d.getMaDatTruoc(), DatTruocTonKho.DA_BAN,
+                        DatTruocTonKho.DA_TRA, now) == 1) {
+            stockMutationEngine.apply(maBienThe, d.getSoLuong(), "TRA_HANG", maThamChieu, "Hủy đơn hàng",
+                    nguoiThucHien);
+        }
+        return true;
+    }
+
+    /**
+     * Trả lại tối đa batchSize lần giữ đã quá hạn.
+     *
+     * @return số lần giữ đã đọc (bằng batchSize nghĩa là có thể còn)
+     */
+    @Transactional
+    public int releaseExpired(int batchSize) {
+        LocalDateTime now = LocalDateTime.now();
+        List<DatTruocTonKho> expired = datTruocTonKhoRepository.findExpired(now, PageRequest.of(0, batchSize));
+        // Cập nhật theo thứ tự biến thể để các giao dịch song song khóa dòng cùng thứ tự
+        expired.stream()
+                .sorted(Comparator.comparing(DatTruocTonKho::getMaBienThe))
+                .forEach(d -> endHold(d, DatTruocTonKho.HET_HAN, now));
+        return expired.size();
+    }
+
+    private boolean endHold(DatTruocTonKho d, String trangThaiMoi, LocalDateTime now) {
+        if (datTruocTonKhoRepository.chuyenTrangThai(d.getMaDatTruoc(), DatTruocTonKho.DANG_GIU, trangThaiMoi,
+                now) == 0)
+            return false;
+        bienTheSanPhamRepository.releaseReserved(d.getMaBienThe(), d.getSoLuong());
+        availableStockCounter.invalidateAfterCommit(d.getMaBienThe());
+        return true;
+    }
+}
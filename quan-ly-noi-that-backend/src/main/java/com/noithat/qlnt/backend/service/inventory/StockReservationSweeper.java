@@ -0,0 +1,46 @@
+package com.noithat.qlnt.backend.service.inventory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Định kỳ trả lại các lần giữ hàng đã quá hạn, mỗi lô một transaction.
+ */
+@Component
+public class StockReservationSweeper {
+
+    private static final Logger logger = LoggerFactory.getLogger(StockReservationSweeper.class);
+
+    // Giới hạn số lô mỗi lần chạy để một đợt tồn đọng lớn không chiếm luồng scheduler quá lâu
+    private static final int MAX_BATCHES_PER_RUN = 20;
+
+    private final StockReservationService stockReservationService;
+    private final int batchSize;
+
+    public StockReservationSweeper(StockReservationService stockReservationService,
+            @Value("${app.inventory.reservation.sweep-batch-size:500}") int batchSize) {
+        this.stockReservationService = stockReservationService;
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    @Scheduled(fixedDelayString = "${app.inventory.reservation.sweep-interval-ms:60000}",
+            initialDelayString = "${app.inventory.reservation.sweep-interval-ms:60000}")
+    public void sweep() {
+        int total = 0;
+        try {
+            for (int i = 0; i < MAX_BATCHES_PER_RUN; i++) {
+                int n = stockReservationService.releaseExpired(batchSize);
+                total += n;
+                if (n < batchSize)
+                    break;
+            }
+        } catch (Exception e) {
+            logger.warn("Trả hàng giữ quá hạn thất bại: {}", e.getMessage());
+        }
+        if (total > 0)
+            logger.info("Đã trả {} lần giữ hàng quá hạn", total);
+    }
+}
@@ -0,0 +1,48 @@
+package com.noithat.qlnt.backend.service.notification;
+
+import java.util.Set;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.noithat.qlnt.backend.entity.OutboxSuKien;
+import com.noithat.qlnt.backend.service.IThongBaoService;
+import com.noithat.qlnt.backend.service.event.DomainEvent;
+import com.noithat.qlnt.backend.service.event.DomainEventSubscriber;
+import com.noithat.qlnt.backend.service.event.OrderPlaced;
+import com.noithat.qlnt.backend.service.event.OrderStatusChanged;
+
+/**
+ * Tạo thông báo lưu DB từ sự kiện nghiệp vụ thay cho trigger: đơn mới, đổi
+ * trạng thái/hủy đơn. Cảnh báo tồn kho do LowStockIndex tạo khi tồn vượt ngưỡng.
+ *
+ * Chỉ bật khi app.notifications.source=events; mặc định thông báo vẫn do trigger
+ * DB tạo, bật cả hai sẽ có thông báo trùng.
+ */
+@Component
+@Order(50)
+@ConditionalOnProperty(name = "app.notifications.source", havingValue = "events")
+public class ThongBaoEventSubscriber extends DomainEventSubscriber {
+
+    private final IThongBaoService thongBaoService;
+
+    public ThongBaoEventSubscriber(IThongBaoService thongBaoService, ObjectMapper objectMapper) {
+        super(objectMapper, Set.of(OrderPlaced.class, OrderStatusChanged.class));
+        this.thongBaoService = thongBaoService;
+    }
+
+    @Override
+    protected void on(DomainEvent event, OutboxSuKien suKien) {
+        if (event instanceof OrderPlaced e) {
+            thongBaoService.taoThongBaoDonHangMoi(e.maDonHang());
+        } else if (event instanceof OrderStatusChanged e) {
+            if (e.laHuy())
+                thongBaoService.taoThongBaoDonHangBiHuy(e.maDonHang(),
+                        e.nguoiThayDoi() != null ? "Hủy bởi " + e.nguoiThayDoi() : null);
+            else if (!e.trangThaiMoi().equals(e.trangThaiCu()))
+                thongBaoService.taoThongBaoThayDoiTrangThai(e.maDonHang(), e.trangThaiMoi());
+        }
+    }
+}
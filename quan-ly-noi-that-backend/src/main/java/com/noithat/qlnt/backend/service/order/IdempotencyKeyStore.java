@@ -0,0 +1,222 @@
+package com.noithat.qlnt.backend.service.order;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.HexFormat;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.noithat.qlnt.backend.entity.KhoaIdempotency;
+import com.noithat.qlnt.backend.repository.KhoaIdempotencyRepository;
+import com.noithat.qlnt.backend.service.cache.TwoTierCache;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Chống tạo đơn trùng khi client gửi lại (double-click, mạng di động thử lại).
+ *
+ * Client gửi header Idempotency-Key (mỗi lần đặt hàng một giá trị mới, gửi lại
+ * thì giữ nguyên). Lần đầu giành khóa bằng một câu MERGE rồi tạo đơn; kết quả
+ * được lưu trong cùng transaction với đơn nên đơn đã commit thì chắc chắn có kết
+ * quả để phát lại. Lần gửi lại trong thời gian phát lại nhận đúng kết quả cũ (từ
+ * cache cục bộ, không tốn truy vấn; hoặc từ bảng khoa_idempotency). Không có
+ * header thì xử lý như trước.
+ *
+ * Khóa đang xử lý được giữ trong lease-seconds và được gia hạn định kỳ (mỗi
+ * 1/3 thời gian giữ) cho tới khi action xong, nên một lần tạo đơn chậm không bị
+ * yêu cầu gửi lại lấy mất khóa; chỉ khi server dừng giữa chừng thì khóa mới hết
+ * hạn và được dùng lại. ngay_tao của lần giữ khóa là dấu sở hữu: hoàn tất, gia
+ * hạn và trả khóa đều chỉ tác động lên đúng lần giữ đó.
+ */
+@Service
+public class IdempotencyKeyStore {
+
+    public static final String HEADER = "Idempotency-Key";
+
+    static final int MAX_KEY_LENGTH = 150;
+    private static final int PURGE_BATCH_SIZE = 1000;
+
+    private static final Logger logger = LoggerFactory.getLogger(IdempotencyKeyStore.class);
+
+    private record KetQuaDaLuu(String maHashYeuCau, Object ketQua) {
+    }
+
+    private final KhoaIdempotencyRepository khoaIdempotencyRepository;
+    private final ObjectMapper objectMapper;
+    private final TransactionTemplate transactionTemplate;
+    private final Duration window;
+    private final Duration lease;
+    private final TwoTierCache hotCache;
+    private final ScheduledThreadPoolExecutor giaHanExecutor;
+
+    public IdempotencyKeyStore(KhoaIdempotencyRepository khoaIdempotencyRepository,
+            ObjectMapper objectMapper,
+            PlatformTransactionManager transactionManager,
+            @Value("${app.order.idempotency.window-hours:24}") long windowHours,
+            @Value("${app.order.idempotency.lease-seconds:120}") long leaseSeconds,
+            @Value("${app.order.idempotency.local-cache-size:10000}") int localCacheSize) {
+        this.khoaIdempotencyRepository = khoaIdempotencyRepository;
+        this.objectMapper = objectMapper;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.window = Duration.ofHours(Math.max(1, windowHours));
+        this.lease = Duration.ofSeconds(Math.max(10, leaseSeconds));
+        this.hotCache = new TwoTierCache("idempotency", localCacheSize, window, null);
+        this.giaHanExecutor = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "idempotency-lease");
+            t.setDaemon(true);
+            return t;
+        });
+        this.giaHanExecutor.setRemoveOnCancelPolicy(true);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        giaHanExecutor.shutdownNow();
+    }
+
+    /**
+     * Chạy action đúng một lần cho mỗi khóa.
+     *
+     * @param phamVi  tên endpoint, để cùng một khóa ở hai API không lẫn nhau
+     * @param khoa    giá trị header Idempotency-Key (null/rỗng: không chống trùng)
+     * @param yeuCau  nội dung yêu cầu; gửi lại cùng khóa với nội dung khác bị từ chối
+     * @param kieu    kiểu kết quả để đọc lại kết quả đã lưu
+     * @throws ResponseStatusException 409 nếu lần gửi trước với khóa này còn đang
+     *                                 xử lý, 422 nếu khóa đã dùng cho nội dung khác
+     */
+    public <T> T execute(String phamVi, String khoa, Object yeuCau, Class<T> kieu, Supplier<T> action) {
+        if (khoa == null || khoa.isBlank())
+            return action.get();
+        if (khoa.length() > MAX_KEY_LENGTH)
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    HEADER + " không được dài quá " + MAX_KEY_LENGTH + " ký tự");
+
+        String maKhoa = phamVi + ":" + khoa.trim();
+        String hash = hash(yeuCau);
+
+        KetQuaDaLuu daLuu = hotCache.get(maKhoa, KetQuaDaLuu.class);
+        if (daLuu != null)
+            return phatLai(daLuu, hash, kieu);
+
+        // Cắt tới mili giây để giá trị đọc/so sánh lại khớp với cột DATETIME2
+        LocalDateTime ngayTao = LocalDateTime.now().truncatedTo(ChronoUnit.MILLIS);
+        if (khoaIdempotencyRepository.giuKhoa(maKhoa, hash, ngayTao, ngayTao.plus(lease)) == 0)
+            return phatLai(maKhoa, hash, kieu);
+
+        long chuKy = Math.max(1, lease.toMillis() / 3);
+        ScheduledFuture<?> giaHan = giaHanExecutor.scheduleAtFixedRate(() -> giaHan(maKhoa, ngayTao), chuKy, chuKy,
+                TimeUnit.MILLISECONDS);
+        T ketQua;
+        try {
+            ketQua = transactionTemplate.execute(status -> {
+                T r = action.get();
+                if (khoaIdempotencyRepository.hoanTat(maKhoa, ngayTao, toJson(r),
+                        LocalDateTime.now().plus(window)) == 0) {
+                    // Mất khóa (đã hết hạn và bị lấy lại): hủy kết quả để không tạo đơn trùng
+                    throw new ResponseStatusException(HttpStatus.CONFLICT,
+                            "Yêu cầu với " + HEADER + " này đang được xử lý, vui lòng thử lại sau");
+                }
+                return r;
+            });
+        } catch (RuntimeException | Error ex) {
+            traKhoa(maKhoa, ngayTao);
+            throw ex;
+        } finally {
+            giaHan.cancel(false);
+        }
+        hotCache.put(maKhoa, new KetQuaDaLuu(hash, ketQua));
+        return ketQua;
+    }
+
+    private <T> T phatLai(String maKhoa, String hash, Class<T> kieu) {
+        KhoaIdempotency k = khoaIdempotencyRepository.findById(maKhoa).orElse(null);
+        if (k == null || !KhoaIdempotency.HOAN_TAT.equals(k.getTrangThai())) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT,
+                    "Yêu cầu với " + HEADER + " này đang được xử lý, vui lòng thử lại sau");
+        }
+        try {
+            KetQuaDaLuu daLuu = new KetQuaDaLuu(k.getMaHashYeuCau(), objectMapper.readValue(k.getKetQua(), kieu));
+            hotCache.put(maKhoa, daLuu);
+            return phatLai(daLuu, hash, kieu);
+        } catch (JsonProcessingException ex) {
+            throw new IllegalStateException("Không đọc được kết quả đã lưu của khóa " + maKhoa, ex);
+        }
+    }
+
+    private <T> T phatLai(KetQuaDaLuu daLuu, String hash, Class<T> kieu) {
+        if (!daLuu.maHashYeuCau().equals(hash)) {
+            throw new ResponseStatusException(HttpStatus.UNPROCESSABLE_ENTITY,
+                    HEADER + " đã được dùng cho một yêu cầu khác");
+        }
+        return kieu.cast(daLuu.ketQua());
+    }
+
+    private void giaHan(String maKhoa, LocalDateTime ngayTao) {
+        try {
+            khoaIdempotencyRepository.giaHan(maKhoa, ngayTao, LocalDateTime.now().plus(lease));
+        } catch (RuntimeException ex) {
+            // Lần sau thử lại; khóa còn hạn tới hết chu kỳ hiện tại
+            logger.warn("Không gia hạn được khóa idempotency {}: {}", maKhoa, ex.getMessage());
+        }
+    }
+
+    private void traKhoa(String maKhoa, LocalDateTime ngayTao) {
+        try {
+            khoaIdempotencyRepository.traKhoa(maKhoa, ngayTao);
+        } catch (RuntimeException ex) {
+            // Khóa sẽ tự hết hạn sau thời gian giữ
+            logger.warn("Không trả được khóa idempotency {}: {}", maKhoa, ex.getMessage());
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${app.order.idempotency.purge-interval-ms:3600000}",
+            initialDelayString = "${app.order.idempotency.purge-interval-ms:3600000}")
+    public void xoaKhoaHetHan() {
+        try {
+            int tong = 0;
+            int daXoa;
+            do {
+                daXoa = khoaIdempotencyRepository.xoaHetHan(LocalDateTime.now(), PURGE_BATCH_SIZE);
+                tong += daXoa;
+            } while (daXoa == PURGE_BATCH_SIZE);
+            if (tong > 0)
+                logger.info("Đã xóa {} khóa idempotency hết hạn", tong);
+        } catch (RuntimeException ex) {
+            logger.error("Lỗi khi xóa khóa idempotency hết hạn", ex);
+        }
+    }
+
+    private String hash(Object yeuCau) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(objectMapper.writeValueAsBytes(yeuCau));
+            return HexFormat.of().formatHex(digest);
+        } catch (JsonProcessingException | NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("Không tính được hash của yêu cầu", ex);
+        }
+    }
+
+    private String toJson(Object ketQua) {
+        try {
+            return objectMapper.writeValueAsString(ketQua);
+        } catch (JsonProcessingException ex) {
+            throw new IllegalStateException("Không lưu được kết quả yêu cầu", ex);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.noithat.qlnt.backend.service.order;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Base64;
+
+/**
+ * Bộ lọc và phân trang keyset cho danh sách/xuất lịch sử đơn hàng.
+ *
+ * Đơn được sắp theo (ngayDatHang, maDonHang) giảm dần; cursor là vị trí của đơn
+ * cuối trang trước (nextCursor của trang trước), không có cursor thì lấy trang
+ * đầu. Các bộ lọc null thì bỏ qua; tuNgay/denNgay là khoảng [tuNgay, denNgay).
+ */
+public record OrderHistoryQuery(
+        String trangThai,
+        String trangThaiThanhToan,
+        Integer maKhachHang,
+        LocalDateTime tuNgay,
+        LocalDateTime denNgay,
+        BigDecimal tienTu,
+        BigDecimal tienDen,
+        String cursor,
+        Integer size) {
+
+    public static final int DEFAULT_SIZE = 20;
+    public static final int MAX_SIZE = 200;
+
+    public OrderHistoryQuery {
+        if (trangThai != null && trangThai.isBlank())
+            trangThai = null;
+        if (trangThaiThanhToan != null && trangThaiThanhToan.isBlank())
+            trangThaiThanhToan = null;
+        if (cursor != null && cursor.isBlank())
+            cursor = null;
+        size = size == null ? DEFAULT_SIZE : Math.max(1, Math.min(MAX_SIZE, size));
+    }
+
+    public OrderHistoryQuery withMaKhachHang(Integer maKhachHangMoi) {
+        return new OrderHistoryQuery(trangThai, trangThaiThanhToan, maKhachHangMoi, tuNgay, denNgay, tienTu, tienDen,
+                cursor, size);
+    }
+
+    // =================== CURSOR ===================
+
+    public record Cursor(LocalDateTime ngayDatHang, Integer maDonHang) {
+    }
+
+    public static String encodeCursor(LocalDateTime ngayDatHang, Integer maDonHang) {
+        String raw = maDonHang + "|" + ngayDatHang;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return null nếu không có cursor
+     */
+    public Cursor decodeCursor() {
+        if (cursor == null)
+            return null;
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int sep = raw.indexOf('|');
+            return new Cursor(LocalDateTime.parse(raw.substring(sep + 1)), Integer.valueOf(raw.substring(0, sep)));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Cursor không hợp lệ: " + cursor);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.noithat.qlnt.backend.service.order;
+
+import java.math.BigDecimal;
+import java.util.Set;
+
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.noithat.qlnt.backend.entity.DonHang;
+import com.noithat.qlnt.backend.entity.KhachHang;
+import com.noithat.qlnt.backend.entity.OutboxSuKien;
+import com.noithat.qlnt.backend.entity.Voucher;
+import com.noithat.qlnt.backend.repository.DonHangRepository;
+import com.noithat.qlnt.backend.repository.KhachHangRepository;
+import com.noithat.qlnt.backend.service.IQuanLyTrangThaiDonHangService;
+import com.noithat.qlnt.backend.service.event.DomainEvent;
+import com.noithat.qlnt.backend.service.event.DomainEventSubscriber;
+import com.noithat.qlnt.backend.service.event.OrderStatusChanged;
+import com.noithat.qlnt.backend.service.voucher.VoucherRedemptionService;
+
+/**
+ * Điểm thưởng và thống kê khách hàng theo trạng thái đơn: cộng điểm khi
+ * HOAN_THANH, cộng tổng chi tiêu/số đơn khi đơn đã thanh toán được giao/hoàn
+ * thành; hủy đơn thì hoàn điểm đã dùng và lượt dùng voucher.
+ *
+ * Worker outbox chỉ tuần tự theo đơn, hai đơn của cùng khách có thể chạy song
+ * song nên mọi phần cộng là câu UPDATE cộng dồn, không đọc-sửa-lưu KhachHang.
+ */
+@Component
+@Order(20)
+public class OrderLoyaltyStage extends DomainEventSubscriber {
+
+    private final DonHangRepository donHangRepository;
+    private final KhachHangRepository khachHangRepository;
+    private final VoucherRedemptionService voucherRedemptionService;
+
+    public OrderLoyaltyStage(DonHangRepository donHangRepository, KhachHangRepository khachHangRepository,
+            VoucherRedemptionService voucherRedemptionService, ObjectMapper objectMapper) {
+        super(objectMapper, Set.of(OrderStatusChanged.class));
+        this.donHangRepository = donHangRepository;
+        this.khachHangRepository = khachHangRepository;
+        this.voucherRedemptionService = voucherRedemptionService;
+    }
+
+    @Override
+    protected void on(DomainEvent event, OutboxSuKien suKien) {
+        OrderStatusChanged e = (OrderStatusChanged) event;
+        DonHang donHang = donHangRepository.findById(e.maDonHang()).orElse(null);
+        if (donHang == null)
+            return;
+
+        if (e.moiChuyenSang(IQuanLyTrangThaiDonHangService.HOAN_THANH)
+                || e.moiChuyenSang(IQuanLyTrangThaiDonHangService.DA_GIAO_HANG)) {
+            KhachHang kh = donHang.getKhachHang();
+            if (kh != null) {
+                // Cộng điểm thưởng (chỉ khi HOAN_THANH)
+                if (IQuanLyTrangThaiDonHangService.HOAN_THANH.equals(e.trangThaiMoi())) {
+                    int toAward = donHang.getDiemThuongNhanDuoc() != null ? donHang.getDiemThuongNhanDuoc() : 0;
+                    if (toAward > 0)
+                        khachHangRepository.congDiemThuong(kh.getMaKhachHang(), toAward);
+                }
+                // Cập nhật tổng chi tiêu và số đơn (đơn đã thanh toán)
+                if ("PAID".equals(donHang.getTrangThaiThanhToan())) {
+                    BigDecimal orderTotal = donHang.getThanhTien() != null ? donHang.getThanhTien() : BigDecimal.ZERO;
+                    khachHangRepository.ghiNhanDonDaThanhToan(kh.getMaKhachHang(), orderTotal);
+                }
+            }
+        }
+
+        if (e.laHuy()) {
+            // Hoàn điểm đã dùng
+            KhachHang kh = donHang.getKhachHang();
+            if (kh != null && donHang.getDiemThuongSuDung() != null && donHang.getDiemThuongSuDung() > 0)
+                khachHangRepository.congDiemThuong(kh.getMaKhachHang(), donHang.getDiemThuongSuDung());
+            // Trả lượt dùng voucher (một lần cho mỗi đơn)
+            Voucher v = donHang.getVoucher();
+            if (v != null)
+                voucherRedemptionService.release(donHang.getMaDonHang(), v.getMaVoucher());
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.noithat.qlnt.backend.service.order;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.noithat.qlnt.backend.entity.OutboxSuKien;
+import com.noithat.qlnt.backend.service.notification.NotificationPublisher;
+import com.noithat.qlnt.backend.service.event.DomainEvent;
+import com.noithat.qlnt.backend.service.event.DomainEventSubscriber;
+import com.noithat.qlnt.backend.service.event.OrderStatusChanged;
+
+/**
+ * Báo trạng thái đơn mới qua WebSocket (/topic/don-hang) cho các màn hình đang
+ * theo dõi đơn. Thông báo lưu DB vẫn do trigger tạo.
+ */
+@Component
+@Order(40)
+public class OrderNotificationStage extends DomainEventSubscriber {
+
+    static final String TOPIC = "/topic/don-hang";
+
+    private final NotificationPublisher notificationPublisher;
+
+    public OrderNotificationStage(NotificationPublisher notificationPublisher, ObjectMapper objectMapper) {
+        super(objectMapper, Set.of(OrderStatusChanged.class));
+        this.notificationPublisher = notificationPublisher;
+    }
+
+    @Override
+    protected void on(DomainEvent event, OutboxSuKien suKien) {
+        OrderStatusChanged e = (OrderStatusChanged) event;
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("maDonHang", e.maDonHang());
+        payload.put("trangThaiCu", e.trangThaiCu());
+        payload.put("trangThaiMoi", e.trangThaiMoi());
+        payload.put("thoiGian", suKien.getNgayTao());
+        notificationPublisher.publishToTopic(TOPIC, payload);
+    }
+}
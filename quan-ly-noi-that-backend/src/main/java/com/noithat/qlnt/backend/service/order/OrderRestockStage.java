@@ -0,0 +1,68 @@
+package com.noithat.qlnt.backend.service.order;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.noithat.qlnt.backend.entity.DonHang;
+import com.noithat.qlnt.backend.entity.OutboxSuKien;
+import com.noithat.qlnt.backend.repository.DonHangRepository;
+import com.noithat.qlnt.backend.repository.LichSuTonKhoRepository;
+import com.noithat.qlnt.backend.service.event.DomainEvent;
+import com.noithat.qlnt.backend.service.event.DomainEventSubscriber;
+import com.noithat.qlnt.backend.service.event.OrderStatusChanged;
+import com.noithat.qlnt.backend.service.inventory.StockMutationEngine;
+import com.noithat.qlnt.backend.service.inventory.StockReservationService;
+
+/**
+ * Đơn bị hủy: trả phần hàng đang giữ / nhập lại phần đã bán. Đơn không có bản
+ * ghi giữ hàng (đã trừ kho lúc tạo) được cộng lại qua StockMutationEngine,
+ * trừ biến thể đã có dòng TRA_HANG cho đơn này (đơn bị hủy lần hai, hoặc sự
+ * kiện hủy được giao lại) để không nhập kho hai lần.
+ */
+@Component
+@Order(10)
+public class OrderRestockStage extends DomainEventSubscriber {
+
+    private final DonHangRepository donHangRepository;
+    private final StockReservationService stockReservationService;
+    private final StockMutationEngine stockMutationEngine;
+    private final LichSuTonKhoRepository lichSuTonKhoRepository;
+
+    public OrderRestockStage(DonHangRepository donHangRepository, StockReservationService stockReservationService,
+            StockMutationEngine stockMutationEngine, LichSuTonKhoRepository lichSuTonKhoRepository,
+            ObjectMapper objectMapper) {
+        super(objectMapper, Set.of(OrderStatusChanged.class));
+        this.donHangRepository = donHangRepository;
+        this.stockReservationService = stockReservationService;
+        this.stockMutationEngine = stockMutationEngine;
+        this.lichSuTonKhoRepository = lichSuTonKhoRepository;
+    }
+
+    @Override
+    protected void on(DomainEvent event, OutboxSuKien suKien) {
+        OrderStatusChanged e = (OrderStatusChanged) event;
+        if (!e.laHuy())
+            return;
+        DonHang donHang = donHangRepository.findById(e.maDonHang()).orElse(null);
+        if (donHang == null || donHang.getChiTietDonHangs() == null)
+            return;
+
+        String maThamChieu = StockReservationService.orderRef(e.maDonHang());
+        Map<Integer, Integer> chuaHoanKho = stockReservationService.cancelOrder(e.maDonHang(),
+                donHang.getChiTietDonHangs(), e.nguoiThayDoi());
+        if (chuaHoanKho.isEmpty())
+            return;
+        Set<Integer> daNhapLai = new HashSet<>(
+                lichSuTonKhoRepository.findMaBienTheByMaThamChieuAndLoaiGiaoDich(maThamChieu, "TRA_HANG"));
+        chuaHoanKho.forEach((maBienThe, soLuong) -> {
+            if (!daNhapLai.contains(maBienThe))
+                stockMutationEngine.apply(maBienThe, soLuong, "TRA_HANG", maThamChieu, "Hủy đơn hàng",
+                        e.nguoiThayDoi());
+        });
+    }
+}
@@ -0,0 +1,235 @@
+package com.noithat.qlnt.backend.service.order;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.hibernate.dialect.SQLServerDialect;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.microsoft.sqlserver.jdbc.SQLServerConnection;
+import com.noithat.qlnt.backend.entity.DonHang;
+import com.noithat.qlnt.backend.repository.DemDonHangTheoTrangThaiRepository;
+import com.noithat.qlnt.backend.repository.DonHangRepository;
+
+import jakarta.persistence.EntityManagerFactory;
+
+/**
+ * Đếm đơn theo trạng thái (dem_don_hang_theo_trang_thai), thay cho việc nạp/đếm
+ * bảng DonHang mỗi lần dashboard hỏi.
+ *
+ * Mọi chỗ tạo đơn, đổi trạng thái hay xóa đơn gọi ghiNhan* trong transaction
+ * của thay đổi đó nên bộ đếm commit/rollback cùng đơn. Lần đọc lấy tổng các ngăn
+ * (vài chục dòng, không phụ thuộc số đơn) và được giữ trong bộ nhớ một khoảng
+ * ngắn; thay đổi ở instance này làm mới ngay sau commit. Job đối soát định kỳ so
+ * với một câu GROUP BY trên DonHang và bù phần lệch (thay đổi ngoài ứng dụng:
+ * script, procedure...).
+ *
+ * Đối soát đọc cả hai bảng trong một snapshot (SQL Server: SNAPSHOT isolation,
+ * cần ALLOW_SNAPSHOT_ISOLATION ON - xem db/create_dem_don_hang_theo_trang_thai.sql)
+ * nên không khóa bảng đếm hay DonHang trong lúc quét. Mỗi giao dịch của ứng dụng
+ * đổi DonHang và bộ đếm cùng nhau, nên phần lệch tại một snapshot chỉ gồm thay
+ * đổi ngoài ứng dụng; phần bù được cộng vào ngăn 0 trong transaction riêng ngắn.
+ */
+@Component
+public class OrderStatusCounter {
+
+    private static final Logger logger = LoggerFactory.getLogger(OrderStatusCounter.class);
+
+    // Khóa cho đơn chưa có trạng thái (cột khóa không nhận NULL)
+    static final String KHONG_XAC_DINH = "KHONG_XAC_DINH";
+    // Phần bù của đối soát ghi vào ngăn 0
+    static final int NGAN_DOI_SOAT = 0;
+
+    /**
+     * Số đơn và tổng thành tiền của một trạng thái.
+     */
+    public record Dem(long soDon, BigDecimal tongThanhTien) {
+        static final Dem ZERO = new Dem(0, BigDecimal.ZERO);
+    }
+
+    private record Snapshot(Map<String, Dem> theoTrangThai, long docLuc) {
+    }
+
+    private final DemDonHangTheoTrangThaiRepository demRepository;
+    private final DonHangRepository donHangRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final TransactionTemplate snapshotTemplate;
+    private final int soNgan;
+    private final long cacheMillis;
+
+    private volatile Snapshot snapshot;
+
+    public OrderStatusCounter(DemDonHangTheoTrangThaiRepository demRepository,
+            DonHangRepository donHangRepository,
+            PlatformTransactionManager transactionManager,
+            EntityManagerFactory entityManagerFactory,
+            @Value("${app.order.status-counter.stripes:16}") int soNgan,
+            @Value("${app.order.status-counter.cache-ms:2000}") long cacheMillis) {
+        this.demRepository = demRepository;
+        this.donHangRepository = donHangRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.snapshotTemplate = new TransactionTemplate(transactionManager,
+                docSnapshot(entityManagerFactory.unwrap(SessionFactoryImplementor.class).getJdbcServices()
+                        .getDialect() instanceof SQLServerDialect));
+        this.soNgan = Math.max(1, soNgan);
+        this.cacheMillis = Math.max(0, cacheMillis);
+    }
+
+    // =================== GHI (trong transaction của đơn) ===================
+
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void ghiNhanDonMoi(DonHang donHang) {
+        congDon(donHang.getTrangThaiDonHang(), donHang.getMaDonHang(), 1, thanhTien(donHang));
+    }
+
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void ghiNhanDoiTrangThai(DonHang donHang, String trangThaiCu, String trangThaiMoi) {
+        if (khoa(trangThaiCu).equals(khoa(trangThaiMoi)))
+            return;
+        BigDecimal tien = thanhTien(donHang);
+        congDon(trangThaiCu, donHang.getMaDonHang(), -1, tien.negate());
+        congDon(trangThaiMoi, donHang.getMaDonHang(), 1, tien);
+    }
+
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void ghiNhanXoa(DonHang donHang) {
+        congDon(donHang.getTrangThaiDonHang(), donHang.getMaDonHang(), -1, thanhTien(donHang).negate());
+    }
+
+    private void congDon(String trangThai, Integer maDonHang, long soDon, BigDecimal thanhTien) {
+        int ngan = maDonHang != null ? Math.floorMod(maDonHang, soNgan) : NGAN_DOI_SOAT;
+        demRepository.congDon(khoa(trangThai), ngan, soDon, thanhTien);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                snapshot = null;
+            }
+        });
+    }
+
+    // =================== ĐỌC ===================
+
+    /**
+     * Số đơn/tổng thành tiền theo trạng thái (giá trị lưu trong DB, chưa chuẩn hóa).
+     */
+    public Map<String, Dem> theoTrangThai() {
+        Snapshot s = snapshot;
+        long now = System.currentTimeMillis();
+        if (s == null || now - s.docLuc() > cacheMillis) {
+            s = new Snapshot(Collections.unmodifiableMap(toMap(demRepository.tongTheoTrangThai())), now);
+            snapshot = s;
+        }
+        return s.theoTrangThai();
+    }
+
+    public Dem get(String trangThai) {
+        return theoTrangThai().getOrDefault(khoa(trangThai), Dem.ZERO);
+    }
+
+    public long soDon(String... trangThais) {
+        long tong = 0;
+        for (String t : trangThais)
+            tong += get(t).soDon();
+        return tong;
+    }
+
+    public long tongSoDon() {
+        return theoTrangThai().values().stream().mapToLong(Dem::soDon).sum();
+    }
+
+    // =================== ĐỐI SOÁT ===================
+
+    /**
+     * So bộ đếm với GROUP BY trên DonHang (cùng một snapshot, không khóa) và bù
+     * phần lệch vào ngăn 0.
+     *
+     * @return số trạng thái bị lệch
+     */
+    @Scheduled(cron = "${app.order.status-counter.reconcile-cron:0 */15 * * * *}")
+    public int reconcile() {
+        try {
+            Map<String, Dem> bu = snapshotTemplate.execute(status -> chenhLech(
+                    toMap(demRepository.tongTheoTrangThai()), toMap(donHangRepository.demTheoTrangThai())));
+            if (bu == null || bu.isEmpty())
+                return 0;
+            transactionTemplate.executeWithoutResult(status -> bu.forEach((trangThai, d) -> demRepository
+                    .congDon(trangThai, NGAN_DOI_SOAT, d.soDon(), d.tongThanhTien())));
+            snapshot = null;
+            return bu.size();
+        } catch (RuntimeException ex) {
+            logger.error("Lỗi khi đối soát bộ đếm đơn hàng theo trạng thái", ex);
+            return -1;
+        }
+    }
+
+    // Phần cần cộng vào bộ đếm để bằng thực tế, chỉ gồm các trạng thái bị lệch
+    private static Map<String, Dem> chenhLech(Map<String, Dem> daDem, Map<String, Dem> thucTe) {
+        Map<String, Dem> tatCa = new HashMap<>(thucTe);
+        daDem.keySet().forEach(k -> tatCa.putIfAbsent(k, Dem.ZERO));
+        Map<String, Dem> bu = new HashMap<>();
+        for (String trangThai : tatCa.keySet()) {
+            Dem dung = thucTe.getOrDefault(trangThai, Dem.ZERO);
+            Dem dang = daDem.getOrDefault(trangThai, Dem.ZERO);
+            long buSoDon = dung.soDon() - dang.soDon();
+            BigDecimal buTien = dung.tongThanhTien().subtract(dang.tongThanhTien());
+            if (buSoDon != 0 || buTien.signum() != 0) {
+                logger.warn("Bộ đếm đơn hàng trạng thái {} lệch: {} đơn / {} (thực tế {} / {}), bù vào ngăn 0",
+                        trangThai, dang.soDon(), dang.tongThanhTien(), dung.soDon(), dung.tongThanhTien());
+                bu.put(trangThai, new Dem(buSoDon, buTien));
+            }
+        }
+        return bu;
+    }
+
+    // Transaction chỉ đọc cho đối soát: SQL Server dùng SNAPSHOT (không có hằng
+    // tương ứng trong TransactionDefinition), CSDL khác dùng REPEATABLE READ - là
+    // snapshot trên H2/PostgreSQL/MySQL
+    private static TransactionDefinition docSnapshot(boolean sqlServer) {
+        int isolation = sqlServer ? SQLServerConnection.TRANSACTION_SNAPSHOT
+                : TransactionDefinition.ISOLATION_REPEATABLE_READ;
+        return new TransactionDefinition() {
+            @Override
+            public int getIsolationLevel() {
+                return isolation;
+            }
+
+            @Override
+            public boolean isReadOnly() {
+                return true;
+            }
+        };
+    }
+
+    private static Map<String, Dem> toMap(Iterable<Object[]> rows) {
+        Map<String, Dem> map = new HashMap<>();
+        for (Object[] row : rows) {
+            BigDecimal tien = row[2] instanceof BigDecimal b ? b
+                    : row[2] != null ? new BigDecimal(row[2].toString()) : BigDecimal.ZERO;
+            map.merge(khoa((String) row[0]), new Dem(((Number) row[1]).longValue(), tien),
+                    (a, b) -> new Dem(a.soDon() + b.soDon(), a.tongThanhTien().add(b.tongThanhTien())));
+        }
+        return map;
+    }
+
+    private static String khoa(String trangThai) {
+        return trangThai != null ? trangThai : KHONG_XAC_DINH;
+    }
+
+    private static BigDecimal thanhTien(DonHang donHang) {
+        return donHang.getThanhTien() != null ? donHang.getThanhTien() : BigDecimal.ZERO;
+    }
+}
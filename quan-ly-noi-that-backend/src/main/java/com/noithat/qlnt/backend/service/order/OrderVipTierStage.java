@@ -0,0 +1,65 @@
+package com.noithat.qlnt.backend.service.order;
+
+import java.util.Set;
+
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.noithat.qlnt.backend.entity.DonHang;
+import com.noithat.qlnt.backend.entity.HangThanhVien;
+import com.noithat.qlnt.backend.entity.KhachHang;
+import com.noithat.qlnt.backend.entity.OutboxSuKien;
+import com.noithat.qlnt.backend.repository.DonHangRepository;
+import com.noithat.qlnt.backend.repository.KhachHangRepository;
+import com.noithat.qlnt.backend.service.IHangThanhVienService;
+import com.noithat.qlnt.backend.service.IQuanLyTrangThaiDonHangService;
+import com.noithat.qlnt.backend.service.event.DomainEvent;
+import com.noithat.qlnt.backend.service.event.DomainEventPublisher;
+import com.noithat.qlnt.backend.service.event.DomainEventSubscriber;
+import com.noithat.qlnt.backend.service.event.OrderStatusChanged;
+import com.noithat.qlnt.backend.service.event.VipTierChanged;
+
+/**
+ * Xếp lại hạng thành viên sau khi điểm thưởng của khách thay đổi (chạy sau
+ * OrderLoyaltyStage).
+ */
+@Component
+@Order(30)
+public class OrderVipTierStage extends DomainEventSubscriber {
+
+    private final DonHangRepository donHangRepository;
+    private final KhachHangRepository khachHangRepository;
+    private final IHangThanhVienService hangThanhVienService;
+    private final DomainEventPublisher domainEventPublisher;
+
+    public OrderVipTierStage(DonHangRepository donHangRepository, KhachHangRepository khachHangRepository,
+            IHangThanhVienService hangThanhVienService, DomainEventPublisher domainEventPublisher,
+            ObjectMapper objectMapper) {
+        super(objectMapper, Set.of(OrderStatusChanged.class));
+        this.donHangRepository = donHangRepository;
+        this.khachHangRepository = khachHangRepository;
+        this.hangThanhVienService = hangThanhVienService;
+        this.domainEventPublisher = domainEventPublisher;
+    }
+
+    @Override
+    protected void on(DomainEvent event, OutboxSuKien suKien) {
+        OrderStatusChanged e = (OrderStatusChanged) event;
+        if (!e.moiChuyenSang(IQuanLyTrangThaiDonHangService.HOAN_THANH) && !e.laHuy())
+            return;
+        DonHang donHang = donHangRepository.findById(e.maDonHang()).orElse(null);
+        KhachHang kh = donHang != null ? donHang.getKhachHang() : null;
+        if (kh == null)
+            return;
+
+        HangThanhVien hangMoi = hangThanhVienService.xacDinhHangThanhVien(kh.getDiemThuong() != null ? kh.getDiemThuong() : 0);
+        HangThanhVien hangCu = kh.getHangThanhVien();
+        if (hangCu == null || !hangMoi.getMaHangThanhVien().equals(hangCu.getMaHangThanhVien())) {
+            kh.setHangThanhVien(hangMoi);
+            khachHangRepository.save(kh);
+            domainEventPublisher.publish(new VipTierChanged(kh.getMaKhachHang(),
+                    hangCu != null ? hangCu.getMaHangThanhVien() : null, hangMoi.getMaHangThanhVien()));
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package com.noithat.qlnt.backend.service.outbox;
+
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.noithat.qlnt.backend.entity.OutboxSuKien;
+import com.noithat.qlnt.backend.repository.OutboxSuKienRepository;
+
+/**
+ * Nhận sự kiện outbox theo lô và chạy các bước xử lý trên một pool worker có
+ * giới hạn.
+ *
+ * Mỗi lần nhận chỉ lấy sự kiện chưa xong đầu tiên của mỗi đối tượng, nên các sự
+ * kiện của cùng một đơn hàng không bao giờ chạy song song hay sai thứ tự; đối
+ * tượng khác nhau chạy song song. Sự kiện lỗi được thử lại với thời gian chờ
+ * tăng dần, quá số lần thử thì chuyển THAT_BAI. Worker dừng giữa chừng thì sự
+ * kiện được nhận lại khi quyền xử lý hết hạn (giao ít nhất một lần; các bước đã
+ * ghi nhận xong không chạy lại).
+ */
+@Component
+public class OutboxDispatcher implements DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(OutboxDispatcher.class);
+
+    // Số lô tối đa mỗi lần quét, tránh giữ luồng quét quá lâu khi tồn đọng lớn
+    static final int MAX_BATCHES_PER_POLL = 20;
+    static final long MAX_BACKOFF_SECONDS = 600;
+    private static final int PURGE_BATCH_SIZE = 1000;
+
+    private final OutboxSuKienRepository outboxSuKienRepository;
+    private final ObjectProvider<OutboxHandler> handlerProvider;
+    private volatile List<OutboxHandler> handlers;
+    private final TransactionTemplate transactionTemplate;
+    private final int batchSize;
+    private final long leaseSeconds;
+    private final int maxAttempts;
+    private final int retentionDays;
+
+    private final ThreadPoolExecutor workers;
+    private final ExecutorService poller;
+    private final ReentrantLock pollLock = new ReentrantLock();
+    private final AtomicBoolean wakeRequested = new AtomicBoolean();
+
+    public OutboxDispatcher(OutboxSuKienRepository outboxSuKienRepository,
+            ObjectProvider<OutboxHandler> handlerProvider,
+            PlatformTransactionManager transactionManager,
+            @Value("${app.outbox.batch-size:100}") int batchSize,
+            @Value("${app.outbox.workers:4}") int workerCount,
+            @Value("${app.outbox.queue-capacity:200}") int queueCapacity,
+            @Value("${app.outbox.lease-seconds:300}") long leaseSeconds,
+            @Value("${app.outbox.max-attempts:10}") int maxAttempts,
+            @Value("${app.outbox.retention-days:7}") int retentionDays) {
+        this.outboxSuKienRepository = outboxSuKienRepository;
+        this.handlerProvider = handlerProvider;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.batchSize = Math.max(1, batchSize);
+        this.leaseSeconds = Math.max(10, leaseSeconds);
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.retentionDays = Math.max(1, retentionDays);
+
+        int n = Math.max(1, workerCount);
+        this.workers = new ThreadPoolExecutor(n, n, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)), namedThreads("outbox-worker-"));
+        this.poller = Executors.newSingleThreadExecutor(namedThreads("outbox-poller-"));
+    }
+
+    /**
+     * Quét ngay (gọi sau khi commit sự kiện mới); nhiều lần gọi dồn thành một lần quét.
+     */
+    public void wakeUp() {
+        if (wakeRequested.compareAndSet(false, true)) {
+            try {
+                poller.execute(() -> {
+                    wakeRequested.set(false);
+                    poll();
+                });
+            } catch (RuntimeException ex) {
+                // Đang tắt ứng dụng; lần khởi động sau sẽ quét
+                wakeRequested.set(false);
+            }
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${app.outbox.poll-interval-ms:2000}",
+            initialDelayString = "${app.outbox.poll-interval-ms:2000}")
+    public void poll() {
+        if (!pollLock.tryLock())
+            return;
+        try {
+            for (int lo = 0; lo < MAX_BATCHES_PER_POLL; lo++) {
+                // Chỉ luồng đang giữ pollLock đưa việc vào hàng đợi nên chỗ trống này không bị chiếm mất
+                int soLuong = Math.min(batchSize, workers.getQueue().remainingCapacity());
+                if (soLuong <= 0)
+                    return;
+                List<OutboxSuKien> nhanDuoc = claim(soLuong);
+                for (OutboxSuKien suKien : nhanDuoc)
+                    workers.execute(() -> process(suKien));
+                if (nhanDuoc.size() < soLuong)
+                    return;
+            }
+        } catch (RuntimeException ex) {
+            logger.error("Lỗi khi nhận sự kiện outbox", ex);
+        } finally {
+            pollLock.unlock();
+        }
+    }
+
+    private List<OutboxSuKien> claim(int soLuong) {
+        return transactionTemplate.execute(status -> {
+            LocalDateTime now = LocalDateTime.now();
+            List<Long> ids = outboxSuKienRepository.findClaimable(now, soLuong);
+            if (ids.isEmpty())
+                return List.of();
+            outboxSuKienRepository.nhan(ids, UUID.randomUUID().toString(), now.plusSeconds(leaseSeconds));
+            return outboxSuKienRepository.findAllById(ids).stream()
+                    .sorted(Comparator.comparing(OutboxSuKien::getMaSuKien))
+                    .toList();
+        });
+    }
+
+    void process(OutboxSuKien suKien) {
+        List<OutboxHandler> buoc = handlers().stream().filter(h -> h.supports(suKien.getLoaiSuKien())).toList();
+        try {
+            for (int i = suKien.getSoBuocXong(); i < buoc.size(); i++) {
+                OutboxHandler handler = buoc.get(i);
+                int buocHienTai = i;
+                transactionTemplate.executeWithoutResult(status -> {
+                    handler.handle(suKien);
+                    if (outboxSuKienRepository.xongBuoc(suKien.getMaSuKien(), suKien.getMaLanNhan(), buocHienTai) == 0)
+                        throw new IllegalStateException("Quyền xử lý sự kiện đã hết hạn và bị nhận lại");
+                });
+            }
+            outboxSuKienRepository.hoanTat(suKien.getMaSuKien(), suKien.getMaLanNhan(), LocalDateTime.now());
+        } catch (RuntimeException ex) {
+            boolean hetLuot = suKien.getSoLanThu() >= maxAttempts;
+            long cho = Math.min(MAX_BACKOFF_SECONDS, 1L << Math.min(suKien.getSoLanThu(), 20));
+            String loi = ex.toString();
+            outboxSuKienRepository.loi(suKien.getMaSuKien(), suKien.getMaLanNhan(),
+                    hetLuot ? OutboxSuKien.THAT_BAI : OutboxSuKien.LOI, LocalDateTime.now().plusSeconds(cho),
+                    loi.length() > 1000 ? loi.substring(0, 1000) : loi);
+            logger.warn("Sự kiện outbox {} ({}) lỗi lần {}{}: {}", suKien.getMaSuKien(), suKien.getLoaiSuKien(),
+                    suKien.getSoLanThu(), hetLuot ? ", dừng thử lại" : "", loi);
+        }
+    }
+
+    /**
+     * Các bước xử lý được lấy khi dùng lần đầu chứ không tiêm qua constructor: bước
+     * xử lý thường phụ thuộc các service cũng ghi sự kiện (StockMutationEngine ->
+     * DomainEventPublisher -> OutboxPublisher -> dispatcher), tiêm trực tiếp sẽ tạo
+     * vòng phụ thuộc.
+     */
+    private List<OutboxHandler> handlers() {
+        List<OutboxHandler> h = handlers;
+        if (h == null) {
+            h = handlerProvider.orderedStream().toList();
+            handlers = h;
+        }
+        return h;
+    }
+
+    @Scheduled(cron = "${app.outbox.purge-cron:0 30 * * * *}")
+    public void purgeProcessed() {
+        try {
+            LocalDateTime truoc = LocalDateTime.now().minusDays(retentionDays);
+            int daXoa;
+            do {
+                daXoa = outboxSuKienRepository.xoaDaXuLy(truoc, PURGE_BATCH_SIZE);
+            } while (daXoa == PURGE_BATCH_SIZE);
+        } catch (RuntimeException ex) {
+            logger.error("Lỗi khi xóa sự kiện outbox đã xử lý", ex);
+        }
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        poller.shutdownNow();
+        workers.shutdown();
+        if (!workers.awaitTermination(10, TimeUnit.SECONDS))
+            workers.shutdownNow();
+    }
+
+    private static java.util.concurrent.ThreadFactory namedThreads(String prefix) {
+        AtomicInteger dem = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + dem.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
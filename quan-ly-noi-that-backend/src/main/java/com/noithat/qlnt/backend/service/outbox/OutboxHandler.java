@@ -0,0 +1,17 @@
+package com.noithat.qlnt.backend.service.outbox;
+
+import com.noithat.qlnt.backend.entity.OutboxSuKien;
+
+/**
+ * Một bước xử lý sự kiện outbox.
+ *
+ * Các bước nhận cùng một loại sự kiện chạy lần lượt theo @Order, mỗi bước trong
+ * transaction riêng cùng với việc ghi nhận bước đó đã xong: bước lỗi được thử
+ * lại (từ chính bước đó) mà không chạy lại các bước trước.
+ */
+public interface OutboxHandler {
+
+    boolean supports(String loaiSuKien);
+
+    void handle(OutboxSuKien suKien);
+}
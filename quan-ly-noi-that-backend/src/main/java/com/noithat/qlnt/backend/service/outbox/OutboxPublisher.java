@@ -0,0 +1,111 @@
+package com.noithat.qlnt.backend.service.outbox;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.noithat.qlnt.backend.entity.OutboxSuKien;
+import com.noithat.qlnt.backend.repository.OutboxSuKienRepository;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.Query;
+
+/**
+ * Ghi sự kiện vào outbox trong transaction nghiệp vụ hiện tại: sự kiện chỉ tồn
+ * tại nếu thay đổi nghiệp vụ được commit. Sau commit dispatcher được đánh thức
+ * để xử lý ngay thay vì chờ lần quét kế tiếp.
+ */
+@Component
+public class OutboxPublisher {
+
+    // 5 tham số mỗi dòng, dưới giới hạn 2100 tham số của SQL Server
+    static final int INSERT_CHUNK_SIZE = 400;
+
+    /**
+     * Một sự kiện cần ghi trong publishAll.
+     */
+    public record Entry(String loaiDoiTuong, Object maDoiTuong, String loaiSuKien, Object duLieu) {
+    }
+
+    private final OutboxSuKienRepository outboxSuKienRepository;
+    private final ObjectMapper objectMapper;
+    private final OutboxDispatcher outboxDispatcher;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    public OutboxPublisher(OutboxSuKienRepository outboxSuKienRepository, ObjectMapper objectMapper,
+            OutboxDispatcher outboxDispatcher) {
+        this.outboxSuKienRepository = outboxSuKienRepository;
+        this.objectMapper = objectMapper;
+        this.outboxDispatcher = outboxDispatcher;
+    }
+
+    @Transactional(propagation = Propagation.MANDATORY)
+    public OutboxSuKien publish(String loaiDoiTuong, Object maDoiTuong, String loaiSuKien, Object duLieu) {
+        OutboxSuKien suKien = outboxSuKienRepository
+                .save(new OutboxSuKien(loaiDoiTuong, String.valueOf(maDoiTuong), loaiSuKien, toJson(loaiSuKien, duLieu)));
+        wakeUpAfterCommit();
+        return suKien;
+    }
+
+    /**
+     * Ghi nhiều sự kiện bằng các câu INSERT nhiều dòng (mỗi câu tối đa
+     * INSERT_CHUNK_SIZE dòng) thay vì một round trip cho mỗi sự kiện; thứ tự ghi
+     * theo thứ tự danh sách.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void publishAll(List<Entry> suKiens) {
+        if (suKiens.isEmpty())
+            return;
+        LocalDateTime now = LocalDateTime.now();
+        for (int from = 0; from < suKiens.size(); from += INSERT_CHUNK_SIZE) {
+            List<Entry> chunk = suKiens.subList(from, Math.min(suKiens.size(), from + INSERT_CHUNK_SIZE));
+            StringBuilder sql = new StringBuilder("INSERT INTO outbox_su_kien "
+                    + "(loai_doi_tuong, ma_doi_tuong, loai_su_kien, du_lieu, xu_ly_luc, ngay_tao) VALUES ");
+            for (int i = 0; i < chunk.size(); i++) {
+                int p = i * 5;
+                sql.append(i == 0 ? "" : ", ").append("(?").append(p + 1).append(", ?").append(p + 2)
+                        .append(", ?").append(p + 3).append(", ?").append(p + 4).append(", ?").append(p + 5)
+                        .append(", ?").append(p + 5).append(')');
+            }
+            Query query = entityManager.createNativeQuery(sql.toString());
+            for (int i = 0; i < chunk.size(); i++) {
+                Entry e = chunk.get(i);
+                int p = i * 5;
+                query.setParameter(p + 1, e.loaiDoiTuong());
+                query.setParameter(p + 2, String.valueOf(e.maDoiTuong()));
+                query.setParameter(p + 3, e.loaiSuKien());
+                query.setParameter(p + 4, toJson(e.loaiSuKien(), e.duLieu()));
+                query.setParameter(p + 5, now);
+            }
+            query.executeUpdate();
+        }
+        wakeUpAfterCommit();
+    }
+
+    private String toJson(String loaiSuKien, Object duLieu) {
+        try {
+            return objectMapper.writeValueAsString(duLieu);
+        } catch (JsonProcessingException ex) {
+            throw new IllegalArgumentException("Không ghi được dữ liệu sự kiện " + loaiSuKien, ex);
+        }
+    }
+
+    private void wakeUpAfterCommit() {
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                outboxDispatcher.wakeUp();
+            }
+        });
+    }
+}
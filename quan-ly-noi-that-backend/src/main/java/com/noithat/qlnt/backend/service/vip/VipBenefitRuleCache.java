@@ -0,0 +1,229 @@
+package com.noithat.qlnt.backend.service.vip;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.noithat.qlnt.backend.entity.VipBenefit;
+import com.noithat.qlnt.backend.repository.VipBenefitRepository;
+
+/**
+ * Ưu đãi VIP của từng hạng, đã dịch sẵn từ các dòng vip_benefit (params JSON)
+ * thành QuyTacHang bất biến, để mỗi lần tính giảm giá/miễn phí ship/điểm
+ * thưởng chỉ là vòng lặp trên mảng thay vì truy vấn và parse JSON lại.
+ *
+ * Mọi thay đổi vip_benefit (thêm/sửa/xóa, kể cả cascade khi lưu/xóa hạng) được
+ * VipCacheEntityListener báo về và xóa cache sau commit; cache cũng hết hạn
+ * sau max-age để nhận thay đổi từ instance khác.
+ */
+@Component
+public class VipBenefitRuleCache {
+
+    private static final ObjectMapper PARAMS_READER = new ObjectMapper();
+
+    /**
+     * Ưu đãi đang bật của một hạng.
+     *
+     * giamPhanTram/giamTu: các mức giảm % và giá trị đơn tối thiểu tương ứng
+     * (0 nếu không có), sắp theo % giảm dần. diemTheoPhanTram: các mức tích điểm
+     * theo % giá trị đơn, mỗi mức làm tròn riêng như trước.
+     */
+    public record QuyTacHang(BigDecimal[] giamPhanTram, BigDecimal[] giamTu, boolean mienPhiShip,
+            BigDecimal mienPhiShipTu, boolean uuTienGiaoHang, int diemCoDinh, BigDecimal[] diemTheoPhanTram,
+            List<String> moTa) {
+
+        static final QuyTacHang RONG = new QuyTacHang(new BigDecimal[0], new BigDecimal[0], false, null, false, 0,
+                new BigDecimal[0], List.of());
+
+        /**
+         * % giảm tốt nhất áp dụng được cho giá trị đơn (0 nếu không có).
+         */
+        public BigDecimal phanTramGiam(BigDecimal tongTien) {
+            for (int i = 0; i < giamPhanTram.length; i++) {
+                if (tongTien.compareTo(giamTu[i]) >= 0)
+                    return giamPhanTram[i];
+            }
+            return BigDecimal.ZERO;
+        }
+
+        /**
+         * Miễn phí vận chuyển; tongTien null chỉ xét ưu đãi không có ngưỡng.
+         */
+        public boolean mienPhiShip(BigDecimal tongTien) {
+            return mienPhiShip || (mienPhiShipTu != null && tongTien != null && tongTien.compareTo(mienPhiShipTu) >= 0);
+        }
+
+        public int diemThuong(BigDecimal thanhTien) {
+            int tong = diemCoDinh;
+            if (thanhTien != null) {
+                for (BigDecimal phanTram : diemTheoPhanTram) {
+                    tong += thanhTien.multiply(phanTram)
+                            .divide(BigDecimal.valueOf(100), 4, RoundingMode.HALF_UP)
+                            .divide(BigDecimal.valueOf(1000), 0, RoundingMode.HALF_UP)
+                            .intValue();
+                }
+            }
+            return tong;
+        }
+    }
+
+    private record Muc(QuyTacHang quyTac, Instant napLuc) {
+    }
+
+    private final VipBenefitRepository vipBenefitRepository;
+    private final Duration maxAge;
+
+    private final Map<Integer, Muc> entries = new ConcurrentHashMap<>();
+    // Tăng mỗi lần xóa; lần nạp bắt đầu trước đó không được ghi đè
+    private final AtomicLong epoch = new AtomicLong();
+
+    public VipBenefitRuleCache(VipBenefitRepository vipBenefitRepository,
+            @Value("${app.vip.benefit-cache.max-age-seconds:300}") long maxAgeSeconds) {
+        this.vipBenefitRepository = vipBenefitRepository;
+        this.maxAge = Duration.ofSeconds(Math.max(1, maxAgeSeconds));
+    }
+
+    public QuyTacHang theoHang(Integer maHangThanhVien) {
+        if (maHangThanhVien == null)
+            return QuyTacHang.RONG;
+        Muc muc = entries.get(maHangThanhVien);
+        if (muc != null && muc.napLuc().plus(maxAge).isAfter(Instant.now()))
+            return muc.quyTac();
+
+        long start = epoch.get();
+        QuyTacHang quyTac = bienDich(vipBenefitRepository.findByHangThanhVien_MaHangThanhVien(maHangThanhVien));
+        if (epoch.get() == start)
+            entries.put(maHangThanhVien, new Muc(quyTac, Instant.now()));
+        return quyTac;
+    }
+
+    /**
+     * Xóa cache sau khi transaction hiện tại commit (ngay nếu không có
+     * transaction).
+     */
+    public void benefitsChanged() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    clear();
+                }
+            });
+        } else {
+            clear();
+        }
+    }
+
+    private void clear() {
+        epoch.incrementAndGet();
+        entries.clear();
+    }
+
+    static QuyTacHang bienDich(List<VipBenefit> benefits) {
+        List<BigDecimal[]> giam = new ArrayList<>();
+        boolean mienPhiShip = false;
+        BigDecimal mienPhiShipTu = null;
+        boolean uuTien = false;
+        int diemCoDinh = 0;
+        List<BigDecimal> diemTheoPhanTram = new ArrayList<>();
+        List<String> moTa = new ArrayList<>();
+
+        for (VipBenefit vb : benefits) {
+            if (vb.getActive() != null && !vb.getActive())
+                continue;
+            String loai = vb.getBenefitType();
+            if (loai == null)
+                continue;
+            moTa.add(moTa(vb));
+            JsonNode params = doc(vb.getParams());
+            if (loai.equalsIgnoreCase("PERCENT_DISCOUNT") || loai.equalsIgnoreCase("DISCOUNT_PERCENT")) {
+                Optional<BigDecimal> phanTram = phanTram(params);
+                if (phanTram.isPresent() && phanTram.get().signum() > 0)
+                    giam.add(new BigDecimal[] { phanTram.get(), soTien(params, "minOrder").orElse(BigDecimal.ZERO) });
+            } else if (loai.equalsIgnoreCase("FREE_SHIPPING")) {
+                Optional<BigDecimal> tu = soTien(params, "minOrder");
+                if (tu.isEmpty())
+                    mienPhiShip = true;
+                else if (mienPhiShipTu == null || tu.get().compareTo(mienPhiShipTu) < 0)
+                    mienPhiShipTu = tu.get();
+            } else if (loai.equalsIgnoreCase("PRIORITY_SHIPPING") || loai.equalsIgnoreCase("PRIORITY")) {
+                uuTien = true;
+            } else if (loai.equalsIgnoreCase("BONUS_POINTS") || loai.equalsIgnoreCase("TICH_DIEM")) {
+                Optional<Integer> diem = diem(params);
+                if (diem.isPresent())
+                    diemCoDinh += diem.get();
+                else
+                    phanTram(params).ifPresent(diemTheoPhanTram::add);
+            }
+        }
+
+        // % cao trước: mức đầu tiên đạt ngưỡng là mức tốt nhất
+        giam.sort(Comparator.comparing((BigDecimal[] g) -> g[0]).reversed());
+        return new QuyTacHang(
+                giam.stream().map(g -> g[0]).toArray(BigDecimal[]::new),
+                giam.stream().map(g -> g[1]).toArray(BigDecimal[]::new),
+                mienPhiShip, mienPhiShipTu, uuTien, diemCoDinh,
+                diemTheoPhanTram.toArray(BigDecimal[]::new),
+                List.copyOf(moTa));
+    }
+
+    private static String moTa(VipBenefit vb) {
+        if (vb.getDescription() != null && !vb.getDescription().isBlank())
+            return vb.getDescription();
+        if (vb.getParams() != null && !vb.getParams().isBlank())
+            return vb.getParams();
+        return vb.getBenefitType();
+    }
+
+    private static JsonNode doc(String params) {
+        if (params == null || params.isBlank())
+            return null;
+        try {
+            return PARAMS_READER.readTree(params);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static Optional<BigDecimal> soTien(JsonNode node, String ten) {
+        if (node == null || !node.has(ten))
+            return Optional.empty();
+        try {
+            return Optional.of(new BigDecimal(node.get(ten).asText()));
+        } catch (NumberFormatException e) {
+            return Optional.empty();
+        }
+    }
+
+    private static Optional<BigDecimal> phanTram(JsonNode node) {
+        if (node == null)
+            return Optional.empty();
+        // tên cũ: rate
+        return node.has("percent") ? soTien(node, "percent") : soTien(node, "rate");
+    }
+
+    private static Optional<Integer> diem(JsonNode node) {
+        if (node == null)
+            return Optional.empty();
+        if (node.has("points"))
+            return Optional.of(node.get("points").asInt());
+        if (node.has("point"))
+            return Optional.of(node.get("point").asInt());
+        return Optional.empty();
+    }
+}
@@ -0,0 +1,37 @@
+package com.noithat.qlnt.backend.service.vip;
+
+import org.springframework.stereotype.Component;
+
+import com.noithat.qlnt.backend.entity.HangThanhVien;
+import com.noithat.qlnt.backend.entity.VipBenefit;
+
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+
+/**
+ * JPA entity listener (@EntityListeners) cho hạng thành viên và ưu đãi VIP:
+ * xóa VipBenefitRuleCache / VipTierTable sau khi transaction commit.
+ */
+@Component
+public class VipCacheEntityListener {
+
+    private final VipBenefitRuleCache vipBenefitRuleCache;
+    private final VipTierTable vipTierTable;
+
+    public VipCacheEntityListener(VipBenefitRuleCache vipBenefitRuleCache, VipTierTable vipTierTable) {
+        this.vipBenefitRuleCache = vipBenefitRuleCache;
+        this.vipTierTable = vipTierTable;
+    }
+
+    @PostPersist
+    @PostUpdate
+    @PostRemove
+    public void onChange(Object entity) {
+        if (entity instanceof VipBenefit) {
+            vipBenefitRuleCache.benefitsChanged();
+        } else if (entity instanceof HangThanhVien) {
+            vipTierTable.tiersChanged();
+        }
+    }
+}
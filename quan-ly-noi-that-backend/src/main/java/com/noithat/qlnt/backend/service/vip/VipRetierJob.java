@@ -0,0 +1,182 @@
+package com.noithat.qlnt.backend.service.vip;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.noithat.qlnt.backend.repository.HangThanhVienRepository;
+import com.noithat.qlnt.backend.repository.KhachHangRepository;
+import com.noithat.qlnt.backend.service.event.DomainEventPublisher;
+import com.noithat.qlnt.backend.service.event.VipTierChanged;
+import com.noithat.qlnt.backend.service.vip.VipTierTable.BangHang;
+
+/**
+ * Xếp lại hạng thành viên cho toàn bộ khách hàng (sau khi đổi ngưỡng điểm của
+ * hạng), chạy nền trên một luồng riêng.
+ *
+ * Đọc khách theo lô theo mã tăng dần (chỉ mã, điểm, hạng hiện tại), xác định
+ * hạng mới bằng tìm nhị phân trên VipTierTable, rồi với mỗi hạng đích chạy một
+ * câu UPDATE cho cả nhóm khách cần chuyển. Câu UPDATE kiểm tra lại điểm vẫn
+ * thuộc khoảng của hạng đích nên khách vừa được cộng/trừ điểm song song không
+ * bị xếp sai. Mỗi lô một transaction, sự kiện VipTierChanged chỉ ghi cho khách
+ * thực sự đổi hạng.
+ */
+@Component
+public class VipRetierJob implements DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(VipRetierJob.class);
+
+    /**
+     * Tiến độ lần chạy gần nhất.
+     */
+    public record TienDo(boolean dangChay, long tongSo, long daXuLy, long daDoiHang, LocalDateTime batDau,
+            LocalDateTime ketThuc, String loi) {
+    }
+
+    private final KhachHangRepository khachHangRepository;
+    private final HangThanhVienRepository hangThanhVienRepository;
+    private final VipTierTable vipTierTable;
+    private final DomainEventPublisher domainEventPublisher;
+    private final TransactionTemplate transactionTemplate;
+    private final int batchSize;
+
+    private final ExecutorService runner = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "vip-retier");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicBoolean dangChay = new AtomicBoolean();
+    private volatile TienDo tienDo = new TienDo(false, 0, 0, 0, null, null, null);
+
+    public VipRetierJob(KhachHangRepository khachHangRepository, HangThanhVienRepository hangThanhVienRepository,
+            VipTierTable vipTierTable, DomainEventPublisher domainEventPublisher,
+            PlatformTransactionManager transactionManager,
+            @Value("${app.vip.retier.batch-size:2000}") int batchSize) {
+        this.khachHangRepository = khachHangRepository;
+        this.hangThanhVienRepository = hangThanhVienRepository;
+        this.vipTierTable = vipTierTable;
+        this.domainEventPublisher = domainEventPublisher;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        // Giới hạn tham số của một câu lệnh SQL Server là 2100
+        this.batchSize = Math.max(1, Math.min(2000, batchSize));
+    }
+
+    public TienDo tienDo() {
+        return tienDo;
+    }
+
+    /**
+     * Bắt đầu xếp lại hạng nếu chưa có lần nào đang chạy.
+     *
+     * @return tiến độ hiện tại (dangChay = true)
+     * @throws IllegalStateException nếu đang có lần chạy khác
+     */
+    public TienDo batDau() {
+        if (!dangChay.compareAndSet(false, true))
+            throw new IllegalStateException("Đang xếp lại hạng thành viên, vui lòng đợi lần chạy hiện tại kết thúc.");
+        tienDo = new TienDo(true, khachHangRepository.count(), 0, 0, LocalDateTime.now(), null, null);
+        try {
+            runner.execute(this::chay);
+        } catch (RuntimeException ex) {
+            dangChay.set(false);
+            throw ex;
+        }
+        return tienDo;
+    }
+
+    private void chay() {
+        TienDo t = tienDo;
+        long daXuLy = 0;
+        long daDoiHang = 0;
+        String loi = null;
+        try {
+            BangHang bang = vipTierTable.bang();
+            if (bang.rong())
+                throw new IllegalStateException("Không có hạng thành viên nào trong hệ thống");
+            Integer after = 0;
+            while (true) {
+                List<Object[]> rows = khachHangRepository.findTierRowsAfter(after, PageRequest.of(0, batchSize));
+                if (rows.isEmpty())
+                    break;
+                daDoiHang += xuLyLo(bang, rows);
+                daXuLy += rows.size();
+                after = (Integer) rows.get(rows.size() - 1)[0];
+                tienDo = new TienDo(true, t.tongSo(), daXuLy, daDoiHang, t.batDau(), null, null);
+                if (rows.size() < batchSize)
+                    break;
+            }
+            logger.info("Xếp lại hạng thành viên xong: {} khách, {} đổi hạng", daXuLy, daDoiHang);
+        } catch (RuntimeException ex) {
+            loi = ex.getMessage();
+            logger.error("Lỗi khi xếp lại hạng thành viên (đã xử lý {} khách)", daXuLy, ex);
+        } finally {
+            tienDo = new TienDo(false, t.tongSo(), daXuLy, daDoiHang, t.batDau(), LocalDateTime.now(), loi);
+            dangChay.set(false);
+        }
+    }
+
+    // Trả về số khách đã đổi hạng trong lô
+    private int xuLyLo(BangHang bang, List<Object[]> rows) {
+        // Vị trí hạng đích -> [mã khách], và hạng cũ của từng khách cần chuyển
+        Map<Integer, List<Integer>> theoHangMoi = new HashMap<>();
+        Map<Integer, Integer> hangCu = new HashMap<>();
+        for (Object[] r : rows) {
+            Integer maKhachHang = (Integer) r[0];
+            int diem = r[1] != null ? ((Number) r[1]).intValue() : 0;
+            Integer maHangHienTai = (Integer) r[2];
+            int viTri = bang.viTri(diem);
+            if (!bang.maHang()[viTri].equals(maHangHienTai)) {
+                theoHangMoi.computeIfAbsent(viTri, k -> new ArrayList<>()).add(maKhachHang);
+                hangCu.put(maKhachHang, maHangHienTai);
+            }
+        }
+        if (theoHangMoi.isEmpty())
+            return 0;
+
+        Integer soDoi = transactionTemplate.execute(status -> {
+            int tong = 0;
+            for (Map.Entry<Integer, List<Integer>> e : theoHangMoi.entrySet()) {
+                int viTri = e.getKey();
+                Integer maHangMoi = bang.maHang()[viTri];
+                List<Integer> ids = e.getValue();
+                int capNhat = khachHangRepository.chuyenHang(ids, hangThanhVienRepository.getReferenceById(maHangMoi),
+                        bang.tuDiem(viTri), bang.denDiem(viTri));
+                if (capNhat == 0)
+                    continue;
+                // Có khách đổi điểm giữa lúc đọc và lúc ghi: chỉ báo cho khách thực sự đã chuyển
+                Set<Integer> daChuyen = capNhat == ids.size() ? null
+                        : new HashSet<>(khachHangRepository.findMaKhachHangThuocHang(ids, maHangMoi));
+                List<VipTierChanged> suKien = new ArrayList<>(capNhat);
+                for (Integer maKhachHang : ids) {
+                    if (daChuyen == null || daChuyen.contains(maKhachHang))
+                        suKien.add(new VipTierChanged(maKhachHang, hangCu.get(maKhachHang), maHangMoi));
+                }
+                domainEventPublisher.publishAll(suKien);
+                tong += capNhat;
+            }
+            return tong;
+        });
+        return soDoi != null ? soDoi : 0;
+    }
+
+    @Override
+    public void destroy() {
+        runner.shutdownNow();
+    }
+}
@@ -0,0 +1,108 @@
+package com.noithat.qlnt.backend.service.vip;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.noithat.qlnt.backend.entity.HangThanhVien;
+import com.noithat.qlnt.backend.repository.HangThanhVienRepository;
+
+/**
+ * Ngưỡng điểm của các hạng thành viên dưới dạng mảng tăng dần, để xác định hạng
+ * theo điểm bằng tìm nhị phân. Cùng quy tắc với
+ * IHangThanhVienService.xacDinhHangThanhVien: hạng có điểm tối thiểu lớn nhất
+ * không vượt quá điểm của khách, không đạt hạng nào thì nhận hạng thấp nhất.
+ *
+ * Nạp khi hỏi lần đầu; VipCacheEntityListener xóa sau khi hạng được thêm/sửa/xóa.
+ */
+@Component
+public class VipTierTable {
+
+    /**
+     * Bảng ngưỡng bất biến: nguong[i] là điểm tối thiểu của hạng maHang[i].
+     */
+    public record BangHang(int[] nguong, Integer[] maHang) {
+
+        public boolean rong() {
+            return maHang.length == 0;
+        }
+
+        /**
+         * Vị trí hạng cho số điểm (0 = hạng thấp nhất); -1 nếu không có hạng nào.
+         */
+        public int viTri(int diem) {
+            if (rong())
+                return -1;
+            // Phần tử cuối cùng có nguong <= diem
+            int lo = 0;
+            int hi = nguong.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (nguong[mid] <= diem)
+                    lo = mid + 1;
+                else
+                    hi = mid;
+            }
+            return Math.max(0, lo - 1);
+        }
+
+        /**
+         * Khoảng điểm [tu, den) được xếp vào hạng ở vị trí i.
+         */
+        public int tuDiem(int i) {
+            return i == 0 ? Integer.MIN_VALUE : nguong[i];
+        }
+
+        public int denDiem(int i) {
+            return i == nguong.length - 1 ? Integer.MAX_VALUE : nguong[i + 1];
+        }
+    }
+
+    private final HangThanhVienRepository hangThanhVienRepository;
+    private volatile BangHang bang;
+    // Tăng mỗi lần xóa; lần nạp bắt đầu trước đó không được ghi đè
+    private final AtomicLong epoch = new AtomicLong();
+
+    public VipTierTable(HangThanhVienRepository hangThanhVienRepository) {
+        this.hangThanhVienRepository = hangThanhVienRepository;
+    }
+
+    public BangHang bang() {
+        BangHang b = bang;
+        if (b == null) {
+            long start = epoch.get();
+            List<HangThanhVien> hangs = hangThanhVienRepository.findAllByOrderByDiemToiThieuAsc();
+            int[] nguong = new int[hangs.size()];
+            Integer[] maHang = new Integer[hangs.size()];
+            for (int i = 0; i < hangs.size(); i++) {
+                nguong[i] = hangs.get(i).getDiemToiThieu() != null ? hangs.get(i).getDiemToiThieu() : 0;
+                maHang[i] = hangs.get(i).getMaHangThanhVien();
+            }
+            b = new BangHang(nguong, maHang);
+            if (epoch.get() == start)
+                bang = b;
+        }
+        return b;
+    }
+
+    public void tiersChanged() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    clear();
+                }
+            });
+        } else {
+            clear();
+        }
+    }
+
+    private void clear() {
+        epoch.incrementAndGet();
+        bang = null;
+    }
+}
@@ -0,0 +1,327 @@
+package com.noithat.qlnt.backend.service.voucher;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.noithat.qlnt.backend.entity.HangThanhVien;
+import com.noithat.qlnt.backend.entity.Voucher;
+import com.noithat.qlnt.backend.entity.VoucherHangThanhVien;
+import com.noithat.qlnt.backend.repository.VoucherRepository;
+
+/**
+ * Chỉ mục voucher theo hạng thành viên, giữ trong bộ nhớ để "khách này dùng
+ * được voucher nào cho đơn bao nhiêu tiền" không phải quét bảng voucher và
+ * duyệt từng liên kết hạng.
+ *
+ * Mỗi hạng có một mảng voucher giới hạn cho hạng đó, voucher áp dụng cho mọi
+ * người nằm ở một mảng chung; các mảng sắp theo giá trị đơn tối thiểu nên tìm
+ * voucher dùng được cho một tổng tiền là tìm nhị phân rồi lọc thời hạn, trạng
+ * thái và lượt còn lại trên phần đầu mảng.
+ *
+ * Voucher trả về là bản sao chỉ đọc (liên kết hạng không trỏ ngược về voucher),
+ * bên gọi không được sửa. Mọi thay đổi voucher/liên kết hạng (tạo, sửa, xóa,
+ * dùng/trả lượt) được VoucherIndexEntityListener báo về; sau commit chỉ các
+ * voucher đó được đọc lại và chỉ các mảng liên quan được dựng lại. Nạp lại toàn
+ * bộ định kỳ để nhận thay đổi từ instance khác hoặc câu UPDATE hàng loạt.
+ */
+@Component
+public class VoucherEligibilityIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(VoucherEligibilityIndex.class);
+
+    static final String DANG_HOAT_DONG = "DANG_HOAT_DONG";
+
+    private record Muc(Voucher voucher, BigDecimal toiThieu, Set<Integer> maHangs, boolean congKhai) {
+    }
+
+    private record State(Map<Integer, Muc> theoMa, Map<Integer, Muc[]> theoHang, Muc[] congKhai) {
+    }
+
+    private static final Muc[] EMPTY = new Muc[0];
+    private static final Comparator<Muc> THEO_TOI_THIEU = Comparator.comparing(Muc::toiThieu)
+            .thenComparing(m -> m.voucher().getMaVoucher());
+
+    private final VoucherRepository voucherRepository;
+
+    private final Object writeLock = new Object();
+    // Nạp toàn bộ và áp dụng thay đổi đều giữ writeLock, thay đổi luôn đọc DB sau commit
+    private volatile State state;
+
+    public VoucherEligibilityIndex(VoucherRepository voucherRepository) {
+        this.voucherRepository = voucherRepository;
+    }
+
+    /**
+     * Voucher áp dụng cho hạng (giới hạn cho hạng đó hoặc cho mọi người), không
+     * xét thời hạn; maHangThanhVien null: chỉ voucher cho mọi người.
+     */
+    public List<Voucher> theoHang(Integer maHangThanhVien) {
+        State s = state();
+        return chon(s, maHangThanhVien, null, m -> true);
+    }
+
+    /**
+     * Voucher cho mọi người, không xét thời hạn.
+     */
+    public List<Voucher> congKhai() {
+        State s = state();
+        return Arrays.stream(s.congKhai()).map(Muc::voucher)
+                .sorted(Comparator.comparing(Voucher::getMaVoucher)).toList();
+    }
+
+    /**
+     * Voucher của hạng đang trong thời hạn.
+     */
+    public List<Voucher> dangHieuLuc(Integer maHangThanhVien, LocalDateTime now) {
+        State s = state();
+        return chon(s, maHangThanhVien, null, m -> trongThoiHan(m.voucher(), now));
+    }
+
+    /**
+     * Voucher khách thuộc hạng dùng được cho đơn tongTien lúc now: đang hoạt
+     * động, trong thời hạn, còn lượt và đơn đạt giá trị tối thiểu.
+     */
+    public List<Voucher> apDungDuoc(Integer maHangThanhVien, BigDecimal tongTien, LocalDateTime now) {
+        if (tongTien == null)
+            return List.of();
+        State s = state();
+        return chon(s, maHangThanhVien, tongTien, m -> {
+            Voucher v = m.voucher();
+            return DANG_HOAT_DONG.equals(v.getTrangThai()) && trongThoiHan(v, now) && conLuot(v);
+        });
+    }
+
+    private static List<Voucher> chon(State s, Integer maHang, BigDecimal tongTien, Predicate<Muc> dieuKien) {
+        List<Voucher> ketQua = new ArrayList<>();
+        themPhuHop(s.congKhai(), tongTien, dieuKien, ketQua);
+        if (maHang != null)
+            themPhuHop(s.theoHang().getOrDefault(maHang, EMPTY), tongTien, dieuKien, ketQua);
+        ketQua.sort(Comparator.comparing(Voucher::getMaVoucher));
+        return ketQua;
+    }
+
+    private static void themPhuHop(Muc[] mang, BigDecimal tongTien, Predicate<Muc> dieuKien, List<Voucher> ketQua) {
+        int het = tongTien == null ? mang.length : soMucToiDa(mang, tongTien);
+        for (int i = 0; i < het; i++) {
+            if (dieuKien.test(mang[i]))
+                ketQua.add(mang[i].voucher());
+        }
+    }
+
+    // Số phần tử đầu mảng có giá trị đơn tối thiểu <= tongTien
+    private static int soMucToiDa(Muc[] mang, BigDecimal tongTien) {
+        int lo = 0;
+        int hi = mang.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (mang[mid].toiThieu().compareTo(tongTien) <= 0)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    private static boolean trongThoiHan(Voucher v, LocalDateTime now) {
+        return (v.getNgayBatDau() == null || !v.getNgayBatDau().isAfter(now))
+                && (v.getNgayKetThuc() == null || v.getNgayKetThuc().isAfter(now));
+    }
+
+    private static boolean conLuot(Voucher v) {
+        return v.getSoLuongDaSuDung() == null || v.getSoLuongToiDa() == null
+                || v.getSoLuongDaSuDung() < v.getSoLuongToiDa();
+    }
+
+    /**
+     * Voucher vừa đổi trong transaction hiện tại: đọc lại sau commit.
+     */
+    public void voucherChanged(Integer maVoucher) {
+        if (maVoucher == null)
+            return;
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            reload(Set.of(maVoucher));
+            return;
+        }
+        // Gom các voucher đổi trong cùng transaction thành một lần đọc lại
+        @SuppressWarnings("unchecked")
+        Set<Integer> pending = (Set<Integer>) TransactionSynchronizationManager.getResource(this);
+        if (pending == null) {
+            Set<Integer> ids = new HashSet<>();
+            TransactionSynchronizationManager.bindResource(this, ids);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(VoucherEligibilityIndex.this);
+                    if (status == STATUS_COMMITTED)
+                        reload(ids);
+                }
+            });
+            pending = ids;
+        }
+        pending.add(maVoucher);
+    }
+
+    private State state() {
+        State s = state;
+        if (s == null) {
+            synchronized (writeLock) {
+                s = state;
+                if (s == null)
+                    s = loadAll();
+            }
+        }
+        return s;
+    }
+
+    @Scheduled(fixedDelayString = "${app.voucher.index.resync-interval-ms:600000}",
+            initialDelayString = "${app.voucher.index.resync-interval-ms:600000}")
+    public void resync() {
+        try {
+            synchronized (writeLock) {
+                loadAll();
+            }
+        } catch (RuntimeException ex) {
+            logger.error("Lỗi khi nạp lại chỉ mục voucher", ex);
+        }
+    }
+
+    // Gọi khi giữ writeLock
+    private State loadAll() {
+        Map<Integer, Muc> theoMa = new HashMap<>();
+        for (Voucher v : voucherRepository.findAllWithHang())
+            theoMa.put(v.getMaVoucher(), toMuc(v));
+        Map<Integer, List<Muc>> nhom = new HashMap<>();
+        List<Muc> congKhai = new ArrayList<>();
+        for (Muc m : theoMa.values()) {
+            if (m.congKhai())
+                congKhai.add(m);
+            else
+                m.maHangs().forEach(h -> nhom.computeIfAbsent(h, k -> new ArrayList<>()).add(m));
+        }
+        Map<Integer, Muc[]> theoHang = new HashMap<>();
+        nhom.forEach((h, list) -> theoHang.put(h, sapXep(list)));
+        State s = new State(theoMa, theoHang, sapXep(congKhai));
+        state = s;
+        return s;
+    }
+
+    private void reload(Collection<Integer> maVouchers) {
+        if (maVouchers.isEmpty())
+            return;
+        try {
+            List<Voucher> moi = voucherRepository.findWithHangByMaVoucherIn(maVouchers);
+            synchronized (writeLock) {
+                State s = state;
+                if (s == null)
+                    return;
+                state = apply(s, maVouchers, moi);
+            }
+        } catch (RuntimeException ex) {
+            // Lần nạp lại định kỳ sẽ sửa
+            logger.warn("Không cập nhật được chỉ mục voucher {}: {}", maVouchers, ex.getMessage());
+        }
+    }
+
+    // Thay các voucher đã đổi và chỉ dựng lại mảng của những hạng bị ảnh hưởng
+    private static State apply(State s, Collection<Integer> maVouchers, List<Voucher> moi) {
+        Map<Integer, Muc> theoMa = new HashMap<>(s.theoMa());
+        Set<Integer> hangAnhHuong = new HashSet<>();
+        boolean congKhaiAnhHuong = false;
+        for (Integer ma : maVouchers) {
+            Muc cu = theoMa.remove(ma);
+            if (cu != null) {
+                congKhaiAnhHuong |= cu.congKhai();
+                if (!cu.congKhai())
+                    hangAnhHuong.addAll(cu.maHangs());
+            }
+        }
+        for (Voucher v : moi) {
+            Muc m = toMuc(v);
+            theoMa.put(v.getMaVoucher(), m);
+            congKhaiAnhHuong |= m.congKhai();
+            if (!m.congKhai())
+                hangAnhHuong.addAll(m.maHangs());
+        }
+
+        Map<Integer, Muc[]> theoHang = new HashMap<>(s.theoHang());
+        for (Integer h : hangAnhHuong) {
+            Muc[] mang = sapXep(theoMa.values().stream()
+                    .filter(m -> !m.congKhai() && m.maHangs().contains(h)).toList());
+            if (mang.length == 0)
+                theoHang.remove(h);
+            else
+                theoHang.put(h, mang);
+        }
+        Muc[] congKhai = congKhaiAnhHuong
+                ? sapXep(theoMa.values().stream().filter(Muc::congKhai).toList())
+                : s.congKhai();
+        return new State(theoMa, theoHang, congKhai);
+    }
+
+    private static Muc[] sapXep(List<Muc> list) {
+        Muc[] mang = list.toArray(EMPTY);
+        Arrays.sort(mang, THEO_TOI_THIEU);
+        return mang;
+    }
+
+    private static Muc toMuc(Voucher v) {
+        Voucher banSao = banSao(v);
+        Set<Integer> maHangs = new HashSet<>();
+        if (banSao.getHanCheHangThanhVien() != null) {
+            for (VoucherHangThanhVien link : banSao.getHanCheHangThanhVien())
+                maHangs.add(link.getHangThanhVien().getMaHangThanhVien());
+        }
+        BigDecimal toiThieu = v.getGiaTriDonHangToiThieu() != null ? v.getGiaTriDonHangToiThieu() : BigDecimal.ZERO;
+        return new Muc(banSao, toiThieu, Set.copyOf(maHangs), Boolean.TRUE.equals(v.getApDungChoMoiNguoi()));
+    }
+
+    // Bản sao tách khỏi persistence context; liên kết hạng chỉ giữ mã và tên hạng
+    private static Voucher banSao(Voucher v) {
+        Voucher c = new Voucher();
+        c.setMaVoucher(v.getMaVoucher());
+        c.setMaCode(v.getMaCode());
+        c.setTenVoucher(v.getTenVoucher());
+        c.setMoTa(v.getMoTa());
+        c.setLoaiGiamGia(v.getLoaiGiamGia());
+        c.setGiaTriGiam(v.getGiaTriGiam());
+        c.setGiaTriDonHangToiThieu(v.getGiaTriDonHangToiThieu());
+        c.setGiaTriGiamToiDa(v.getGiaTriGiamToiDa());
+        c.setNgayBatDau(v.getNgayBatDau());
+        c.setNgayKetThuc(v.getNgayKetThuc());
+        c.setSoLuongToiDa(v.getSoLuongToiDa());
+        c.setSoLuongDaSuDung(v.getSoLuongDaSuDung());
+        c.setTrangThai(v.getTrangThai());
+        c.setApDungChoMoiNguoi(v.getApDungChoMoiNguoi());
+        Set<VoucherHangThanhVien> links = new HashSet<>();
+        if (v.getHanCheHangThanhVien() != null) {
+            for (VoucherHangThanhVien link : v.getHanCheHangThanhVien()) {
+                HangThanhVien hang = new HangThanhVien();
+                hang.setMaHangThanhVien(link.getHangThanhVien().getMaHangThanhVien());
+                hang.setTenHang(link.getHangThanhVien().getTenHang());
+                VoucherHangThanhVien l = new VoucherHangThanhVien();
+                l.setId(new VoucherHangThanhVien.VoucherHangThanhVienId(v.getMaVoucher(), hang.getMaHangThanhVien()));
+                l.setHangThanhVien(hang);
+                links.add(l);
+            }
+        }
+        c.setHanCheHangThanhVien(links);
+        return c;
+    }
+}
@@ -0,0 +1,35 @@
+package com.noithat.qlnt.backend.service.voucher;
+
+import org.springframework.stereotype.Component;
+
+import com.noithat.qlnt.backend.entity.Voucher;
+import com.noithat.qlnt.backend.entity.VoucherHangThanhVien;
+
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+
+/**
+ * JPA entity listener (@EntityListeners) cho Voucher và liên kết hạng của nó:
+ * báo cho VoucherEligibilityIndex đọc lại voucher sau khi transaction commit.
+ */
+@Component
+public class VoucherIndexEntityListener {
+
+    private final VoucherEligibilityIndex voucherEligibilityIndex;
+
+    public VoucherIndexEntityListener(VoucherEligibilityIndex voucherEligibilityIndex) {
+        this.voucherEligibilityIndex = voucherEligibilityIndex;
+    }
+
+    @PostPersist
+    @PostUpdate
+    @PostRemove
+    public void onChange(Object entity) {
+        if (entity instanceof Voucher v) {
+            voucherEligibilityIndex.voucherChanged(v.getMaVoucher());
+        } else if (entity instanceof VoucherHangThanhVien link && link.getId() != null) {
+            voucherEligibilityIndex.voucherChanged(link.getId().getMaVoucher());
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.noithat.qlnt.backend.service.voucher;
+
+import java.time.LocalDateTime;
+
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.noithat.qlnt.backend.entity.Voucher;
+import com.noithat.qlnt.backend.entity.VoucherSuDung;
+import com.noithat.qlnt.backend.exception.AppException;
+import com.noithat.qlnt.backend.repository.VoucherRepository;
+import com.noithat.qlnt.backend.repository.VoucherSuDungRepository;
+
+/**
+ * Giữ và trả lượt dùng voucher theo đơn hàng.
+ *
+ * Lượt được giữ bằng một câu UPDATE có điều kiện (đã dùng < tối đa) trên dòng
+ * voucher, nên dù nhiều đơn cùng đặt với một mã thì số lượt đã dùng không vượt
+ * quá giới hạn; đơn đến sau khi hết lượt bị từ chối và rollback cả đơn. Cùng
+ * transaction ghi một dòng VoucherSuDung cho đơn để khi hủy đơn chỉ trả đúng
+ * lượt đơn đó đã giữ, một lần.
+ *
+ * Câu UPDATE khóa dòng voucher tới khi đơn commit: bên gọi giữ lượt ở cuối
+ * transaction đặt hàng (sau khi lưu đơn và trừ kho) để các đơn cùng mã chờ
+ * nhau ngắn nhất.
+ */
+@Service
+public class VoucherRedemptionService {
+
+    private final VoucherRepository voucherRepository;
+    private final VoucherSuDungRepository voucherSuDungRepository;
+    private final VoucherEligibilityIndex voucherEligibilityIndex;
+
+    public VoucherRedemptionService(VoucherRepository voucherRepository,
+            VoucherSuDungRepository voucherSuDungRepository,
+            VoucherEligibilityIndex voucherEligibilityIndex) {
+        this.voucherRepository = voucherRepository;
+        this.voucherSuDungRepository = voucherSuDungRepository;
+        this.voucherEligibilityIndex = voucherEligibilityIndex;
+    }
+
+    /**
+     * Giữ một lượt của voucher cho đơn (gọi trong transaction tạo đơn).
+     *
+     * @throws AppException 400 nếu voucher đã hết lượt
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void claim(Voucher voucher, Integer maDonHang, Integer maKhachHang) {
+        if (voucherRepository.incrementUsageIfAvailable(voucher.getMaVoucher()) == 0) {
+            throw new AppException(400, "Voucher " + voucher.getMaCode() + " đã hết lượt sử dụng.");
+        }
+        voucherSuDungRepository.save(new VoucherSuDung(maDonHang, voucher.getMaVoucher(), maKhachHang,
+                VoucherSuDung.DA_DUNG));
+        // Câu UPDATE hàng loạt không qua entity listener
+        voucherEligibilityIndex.voucherChanged(voucher.getMaVoucher());
+    }
+
+    /**
+     * Trả lượt đơn đã giữ khi hủy đơn. Gọi lại cho cùng đơn (hủy lặp, xử lý lại
+     * sự kiện) không trả thêm.
+     *
+     * @return true nếu vừa trả một lượt
+     */
+    @Transactional
+    public boolean release(Integer maDonHang, Integer maVoucher) {
+        if (voucherSuDungRepository.hoanLai(maDonHang, LocalDateTime.now()) == 0) {
+            if (voucherSuDungRepository.existsById(maDonHang))
+                return false;
+            // Đơn đặt trước khi có bảng lượt dùng: ghi lại là đã trả để không trả lần nữa
+            voucherSuDungRepository.save(new VoucherSuDung(maDonHang, maVoucher, null, VoucherSuDung.DA_HOAN));
+        }
+        voucherRepository.decrementUsageIfUsed(maVoucher);
+        voucherEligibilityIndex.voucherChanged(maVoucher);
+        return true;
+    }
+}
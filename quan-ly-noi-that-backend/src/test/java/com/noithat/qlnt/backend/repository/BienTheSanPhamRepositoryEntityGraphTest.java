@@ -0,0 +1,100 @@
+package com.noithat.qlnt.backend.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.UUID;
+
+import org.hibernate.Hibernate;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+
+import com.noithat.qlnt.backend.entity.BienTheSanPham;
+import com.noithat.qlnt.backend.entity.BienTheThuocTinh;
+import com.noithat.qlnt.backend.entity.SanPham;
+import com.noithat.qlnt.backend.entity.ThuocTinh;
+import com.noithat.qlnt.backend.support.JpaSliceTest;
+
+/**
+ * Fetch plan của biến thể theo use case: detail nạp thuộc tính kèm ThuocTinh,
+ * listing chỉ nạp giá trị thuộc tính, inventory chỉ nạp sản phẩm cha và
+ * checkout không nạp quan hệ nào. Phần không nằm trong fetch plan phải còn
+ * LAZY, và getGiaTriThuocTinhs không tự nạp nó.
+ */
+class BienTheSanPhamRepositoryEntityGraphTest extends JpaSliceTest {
+
+    @Autowired
+    BienTheSanPhamRepository bienTheRepository;
+    @Autowired
+    TestEntityManager em;
+
+    private Integer maBienThe;
+
+    @BeforeEach
+    void taoBienThe() {
+        SanPham sp = new SanPham();
+        sp.setTenSanPham("Ghế " + UUID.randomUUID());
+        em.persist(sp);
+        ThuocTinh tt = new ThuocTinh();
+        tt.setTenThuocTinh("Màu " + UUID.randomUUID());
+        em.persist(tt);
+        BienTheSanPham b = new BienTheSanPham();
+        b.setSanPham(sp);
+        b.setSku("EG-" + UUID.randomUUID());
+        b.setGiaBan(new BigDecimal("250000"));
+        b.setSoLuongTon(3);
+        em.persist(b);
+        BienTheThuocTinh btt = new BienTheThuocTinh();
+        btt.setBienTheSanPham(b);
+        btt.setThuocTinh(tt);
+        btt.setGiaTri("Xám");
+        em.persist(btt);
+        maBienThe = b.getMaBienThe();
+        em.flush();
+        em.clear();
+    }
+
+    @Test
+    void detailNapThuocTinhVaTenThuocTinh() {
+        BienTheSanPham b = bienTheRepository.findDetailByMaBienThe(maBienThe).orElseThrow();
+
+        assertThat(Hibernate.isInitialized(b.getSanPham())).isTrue();
+        assertThat(Hibernate.isInitialized(b.getBienTheThuocTinhs())).isTrue();
+        assertThat(b.getBienTheThuocTinhs()).singleElement()
+                .satisfies(btt -> assertThat(Hibernate.isInitialized(btt.getThuocTinh())).isTrue());
+        assertThat(b.getGiaTriThuocTinhs()).containsExactly("Xám");
+    }
+
+    @Test
+    void listingNapGiaTriNhungKhongNapThuocTinh() {
+        BienTheSanPham b = bienTheRepository.findListingByMaBienTheIn(List.of(maBienThe)).get(0);
+
+        assertThat(Hibernate.isInitialized(b.getSanPham())).isTrue();
+        assertThat(Hibernate.isInitialized(b.getBienTheThuocTinhs())).isTrue();
+        assertThat(b.getBienTheThuocTinhs()).singleElement()
+                .satisfies(btt -> assertThat(Hibernate.isInitialized(btt.getThuocTinh())).isFalse());
+        assertThat(b.getGiaTriThuocTinhs()).containsExactly("Xám");
+    }
+
+    @Test
+    void inventoryChiNapSanPhamCha() {
+        BienTheSanPham b = bienTheRepository.findInventoryByMaBienTheIn(List.of(maBienThe)).get(0);
+
+        assertThat(Hibernate.isInitialized(b.getSanPham())).isTrue();
+        assertThat(Hibernate.isInitialized(b.getBienTheThuocTinhs())).isFalse();
+    }
+
+    @Test
+    void checkoutKhongNapQuanHeNao() {
+        BienTheSanPham b = bienTheRepository.findCheckoutByMaBienThe(maBienThe).orElseThrow();
+
+        assertThat(Hibernate.isInitialized(b.getSanPham())).isFalse();
+        assertThat(Hibernate.isInitialized(b.getBienTheThuocTinhs())).isFalse();
+        // Không nằm trong fetch plan: trả danh sách rỗng thay vì tự truy vấn
+        assertThat(b.getGiaTriThuocTinhs()).isEmpty();
+        assertThat(Hibernate.isInitialized(b.getBienTheThuocTinhs())).isFalse();
+    }
+}
@@ -0,0 +1,109 @@
+package com.noithat.qlnt.backend.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.data.domain.PageRequest;
+
+import com.noithat.qlnt.backend.entity.DonHang;
+import com.noithat.qlnt.backend.support.JpaSliceTest;
+
+/**
+ * Phân trang keyset (ngayDatHang, maDonHang) giảm dần: đi hết các trang phải
+ * gặp mỗi đơn đúng một lần, kể cả khi nhiều đơn trùng thời điểm nằm vắt qua
+ * ranh giới trang.
+ */
+class DonHangRepositoryHistoryPageTest extends JpaSliceTest {
+
+    // Khoảng thời gian riêng để không lẫn đơn của test khác
+    private static final LocalDateTime T0 = LocalDateTime.of(2001, 1, 1, 8, 0);
+    private static final LocalDateTime TU = T0.minusDays(1);
+    private static final LocalDateTime DEN = T0.plusDays(1);
+
+    @Autowired
+    DonHangRepository donHangRepository;
+    @Autowired
+    TestEntityManager em;
+
+    private final List<Integer> thuTuMongDoi = new ArrayList<>();
+
+    @BeforeEach
+    void taoDon() {
+        // 3 đơn cùng lúc T0+1h, 2 đơn cùng lúc T0, 2 đơn T0+30' (một đơn UNPAID), tổng 7
+        List<DonHang> dons = List.of(
+                don(T0.plusHours(1), "PAID"), don(T0.plusHours(1), "PAID"), don(T0.plusHours(1), "PAID"),
+                don(T0, "PAID"), don(T0, "PAID"),
+                don(T0.plusMinutes(30), "PAID"), don(T0.plusMinutes(30), "UNPAID"));
+        dons.forEach(em::persist);
+        em.flush();
+        dons.stream()
+                .sorted((a, b) -> a.getNgayDatHang().equals(b.getNgayDatHang())
+                        ? b.getMaDonHang().compareTo(a.getMaDonHang())
+                        : b.getNgayDatHang().compareTo(a.getNgayDatHang()))
+                .forEach(d -> thuTuMongDoi.add(d.getMaDonHang()));
+    }
+
+    @Test
+    void diHetCacTrangGapMoiDonDungMotLanTheoThuTu() {
+        for (int size = 1; size <= 8; size++)
+            assertThat(diHet(size, null)).as("size %d", size).isEqualTo(thuTuMongDoi);
+    }
+
+    @Test
+    void trangCuoiDayDuKhongCoTrangSau() {
+        // 7 đơn, trang 7: lấy size + 1 chỉ được 7 nên không còn trang sau
+        List<Integer> trang = trang(7, null, null, null);
+        assertThat(trang).hasSize(7);
+        Integer cuoi = trang.get(6);
+        assertThat(trang(7, ngay(cuoi), cuoi, null)).isEmpty();
+    }
+
+    @Test
+    void cursorGiuNguyenBoLoc() {
+        List<Integer> paid = thuTuMongDoi.stream().filter(ma -> "PAID".equals(em.find(DonHang.class, ma)
+                .getTrangThaiThanhToan())).toList();
+        assertThat(diHet(2, "PAID")).isEqualTo(paid);
+    }
+
+    private List<Integer> diHet(int size, String trangThaiThanhToan) {
+        List<Integer> all = new ArrayList<>();
+        LocalDateTime cursorNgay = null;
+        Integer cursorMa = null;
+        while (true) {
+            List<Integer> ids = trang(size + 1, cursorNgay, cursorMa, trangThaiThanhToan);
+            boolean hasNext = ids.size() > size;
+            List<Integer> page = hasNext ? ids.subList(0, size) : ids;
+            all.addAll(page);
+            if (!hasNext)
+                return all;
+            cursorMa = page.get(page.size() - 1);
+            cursorNgay = ngay(cursorMa);
+        }
+    }
+
+    private List<Integer> trang(int limit, LocalDateTime cursorNgay, Integer cursorMa, String trangThaiThanhToan) {
+        return donHangRepository.findHistoryPage(null, trangThaiThanhToan, null, TU, DEN, null, null, cursorNgay,
+                cursorMa, PageRequest.of(0, limit));
+    }
+
+    private LocalDateTime ngay(Integer maDonHang) {
+        return em.find(DonHang.class, maDonHang).getNgayDatHang();
+    }
+
+    private static DonHang don(LocalDateTime ngayDatHang, String trangThaiThanhToan) {
+        DonHang d = new DonHang();
+        d.setNgayDatHang(ngayDatHang);
+        d.setTrangThaiThanhToan(trangThaiThanhToan);
+        d.setThanhTien(new BigDecimal("100000"));
+        d.setPhuongThucThanhToan("COD");
+        return d;
+    }
+}
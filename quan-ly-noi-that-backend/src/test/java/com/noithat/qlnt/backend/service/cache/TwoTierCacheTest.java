@@ -0,0 +1,132 @@
+package com.noithat.qlnt.backend.service.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Cache hai tầng: một luồng nạp mỗi khóa, kết quả nạp bị bỏ nếu cache bị xóa
+ * trong lúc nạp, L1 trượt thì lấy từ L2 dùng chung, và thay đổi chỉ tồn kho
+ * không xóa các danh sách sản phẩm.
+ */
+class TwoTierCacheTest {
+
+    private final ExecutorService pool = Executors.newFixedThreadPool(4);
+
+    @AfterEach
+    void shutdown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    void evictTrongLucNapThiKhongGhiKetQuaCu() throws Exception {
+        TwoTierCache cache = new TwoTierCache("test", 10, Duration.ofMinutes(5), null);
+        CountDownLatch dangNap = new CountDownLatch(1);
+        CountDownLatch choEvict = new CountDownLatch(1);
+
+        Future<String> cu = pool.submit(() -> cache.get("k", () -> {
+            dangNap.countDown();
+            choEvict.await(5, TimeUnit.SECONDS);
+            return "cu";
+        }));
+        assertThat(dangNap.await(5, TimeUnit.SECONDS)).isTrue();
+        cache.evict("k");
+        choEvict.countDown();
+
+        assertThat(cu.get(5, TimeUnit.SECONDS)).isEqualTo("cu");
+        assertThat(cache.get("k")).isNull();
+        assertThat(cache.get("k", () -> "moi")).isEqualTo("moi");
+        assertThat(cache.get("k").get()).isEqualTo("moi");
+    }
+
+    @Test
+    void chiMotLuongNapMoiKhoa() throws Exception {
+        TwoTierCache cache = new TwoTierCache("test", 10, Duration.ofMinutes(5), null);
+        AtomicInteger soLanNap = new AtomicInteger();
+        CountDownLatch choPhepXong = new CountDownLatch(1);
+
+        List<Future<String>> futures = List.of(1, 2, 3, 4).stream()
+                .map(i -> pool.submit(() -> cache.get("k", () -> {
+                    soLanNap.incrementAndGet();
+                    choPhepXong.await(5, TimeUnit.SECONDS);
+                    return "v";
+                })))
+                .toList();
+        Thread.sleep(200);
+        choPhepXong.countDown();
+
+        for (Future<String> f : futures)
+            assertThat(f.get(5, TimeUnit.SECONDS)).isEqualTo("v");
+        assertThat(soLanNap.get()).isEqualTo(1);
+    }
+
+    @Test
+    void l1TruotThiLayTuL2VaEvictQuaCaHaiTang() {
+        InMemorySharedCacheStore shared = new InMemorySharedCacheStore();
+        TwoTierCache a = new TwoTierCache("test", 10, Duration.ofMinutes(5), shared);
+        TwoTierCache b = new TwoTierCache("test", 10, Duration.ofMinutes(5), shared);
+
+        a.put("k", "v");
+        assertThat(b.get("k").get()).isEqualTo("v");
+        assertThat(b.get("k").get()).isEqualTo("v");
+        assertThat(b.stats().l2Hits()).isEqualTo(1);
+        assertThat(b.stats().l1Hits()).isEqualTo(1);
+
+        // Giá trị null của method được bọc lại, không bị coi là miss
+        a.put("rong", null);
+        assertThat(b.get("rong")).isNotNull();
+        assertThat(b.get("rong").get()).isNull();
+
+        b.evict("k");
+        assertThat(a.get("k")).as("L1 của instance khác giữ tới hết TTL").isNotNull();
+        TwoTierCache c = new TwoTierCache("test", 10, Duration.ofMinutes(5), shared);
+        assertThat(c.get("k")).isNull();
+    }
+
+    @Test
+    void l1GioiHanSoMucTheoLru() {
+        TwoTierCache cache = new TwoTierCache("test", 2, Duration.ofMinutes(5), null);
+        cache.put(1, "a");
+        cache.put(2, "b");
+        cache.get(1);
+        cache.put(3, "c");
+
+        assertThat(cache.get(1)).isNotNull();
+        assertThat(cache.get(2)).isNull();
+        assertThat(cache.get(3)).isNotNull();
+        assertThat(cache.stats().evictions()).isEqualTo(1);
+    }
+
+    @Test
+    void tonKhoDoiKhongXoaDanhSachSanPham() {
+        TwoTierCacheManager manager = new TwoTierCacheManager(CacheNames.ALL.stream()
+                .map(name -> new TwoTierCache(name, 100, Duration.ofMinutes(5), null)).toList());
+        CatalogCacheInvalidator invalidator = new CatalogCacheInvalidator(manager);
+        for (String name : CacheNames.PER_PRODUCT)
+            manager.getTwoTierCache(name).put(7, name);
+        manager.getTwoTierCache(CacheNames.PRODUCT_LISTS).put("all", "ds");
+
+        invalidator.stockChanged(Set.of(7));
+
+        assertThat(manager.getTwoTierCache(CacheNames.PRODUCT_LISTS).get("all")).isNotNull();
+        assertThat(manager.getTwoTierCache(CacheNames.PRODUCT_WITH_IMAGES).get(7)).isNotNull();
+        assertThat(manager.getTwoTierCache(CacheNames.PRODUCT_DETAIL).get(7)).isNull();
+        assertThat(manager.getTwoTierCache(CacheNames.PRODUCT_SUMMARY).get(7)).isNull();
+
+        invalidator.productsChanged(Set.of(7));
+
+        assertThat(manager.getTwoTierCache(CacheNames.PRODUCT_LISTS).get("all")).isNull();
+        assertThat(manager.getTwoTierCache(CacheNames.PRODUCT_WITH_IMAGES).get(7)).isNull();
+    }
+}
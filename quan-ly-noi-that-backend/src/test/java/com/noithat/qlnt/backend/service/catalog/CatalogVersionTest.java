@@ -0,0 +1,72 @@
+package com.noithat.qlnt.backend.service.catalog;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import com.noithat.qlnt.backend.service.catalog.CatalogVersion.Nhom;
+
+/**
+ * ETag theo nhóm API: thay đổi chỉ tồn kho không làm đổi ETag của API không
+ * hiển thị tồn kho, sửa một sản phẩm chỉ đổi chi tiết của sản phẩm đó.
+ */
+class CatalogVersionTest {
+
+    private final CatalogVersion version = new CatalogVersion(3600);
+
+    @Test
+    void tonKhoDoiChiDoiDanhSachCoTonKhoVaChiTietSanPhamDo() {
+        String danhMuc = version.etag(Nhom.DANH_MUC, null);
+        String basic = version.etag(Nhom.DANH_SACH, null);
+        String shop = version.etag(Nhom.DANH_SACH_TON_KHO, null);
+        String chiTiet1 = version.etag(Nhom.CHI_TIET, 1);
+        String chiTiet2 = version.etag(Nhom.CHI_TIET, 2);
+
+        version.stockChanged(Set.of(1));
+
+        assertThat(version.etag(Nhom.DANH_MUC, null)).isEqualTo(danhMuc);
+        assertThat(version.etag(Nhom.DANH_SACH, null)).isEqualTo(basic);
+        assertThat(version.etag(Nhom.DANH_SACH_TON_KHO, null)).isNotEqualTo(shop);
+        assertThat(version.etag(Nhom.CHI_TIET, 1)).isNotEqualTo(chiTiet1);
+        assertThat(version.etag(Nhom.CHI_TIET, 2)).isEqualTo(chiTiet2);
+    }
+
+    @Test
+    void sanPhamDoiDoiDanhSachNhungChiChiTietSanPhamDo() {
+        String danhMuc = version.etag(Nhom.DANH_MUC, null);
+        String basic = version.etag(Nhom.DANH_SACH, null);
+        String chiTiet1 = version.etag(Nhom.CHI_TIET, 1);
+        String chiTiet2 = version.etag(Nhom.CHI_TIET, 2);
+
+        version.productsChanged(Set.of(1));
+
+        assertThat(version.etag(Nhom.DANH_MUC, null)).isNotEqualTo(danhMuc);
+        assertThat(version.etag(Nhom.DANH_SACH, null)).isNotEqualTo(basic);
+        assertThat(version.etag(Nhom.CHI_TIET, 1)).isNotEqualTo(chiTiet1);
+        assertThat(version.etag(Nhom.CHI_TIET, 2)).isEqualTo(chiTiet2);
+    }
+
+    @Test
+    void danhMucDoiKhongDoiSanPhamConToanBoThiDoiHet() {
+        String basic = version.etag(Nhom.DANH_SACH, null);
+        String chiTiet1 = version.etag(Nhom.CHI_TIET, 1);
+        String danhMuc = version.etag(Nhom.DANH_MUC, null);
+
+        version.bumpAfterCommit();
+
+        assertThat(version.etag(Nhom.DANH_MUC, null)).isNotEqualTo(danhMuc);
+        assertThat(version.etag(Nhom.DANH_SACH, null)).isEqualTo(basic);
+        assertThat(version.etag(Nhom.CHI_TIET, 1)).isEqualTo(chiTiet1);
+
+        version.productsChanged(Set.of(1));
+        String sauSua = version.etag(Nhom.CHI_TIET, 1);
+        String chiTiet2 = version.etag(Nhom.CHI_TIET, 2);
+        version.allChanged();
+
+        assertThat(version.etag(Nhom.DANH_SACH, null)).isNotEqualTo(basic);
+        assertThat(version.etag(Nhom.CHI_TIET, 1)).isNotEqualTo(sauSua).isNotEqualTo(chiTiet1);
+        assertThat(version.etag(Nhom.CHI_TIET, 2)).isNotEqualTo(chiTiet2);
+    }
+}
@@ -0,0 +1,150 @@
+package com.noithat.qlnt.backend.service.catalog;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import com.noithat.qlnt.backend.entity.DanhMuc;
+import com.noithat.qlnt.backend.entity.SanPham;
+import com.noithat.qlnt.backend.repository.BienTheSanPhamRepository;
+import com.noithat.qlnt.backend.repository.BienTheThuocTinhRepository;
+import com.noithat.qlnt.backend.repository.SanPhamRepository;
+
+/**
+ * Tìm kiếm sản phẩm: bỏ dấu tiếng Việt, tiền tố, gõ sai 1-2 ký tự, SKU/thuộc
+ * tính chỉ trả đúng biến thể, và cập nhật theo sản phẩm khi có thay đổi.
+ * Dữ liệu đọc từ các repository được mock.
+ */
+class ProductSearchIndexTest {
+
+    private final Map<Integer, SanPham> sanPhams = new HashMap<>();
+    // [maSanPham, maBienThe, sku, giaBan, soLuongTon]
+    private final List<Object[]> bienThes = new ArrayList<>();
+    // [maSanPham, maBienThe, giaTri]
+    private final List<Object[]> thuocTinhs = new ArrayList<>();
+    private ProductSearchIndex index;
+
+    @BeforeEach
+    void setUp() {
+        SanPhamRepository sanPhamRepository = mock(SanPhamRepository.class);
+        when(sanPhamRepository.findAllForShop()).thenAnswer(inv -> new ArrayList<>(sanPhams.values()));
+        when(sanPhamRepository.findAllForShopByIdIn(anyCollection())).thenAnswer(inv -> {
+            Collection<Integer> ids = inv.getArgument(0);
+            return ids.stream().filter(sanPhams::containsKey).map(sanPhams::get).toList();
+        });
+        BienTheSanPhamRepository bienTheSanPhamRepository = mock(BienTheSanPhamRepository.class);
+        when(bienTheSanPhamRepository.findShopRowsBySanPhamIdIn(anyCollection()))
+                .thenAnswer(inv -> theoSanPham(bienThes, inv.getArgument(0)));
+        BienTheThuocTinhRepository bienTheThuocTinhRepository = mock(BienTheThuocTinhRepository.class);
+        when(bienTheThuocTinhRepository.findSearchRowsBySanPhamIdIn(anyCollection()))
+                .thenAnswer(inv -> theoSanPham(thuocTinhs, inv.getArgument(0)));
+        index = new ProductSearchIndex(sanPhamRepository, bienTheSanPhamRepository, bienTheThuocTinhRepository,
+                mock(PlatformTransactionManager.class), 600);
+
+        sanPham(1, "Bàn ăn gỗ sồi", "Bàn ăn 6 ghế", "Phòng bếp");
+        bienThe(1, 11, "BAN-001");
+        bienThe(1, 12, "BAN-002");
+        thuocTinh(1, 11, "Nâu");
+        thuocTinh(1, 12, "Trắng");
+        sanPham(2, "Ghế sofa phòng khách", "Sofa da", "Phòng khách");
+        bienThe(2, 21, "SOFA-01");
+        sanPham(3, "Đèn ngủ", null, null);
+        bienThe(3, 31, "DEN-01");
+    }
+
+    @Test
+    void boDauVaTachTu() {
+        assertThat(SearchText.fold("Đường Bàn Ăn")).isEqualTo("duong ban an");
+        assertThat(SearchText.tokenize("Ghế-xoay (2024)")).containsExactly("ghe", "xoay", "2024");
+        assertThat(SearchText.boundedEditDistance("giuong", "guong", 2)).isEqualTo(1);
+        assertThat(SearchText.boundedEditDistance("ban", "sofa", 1)).isEqualTo(2);
+    }
+
+    @Test
+    void khongDauVanKhopCoDau() {
+        assertThat(index.searchProducts("ban an", 10)).containsExactly(1);
+        assertThat(index.searchProducts("ĐÈN", 10)).containsExactly(3);
+        assertThat(index.searchProducts("den ngu", 10)).containsExactly(3);
+        // Mọi từ phải khớp
+        assertThat(index.searchProducts("ban sofa", 10)).isEmpty();
+    }
+
+    @Test
+    void tienToVaGoSai() {
+        assertThat(index.suggest("gh", 10)).extracting(ProductSearchIndex.Suggestion::tenSanPham)
+                .contains("Ghế sofa phòng khách");
+        // Một ký tự sai
+        assertThat(index.searchProducts("sofq", 10)).containsExactly(2);
+        // Từ ngắn hơn 4 ký tự không thử gõ sai
+        assertThat(index.searchProducts("bam", 10)).isEmpty();
+    }
+
+    @Test
+    void skuVaThuocTinhChiTraBienTheMangTuDo() {
+        assertThat(index.searchVariants("trang", 10)).containsExactly(12);
+        assertThat(index.searchVariants("ban001", 10)).containsExactly(11);
+        assertThat(index.searchVariants("ban an", 10)).containsExactlyInAnyOrder(11, 12);
+        // Tên khớp cả sản phẩm, thuộc tính thu hẹp lại biến thể
+        assertThat(index.searchVariants("ban nau", 10)).containsExactly(11);
+    }
+
+    @Test
+    void tenKhopXepTruocMoTa() {
+        sanPham(4, "Kệ sách", "Kệ đặt cạnh bàn ăn", null);
+        index.productsChanged(Set.of(4));
+
+        assertThat(index.searchProducts("ban an", 10)).containsExactly(1, 4);
+    }
+
+    @Test
+    void capNhatTheoSanPhamSauThayDoi() {
+        assertThat(index.searchProducts("sofa", 10)).containsExactly(2);
+
+        sanPhams.get(2).setTenSanPham("Ghế thư giãn");
+        sanPhams.get(2).setMoTa(null);
+        bienThes.removeIf(r -> r[0].equals(2));
+        sanPhams.remove(3);
+        index.productsChanged(Set.of(2, 3));
+
+        assertThat(index.searchProducts("sofa", 10)).isEmpty();
+        assertThat(index.searchProducts("thu gian", 10)).containsExactly(2);
+        assertThat(index.searchProducts("den", 10)).isEmpty();
+    }
+
+    private void sanPham(int ma, String ten, String moTa, String danhMuc) {
+        SanPham sp = new SanPham();
+        sp.setMaSanPham(ma);
+        sp.setTenSanPham(ten);
+        sp.setMoTa(moTa);
+        if (danhMuc != null) {
+            DanhMuc dm = new DanhMuc();
+            dm.setTenDanhMuc(danhMuc);
+            sp.setDanhMuc(dm);
+        }
+        sanPhams.put(ma, sp);
+    }
+
+    private void bienThe(int maSanPham, int maBienThe, String sku) {
+        bienThes.add(new Object[] { maSanPham, maBienThe, sku, null, 1 });
+    }
+
+    private void thuocTinh(int maSanPham, int maBienThe, String giaTri) {
+        thuocTinhs.add(new Object[] { maSanPham, maBienThe, giaTri });
+    }
+
+    private static List<Object[]> theoSanPham(List<Object[]> rows, Collection<Integer> ids) {
+        return rows.stream().filter(r -> ids.contains((Integer) r[0])).toList();
+    }
+}
@@ -0,0 +1,201 @@
+package com.noithat.qlnt.backend.service.catalog;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.bean.override.mockito.MockitoSpyBean;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.noithat.qlnt.backend.dto.response.ShopProductPageResponseDto;
+import com.noithat.qlnt.backend.dto.response.ShopProductResponseDto;
+import com.noithat.qlnt.backend.entity.BienTheSanPham;
+import com.noithat.qlnt.backend.entity.DanhMuc;
+import com.noithat.qlnt.backend.entity.SanPham;
+import com.noithat.qlnt.backend.repository.SanPhamRepository;
+import com.noithat.qlnt.backend.support.JpaSliceTest;
+
+import jakarta.persistence.EntityManager;
+
+/**
+ * Snapshot trang shop: dựng toàn bộ ở lần đọc đầu, sau đó chỉ dựng lại các sản
+ * phẩm được đánh dấu (sau commit), kể cả sản phẩm mới và sản phẩm đã xóa. Lọc,
+ * sắp xếp, phân trang theo trang và theo cursor (keyset) trên snapshot.
+ *
+ * CSDL dùng chung giữa các lớp test nên mỗi test lọc theo một danh mục riêng.
+ */
+@Import({ ShopCatalogSnapshot.class, ShopProductAssembler.class })
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class ShopCatalogSnapshotTest extends JpaSliceTest {
+
+    @MockitoSpyBean
+    SanPhamRepository sanPhamRepository;
+
+    @Autowired
+    ShopCatalogSnapshot snapshot;
+    @Autowired
+    PlatformTransactionManager transactionManager;
+    @Autowired
+    EntityManager em;
+
+    private TransactionTemplate tx;
+    private Integer maDanhMuc;
+
+    @BeforeEach
+    void setUp() {
+        tx = new TransactionTemplate(transactionManager);
+        maDanhMuc = tx.execute(status -> {
+            DanhMuc dm = new DanhMuc();
+            dm.setTenDanhMuc("Danh mục " + UUID.randomUUID());
+            em.persist(dm);
+            return dm.getMaDanhMuc();
+        });
+    }
+
+    @Test
+    void chiDungLaiSanPhamDuocDanhDauSauCommit() {
+        Integer a = sanPham("Ghế A", "100000", 2);
+        Integer b = sanPham("Ghế B", "200000", 1);
+        assertThat(ten(query())).containsExactly("Ghế A", "Ghế B");
+        clearInvocations(sanPhamRepository);
+
+        // Chưa đánh dấu thì snapshot vẫn giữ bản cũ
+        tx.executeWithoutResult(status -> em.find(SanPham.class, a).setTenSanPham("Ghế A2"));
+        assertThat(ten(query())).containsExactly("Ghế A", "Ghế B");
+
+        // Đánh dấu trong transaction bị rollback: không có hiệu lực
+        tx.executeWithoutResult(status -> {
+            snapshot.markProductChanged(b);
+            status.setRollbackOnly();
+        });
+        assertThat(ten(query())).containsExactly("Ghế A", "Ghế B");
+
+        tx.executeWithoutResult(status -> snapshot.markProductChanged(a));
+        Integer c = sanPham("Ghế C", "50000", 0);
+        tx.executeWithoutResult(status -> {
+            em.remove(em.find(BienTheSanPham.class, bienThe(b)));
+            em.remove(em.find(SanPham.class, b));
+            snapshot.markProductsChanged(List.of(b, c));
+        });
+
+        assertThat(ten(query())).containsExactly("Ghế A2", "Ghế C");
+        verify(sanPhamRepository, never()).findAllForShop();
+        verify(sanPhamRepository).findAllForShopByIdIn(anyCollection());
+    }
+
+    @Test
+    void doiTonKhoDungLaiSanPham() {
+        Integer a = sanPham("Tủ", "300000", 4);
+        assertThat(query().getItems()).singleElement().extracting(ShopProductResponseDto::getTotalStock)
+                .isEqualTo(4);
+
+        tx.executeWithoutResult(status -> {
+            em.find(BienTheSanPham.class, bienThe(a)).setSoLuongTon(1);
+            snapshot.markStockChanged(a);
+        });
+
+        assertThat(query().getItems()).singleElement().extracting(ShopProductResponseDto::getTotalStock)
+                .isEqualTo(1);
+    }
+
+    @Test
+    void cursorDiHetDanhSachDaSapKhongTrungKhongSot() {
+        Integer a = sanPham("A", "300000", 1);
+        Integer b = sanPham("B", "100000", 1);
+        Integer c = sanPham("C", "200000", 0);
+        Integer d = sanPham("D", "100000", 1);
+        Integer e = sanPham("E", "400000", 1);
+
+        List<Integer> thuTu = new ArrayList<>();
+        String cursor = null;
+        int soTrang = 0;
+        do {
+            ShopProductPageResponseDto trang = query(new ShopProductQuery(null, null, null, null, null, null, false,
+                    false, ShopSort.PRICE_LOW, cursor, null, 2));
+            trang.getItems().forEach(dto -> thuTu.add(dto.getMaSanPham()));
+            // Trang theo cursor không đếm tổng
+            assertThat(trang.getTotalItems()).isEqualTo(cursor == null ? 5 : -1);
+            cursor = trang.getNextCursor();
+            soTrang++;
+        } while (cursor != null);
+
+        // Cùng giá thì theo mã sản phẩm
+        assertThat(thuTu).containsExactly(b, d, c, a, e);
+        assertThat(soTrang).isEqualTo(3);
+
+        ShopProductPageResponseDto giamDan = query(new ShopProductQuery(null, null, null, null, null, null, false,
+                false, ShopSort.PRICE_HIGH, null, 1, 2));
+        assertThat(giamDan.getItems()).extracting(ShopProductResponseDto::getMaSanPham).containsExactly(c, b);
+        assertThat(giamDan.getTotalItems()).isEqualTo(5);
+        assertThat(giamDan.getTotalPages()).isEqualTo(3);
+        assertThat(giamDan.isHasNext()).isTrue();
+    }
+
+    @Test
+    void locTheoGiaVaConHangTruocKhiPhanTrang() {
+        sanPham("A", "300000", 1);
+        Integer b = sanPham("B", "150000", 1);
+        sanPham("C", "200000", 0);
+        Integer d = sanPham("D", "250000", 2);
+        sanPham("E", "400000", 1);
+
+        ShopProductPageResponseDto trang = query(new ShopProductQuery(null, null, null, null, 150000.0, 280000.0,
+                true, false, ShopSort.PRICE_LOW, null, null, 1));
+
+        assertThat(trang.getItems()).extracting(ShopProductResponseDto::getMaSanPham).containsExactly(b);
+        assertThat(trang.getTotalItems()).isEqualTo(2);
+        ShopProductPageResponseDto sau = query(new ShopProductQuery(null, null, null, null, 150000.0, 280000.0,
+                true, false, ShopSort.PRICE_LOW, trang.getNextCursor(), null, 1));
+        assertThat(sau.getItems()).extracting(ShopProductResponseDto::getMaSanPham).containsExactly(d);
+        assertThat(sau.getNextCursor()).isNull();
+    }
+
+    private ShopProductPageResponseDto query(ShopProductQuery q) {
+        return tx.execute(status -> snapshot.query(q, Set.of(maDanhMuc), null));
+    }
+
+    private ShopProductPageResponseDto query() {
+        return query(ShopProductQuery.all());
+    }
+
+    private static List<String> ten(ShopProductPageResponseDto page) {
+        return page.getItems().stream().map(ShopProductResponseDto::getTenSanPham).toList();
+    }
+
+    private Integer sanPham(String ten, String giaBan, int ton) {
+        return tx.execute(status -> {
+            SanPham sp = new SanPham();
+            sp.setTenSanPham(ten);
+            sp.setDanhMuc(em.find(DanhMuc.class, maDanhMuc));
+            em.persist(sp);
+            BienTheSanPham b = new BienTheSanPham();
+            b.setSanPham(sp);
+            b.setSku("S-" + UUID.randomUUID());
+            b.setGiaBan(new BigDecimal(giaBan));
+            b.setSoLuongTon(ton);
+            em.persist(b);
+            snapshot.markProductChanged(sp.getMaSanPham());
+            return sp.getMaSanPham();
+        });
+    }
+
+    private Integer bienThe(Integer maSanPham) {
+        return em.createQuery("SELECT b.maBienThe FROM BienTheSanPham b WHERE b.sanPham.maSanPham = :id",
+                Integer.class).setParameter("id", maSanPham).getSingleResult();
+    }
+}
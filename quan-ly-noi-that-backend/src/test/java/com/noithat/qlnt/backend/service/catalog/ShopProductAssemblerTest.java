@@ -0,0 +1,175 @@
+package com.noithat.qlnt.backend.service.catalog;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.bean.override.mockito.MockitoSpyBean;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.noithat.qlnt.backend.dto.response.ShopProductResponseDto;
+import com.noithat.qlnt.backend.entity.BienTheGiamGia;
+import com.noithat.qlnt.backend.entity.BienTheSanPham;
+import com.noithat.qlnt.backend.entity.ChuongTrinhGiamGia;
+import com.noithat.qlnt.backend.entity.HinhAnhSanPham;
+import com.noithat.qlnt.backend.entity.SanPham;
+import com.noithat.qlnt.backend.repository.BienTheGiamGiaRepository;
+import com.noithat.qlnt.backend.repository.BienTheSanPhamRepository;
+import com.noithat.qlnt.backend.repository.DanhGiaSanPhamRepository;
+import com.noithat.qlnt.backend.repository.HinhAnhSanPhamRepository;
+import com.noithat.qlnt.backend.support.JpaSliceTest;
+
+import jakarta.persistence.EntityManager;
+
+/**
+ * Dựng DTO trang shop theo lô: đúng khoảng giá, tồn, biến thể rẻ nhất sau giảm
+ * giá, ảnh theo thứ tự và mốc hiệu lực của giảm giá; mỗi loại dữ liệu chỉ một
+ * truy vấn cho cả lô sản phẩm.
+ */
+@Import(ShopProductAssembler.class)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class ShopProductAssemblerTest extends JpaSliceTest {
+
+    @MockitoSpyBean
+    BienTheSanPhamRepository bienTheSanPhamRepository;
+    @MockitoSpyBean
+    HinhAnhSanPhamRepository hinhAnhSanPhamRepository;
+    @MockitoSpyBean
+    DanhGiaSanPhamRepository danhGiaSanPhamRepository;
+    @MockitoSpyBean
+    BienTheGiamGiaRepository bienTheGiamGiaRepository;
+
+    @Autowired
+    ShopProductAssembler assembler;
+    @Autowired
+    PlatformTransactionManager transactionManager;
+    @Autowired
+    EntityManager em;
+
+    @Test
+    void dungTheoLoVaGiuThuTuDauVao() {
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+        LocalDateTime ketThuc = LocalDateTime.now().plusDays(3).withNano(0);
+        LocalDateTime batDau = LocalDateTime.now().plusDays(1).withNano(0);
+        SanPham[] sp = tx.execute(status -> {
+            // Biến thể 500k đang giảm còn 250k, biến thể 300k hết hàng; ảnh chính thuTu 0
+            SanPham coGiam = sanPham();
+            BienTheSanPham dat = bienThe(coGiam, "500000", 3);
+            bienThe(coGiam, "300000", 0);
+            giamGia(dat, "250000", LocalDateTime.now().minusDays(1), ketThuc);
+            anh(coGiam, "phu.jpg", 1);
+            anh(coGiam, "chinh.jpg", 0);
+            // Giảm giá chưa bắt đầu không đổi giá nhưng đặt mốc dựng lại
+            SanPham sapGiam = sanPham();
+            giamGia(bienThe(sapGiam, "800000", 2), "400000", batDau, batDau.plusDays(5));
+            SanPham khongBienThe = sanPham();
+            return new SanPham[] { coGiam, sapGiam, khongBienThe };
+        });
+
+        List<ShopProductAssembler.Entry> entries = tx
+                .execute(status -> assembler.assembleEntries(List.of(sp[2], sp[0], sp[1])));
+
+        assertThat(entries).extracting(e -> e.dto().getMaSanPham()).containsExactly(sp[2].getMaSanPham(),
+                sp[0].getMaSanPham(), sp[1].getMaSanPham());
+
+        ShopProductResponseDto coGiam = entries.get(1).dto();
+        assertThat(coGiam.getMinPrice()).isEqualTo(250000.0);
+        assertThat(coGiam.getMaxPrice()).isEqualTo(500000.0);
+        assertThat(coGiam.getTotalStock()).isEqualTo(3);
+        assertThat(coGiam.getAvailableVariantCount()).isEqualTo(1);
+        assertThat(coGiam.getSoLuongBienThe()).isEqualTo(2);
+        assertThat(coGiam.getLowestVariantPrice()).isEqualTo(250000.0);
+        assertThat(coGiam.getLowestVariantOriginalPrice()).isEqualTo(500000.0);
+        assertThat(coGiam.getLowestVariantDiscountPercent()).isEqualTo(50);
+        assertThat(coGiam.getDiscountPercent()).isEqualTo(50);
+        assertThat(coGiam.getImages()).containsExactly("chinh.jpg", "phu.jpg");
+        assertThat(coGiam.getReviewCount()).isZero();
+        assertThat(entries.get(1).dangGiamGia()).isTrue();
+        assertThat(entries.get(1).validUntil()).isEqualTo(ketThuc.plusNanos(1));
+
+        ShopProductResponseDto sapGiam = entries.get(2).dto();
+        assertThat(sapGiam.getLowestVariantPrice()).isEqualTo(800000.0);
+        assertThat(sapGiam.getDiscountPercent()).isZero();
+        assertThat(entries.get(2).dangGiamGia()).isFalse();
+        assertThat(entries.get(2).validUntil()).isEqualTo(batDau);
+
+        ShopProductResponseDto khongBienThe = entries.get(0).dto();
+        assertThat(khongBienThe.getSoLuongBienThe()).isZero();
+        assertThat(khongBienThe.getMinPrice()).isZero();
+        assertThat(khongBienThe.getLowestVariantId()).isNull();
+        assertThat(entries.get(0).validUntil()).isNull();
+
+        // Một truy vấn theo tập cho mỗi loại dữ liệu, không phụ thuộc số sản phẩm
+        verify(bienTheSanPhamRepository, times(1)).findShopRowsBySanPhamIdIn(anyCollection());
+        verify(hinhAnhSanPhamRepository, times(1)).findImageUrlsBySanPhamIdIn(anyCollection());
+        verify(danhGiaSanPhamRepository, times(1)).findRatingSummaryByProductIdIn(anyCollection());
+        verify(bienTheGiamGiaRepository, times(1)).findDiscountRowsBySanPhamIdIn(anyCollection());
+    }
+
+    @Test
+    void chiaMenhDeInThanhLo() {
+        List<Integer> ids = IntStream.rangeClosed(1, ShopProductAssembler.IN_CLAUSE_BATCH_SIZE * 2 + 1)
+                .boxed().toList();
+        List<Integer> kichThuoc = new ArrayList<>();
+
+        ShopProductAssembler.forEachBatch(ids, batch -> kichThuoc.add(batch.size()));
+
+        assertThat(kichThuoc).containsExactly(ShopProductAssembler.IN_CLAUSE_BATCH_SIZE,
+                ShopProductAssembler.IN_CLAUSE_BATCH_SIZE, 1);
+    }
+
+    private SanPham sanPham() {
+        SanPham sp = new SanPham();
+        sp.setTenSanPham("Sản phẩm " + UUID.randomUUID());
+        em.persist(sp);
+        return sp;
+    }
+
+    private BienTheSanPham bienThe(SanPham sp, String giaBan, int ton) {
+        BienTheSanPham b = new BienTheSanPham();
+        b.setSanPham(sp);
+        b.setSku("S-" + UUID.randomUUID());
+        b.setGiaBan(new BigDecimal(giaBan));
+        b.setSoLuongTon(ton);
+        em.persist(b);
+        return b;
+    }
+
+    private void giamGia(BienTheSanPham b, String giaSauGiam, LocalDateTime batDau, LocalDateTime ketThuc) {
+        ChuongTrinhGiamGia ct = new ChuongTrinhGiamGia();
+        ct.setTenChuongTrinh("CT " + UUID.randomUUID());
+        ct.setNgayBatDau(batDau);
+        ct.setNgayKetThuc(ketThuc);
+        ct.setLoaiGiamGia("FIXED");
+        ct.setGiaTriGiam(BigDecimal.ONE);
+        em.persist(ct);
+        BienTheGiamGia g = new BienTheGiamGia();
+        g.setId(new BienTheGiamGia.BienTheGiamGiaId(b.getMaBienThe(), ct.getMaChuongTrinhGiamGia()));
+        g.setBienTheSanPham(b);
+        g.setChuongTrinhGiamGia(ct);
+        g.setGiaSauGiam(new BigDecimal(giaSauGiam));
+        em.persist(g);
+    }
+
+    private void anh(SanPham sp, String duongDan, int thuTu) {
+        HinhAnhSanPham h = new HinhAnhSanPham();
+        h.setSanPham(sp);
+        h.setDuongDanHinhAnh(duongDan);
+        h.setThuTu(thuTu);
+        em.persist(h);
+    }
+}
@@ -0,0 +1,66 @@
+package com.noithat.qlnt.backend.service.catalog;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.noithat.qlnt.backend.dto.response.ShopProductResponseDto;
+
+/**
+ * Kiểu sắp xếp trang shop: mã tham số, thứ tự toàn phần (khóa rồi mã, khóa null
+ * xếp cuối) và cursor keyset.
+ */
+class ShopSortTest {
+
+    @Test
+    void maThamSoKhongHopLeThiLaFeatured() {
+        assertThat(ShopSort.fromCode(" Price-Low ")).isEqualTo(ShopSort.PRICE_LOW);
+        assertThat(ShopSort.fromCode("khong-co")).isEqualTo(ShopSort.FEATURED);
+        assertThat(ShopSort.fromCode(null)).isEqualTo(ShopSort.FEATURED);
+    }
+
+    @Test
+    void khongCoTuKhoaThiKhongSapTheoLienQuan() {
+        assertThat(new ShopProductQuery(" ", null, null, null, null, null, false, false, ShopSort.RELEVANCE, null,
+                null, null).sapXep()).isEqualTo(ShopSort.FEATURED);
+        assertThat(new ShopProductQuery("ghế", null, null, null, null, null, false, false, null, null, null, null)
+                .sapXep()).isEqualTo(ShopSort.RELEVANCE);
+    }
+
+    @Test
+    void sapTheoKhoaRoiTheoMaKhoaNullXepCuoi() {
+        List<ShopProductResponseDto> list = new ArrayList<>(List.of(dto(3, 5.0), dto(1, null), dto(2, 4.0),
+                dto(4, 5.0)));
+
+        list.sort(ShopSort.RATING.comparator());
+
+        assertThat(list).extracting(ShopProductResponseDto::getMaSanPham).containsExactly(3, 4, 2, 1);
+    }
+
+    @Test
+    void cursorGiuKhoaVaMa() {
+        ShopSort.Cursor c = ShopSort.PRICE_LOW.decodeCursor(ShopSort.PRICE_LOW.encodeCursor(42, 199000.5));
+        assertThat(c.maSanPham()).isEqualTo(42);
+        assertThat(c.key()).isEqualTo(199000.5);
+
+        ShopSort.Cursor ten = ShopSort.NAME.decodeCursor(ShopSort.NAME.encodeCursor(7, "bàn | ăn"));
+        assertThat(ten.key()).isEqualTo("bàn | ăn");
+
+        ShopSort.Cursor khongKhoa = ShopSort.RATING.decodeCursor(ShopSort.RATING.encodeCursor(9, null));
+        assertThat(khongKhoa.key()).isNull();
+
+        assertThatThrownBy(() -> ShopSort.PRICE_LOW.decodeCursor("!!!"))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static ShopProductResponseDto dto(int ma, Double diem) {
+        ShopProductResponseDto dto = new ShopProductResponseDto();
+        dto.setMaSanPham(ma);
+        dto.setAverageRating(diem);
+        return dto;
+    }
+}
@@ -0,0 +1,200 @@
+package com.noithat.qlnt.backend.service.checkout;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.noithat.qlnt.backend.dto.request.CheckoutSummaryRequest;
+import com.noithat.qlnt.backend.dto.request.ThanhToanRequest;
+import com.noithat.qlnt.backend.dto.response.CheckoutSummaryResponse;
+import com.noithat.qlnt.backend.entity.HangThanhVien;
+import com.noithat.qlnt.backend.entity.KhachHang;
+import com.noithat.qlnt.backend.entity.VipBenefit;
+import com.noithat.qlnt.backend.entity.Voucher;
+import com.noithat.qlnt.backend.entity.VoucherHangThanhVien;
+import com.noithat.qlnt.backend.repository.KhachHangRepository;
+import com.noithat.qlnt.backend.repository.VipBenefitRepository;
+import com.noithat.qlnt.backend.repository.VoucherRepository;
+import com.noithat.qlnt.backend.service.CauHinhService;
+import com.noithat.qlnt.backend.service.VipBenefitProcessor;
+import com.noithat.qlnt.backend.service.checkout.VariantPriceCache.GiaBienThe;
+import com.noithat.qlnt.backend.service.vip.VipBenefitRuleCache;
+import com.noithat.qlnt.backend.service.voucher.VoucherEligibilityIndex;
+
+/**
+ * Đối chiếu CheckoutPricingEngine với bộ kết quả mẫu của sp_GetCheckoutSummary
+ * (checkout/checkout-summary-golden.json): hạng VIP có và chưa đạt ngưỡng,
+ * voucher phần trăm, cố định, bị chặn trần, chưa đạt đơn tối thiểu, voucher
+ * của hạng khác, dùng điểm, tổng giảm vượt tạm tính và miễn phí vận chuyển theo
+ * ngưỡng.
+ *
+ * Chỉ mục voucher và quy tắc ưu đãi hạng là mã thật trên dữ liệu của bộ mẫu;
+ * giá biến thể, khách hàng và cấu hình được mock.
+ */
+class CheckoutPricingEngineGoldenTest {
+
+    private static final String FIXTURE = "/checkout/checkout-summary-golden.json";
+
+    private static JsonNode fixture;
+    private static CheckoutPricingEngine engine;
+
+    @BeforeAll
+    static void setUp() throws IOException {
+        try (InputStream in = CheckoutPricingEngineGoldenTest.class.getResourceAsStream(FIXTURE)) {
+            fixture = new ObjectMapper().readTree(in);
+        }
+
+        Map<Integer, GiaBienThe> gia = new HashMap<>();
+        for (JsonNode b : fixture.get("bienThe")) {
+            gia.put(b.get("ma").asInt(), new GiaBienThe(b.get("ma").asInt(), 1, so(b, "giaBan"),
+                    b.path("diemThuong").asInt(), so(b, "giaSauGiam"), ngay(b, "ngayBatDau"), ngay(b, "ngayKetThuc")));
+        }
+        VariantPriceCache variantPriceCache = mock(VariantPriceCache.class);
+        when(variantPriceCache.layGia(anyCollection())).thenAnswer(inv -> {
+            Collection<Integer> ids = inv.getArgument(0);
+            Map<Integer, GiaBienThe> kq = new HashMap<>();
+            ids.forEach(id -> kq.put(id, gia.get(id)));
+            return kq;
+        });
+
+        Map<Integer, HangThanhVien> hangs = new HashMap<>();
+        Map<Integer, List<VipBenefit>> uuDai = new HashMap<>();
+        for (JsonNode h : fixture.get("hang")) {
+            HangThanhVien hang = new HangThanhVien();
+            hang.setMaHangThanhVien(h.get("ma").asInt());
+            hang.setTenHang(h.get("ten").asText());
+            hangs.put(hang.getMaHangThanhVien(), hang);
+            List<VipBenefit> list = new ArrayList<>();
+            for (JsonNode u : h.get("uuDai")) {
+                VipBenefit vb = new VipBenefit();
+                vb.setHangThanhVien(hang);
+                vb.setBenefitType(u.get("loai").asText());
+                vb.setParams(u.get("params").asText());
+                list.add(vb);
+            }
+            uuDai.put(hang.getMaHangThanhVien(), list);
+        }
+        VipBenefitRepository vipBenefitRepository = mock(VipBenefitRepository.class);
+        when(vipBenefitRepository.findByHangThanhVien_MaHangThanhVien(anyInt()))
+                .thenAnswer(inv -> uuDai.getOrDefault(inv.getArgument(0), List.of()));
+
+        KhachHangRepository khachHangRepository = mock(KhachHangRepository.class);
+        when(khachHangRepository.findById(any())).thenReturn(Optional.empty());
+        for (JsonNode k : fixture.get("khachHang")) {
+            KhachHang kh = new KhachHang();
+            kh.setMaKhachHang(k.get("ma").asInt());
+            kh.setHangThanhVien(hangs.get(k.get("hang").asInt()));
+            when(khachHangRepository.findById(kh.getMaKhachHang())).thenReturn(Optional.of(kh));
+        }
+
+        List<Voucher> vouchers = new ArrayList<>();
+        for (JsonNode v : fixture.get("voucher")) {
+            Voucher voucher = new Voucher();
+            voucher.setMaVoucher(v.get("ma").asInt());
+            voucher.setMaCode(v.get("maCode").asText());
+            voucher.setLoaiGiamGia(v.get("loai").asText());
+            voucher.setGiaTriGiam(so(v, "giaTri"));
+            voucher.setGiaTriGiamToiDa(so(v, "toiDa"));
+            voucher.setGiaTriDonHangToiThieu(v.has("toiThieu") ? so(v, "toiThieu") : BigDecimal.ZERO);
+            Set<VoucherHangThanhVien> links = new HashSet<>();
+            for (JsonNode maHang : v.path("hang")) {
+                VoucherHangThanhVien l = new VoucherHangThanhVien();
+                l.setId(new VoucherHangThanhVien.VoucherHangThanhVienId(voucher.getMaVoucher(), maHang.asInt()));
+                l.setHangThanhVien(hangs.get(maHang.asInt()));
+                links.add(l);
+            }
+            voucher.setApDungChoMoiNguoi(links.isEmpty());
+            voucher.setHanCheHangThanhVien(links);
+            vouchers.add(voucher);
+        }
+        VoucherRepository voucherRepository = mock(VoucherRepository.class);
+        when(voucherRepository.findAllWithHang()).thenReturn(vouchers);
+
+        JsonNode cauHinh = fixture.get("cauHinh");
+        CauHinhService cauHinhService = mock(CauHinhService.class);
+        when(cauHinhService.getInt(anyString(), any())).thenAnswer(inv -> cauHinh.has((String) inv.getArgument(0))
+                ? Integer.valueOf(cauHinh.get((String) inv.getArgument(0)).asInt())
+                : inv.getArgument(1));
+        when(cauHinhService.getDecimal(anyString(), any())).thenAnswer(inv -> cauHinh.has((String) inv.getArgument(0))
+                ? so(cauHinh, inv.getArgument(0))
+                : inv.getArgument(1));
+
+        engine = new CheckoutPricingEngine(variantPriceCache, khachHangRepository,
+                new VipBenefitProcessor(new VipBenefitRuleCache(vipBenefitRepository, 300)),
+                new VoucherEligibilityIndex(voucherRepository), cauHinhService, "java", 0);
+    }
+
+    static Stream<Arguments> truongHop() throws IOException {
+        try (InputStream in = CheckoutPricingEngineGoldenTest.class.getResourceAsStream(FIXTURE)) {
+            JsonNode root = new ObjectMapper().readTree(in);
+            List<Arguments> list = new ArrayList<>();
+            root.get("truongHop").forEach(c -> list.add(Arguments.of(c.get("ten").asText(), c)));
+            return list.stream();
+        }
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("truongHop")
+    void khopVoiProcedure(String ten, JsonNode c) {
+        CheckoutSummaryRequest request = new CheckoutSummaryRequest();
+        request.setMaKhachHang(c.has("khachHang") ? c.get("khachHang").asInt() : null);
+        request.setMaVoucherCode(c.has("voucher") ? c.get("voucher").asText() : null);
+        request.setDiemSuDung(c.path("diemSuDung").asInt(0));
+        request.setConfigKeyShip(c.has("ship") ? c.get("ship").asText() : null);
+        List<ThanhToanRequest> dong = new ArrayList<>();
+        for (JsonNode d : c.get("dong")) {
+            ThanhToanRequest item = new ThanhToanRequest();
+            item.setMaBienThe(d.get(0).asInt());
+            item.setSoLuong(d.get(1).asInt());
+            dong.add(item);
+        }
+        request.setChiTietDonHang(dong);
+
+        CheckoutSummaryResponse kq = engine.tinh(request);
+
+        JsonNode mong = c.get("ketQua");
+        assertThat(kq.getTamTinh()).as("TamTinh").isEqualByComparingTo(so(mong, "TamTinh"));
+        assertThat(kq.getGiamGiaVip()).as("GiamGiaVip").isEqualByComparingTo(so(mong, "GiamGiaVip"));
+        assertThat(kq.getGiamGiaVoucher()).as("GiamGiaVoucher").isEqualByComparingTo(so(mong, "GiamGiaVoucher"));
+        assertThat(kq.getGiamGiaDiem()).as("GiamGiaDiem").isEqualByComparingTo(so(mong, "GiamGiaDiem"));
+        assertThat(kq.getPhiGiaoHang()).as("PhiGiaoHang").isEqualTo(mong.get("PhiGiaoHang").asText());
+        assertThat(kq.getTongCong()).as("TongCong").isEqualByComparingTo(so(mong, "TongCong"));
+        assertThat(kq.getDiemThuongNhanDuoc()).as("DiemThuongNhanDuoc")
+                .isEqualByComparingTo(so(mong, "DiemThuongNhanDuoc"));
+        assertThat(kq.getTongGiamGia()).as("TongGiamGia").isEqualByComparingTo(so(mong, "GiamGiaVip")
+                .add(so(mong, "GiamGiaVoucher")).add(so(mong, "GiamGiaDiem")));
+    }
+
+    private static BigDecimal so(JsonNode node, String ten) {
+        return node.hasNonNull(ten) ? new BigDecimal(node.get(ten).asText()) : null;
+    }
+
+    private static LocalDateTime ngay(JsonNode node, String ten) {
+        return node.hasNonNull(ten) ? LocalDateTime.parse(node.get(ten).asText()) : null;
+    }
+}
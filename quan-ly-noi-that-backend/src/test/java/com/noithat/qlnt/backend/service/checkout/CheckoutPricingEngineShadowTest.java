@@ -0,0 +1,81 @@
+package com.noithat.qlnt.backend.service.checkout;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+import com.noithat.qlnt.backend.dto.request.CheckoutSummaryRequest;
+import com.noithat.qlnt.backend.dto.response.CheckoutSummaryResponse;
+import com.noithat.qlnt.backend.repository.KhachHangRepository;
+import com.noithat.qlnt.backend.repository.VipBenefitRepository;
+import com.noithat.qlnt.backend.repository.VoucherRepository;
+import com.noithat.qlnt.backend.service.CauHinhService;
+import com.noithat.qlnt.backend.service.VipBenefitProcessor;
+import com.noithat.qlnt.backend.service.vip.VipBenefitRuleCache;
+import com.noithat.qlnt.backend.service.voucher.VoucherEligibilityIndex;
+
+/**
+ * Chế độ shadow: guiDoiChieu trả về ngay, phép tính lại chạy trên luồng nền
+ * và chỉ với phần yêu cầu được lấy mẫu.
+ */
+class CheckoutPricingEngineShadowTest {
+
+    @Test
+    void doiChieuChayTrenLuongNen() throws InterruptedException {
+        VariantPriceCache gia = mock(VariantPriceCache.class);
+        CountDownLatch daTinh = new CountDownLatch(1);
+        AtomicReference<String> luong = new AtomicReference<>();
+        when(gia.layGia(anyCollection())).thenAnswer(inv -> {
+            luong.set(Thread.currentThread().getName());
+            daTinh.countDown();
+            return Map.of();
+        });
+        CheckoutPricingEngine engine = engine(gia, 1.0);
+        try {
+            engine.guiDoiChieu(request(), new CheckoutSummaryResponse());
+
+            assertThat(daTinh.await(5, TimeUnit.SECONDS)).isTrue();
+            assertThat(luong.get()).isEqualTo("checkout-shadow");
+        } finally {
+            engine.shutdown();
+        }
+    }
+
+    @Test
+    void tiLeKhongThiKhongTinhLai() {
+        VariantPriceCache gia = mock(VariantPriceCache.class);
+        CheckoutPricingEngine engine = engine(gia, 0);
+        try {
+            for (int i = 0; i < 50; i++)
+                engine.guiDoiChieu(request(), new CheckoutSummaryResponse());
+
+            verify(gia, never()).layGia(anyCollection());
+        } finally {
+            engine.shutdown();
+        }
+    }
+
+    private static CheckoutPricingEngine engine(VariantPriceCache gia, double tiLe) {
+        return new CheckoutPricingEngine(gia, mock(KhachHangRepository.class),
+                new VipBenefitProcessor(new VipBenefitRuleCache(mock(VipBenefitRepository.class), 300)),
+                new VoucherEligibilityIndex(mock(VoucherRepository.class)), mock(CauHinhService.class), "shadow",
+                tiLe);
+    }
+
+    private static CheckoutSummaryRequest request() {
+        CheckoutSummaryRequest request = new CheckoutSummaryRequest();
+        request.setChiTietDonHang(List.of());
+        return request;
+    }
+}
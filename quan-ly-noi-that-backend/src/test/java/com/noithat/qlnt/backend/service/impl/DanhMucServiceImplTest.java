@@ -0,0 +1,162 @@
+package com.noithat.qlnt.backend.service.impl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.noithat.qlnt.backend.dto.common.DanhMucDto;
+import com.noithat.qlnt.backend.dto.common.DanhMucPathItem;
+import com.noithat.qlnt.backend.entity.DanhMuc;
+import com.noithat.qlnt.backend.entity.SanPham;
+import com.noithat.qlnt.backend.service.catalog.CatalogVersion;
+import com.noithat.qlnt.backend.service.catalog.ShopCatalogSnapshot;
+import com.noithat.qlnt.backend.support.JpaSliceTest;
+
+import jakarta.persistence.EntityManager;
+
+/**
+ * Bảng closure của cây danh mục: tạo, liên kết (kể cả chuyển cả cây con sang
+ * cha mới), hủy liên kết và xóa giữ bảng khớp với cột parent; chặn liên kết
+ * tạo vòng; dựng lại từ cột parent khi có danh mục tạo ngoài service.
+ *
+ * Các câu SQL thuần của bảng closure chạy thật trên H2. CSDL dùng chung giữa
+ * các lớp test nên mỗi test tạo cây riêng và chỉ hỏi trong cây đó.
+ */
+@Import(DanhMucServiceImpl.class)
+@MockitoBean(types = { ShopCatalogSnapshot.class, CatalogVersion.class })
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class DanhMucServiceImplTest extends JpaSliceTest {
+
+    @Autowired
+    DanhMucServiceImpl danhMucService;
+    @Autowired
+    PlatformTransactionManager transactionManager;
+    @Autowired
+    EntityManager em;
+
+    private TransactionTemplate tx;
+
+    @BeforeEach
+    void setUp() {
+        tx = new TransactionTemplate(transactionManager);
+    }
+
+    @Test
+    void chuyenCayConSangChaMoiVaHuyLienKet() {
+        Integer goc = tao("Gốc");
+        Integer a = tao("A");
+        Integer b = tao("B");
+        Integer c = tao("C");
+        danhMucService.linkParentToChild(a, goc);
+        danhMucService.linkParentToChild(b, a);
+        danhMucService.linkParentToChild(c, goc);
+
+        assertThat(danhMucService.getSelfAndDescendantIds(goc)).containsExactlyInAnyOrder(goc, a, b, c);
+        assertThat(duongDan(b)).containsExactly(goc, a, b);
+        assertThat(danhMucService.getChildren(goc)).extracting(DanhMuc::getMaDanhMuc)
+                .containsExactlyInAnyOrder(a, c);
+
+        // Chuyển A (kèm B) xuống dưới C
+        danhMucService.linkParentToChild(a, c);
+        assertThat(duongDan(b)).containsExactly(goc, c, a, b);
+        assertThat(danhMucService.getSelfAndDescendantIds(c)).containsExactlyInAnyOrder(c, a, b);
+        assertThat(danhMucService.getChildren(goc)).extracting(DanhMuc::getMaDanhMuc).containsExactly(c);
+
+        danhMucService.unlinkParentFromChild(a, c);
+        assertThat(danhMucService.getSelfAndDescendantIds(goc)).containsExactlyInAnyOrder(goc, c);
+        assertThat(duongDan(b)).containsExactly(a, b);
+        assertThat(danhMucService.getSelfAndDescendantIds(a)).containsExactlyInAnyOrder(a, b);
+    }
+
+    @Test
+    void chanLienKetTaoVong() {
+        Integer goc = tao("Gốc");
+        Integer con = tao("Con");
+        danhMucService.linkParentToChild(con, goc);
+
+        assertThatThrownBy(() -> danhMucService.linkParentToChild(goc, con))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> danhMucService.linkParentToChild(goc, goc))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThat(duongDan(con)).containsExactly(goc, con);
+        assertThat(duongDan(goc)).containsExactly(goc);
+    }
+
+    @Test
+    void xoaDanhMucGiuaConThanhGocVaDemSanPhamTheoCayCon() {
+        Integer goc = tao("Gốc");
+        Integer giua = tao("Giữa");
+        Integer la = tao("Lá");
+        danhMucService.linkParentToChild(giua, goc);
+        danhMucService.linkParentToChild(la, giua);
+        sanPham(goc);
+        sanPham(la);
+        sanPham(la);
+
+        assertThat(danhMucService.countProductsInSubtree(goc)).isEqualTo(3);
+        assertThat(danhMucService.countProductsInSubtree(giua)).isEqualTo(2);
+        assertThat(danhMucService.countProductsBySubtree()).containsEntry(goc, 3L).containsEntry(la, 2L);
+
+        danhMucService.deleteDanhMuc(giua);
+
+        assertThat(duongDan(la)).containsExactly(la);
+        assertThat(danhMucService.getSelfAndDescendantIds(goc)).containsExactly(goc);
+        assertThat(danhMucService.countProductsInSubtree(goc)).isEqualTo(1);
+    }
+
+    @Test
+    void dungLaiClosureKhiCoDanhMucTaoNgoaiService() {
+        Integer goc = tao("Gốc");
+        // Danh mục ghi thẳng bằng JPA: có parent nhưng không có dòng closure
+        Integer[] ngoai = tx.execute(status -> {
+            DanhMuc cha = danhMuc("Ngoài cha");
+            cha.setParent(em.getReference(DanhMuc.class, goc));
+            em.persist(cha);
+            DanhMuc con = danhMuc("Ngoài con");
+            con.setParent(cha);
+            em.persist(con);
+            return new Integer[] { cha.getMaDanhMuc(), con.getMaDanhMuc() };
+        });
+        assertThat(danhMucService.getSelfAndDescendantIds(goc)).containsExactly(goc);
+
+        danhMucService.rebuildClosureIfInconsistent();
+
+        assertThat(duongDan(ngoai[1])).containsExactly(goc, ngoai[0], ngoai[1]);
+        assertThat(danhMucService.getSelfAndDescendantIds(goc)).containsExactlyInAnyOrder(goc, ngoai[0], ngoai[1]);
+    }
+
+    private Integer tao(String ten) {
+        return danhMucService.createDanhMuc(new DanhMucDto(ten + " " + UUID.randomUUID(), null)).getMaDanhMuc();
+    }
+
+    private List<Integer> duongDan(Integer id) {
+        return danhMucService.getPath(id).stream().map(DanhMucPathItem::maDanhMuc).toList();
+    }
+
+    private void sanPham(Integer maDanhMuc) {
+        tx.executeWithoutResult(status -> {
+            SanPham sp = new SanPham();
+            sp.setTenSanPham("Sản phẩm " + UUID.randomUUID());
+            sp.setDanhMuc(em.getReference(DanhMuc.class, maDanhMuc));
+            em.persist(sp);
+        });
+    }
+
+    private static DanhMuc danhMuc(String ten) {
+        DanhMuc dm = new DanhMuc();
+        dm.setTenDanhMuc(ten + " " + UUID.randomUUID());
+        return dm;
+    }
+}
@@ -0,0 +1,296 @@
+package com.noithat.qlnt.backend.service.impl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.context.bean.override.mockito.MockitoSpyBean;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.noithat.qlnt.backend.dto.response.ProductCompareMatrixResponse;
+import com.noithat.qlnt.backend.dto.response.ProductDetailWithVariantsDto;
+import com.noithat.qlnt.backend.entity.BienTheGiamGia;
+import com.noithat.qlnt.backend.entity.BienTheSanPham;
+import com.noithat.qlnt.backend.entity.BienTheThuocTinh;
+import com.noithat.qlnt.backend.entity.ChuongTrinhGiamGia;
+import com.noithat.qlnt.backend.entity.DanhMuc;
+import com.noithat.qlnt.backend.entity.HinhAnhSanPham;
+import com.noithat.qlnt.backend.entity.SanPham;
+import com.noithat.qlnt.backend.entity.ThuocTinh;
+import com.noithat.qlnt.backend.entity.TonKhoTongHop;
+import com.noithat.qlnt.backend.repository.BienTheSanPhamRepository;
+import com.noithat.qlnt.backend.service.CloudinaryService;
+import com.noithat.qlnt.backend.service.IDanhMucService;
+import com.noithat.qlnt.backend.service.catalog.ProductSearchIndex;
+import com.noithat.qlnt.backend.service.catalog.ShopCatalogSnapshot;
+import com.noithat.qlnt.backend.service.catalog.ShopProductAssembler;
+import com.noithat.qlnt.backend.service.inventory.StockMutationEngine;
+import com.noithat.qlnt.backend.support.JpaSliceTest;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityNotFoundException;
+
+/**
+ * Chi tiết sản phẩm: biến thể kèm thuộc tính, giảm giá đang hiệu lực, thông số
+ * tổng hợp và ảnh được dựng một lần rồi cache theo mã; sản phẩm liên quan luôn
+ * lấy lại từ snapshot trang shop. Ma trận so sánh: cột theo thứ tự yêu cầu,
+ * mỗi hàng một thuộc tính với giá trị của các biến thể gộp trong một ô.
+ *
+ * CSDL dùng chung giữa các lớp test nên mỗi test dùng danh mục và thuộc tính riêng.
+ */
+@Import({ ProductServiceImpl.class, ShopCatalogSnapshot.class, ShopProductAssembler.class,
+        ProductServiceImplTest.CacheConfig.class })
+@MockitoBean(types = { CloudinaryService.class, StockMutationEngine.class, IDanhMucService.class,
+        ProductSearchIndex.class })
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class ProductServiceImplTest extends JpaSliceTest {
+
+    @TestConfiguration
+    static class CacheConfig {
+        @Bean
+        CacheManager cacheManager() {
+            return new ConcurrentMapCacheManager();
+        }
+    }
+
+    @MockitoSpyBean
+    BienTheSanPhamRepository bienTheRepository;
+
+    @Autowired
+    ProductServiceImpl productService;
+    @Autowired
+    ShopCatalogSnapshot snapshot;
+    @Autowired
+    PlatformTransactionManager transactionManager;
+    @Autowired
+    EntityManager em;
+
+    private TransactionTemplate tx;
+    private DanhMuc danhMuc;
+
+    @BeforeEach
+    void setUp() {
+        tx = new TransactionTemplate(transactionManager);
+        danhMuc = tx.execute(status -> {
+            DanhMuc dm = new DanhMuc();
+            dm.setTenDanhMuc("Danh mục " + UUID.randomUUID());
+            em.persist(dm);
+            return dm;
+        });
+    }
+
+    @Test
+    void dungChiTietBienTheGiamGiaThongSoVaAnh() {
+        String mau = "Màu " + UUID.randomUUID();
+        String chatLieu = "Chất liệu " + UUID.randomUUID();
+        Integer[] ids = tx.execute(status -> {
+            ThuocTinh ttMau = thuocTinh(mau);
+            ThuocTinh ttChatLieu = thuocTinh(chatLieu);
+            SanPham sp = sanPham("Sofa");
+            BienTheSanPham nau = bienThe(sp, "1000000", 3);
+            bienTheThuocTinh(nau, ttMau, "Nâu");
+            bienTheThuocTinh(nau, ttChatLieu, "Gỗ sồi");
+            BienTheSanPham trang = bienThe(sp, "2000000", 2);
+            bienTheThuocTinh(trang, ttMau, "Trắng");
+            giamGia(nau, LocalDateTime.now().minusDays(1), LocalDateTime.now().plusDays(1), "800000");
+            // Chương trình đã kết thúc: không áp dụng
+            giamGia(trang, LocalDateTime.now().minusDays(10), LocalDateTime.now().minusDays(1), "1500000");
+            hinhAnh(sp, "phu.jpg", 1);
+            hinhAnh(sp, "chinh.jpg", 0);
+            return new Integer[] { sp.getMaSanPham(), nau.getMaBienThe(), trang.getMaBienThe() };
+        });
+
+        ProductDetailWithVariantsDto detail = productService.getProductDetailWithVariants(ids[0]);
+
+        assertThat(detail.getDanhMuc().getMaDanhMuc()).isEqualTo(danhMuc.getMaDanhMuc());
+        assertThat(detail.getGiaMin()).isEqualByComparingTo("1000000");
+        assertThat(detail.getGiaMax()).isEqualByComparingTo("2000000");
+        assertThat(detail.getTongSoLuong()).isEqualTo(5);
+        assertThat(detail.getHinhAnh()).extracting(ProductDetailWithVariantsDto.ImageDto::getDuongDanHinhAnh)
+                .containsExactly("chinh.jpg", "phu.jpg");
+
+        assertThat(detail.getBienThe()).extracting(ProductDetailWithVariantsDto.VariantDetailDto::getMaBienThe)
+                .containsExactly(ids[1], ids[2]);
+        ProductDetailWithVariantsDto.VariantDetailDto nau = detail.getBienThe().get(0);
+        assertThat(nau.getThuocTinh()).extracting(ProductDetailWithVariantsDto.AttributeDto::getGiaTri)
+                .containsExactlyInAnyOrder("Nâu", "Gỗ sồi");
+        assertThat(nau.getGiamGia()).isNotNull();
+        assertThat(nau.getGiaSauGiam()).isEqualByComparingTo("800000");
+        assertThat(nau.getSoTienGiam()).isEqualByComparingTo("200000");
+        assertThat(nau.getPhanTramGiam()).isEqualByComparingTo("20");
+        ProductDetailWithVariantsDto.VariantDetailDto trang = detail.getBienThe().get(1);
+        assertThat(trang.getGiamGia()).isNull();
+        assertThat(trang.getGiaSauGiam()).isEqualByComparingTo("2000000");
+
+        assertThat(detail.getThongSoKyThuat()).hasSize(2).anySatisfy(spec -> {
+            assertThat(spec.getTenThuocTinh()).isEqualTo(mau);
+            assertThat(spec.getGiaTriList()).containsExactlyInAnyOrder("Nâu", "Trắng");
+        }).anySatisfy(spec -> {
+            assertThat(spec.getTenThuocTinh()).isEqualTo(chatLieu);
+            assertThat(spec.getGiaTriList()).containsExactly("Gỗ sồi");
+        });
+    }
+
+    @Test
+    void cacheChiTietNhungLayLaiSanPhamLienQuan() {
+        Integer id = tx.execute(status -> {
+            SanPham sp = sanPham("Bàn");
+            bienThe(sp, "500000", 1);
+            return sp.getMaSanPham();
+        });
+        Integer khac = tx.execute(status -> {
+            SanPham sp = sanPham("Ghế");
+            bienThe(sp, "300000", 1);
+            return sp.getMaSanPham();
+        });
+        clearInvocations(bienTheRepository);
+
+        ProductDetailWithVariantsDto lan1 = productService.getProductDetailWithVariants(id);
+        assertThat(lan1.getSanPhamLienQuan()).extracting(ProductDetailWithVariantsDto.RelatedProductDto::getMaSanPham)
+                .containsExactly(khac);
+
+        // Sản phẩm mới cùng danh mục xuất hiện trong phần liên quan dù chi tiết đã cache
+        Integer moi = tx.execute(status -> {
+            SanPham sp = sanPham("Tủ");
+            bienThe(sp, "700000", 1);
+            return sp.getMaSanPham();
+        });
+        tx.executeWithoutResult(status -> em.find(SanPham.class, id).setTenSanPham("Bàn đổi tên"));
+        tx.executeWithoutResult(status -> snapshot.markProductChanged(moi));
+
+        ProductDetailWithVariantsDto lan2 = productService.getProductDetailWithVariants(id);
+        assertThat(lan2.getTenSanPham()).isEqualTo(lan1.getTenSanPham());
+        assertThat(lan2.getSanPhamLienQuan()).extracting(ProductDetailWithVariantsDto.RelatedProductDto::getMaSanPham)
+                .containsExactlyInAnyOrder(khac, moi);
+        verify(bienTheRepository, times(1)).findBySanPham_MaSanPhamWithAttributes(anyInt());
+    }
+
+    @Test
+    void sanPhamKhongTonTaiKhongBiCache() {
+        assertThatThrownBy(() -> productService.getProductDetailWithVariants(-1))
+                .isInstanceOf(EntityNotFoundException.class);
+        assertThatThrownBy(() -> productService.getProductDetailWithVariants(-1))
+                .isInstanceOf(EntityNotFoundException.class);
+    }
+
+    @Test
+    void maTranSoSanhTheoThuTuYeuCauVaGopGiaTri() {
+        String mau = "Màu " + UUID.randomUUID();
+        String chatLieu = "Chất liệu " + UUID.randomUUID();
+        Integer[] ids = tx.execute(status -> {
+            ThuocTinh ttMau = thuocTinh(mau);
+            ThuocTinh ttChatLieu = thuocTinh(chatLieu);
+            SanPham ke = sanPham("Kệ");
+            BienTheSanPham keNau = bienThe(ke, "400000", 2);
+            bienTheThuocTinh(keNau, ttMau, "Nâu");
+            bienTheThuocTinh(keNau, ttChatLieu, "Gỗ");
+            BienTheSanPham keNau2 = bienThe(ke, "450000", 1);
+            bienTheThuocTinh(keNau2, ttMau, "Nâu");
+            BienTheSanPham keDen = bienThe(ke, "600000", 0);
+            bienTheThuocTinh(keDen, ttMau, "Đen");
+            em.persist(new TonKhoTongHop(keNau.getMaBienThe(), 10L, 8L, null));
+            em.persist(new TonKhoTongHop(keDen.getMaBienThe(), 5L, 5L, null));
+            SanPham den = sanPham("Đèn");
+            bienTheThuocTinh(bienThe(den, "150000", 7), ttMau, "Trắng");
+            return new Integer[] { ke.getMaSanPham(), den.getMaSanPham() };
+        });
+        Integer ke = ids[0];
+        Integer den = ids[1];
+
+        ProductCompareMatrixResponse m = productService.compareProductsAggregate(List.of(den, -1, ke, den));
+
+        assertThat(m.productIds()).containsExactly(den, ke);
+        assertThat(m.productNames()).containsExactly("Đèn", "Kệ");
+        assertThat(m.giaMin()[1]).isEqualByComparingTo("400000");
+        assertThat(m.giaMax()[1]).isEqualByComparingTo("600000");
+        assertThat(m.tonKho()).containsExactly(7, 3);
+        assertThat(m.totalNhap()).containsExactly(0, 15);
+        assertThat(m.totalXuat()).containsExactly(0, 13);
+        assertThat(m.attributes()).extracting(ProductCompareMatrixResponse.AttributeRow::tenThuocTinh)
+                .containsExactly(mau, chatLieu);
+        assertThat(m.attributes().get(0).values()).containsExactly("Trắng", "Nâu, Đen");
+        assertThat(m.attributes().get(1).values()).containsExactly(null, "Gỗ");
+    }
+
+    @Test
+    void soSanhQuaNhieuSanPhamBiTuChoi() {
+        assertThat(productService.compareProductsAggregate(List.of(-1, -2)).productIds()).isEmpty();
+        List<Integer> qua = IntStream.rangeClosed(1, 51).boxed().toList();
+        assertThatThrownBy(() -> productService.compareProductsAggregate(qua))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private SanPham sanPham(String ten) {
+        SanPham sp = new SanPham();
+        sp.setTenSanPham(ten);
+        sp.setDanhMuc(em.getReference(DanhMuc.class, danhMuc.getMaDanhMuc()));
+        em.persist(sp);
+        return sp;
+    }
+
+    private BienTheSanPham bienThe(SanPham sp, String giaBan, int ton) {
+        BienTheSanPham b = new BienTheSanPham();
+        b.setSanPham(sp);
+        b.setSku("PD-" + UUID.randomUUID());
+        b.setGiaBan(new BigDecimal(giaBan));
+        b.setSoLuongTon(ton);
+        em.persist(b);
+        return b;
+    }
+
+    private ThuocTinh thuocTinh(String ten) {
+        ThuocTinh tt = new ThuocTinh();
+        tt.setTenThuocTinh(ten);
+        em.persist(tt);
+        return tt;
+    }
+
+    private void bienTheThuocTinh(BienTheSanPham b, ThuocTinh tt, String giaTri) {
+        BienTheThuocTinh btt = new BienTheThuocTinh();
+        btt.setBienTheSanPham(b);
+        btt.setThuocTinh(tt);
+        btt.setGiaTri(giaTri);
+        em.persist(btt);
+    }
+
+    private void giamGia(BienTheSanPham b, LocalDateTime batDau, LocalDateTime ketThuc, String giaSauGiam) {
+        ChuongTrinhGiamGia ct = new ChuongTrinhGiamGia();
+        ct.setTenChuongTrinh("CT " + UUID.randomUUID());
+        ct.setNgayBatDau(batDau);
+        ct.setNgayKetThuc(ketThuc);
+        ct.setLoaiGiamGia("FIXED");
+        ct.setGiaTriGiam(new BigDecimal("1"));
+        em.persist(ct);
+        em.persist(new BienTheGiamGia(new BienTheGiamGia.BienTheGiamGiaId(b.getMaBienThe(),
+                ct.getMaChuongTrinhGiamGia()), b, ct, new BigDecimal(giaSauGiam)));
+    }
+
+    private void hinhAnh(SanPham sp, String duongDan, int thuTu) {
+        HinhAnhSanPham h = new HinhAnhSanPham();
+        h.setSanPham(sp);
+        h.setDuongDanHinhAnh(duongDan);
+        h.setThuTu(thuTu);
+        em.persist(h);
+    }
+}
@@ -0,0 +1,147 @@
+package com.noithat.qlnt.backend.service.inventory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import com.noithat.qlnt.backend.repository.BienTheSanPhamRepository;
+import com.noithat.qlnt.backend.service.IThongBaoService;
+import com.noithat.qlnt.backend.service.inventory.StockMutationEngine.StockMovement;
+
+/**
+ * Mỗi lần vượt xuống một ngưỡng chỉ tạo một thông báo, kể cả khi tồn dao động
+ * quanh ngưỡng trong thời gian debounce. Gọi onMovements ngoài transaction nên
+ * biến động được áp dụng ngay.
+ */
+class LowStockIndexTest {
+
+    private static final int MA_BIEN_THE = 11;
+    private static final int MA_SAN_PHAM = 3;
+    private static final int MUC_TOI_THIEU = 5;
+
+    private BienTheSanPhamRepository repo;
+    private IThongBaoService thongBaoService;
+    private PlatformTransactionManager transactionManager;
+    private int tonHienTai = 8;
+
+    @BeforeEach
+    void setUp() {
+        repo = mock(BienTheSanPhamRepository.class);
+        thongBaoService = mock(IThongBaoService.class);
+        transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+        when(repo.findLowStockRowsByMaBienTheIn(anyCollection())).thenAnswer(inv -> dongHienTai());
+        when(repo.findLowStockRows()).thenAnswer(inv -> tonHienTai <= MUC_TOI_THIEU ? dongHienTai() : List.of());
+    }
+
+    @Test
+    void daoDongQuanhMucToiThieuChiBaoMotLan() {
+        LowStockIndex index = index(true, 30);
+
+        doiTon(index, 5); // 8 -> 5: vượt xuống mức tối thiểu
+        doiTon(index, 6); // lên lại trên ngưỡng
+        doiTon(index, 4); // vượt xuống lần nữa trong debounce
+        doiTon(index, 3); // vẫn dưới ngưỡng, không phải vượt ngưỡng
+
+        verify(thongBaoService, times(1)).taoThongBaoCanhBaoTonKho(eq(MA_SAN_PHAM), anyString(), eq(5));
+        verify(thongBaoService, times(1)).taoThongBaoCanhBaoTonKho(anyInt(), anyString(), anyInt());
+        verify(thongBaoService, never()).taoThongBaoHetHang(anyInt(), anyString());
+        assertThat(index.maBienTheSapHet()).containsExactly(MA_BIEN_THE);
+        assertThat(index.sapHet().get(0).soLuongTon()).isEqualTo(3);
+    }
+
+    @Test
+    void hetHangLaNguongRiengCungChiBaoMotLan() {
+        LowStockIndex index = index(true, 30);
+
+        doiTon(index, 4); // sắp hết
+        doiTon(index, 0); // nặng hơn: hết hàng
+        doiTon(index, 2);
+        doiTon(index, 0); // hết hàng lần nữa trong debounce
+
+        verify(thongBaoService, times(1)).taoThongBaoCanhBaoTonKho(anyInt(), anyString(), anyInt());
+        verify(thongBaoService, times(1)).taoThongBaoHetHang(eq(MA_SAN_PHAM), anyString());
+        assertThat(index.maBienTheHetHang()).containsExactly(MA_BIEN_THE);
+    }
+
+    @Test
+    void khongDebounceThiMoiLanVuotNguongDeuBao() {
+        LowStockIndex index = index(true, 0);
+
+        doiTon(index, 5);
+        doiTon(index, 6);
+        doiTon(index, 5);
+        doiTon(index, 4);
+
+        verify(thongBaoService, times(2)).taoThongBaoCanhBaoTonKho(anyInt(), anyString(), anyInt());
+    }
+
+    @Test
+    void dongLoHaiBienDongCungBienTheChiBaoMotLan() {
+        LowStockIndex index = index(true, 30);
+
+        List<StockMovement> lo = new ArrayList<>();
+        lo.add(new StockMovement(MA_BIEN_THE, MA_SAN_PHAM, 8, -3, 5));
+        lo.add(new StockMovement(MA_BIEN_THE, MA_SAN_PHAM, 6, -2, 4));
+        tonHienTai = 4;
+        index.onMovements(lo, Map.of(MA_BIEN_THE, MUC_TOI_THIEU));
+
+        verify(thongBaoService, times(1)).taoThongBaoCanhBaoTonKho(anyInt(), anyString(), anyInt());
+    }
+
+    @Test
+    void napLaiKhongTaoThongBao() {
+        LowStockIndex index = index(true, 30);
+        tonHienTai = 0;
+
+        index.resync();
+
+        assertThat(index.soHetHang()).isEqualTo(1);
+        verify(thongBaoService, never()).taoThongBaoHetHang(anyInt(), anyString());
+        verify(thongBaoService, never()).taoThongBaoCanhBaoTonKho(anyInt(), anyString(), anyInt());
+    }
+
+    @Test
+    void tatCanhBaoThiChiCapNhatDanhSach() {
+        LowStockIndex index = index(false, 30);
+
+        doiTon(index, 0);
+
+        assertThat(index.maBienTheHetHang()).containsExactly(MA_BIEN_THE);
+        verify(thongBaoService, never()).taoThongBaoHetHang(anyInt(), anyString());
+    }
+
+    private LowStockIndex index(boolean alertsEnabled, long debounceMinutes) {
+        return new LowStockIndex(repo, thongBaoService, transactionManager, alertsEnabled, debounceMinutes);
+    }
+
+    private void doiTon(LowStockIndex index, int soLuongSau) {
+        int truoc = tonHienTai;
+        tonHienTai = soLuongSau;
+        index.onMovements(List.of(new StockMovement(MA_BIEN_THE, MA_SAN_PHAM, truoc, soLuongSau - truoc, soLuongSau)),
+                Map.of(MA_BIEN_THE, MUC_TOI_THIEU));
+    }
+
+    private List<Object[]> dongHienTai() {
+        List<Object[]> rows = new ArrayList<>();
+        rows.add(new Object[] { MA_BIEN_THE, MA_SAN_PHAM, "Bàn trà", "BT-11", tonHienTai, MUC_TOI_THIEU });
+        return rows;
+    }
+}
@@ -0,0 +1,203 @@
+package com.noithat.qlnt.backend.service.inventory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.CALLS_REAL_METHODS;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.withSettings;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.noithat.qlnt.backend.repository.LichSuTonKhoRepository;
+import com.noithat.qlnt.backend.repository.TonKhoTheoNgayRepository;
+
+/**
+ * Tính liên tục của báo cáo tồn theo ngày: tồn cuối kỳ trước bằng tồn đầu kỳ
+ * sau, tồn cuối một ngày bằng tồn đầu kỳ bắt đầu ngày hôm sau, và mỗi kỳ thỏa
+ * tồn đầu + nhập - xuất + điều chỉnh = tồn cuối.
+ *
+ * Các câu đọc của TonKhoTheoNgayRepository dùng OUTER APPLY/TOP và câu ghi dùng
+ * MERGE của SQL Server nên không chạy trên H2: repository ở đây giữ ảnh chụp
+ * theo ngày trong bộ nhớ, cộng dồn như câu MERGE và chọn tồn đầu/cuối theo đúng
+ * quy tắc ghi ở javadoc của các câu đọc; ghiNhan (phân loại nhập/xuất/điều
+ * chỉnh) chạy mã thật.
+ */
+class StockLedgerRollupTest {
+
+    private static final int MA_BIEN_THE = 7;
+    private static final int TON_HIEN_TAI_BAN_DAU = 20;
+    private static final LocalDate D1 = LocalDate.of(2025, 5, 1);
+
+    private final Map<LocalDate, long[]> ngayBienDong = new TreeMap<>(); // [tonDau, nhap, xuat, dieuChinh, tonCuoi]
+    private LocalDate homNay;
+    private int tonHienTai = TON_HIEN_TAI_BAN_DAU;
+
+    private TonKhoTheoNgayRepository repo;
+    private StockLedgerRollup rollup;
+
+    @BeforeEach
+    void setUp() {
+        TonKhoTheoNgayRepository repo = mock(TonKhoTheoNgayRepository.class,
+                withSettings().defaultAnswer(CALLS_REAL_METHODS));
+        doAnswer(inv -> {
+            int truoc = inv.getArgument(1);
+            int sau = inv.getArgument(5);
+            long[] r = ngayBienDong.computeIfAbsent(homNay, d -> new long[] { truoc, 0, 0, 0, truoc });
+            r[1] += (long) inv.getArgument(2);
+            r[2] += (long) inv.getArgument(3);
+            r[3] += (long) inv.getArgument(4);
+            r[4] = sau;
+            return 1;
+        }).when(repo).congDon(any(), anyInt(), anyLong(), anyLong(), anyLong(), anyInt());
+        doAnswer(inv -> tonCuoiNgay(inv.getArgument(0))).when(repo).tonCuoiNgay(any(), any());
+        doAnswer(inv -> bienDongTrongKy(inv.getArgument(0), inv.getArgument(1))).when(repo)
+                .bienDongTrongKy(any(), any(), any());
+        rollup = new StockLedgerRollup(repo, mock(LichSuTonKhoRepository.class), 365, 5000);
+        this.repo = repo;
+    }
+
+    @Test
+    void tonCuoiKyTruocBangTonDauKySau() {
+        bienDong();
+
+        List<LocalDate> moc = List.of(D1.minusDays(3), D1, D1.plusDays(1), D1.plusDays(2), D1.plusDays(4),
+                D1.plusDays(6), D1.plusDays(10));
+        for (int i = 0; i + 1 < moc.size(); i++) {
+            StockLedgerRollup.BienDongKy truoc = motDong(rollup.bienDongTrongKy(moc.get(i), moc.get(i + 1).minusDays(1), null));
+            StockLedgerRollup.BienDongKy sau = motDong(rollup.bienDongTrongKy(moc.get(i + 1), moc.get(i + 1).plusDays(3), null));
+            assertThat(sau.tonDau()).as("tồn đầu kỳ từ %s", moc.get(i + 1)).isEqualTo(truoc.tonCuoi());
+        }
+    }
+
+    @Test
+    void tonCuoiNgayBangTonDauKyBatDauHomSau() {
+        bienDong();
+
+        for (LocalDate ngay = D1.minusDays(2); !ngay.isAfter(D1.plusDays(8)); ngay = ngay.plusDays(1)) {
+            int tonCuoi = rollup.tonCuoiNgay(ngay, null).get(0).tonKho();
+            StockLedgerRollup.BienDongKy ky = motDong(rollup.bienDongTrongKy(ngay.plusDays(1), ngay.plusDays(1), null));
+            assertThat(ky.tonDau()).as("ngày %s", ngay).isEqualTo(tonCuoi);
+            assertThat(ky.tonCuoi()).as("ngày %s", ngay.plusDays(1))
+                    .isEqualTo(rollup.tonCuoiNgay(ngay.plusDays(1), null).get(0).tonKho());
+        }
+    }
+
+    @Test
+    void kyGopBangTongCacKyCon() {
+        bienDong();
+
+        StockLedgerRollup.BienDongKy ca = motDong(rollup.bienDongTrongKy(D1, D1.plusDays(6), null));
+        StockLedgerRollup.BienDongKy dau = motDong(rollup.bienDongTrongKy(D1, D1.plusDays(2), null));
+        StockLedgerRollup.BienDongKy cuoi = motDong(rollup.bienDongTrongKy(D1.plusDays(3), D1.plusDays(6), null));
+
+        assertThat(ca.tonDau()).isEqualTo(TON_HIEN_TAI_BAN_DAU);
+        assertThat(ca.tongNhap()).isEqualTo(dau.tongNhap() + cuoi.tongNhap());
+        assertThat(ca.tongXuat()).isEqualTo(dau.tongXuat() + cuoi.tongXuat());
+        assertThat(ca.tongDieuChinh()).isEqualTo(dau.tongDieuChinh() + cuoi.tongDieuChinh());
+        assertThat(ca.tonCuoi()).isEqualTo(cuoi.tonCuoi()).isEqualTo(tonHienTai);
+    }
+
+    @Test
+    void dieuChinhTinhRiengKhongVaoNhapXuat() {
+        homNay = D1;
+        thayDoi(5, "NHAP_KHO");
+        thayDoi(-3, "XUAT_KHO");
+        thayDoi(-4, TonKhoTheoNgayRepository.DIEU_CHINH);
+
+        StockLedgerRollup.BienDongKy ky = motDong(rollup.bienDongTrongKy(D1, D1, null));
+        assertThat(ky.tongNhap()).isEqualTo(5);
+        assertThat(ky.tongXuat()).isEqualTo(3);
+        assertThat(ky.tongDieuChinh()).isEqualTo(-4);
+        assertThat(ky.tonCuoi()).isEqualTo(TON_HIEN_TAI_BAN_DAU - 2);
+    }
+
+    @Test
+    void kySaiBaoLoiThamSo() {
+        assertThatThrownBy(() -> rollup.bienDongTrongKy(D1, D1.minusDays(1), null))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> rollup.bienDongTrongKy(D1, D1.plusDays(StockLedgerRollup.MAX_PERIOD_DAYS + 1), null))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> rollup.tonCuoiNgay(null, null)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    // Biến động rải rác: có ngày trống giữa các ngày có biến động
+    private void bienDong() {
+        homNay = D1;
+        thayDoi(10, "NHAP_KHO");
+        thayDoi(-4, "XUAT_KHO");
+        homNay = D1.plusDays(1);
+        thayDoi(-6, "XUAT_KHO");
+        homNay = D1.plusDays(4);
+        thayDoi(-2, TonKhoTheoNgayRepository.DIEU_CHINH);
+        thayDoi(3, "NHAP_KHO");
+        homNay = D1.plusDays(6);
+        thayDoi(-1, "XUAT_KHO");
+    }
+
+    private void thayDoi(int soLuong, String loaiGiaoDich) {
+        int truoc = tonHienTai;
+        tonHienTai += soLuong;
+        repo.ghiNhan(MA_BIEN_THE, truoc, soLuong, tonHienTai, loaiGiaoDich);
+    }
+
+    private static StockLedgerRollup.BienDongKy motDong(List<StockLedgerRollup.BienDongKy> rows) {
+        assertThat(rows).hasSize(1);
+        return rows.get(0);
+    }
+
+    // Quy tắc của câu tonCuoiNgay: tồn cuối ngày biến động gần nhất <= ngày, hoặc tồn đầu
+    // lần biến động đầu tiên sau ngày, hoặc tồn hiện tại
+    private List<Object[]> tonCuoiNgay(LocalDate ngay) {
+        long[] truoc = null;
+        LocalDate ngayTruoc = null;
+        long[] sau = null;
+        for (Map.Entry<LocalDate, long[]> e : ngayBienDong.entrySet()) {
+            if (!e.getKey().isAfter(ngay)) {
+                truoc = e.getValue();
+                ngayTruoc = e.getKey();
+            } else if (sau == null) {
+                sau = e.getValue();
+            }
+        }
+        long ton = truoc != null ? truoc[4] : sau != null ? sau[0] : tonHienTai;
+        List<Object[]> rows = new ArrayList<>();
+        rows.add(new Object[] { MA_BIEN_THE, 1, "Ghế", "SKU-7", (int) ton, ngayTruoc == null ? null : java.sql.Date.valueOf(ngayTruoc) });
+        return rows;
+    }
+
+    // Quy tắc của câu bienDongTrongKy: tồn đầu như tonCuoiNgay của ngày trước kỳ, cộng các dòng trong kỳ
+    private List<Object[]> bienDongTrongKy(LocalDate tuNgay, LocalDate denNgay) {
+        long[] truoc = null;
+        long[] dauKy = null;
+        long nhap = 0, xuat = 0, dieuChinh = 0;
+        for (Map.Entry<LocalDate, long[]> e : ngayBienDong.entrySet()) {
+            LocalDate d = e.getKey();
+            long[] r = e.getValue();
+            if (d.isBefore(tuNgay)) {
+                truoc = r;
+            } else if (dauKy == null) {
+                dauKy = r;
+            }
+            if (!d.isBefore(tuNgay) && !d.isAfter(denNgay)) {
+                nhap += r[1];
+                xuat += r[2];
+                dieuChinh += r[3];
+            }
+        }
+        long tonDau = truoc != null ? truoc[4] : dauKy != null ? dauKy[0] : tonHienTai;
+        List<Object[]> rows = new ArrayList<>();
+        rows.add(new Object[] { MA_BIEN_THE, 1, "Ghế", "SKU-7", (int) tonDau, nhap, xuat, dieuChinh });
+        return rows;
+    }
+}
@@ -0,0 +1,218 @@
+package com.noithat.qlnt.backend.service.inventory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.noithat.qlnt.backend.repository.TonKhoTheoNgayRepository;
+import com.noithat.qlnt.backend.repository.TonKhoTongHopRepository;
+import com.noithat.qlnt.backend.service.catalog.ShopCatalogSnapshot;
+import com.noithat.qlnt.backend.service.event.DomainEventPublisher;
+import com.noithat.qlnt.backend.support.JpaSliceTest;
+import com.noithat.qlnt.backend.support.TestData;
+
+import jakarta.persistence.EntityManager;
+
+/**
+ * Nhiều luồng cùng bán những đơn vị cuối cùng: câu UPDATE có điều kiện phải
+ * cho bán đúng số có thể bán (tồn trừ phần đang giữ), không hơn. Nhiều loại
+ * biến động xen nhau trên một SKU không làm mất lần cập nhật nào và mỗi lần có
+ * đúng một dòng LichSuTonKho.
+ *
+ * Các bảng tổng hợp dùng MERGE của SQL Server nên được mock; trên H2 sellBatch
+ * đi đường JPQL từng dòng.
+ */
+@Import(StockMutationEngine.class)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class StockMutationEngineConcurrencyTest extends JpaSliceTest {
+
+    private static final int THREADS = 16;
+    private static final int ATTEMPTS = 40;
+    private static final int WRITERS = 240;
+
+    @MockitoBean
+    TonKhoTongHopRepository tonKhoTongHopRepository;
+    @MockitoBean
+    TonKhoTheoNgayRepository tonKhoTheoNgayRepository;
+    @MockitoBean
+    ShopCatalogSnapshot shopCatalogSnapshot;
+    @MockitoBean
+    DomainEventPublisher domainEventPublisher;
+    @MockitoBean
+    LowStockIndex lowStockIndex;
+
+    @Autowired
+    StockMutationEngine engine;
+    @Autowired
+    PlatformTransactionManager transactionManager;
+    @Autowired
+    EntityManager em;
+
+    private final ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+
+    @AfterEach
+    void shutdown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    void applyBanDungSoCoTheBanKhiNhieuLuongTranhNhau() throws Exception {
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+        // 7 trong kho, 2 đang giữ cho đơn khác: chỉ 5 được bán trực tiếp
+        Integer maBienThe = TestData.bienThe(tx, em, 7, 2, 0);
+
+        int daBan = chayDongThoi(() -> engine.apply(maBienThe, -1, "BAN_HANG", null, "test", "test").isPresent());
+
+        assertThat(daBan).isEqualTo(5);
+        Object[] ton = TestData.tonKho(tx, em, maBienThe);
+        assertThat(ton[0]).isEqualTo(2);
+        assertThat(ton[1]).isEqualTo(2);
+    }
+
+    @Test
+    void sellBatchKhongBanQuaVaKhongDeLaiPhanDaTruKhiThieu() throws Exception {
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+        Integer a = TestData.bienThe(tx, em, 3, 0, 0);
+        Integer b = TestData.bienThe(tx, em, 5, 0, 0);
+
+        // Như DonHangServiceImpl: thiếu hàng thì rollback cả đơn
+        int daBan = chayDongThoi(() -> tx.execute(status -> {
+            if (engine.sellBatch(Map.of(a, 1, b, 1), "ORDER-test", "test", null).isPresent())
+                return true;
+            status.setRollbackOnly();
+            return false;
+        }));
+
+        assertThat(daBan).isEqualTo(3);
+        assertThat(TestData.tonKho(tx, em, a)[0]).isEqualTo(0);
+        assertThat(TestData.tonKho(tx, em, b)[0]).isEqualTo(2);
+    }
+
+    @Test
+    void sellBatchBoQuaDongSoLuongKhong() {
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+        Integer a = TestData.bienThe(tx, em, 3, 0, 0);
+        Integer b = TestData.bienThe(tx, em, 3, 0, 0);
+
+        var movements = tx.execute(status -> engine.sellBatch(Map.of(a, 2, b, 0), "ORDER-test", "test", null));
+
+        assertThat(movements).isPresent();
+        assertThat(movements.get()).hasSize(1);
+        assertThat(TestData.tonKho(tx, em, a)[0]).isEqualTo(1);
+        assertThat(TestData.tonKho(tx, em, b)[0]).isEqualTo(3);
+    }
+
+    @Test
+    void setQuantityKhongChoXuongDuoiPhanDangGiuVaCapNhatTrangThai() {
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+        Integer maBienThe = TestData.bienThe(tx, em, 10, 4, 5);
+
+        assertThat(engine.setQuantity(maBienThe, 3, "DIEU_CHINH", "kiểm kê", "test")).isEmpty();
+        assertThat(TestData.tonKho(tx, em, maBienThe)[0]).isEqualTo(10);
+
+        assertThat(engine.setQuantity(maBienThe, 4, "DIEU_CHINH", "kiểm kê", "test")).isPresent();
+        Object[] ton = TestData.tonKho(tx, em, maBienThe);
+        assertThat(ton[0]).isEqualTo(4);
+        assertThat(ton[2]).isEqualTo("LOW_STOCK");
+    }
+
+    @Test
+    void nhapXuatDieuChinhTraHangDongThoiKhongMatCapNhatVaKhopLichSu() throws Exception {
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+        int tonBanDau = 10_000;
+        Integer maBienThe = TestData.bienThe(tx, em, tonBanDau, 0, 0);
+
+        AtomicLong tongNhap = new AtomicLong();
+        AtomicLong tongXuat = new AtomicLong();
+        AtomicInteger soLanThanhCong = new AtomicInteger();
+        ExecutorService writers = Executors.newFixedThreadPool(WRITERS);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < WRITERS; i++) {
+                int loai = i % 4;
+                futures.add(writers.submit(() -> {
+                    start.await();
+                    int soLuong = ThreadLocalRandom.current().nextInt(1, 10);
+                    Optional<StockMutationEngine.StockMovement> movement = switch (loai) {
+                    case 0 -> engine.apply(maBienThe, soLuong, "NHAP_KHO", null, "test", "test");
+                    case 1 -> engine.apply(maBienThe, -soLuong, "XUAT_KHO", null, "test", "test");
+                    case 2 -> engine.apply(maBienThe, soLuong, "TRA_HANG", "ORDER-test", "test", "test");
+                    // Kiểm kê đặt số tuyệt đối, luôn đủ lớn để các lần xuất không bị từ chối
+                    default -> engine.setQuantity(maBienThe, 9_000 + ThreadLocalRandom.current().nextInt(2_000),
+                            "DIEU_CHINH", "kiểm kê", "test");
+                    };
+                    movement.ifPresent(m -> {
+                        soLanThanhCong.incrementAndGet();
+                        if (m.soLuongThayDoi() >= 0)
+                            tongNhap.addAndGet(m.soLuongThayDoi());
+                        else
+                            tongXuat.addAndGet(-m.soLuongThayDoi());
+                    });
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> f : futures)
+                f.get(120, TimeUnit.SECONDS);
+        } finally {
+            writers.shutdownNow();
+        }
+
+        // Chỉ kiểm kê có thể bỏ cuộc (tồn đổi liên tục sau nhiều lần CAS); nhập/xuất/trả luôn thành công
+        assertThat(soLanThanhCong.get()).isGreaterThanOrEqualTo(WRITERS * 3 / 4);
+        int tonCuoi = (Integer) TestData.tonKho(tx, em, maBienThe)[0];
+        assertThat((long) tonCuoi).isEqualTo(tonBanDau + tongNhap.get() - tongXuat.get());
+        Object[] lichSu = tx.execute(status -> (Object[]) em.createQuery(
+                "SELECT COUNT(l), COALESCE(SUM(l.soLuongThayDoi), 0) FROM LichSuTonKho l "
+                        + "WHERE l.bienTheSanPham.maBienThe = :id")
+                .setParameter("id", maBienThe).getSingleResult());
+        assertThat(((Number) lichSu[0]).intValue()).isEqualTo(soLanThanhCong.get());
+        assertThat(((Number) lichSu[1]).longValue()).isEqualTo(tongNhap.get() - tongXuat.get());
+    }
+
+    /**
+     * Chạy ATTEMPTS lần task trên THREADS luồng, bắt đầu cùng lúc.
+     *
+     * @return số lần task trả về true
+     */
+    private int chayDongThoi(Callable<Boolean> task) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Boolean>> futures = new ArrayList<>();
+        for (int i = 0; i < ATTEMPTS; i++) {
+            futures.add(pool.submit(() -> {
+                start.await();
+                return task.call();
+            }));
+        }
+        start.countDown();
+        int ok = 0;
+        for (Future<Boolean> f : futures) {
+            if (f.get(60, TimeUnit.SECONDS))
+                ok++;
+        }
+        return ok;
+    }
+}
@@ -0,0 +1,246 @@
+package com.noithat.qlnt.backend.service.inventory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.noithat.qlnt.backend.entity.BienTheSanPham;
+import com.noithat.qlnt.backend.entity.ChiTietDonHang;
+import com.noithat.qlnt.backend.entity.DatTruocTonKho;
+import com.noithat.qlnt.backend.repository.DatTruocTonKhoRepository;
+import com.noithat.qlnt.backend.repository.TonKhoTheoNgayRepository;
+import com.noithat.qlnt.backend.repository.TonKhoTongHopRepository;
+import com.noithat.qlnt.backend.service.catalog.ShopCatalogSnapshot;
+import com.noithat.qlnt.backend.service.event.DomainEventPublisher;
+import com.noithat.qlnt.backend.support.JpaSliceTest;
+import com.noithat.qlnt.backend.support.TestData;
+
+import jakarta.persistence.EntityManager;
+
+/**
+ * Giữ hàng: không giữ quá phần chưa bị giữ, trả lại đúng một lần, lần giữ quá
+ * hạn được trả theo lô, xác nhận đơn chuyển phần giữ thành bán.
+ */
+@Import({ StockReservationService.class, StockMutationEngine.class, AvailableStockCounter.class })
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class StockReservationServiceTest extends JpaSliceTest {
+
+    @MockitoBean
+    TonKhoTongHopRepository tonKhoTongHopRepository;
+    @MockitoBean
+    TonKhoTheoNgayRepository tonKhoTheoNgayRepository;
+    @MockitoBean
+    ShopCatalogSnapshot shopCatalogSnapshot;
+    @MockitoBean
+    DomainEventPublisher domainEventPublisher;
+    @MockitoBean
+    LowStockIndex lowStockIndex;
+
+    @Autowired
+    StockReservationService reservations;
+    @Autowired
+    DatTruocTonKhoRepository datTruocTonKhoRepository;
+    @Autowired
+    PlatformTransactionManager transactionManager;
+    @Autowired
+    EntityManager em;
+
+    @Test
+    void khongGiuQuaPhanChuaBiGiu() {
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+        Integer maBienThe = TestData.bienThe(tx, em, 3, 0, 0);
+
+        assertThat(reservations.reserve(maBienThe, 2, ref())).isTrue();
+        assertThat(reservations.reserve(maBienThe, 2, ref())).isFalse();
+        assertThat(reservations.reserve(maBienThe, 1, ref())).isTrue();
+
+        Object[] ton = TestData.tonKho(tx, em, maBienThe);
+        assertThat(ton[0]).isEqualTo(3);
+        assertThat(ton[1]).isEqualTo(3);
+    }
+
+    @Test
+    void giuDongThoiChiThanhCongDungSoCoTheGiu() throws Exception {
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+        Integer maBienThe = TestData.bienThe(tx, em, 6, 1, 0);
+
+        ExecutorService pool = Executors.newFixedThreadPool(12);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<Boolean>> futures = new ArrayList<>();
+            for (int i = 0; i < 30; i++) {
+                futures.add(pool.submit(() -> {
+                    start.await();
+                    return reservations.reserve(maBienThe, 1, ref());
+                }));
+            }
+            start.countDown();
+            int ok = 0;
+            for (Future<Boolean> f : futures) {
+                if (f.get(60, TimeUnit.SECONDS))
+                    ok++;
+            }
+            assertThat(ok).isEqualTo(5);
+        } finally {
+            pool.shutdownNow();
+        }
+        assertThat(TestData.tonKho(tx, em, maBienThe)[1]).isEqualTo(6);
+    }
+
+    @Test
+    void traLaiChiMotLan() {
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+        Integer maBienThe = TestData.bienThe(tx, em, 5, 0, 0);
+        String ref = ref();
+        reservations.reserve(maBienThe, 4, ref);
+
+        assertThat(reservations.release(maBienThe, ref)).isTrue();
+        assertThat(reservations.release(maBienThe, ref)).isFalse();
+
+        assertThat(TestData.tonKho(tx, em, maBienThe)[1]).isEqualTo(0);
+        assertThat(datTruocTonKhoRepository.findByMaBienTheAndMaThamChieu(maBienThe, ref).get().getTrangThai())
+                .isEqualTo(DatTruocTonKho.DA_TRA);
+    }
+
+    @Test
+    void lanGiuQuaHanDuocTraLai() {
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+        Integer maBienThe = TestData.bienThe(tx, em, 5, 0, 0);
+        String conHan = ref();
+        String quaHan = ref();
+        reservations.reserve(maBienThe, 1, conHan);
+        reservations.reserve(maBienThe, 2, quaHan);
+        tx.executeWithoutResult(status -> em.createQuery(
+                "UPDATE DatTruocTonKho d SET d.hetHan = :hetHan WHERE d.maThamChieu = :ref")
+                .setParameter("hetHan", LocalDateTime.now().minusMinutes(1))
+                .setParameter("ref", quaHan)
+                .executeUpdate());
+
+        while (reservations.releaseExpired(100) == 100) {
+            // Trả hết các lần giữ quá hạn (kể cả của test khác)
+        }
+
+        assertThat(TestData.tonKho(tx, em, maBienThe)[1]).isEqualTo(1);
+        assertThat(datTruocTonKhoRepository.findByMaBienTheAndMaThamChieu(maBienThe, quaHan).get().getTrangThai())
+                .isEqualTo(DatTruocTonKho.HET_HAN);
+        assertThat(datTruocTonKhoRepository.findByMaBienTheAndMaThamChieu(maBienThe, conHan).get().getTrangThai())
+                .isEqualTo(DatTruocTonKho.DANG_GIU);
+        // Hết hạn rồi thì không trả lần nữa
+        assertThat(reservations.release(maBienThe, quaHan)).isFalse();
+    }
+
+    @Test
+    void xacNhanDonChuyenPhanGiuThanhBan() {
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+        Integer maBienThe = TestData.bienThe(tx, em, 5, 0, 0);
+        Integer maDonHang = Math.abs(UUID.randomUUID().hashCode());
+        List<ChiTietDonHang> chiTiets = List.of(dong(maBienThe, 2), dong(maBienThe, 1));
+
+        Boolean daGiuDu = tx.execute(status -> reservations.reserveOrder(maDonHang, chiTiets));
+        assertThat(daGiuDu).isTrue();
+        Object[] daGiu = TestData.tonKho(tx, em, maBienThe);
+        assertThat(daGiu[0]).isEqualTo(5);
+        assertThat(daGiu[1]).isEqualTo(3);
+
+        Boolean daXacNhan = tx.execute(status -> reservations.confirmOrder(maDonHang, chiTiets, "test"));
+        assertThat(daXacNhan).isTrue();
+        Object[] daBan = TestData.tonKho(tx, em, maBienThe);
+        assertThat(daBan[0]).isEqualTo(2);
+        assertThat(daBan[1]).isEqualTo(0);
+    }
+
+    @Test
+    void giuDonCoDongSoLuongKhongVanThanhCong() {
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+        Integer a = TestData.bienThe(tx, em, 2, 0, 0);
+        Integer b = TestData.bienThe(tx, em, 2, 0, 0);
+        Integer maDonHang = Math.abs(UUID.randomUUID().hashCode());
+        List<ChiTietDonHang> chiTiets = List.of(dong(a, 2), dong(b, 0));
+
+        assertThat(StockReservationService.tongTheoBienThe(chiTiets)).containsOnlyKeys(a);
+        Boolean daGiu = tx.execute(status -> reservations.reserveOrder(maDonHang, chiTiets));
+        assertThat(daGiu).isTrue();
+        assertThat(TestData.tonKho(tx, em, a)[1]).isEqualTo(2);
+        assertThat(TestData.tonKho(tx, em, b)[1]).isEqualTo(0);
+    }
+
+    @Test
+    void giuChoDonKhongHetHan() {
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+        Integer maBienThe = TestData.bienThe(tx, em, 5, 0, 0);
+        Integer maDonHang = Math.abs(UUID.randomUUID().hashCode());
+        tx.execute(status -> reservations.reserveOrder(maDonHang, List.of(dong(maBienThe, 2))));
+
+        while (reservations.releaseExpired(100) == 100) {
+            // Trả hết các lần giữ quá hạn (kể cả của test khác)
+        }
+
+        DatTruocTonKho d = datTruocTonKhoRepository
+                .findByMaBienTheAndMaThamChieu(maBienThe, StockReservationService.orderRef(maDonHang)).get();
+        assertThat(d.getHetHan()).isNull();
+        assertThat(d.getTrangThai()).isEqualTo(DatTruocTonKho.DANG_GIU);
+        assertThat(TestData.tonKho(tx, em, maBienThe)[1]).isEqualTo(2);
+    }
+
+    @Test
+    void tryConfirmOrderThieuHangKhongTruGiVaKhongRollbackBenGoi() {
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+        Integer a = TestData.bienThe(tx, em, 5, 0, 0);
+        Integer b = TestData.bienThe(tx, em, 2, 0, 0);
+        Integer maDonHang = Math.abs(UUID.randomUUID().hashCode());
+        String ref = StockReservationService.orderRef(maDonHang);
+        reservations.reserve(a, 2, ref);
+        reservations.reserve(b, 1, ref);
+        // Dòng b cần 3 nhưng chỉ giữ 1 và tồn chỉ có 2: dòng a cũng không được bán
+        List<ChiTietDonHang> chiTiets = List.of(dong(a, 2), dong(b, 3));
+        String lichSuBenGoi = ref();
+
+        Boolean daXacNhan = tx.execute(status -> {
+            boolean ok = reservations.tryConfirmOrder(maDonHang, chiTiets, "test");
+            // Thay đổi của bên gọi trong cùng transaction vẫn được commit
+            reservations.reserve(b, 1, lichSuBenGoi);
+            return ok;
+        });
+
+        assertThat(daXacNhan).isFalse();
+        Object[] tonA = TestData.tonKho(tx, em, a);
+        assertThat(tonA[0]).isEqualTo(5);
+        assertThat(tonA[1]).isEqualTo(2);
+        assertThat(datTruocTonKhoRepository.findByMaBienTheAndMaThamChieu(a, ref).get().getTrangThai())
+                .isEqualTo(DatTruocTonKho.DANG_GIU);
+        assertThat(datTruocTonKhoRepository.findByMaBienTheAndMaThamChieu(b, ref).get().getTrangThai())
+                .isEqualTo(DatTruocTonKho.DANG_GIU);
+        assertThat(datTruocTonKhoRepository.findByMaBienTheAndMaThamChieu(b, lichSuBenGoi)).isPresent();
+        assertThat(TestData.tonKho(tx, em, b)[1]).isEqualTo(2);
+    }
+
+    private static String ref() {
+        return "TEST-" + UUID.randomUUID();
+    }
+
+    private static ChiTietDonHang dong(Integer maBienThe, int soLuong) {
+        BienTheSanPham bienThe = new BienTheSanPham();
+        bienThe.setMaBienThe(maBienThe);
+        ChiTietDonHang ct = new ChiTietDonHang();
+        ct.setBienThe(bienThe);
+        ct.setSoLuong(soLuong);
+        return ct;
+    }
+}
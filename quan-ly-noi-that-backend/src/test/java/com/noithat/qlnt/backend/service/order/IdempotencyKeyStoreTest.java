@@ -0,0 +1,235 @@
+package com.noithat.qlnt.backend.service.order;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.context.bean.override.mockito.MockitoSpyBean;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.noithat.qlnt.backend.entity.KhoaIdempotency;
+import com.noithat.qlnt.backend.repository.KhoaIdempotencyRepository;
+import com.noithat.qlnt.backend.support.JpaSliceTest;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.LockModeType;
+
+/**
+ * Idempotency-Key: gửi lại nhận đúng kết quả cũ, 409 khi lần trước còn đang xử
+ * lý, 422 khi dùng lại khóa cho nội dung khác, trả khóa khi xử lý lỗi, gia hạn
+ * khóa khi xử lý lâu và không hoàn tất khi khóa đã bị lấy lại.
+ *
+ * Câu giành khóa là MERGE WITH (HOLDLOCK) của SQL Server, không chạy trên H2: ở
+ * đây nó được thay bằng đọc có khóa rồi chèn/lấy lại khóa hết hạn trong một
+ * transaction riêng; hoàn tất, gia hạn và trả khóa chạy thật.
+ */
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class IdempotencyKeyStoreTest extends JpaSliceTest {
+
+    record DonDaTao(int maDonHang) {
+    }
+
+    @MockitoSpyBean
+    KhoaIdempotencyRepository khoaIdempotencyRepository;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+    @Autowired
+    EntityManager em;
+
+    private TransactionTemplate tx;
+    private IdempotencyKeyStore store;
+
+    @BeforeEach
+    void setUp() {
+        tx = new TransactionTemplate(transactionManager);
+        doAnswer(inv -> tx.execute(status -> {
+            String maKhoa = inv.getArgument(0);
+            LocalDateTime now = inv.getArgument(2);
+            KhoaIdempotency k = em.find(KhoaIdempotency.class, maKhoa, LockModeType.PESSIMISTIC_WRITE);
+            if (k == null) {
+                em.persist(new KhoaIdempotency(maKhoa, inv.getArgument(1), KhoaIdempotency.DANG_XU_LY, null, now,
+                        inv.getArgument(3)));
+                return 1;
+            }
+            if (!k.getHetHan().isBefore(now))
+                return 0;
+            k.setMaHashYeuCau(inv.getArgument(1));
+            k.setTrangThai(KhoaIdempotency.DANG_XU_LY);
+            k.setKetQua(null);
+            k.setNgayTao(now);
+            k.setHetHan(inv.getArgument(3));
+            return 1;
+        })).when(khoaIdempotencyRepository).giuKhoa(anyString(), anyString(), any(), any());
+        store = taoStore();
+    }
+
+    @AfterEach
+    void tearDown() {
+        store.shutdown();
+    }
+
+    @Test
+    void guiLaiNhanDungKetQuaCu() {
+        String khoa = UUID.randomUUID().toString();
+        AtomicInteger soLan = new AtomicInteger();
+
+        DonDaTao dau = store.execute("tao-don", khoa, Map.of("sp", 1), DonDaTao.class,
+                () -> new DonDaTao(100 + soLan.incrementAndGet()));
+        DonDaTao lai = store.execute("tao-don", khoa, Map.of("sp", 1), DonDaTao.class,
+                () -> new DonDaTao(100 + soLan.incrementAndGet()));
+        // Một node khác (cache cục bộ trống) đọc kết quả từ bảng
+        IdempotencyKeyStore khac = taoStore();
+        DonDaTao tuBang;
+        try {
+            tuBang = khac.execute("tao-don", khoa, Map.of("sp", 1), DonDaTao.class,
+                    () -> new DonDaTao(100 + soLan.incrementAndGet()));
+        } finally {
+            khac.shutdown();
+        }
+
+        assertThat(soLan).hasValue(1);
+        assertThat(lai).isEqualTo(dau);
+        assertThat(tuBang).isEqualTo(dau);
+        assertThat(khoa(khoa).getTrangThai()).isEqualTo(KhoaIdempotency.HOAN_TAT);
+    }
+
+    @Test
+    void dangXuLyThiTra409() throws Exception {
+        String khoa = UUID.randomUUID().toString();
+        CountDownLatch daBatDau = new CountDownLatch(1);
+        CountDownLatch choPhep = new CountDownLatch(1);
+        CompletableFuture<DonDaTao> dau = CompletableFuture.supplyAsync(() -> store.execute("tao-don", khoa,
+                Map.of("sp", 1), DonDaTao.class, () -> {
+                    daBatDau.countDown();
+                    cho(choPhep);
+                    return new DonDaTao(1);
+                }));
+        assertThat(daBatDau.await(5, TimeUnit.SECONDS)).isTrue();
+
+        assertThatThrownBy(() -> store.execute("tao-don", khoa, Map.of("sp", 1), DonDaTao.class,
+                () -> new DonDaTao(2)))
+                .isInstanceOfSatisfying(ResponseStatusException.class,
+                        ex -> assertThat(ex.getStatusCode()).isEqualTo(HttpStatus.CONFLICT));
+
+        choPhep.countDown();
+        assertThat(dau.get(5, TimeUnit.SECONDS)).isEqualTo(new DonDaTao(1));
+    }
+
+    @Test
+    void noiDungKhacThiTra422() {
+        String khoa = UUID.randomUUID().toString();
+        store.execute("tao-don", khoa, Map.of("sp", 1), DonDaTao.class, () -> new DonDaTao(1));
+
+        assertThatThrownBy(() -> store.execute("tao-don", khoa, Map.of("sp", 2), DonDaTao.class,
+                () -> new DonDaTao(2)))
+                .isInstanceOfSatisfying(ResponseStatusException.class,
+                        ex -> assertThat(ex.getStatusCode()).isEqualTo(HttpStatus.UNPROCESSABLE_ENTITY));
+        // Cùng khóa ở phạm vi khác là một khóa khác
+        assertThat(store.execute("tao-don-khac", khoa, Map.of("sp", 2), DonDaTao.class, () -> new DonDaTao(3)))
+                .isEqualTo(new DonDaTao(3));
+    }
+
+    @Test
+    void loiThiTraKhoaDeGuiLai() {
+        String khoa = UUID.randomUUID().toString();
+
+        assertThatThrownBy(() -> store.execute("tao-don", khoa, Map.of("sp", 1), DonDaTao.class, () -> {
+            throw new IllegalStateException("Hết hàng");
+        })).isInstanceOf(IllegalStateException.class);
+        assertThat(khoa(khoa)).isNull();
+
+        assertThat(store.execute("tao-don", khoa, Map.of("sp", 1), DonDaTao.class, () -> new DonDaTao(7)))
+                .isEqualTo(new DonDaTao(7));
+    }
+
+    @Test
+    void xuLyLauThiGiaHanKhoa() throws Exception {
+        String khoa = UUID.randomUUID().toString();
+        CountDownLatch daBatDau = new CountDownLatch(1);
+        CountDownLatch choPhep = new CountDownLatch(1);
+        CompletableFuture<DonDaTao> dau = CompletableFuture.supplyAsync(() -> store.execute("tao-don", khoa,
+                Map.of("sp", 1), DonDaTao.class, () -> {
+                    daBatDau.countDown();
+                    cho(choPhep);
+                    return new DonDaTao(1);
+                }));
+        assertThat(daBatDau.await(5, TimeUnit.SECONDS)).isTrue();
+        LocalDateTime hetHanDau = khoa(khoa).getHetHan();
+
+        // Thời gian giữ tối thiểu 10 giây, gia hạn mỗi ~3,3 giây
+        long han = System.currentTimeMillis() + 8000;
+        while (!khoa(khoa).getHetHan().isAfter(hetHanDau) && System.currentTimeMillis() < han)
+            Thread.sleep(200);
+        assertThat(khoa(khoa).getHetHan()).isAfter(hetHanDau);
+
+        choPhep.countDown();
+        assertThat(dau.get(5, TimeUnit.SECONDS)).isEqualTo(new DonDaTao(1));
+        assertThat(khoa(khoa).getTrangThai()).isEqualTo(KhoaIdempotency.HOAN_TAT);
+    }
+
+    @Test
+    void khoaBiLayLaiThiKhongHoanTat() throws Exception {
+        String khoa = UUID.randomUUID().toString();
+        CountDownLatch daBatDau = new CountDownLatch(1);
+        CountDownLatch choPhep = new CountDownLatch(1);
+        CompletableFuture<DonDaTao> dau = CompletableFuture.supplyAsync(() -> store.execute("tao-don", khoa,
+                Map.of("sp", 1), DonDaTao.class, () -> {
+                    daBatDau.countDown();
+                    cho(choPhep);
+                    return new DonDaTao(1);
+                }));
+        assertThat(daBatDau.await(5, TimeUnit.SECONDS)).isTrue();
+        // Giả lập khóa đã hết hạn và một yêu cầu khác vừa giành lại
+        LocalDateTime giuLai = LocalDateTime.now().plusSeconds(1).withNano(0);
+        tx.executeWithoutResult(status -> khoa(khoa).setNgayTao(giuLai));
+
+        choPhep.countDown();
+        assertThat(dau).failsWithin(5, TimeUnit.SECONDS).withThrowableThat().havingRootCause()
+                .isInstanceOfSatisfying(ResponseStatusException.class,
+                        ex -> assertThat(ex.getStatusCode()).isEqualTo(HttpStatus.CONFLICT));
+        KhoaIdempotency k = khoa(khoa);
+        assertThat(k.getTrangThai()).isEqualTo(KhoaIdempotency.DANG_XU_LY);
+        assertThat(k.getNgayTao()).isEqualTo(giuLai);
+        assertThat(k.getKetQua()).isNull();
+    }
+
+    private IdempotencyKeyStore taoStore() {
+        return new IdempotencyKeyStore(khoaIdempotencyRepository, new ObjectMapper(), transactionManager, 24, 10,
+                100);
+    }
+
+    private KhoaIdempotency khoa(String khoa) {
+        return em.find(KhoaIdempotency.class, "tao-don:" + khoa);
+    }
+
+    private static void cho(CountDownLatch latch) {
+        try {
+            if (!latch.await(15, TimeUnit.SECONDS))
+                throw new IllegalStateException("Hết thời gian chờ");
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(ex);
+        }
+    }
+}
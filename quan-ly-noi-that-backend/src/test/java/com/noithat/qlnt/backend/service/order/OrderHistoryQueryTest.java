@@ -0,0 +1,45 @@
+package com.noithat.qlnt.backend.service.order;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.time.LocalDateTime;
+
+import org.junit.jupiter.api.Test;
+
+class OrderHistoryQueryTest {
+
+    @Test
+    void cursorGiuDungThoiDiemVaMaDon() {
+        LocalDateTime ngay = LocalDateTime.of(2025, 3, 1, 10, 15, 30, 123_000_000);
+        String cursor = OrderHistoryQuery.encodeCursor(ngay, 42);
+
+        OrderHistoryQuery.Cursor c = query(cursor, null).decodeCursor();
+
+        assertThat(c.ngayDatHang()).isEqualTo(ngay);
+        assertThat(c.maDonHang()).isEqualTo(42);
+    }
+
+    @Test
+    void khongCoCursorLaTrangDau() {
+        assertThat(query(null, null).decodeCursor()).isNull();
+        assertThat(query("  ", null).decodeCursor()).isNull();
+    }
+
+    @Test
+    void cursorSaiBaoLoiThamSo() {
+        assertThatThrownBy(() -> query("khong-phai-cursor", null).decodeCursor())
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void kichThuocTrangBiGioiHan() {
+        assertThat(query(null, null).size()).isEqualTo(OrderHistoryQuery.DEFAULT_SIZE);
+        assertThat(query(null, 0).size()).isEqualTo(1);
+        assertThat(query(null, 10_000).size()).isEqualTo(OrderHistoryQuery.MAX_SIZE);
+    }
+
+    private static OrderHistoryQuery query(String cursor, Integer size) {
+        return new OrderHistoryQuery(null, null, null, null, null, null, null, cursor, size);
+    }
+}
@@ -0,0 +1,99 @@
+package com.noithat.qlnt.backend.service.order;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+
+import java.math.BigDecimal;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.noithat.qlnt.backend.entity.DonHang;
+import com.noithat.qlnt.backend.repository.TonKhoTheoNgayRepository;
+import com.noithat.qlnt.backend.repository.TonKhoTongHopRepository;
+import com.noithat.qlnt.backend.service.IQuanLyTrangThaiDonHangService;
+import com.noithat.qlnt.backend.service.catalog.ShopCatalogSnapshot;
+import com.noithat.qlnt.backend.service.event.DomainEventPublisher;
+import com.noithat.qlnt.backend.service.event.OrderStatusChanged;
+import com.noithat.qlnt.backend.service.inventory.LowStockIndex;
+import com.noithat.qlnt.backend.service.inventory.StockMutationEngine;
+import com.noithat.qlnt.backend.service.inventory.StockReservationService;
+import com.noithat.qlnt.backend.support.JpaSliceTest;
+import com.noithat.qlnt.backend.support.TestData;
+
+import jakarta.persistence.EntityManager;
+
+/**
+ * Hủy đơn không có bản ghi giữ hàng: phần đã trừ kho được nhập lại đúng một lần
+ * cho mỗi biến thể, kể cả khi sự kiện hủy được xử lý lại.
+ */
+@Import({ OrderRestockStage.class, StockMutationEngine.class })
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class OrderRestockStageTest extends JpaSliceTest {
+
+    @MockitoBean
+    StockReservationService stockReservationService;
+    @MockitoBean
+    TonKhoTongHopRepository tonKhoTongHopRepository;
+    @MockitoBean
+    TonKhoTheoNgayRepository tonKhoTheoNgayRepository;
+    @MockitoBean
+    ShopCatalogSnapshot shopCatalogSnapshot;
+    @MockitoBean
+    DomainEventPublisher domainEventPublisher;
+    @MockitoBean
+    LowStockIndex lowStockIndex;
+    @MockitoBean
+    ObjectMapper objectMapper;
+
+    @Autowired
+    OrderRestockStage stage;
+    @Autowired
+    PlatformTransactionManager transactionManager;
+    @Autowired
+    EntityManager em;
+
+    @Test
+    void nhapLaiKhoMotLanChoMoiBienThe() {
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+        Integer a = TestData.bienThe(tx, em, 5, 0, 0);
+        Integer b = TestData.bienThe(tx, em, 4, 0, 0);
+        Integer maDonHang = tx.execute(status -> {
+            DonHang d = new DonHang();
+            d.setTrangThaiDonHang(IQuanLyTrangThaiDonHangService.DA_HUY);
+            d.setThanhTien(new BigDecimal("100000"));
+            d.setPhuongThucThanhToan("COD");
+            em.persist(d);
+            return d.getMaDonHang();
+        });
+        OrderStatusChanged huy = new OrderStatusChanged(maDonHang, IQuanLyTrangThaiDonHangService.CHO_XAC_NHAN,
+                IQuanLyTrangThaiDonHangService.DA_HUY, "test");
+
+        when(stockReservationService.cancelOrder(eq(maDonHang), any(), anyString())).thenReturn(Map.of(a, 2));
+        tx.executeWithoutResult(status -> stage.on(huy, null));
+        assertThat(TestData.tonKho(tx, em, a)[0]).isEqualTo(7);
+
+        // Xử lý lại (sự kiện giao lại / hủy lần hai): a đã nhập lại thì bỏ qua, b chưa thì nhập
+        when(stockReservationService.cancelOrder(eq(maDonHang), any(), anyString())).thenReturn(Map.of(a, 2, b, 3));
+        tx.executeWithoutResult(status -> stage.on(huy, null));
+        tx.executeWithoutResult(status -> stage.on(huy, null));
+
+        assertThat(TestData.tonKho(tx, em, a)[0]).isEqualTo(7);
+        assertThat(TestData.tonKho(tx, em, b)[0]).isEqualTo(7);
+        Long soDong = tx.execute(status -> em.createQuery("SELECT COUNT(l) FROM LichSuTonKho l "
+                + "WHERE l.maThamChieu = :ma AND l.loaiGiaoDich = 'TRA_HANG'", Long.class)
+                .setParameter("ma", StockReservationService.orderRef(maDonHang)).getSingleResult());
+        assertThat(soDong).isEqualTo(2);
+    }
+}
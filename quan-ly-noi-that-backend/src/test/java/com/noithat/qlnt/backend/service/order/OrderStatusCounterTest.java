@@ -0,0 +1,159 @@
+package com.noithat.qlnt.backend.service.order;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+
+import java.math.BigDecimal;
+import java.util.UUID;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.bean.override.mockito.MockitoSpyBean;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.noithat.qlnt.backend.entity.DemDonHangTheoTrangThai;
+import com.noithat.qlnt.backend.entity.DonHang;
+import com.noithat.qlnt.backend.repository.DemDonHangTheoTrangThaiRepository;
+import com.noithat.qlnt.backend.support.JpaSliceTest;
+
+import jakarta.persistence.EntityManager;
+
+/**
+ * Bộ đếm đơn theo trạng thái: cộng dồn cùng transaction của đơn, đối soát bù
+ * đúng phần lệch do thay đổi ngoài ứng dụng và không bù lại lần hai.
+ *
+ * Câu cộng dồn là MERGE WITH (HOLDLOCK) của SQL Server, không chạy trên H2: ở
+ * đây nó được thay bằng một lần đọc-cộng-ghi entity trong cùng transaction; các
+ * câu đọc (tổng các ngăn, GROUP BY trên DonHang) chạy thật. Mỗi test dùng trạng
+ * thái riêng vì CSDL dùng chung giữa các lớp test.
+ */
+@Import(OrderStatusCounter.class)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class OrderStatusCounterTest extends JpaSliceTest {
+
+    @MockitoSpyBean
+    DemDonHangTheoTrangThaiRepository demRepository;
+
+    @Autowired
+    OrderStatusCounter counter;
+    @Autowired
+    PlatformTransactionManager transactionManager;
+    @Autowired
+    EntityManager em;
+
+    private TransactionTemplate tx;
+
+    @BeforeEach
+    void setUp() {
+        tx = new TransactionTemplate(transactionManager);
+        doAnswer(inv -> {
+            DemDonHangTheoTrangThai.Khoa khoa = new DemDonHangTheoTrangThai.Khoa(inv.getArgument(0),
+                    inv.getArgument(1));
+            DemDonHangTheoTrangThai dem = em.find(DemDonHangTheoTrangThai.class, khoa);
+            if (dem == null) {
+                dem = new DemDonHangTheoTrangThai();
+                dem.setTrangThai(khoa.getTrangThai());
+                dem.setNgan(khoa.getNgan());
+                em.persist(dem);
+            }
+            dem.setSoDon(dem.getSoDon() + (long) inv.getArgument(2));
+            dem.setTongThanhTien(dem.getTongThanhTien().add(inv.getArgument(3)));
+            em.flush();
+            return 1;
+        }).when(demRepository).congDon(any(), anyInt(), anyLong(), any());
+    }
+
+    @Test
+    void congDonKhiTaoDoiTrangThaiVaXoaDon() {
+        String moi = trangThai();
+        String daGiao = trangThai();
+
+        DonHang a = taoDon(moi, "150000", true);
+        DonHang b = taoDon(moi, "50000", true);
+        assertThat(counter.get(moi)).isEqualTo(new OrderStatusCounter.Dem(2, new BigDecimal("200000.00")));
+
+        tx.executeWithoutResult(status -> {
+            DonHang d = em.find(DonHang.class, a.getMaDonHang());
+            d.setTrangThaiDonHang(daGiao);
+            counter.ghiNhanDoiTrangThai(d, moi, daGiao);
+        });
+        assertThat(counter.get(moi)).isEqualTo(new OrderStatusCounter.Dem(1, new BigDecimal("50000.00")));
+        assertThat(counter.get(daGiao)).isEqualTo(new OrderStatusCounter.Dem(1, new BigDecimal("150000.00")));
+
+        tx.executeWithoutResult(status -> {
+            DonHang d = em.find(DonHang.class, b.getMaDonHang());
+            counter.ghiNhanXoa(d);
+            em.remove(d);
+        });
+        assertThat(counter.get(moi).soDon()).isZero();
+        assertThat(counter.get(moi).tongThanhTien()).isEqualByComparingTo("0");
+        assertThat(counter.soDon(moi, daGiao)).isEqualTo(1);
+    }
+
+    @Test
+    void rollbackKhongDeLaiPhanCongDon() {
+        String moi = trangThai();
+
+        tx.executeWithoutResult(status -> {
+            DonHang d = donHang(moi, "90000");
+            em.persist(d);
+            counter.ghiNhanDonMoi(d);
+            status.setRollbackOnly();
+        });
+
+        assertThat(counter.get(moi).soDon()).isZero();
+    }
+
+    @Test
+    void doiSoatBuPhanLechNgoaiUngDungMotLan() {
+        String moi = trangThai();
+        String daHuy = trangThai();
+        counter.reconcile();
+
+        DonHang a = taoDon(moi, "100000", true);
+        taoDon(moi, "40000", true);
+        // Thay đổi ngoài ứng dụng: thêm đơn không qua bộ đếm và đổi trạng thái bằng câu lệnh thẳng
+        taoDon(moi, "25000", false);
+        tx.executeWithoutResult(status -> em
+                .createQuery("UPDATE DonHang d SET d.trangThaiDonHang = :t WHERE d.maDonHang = :id")
+                .setParameter("t", daHuy).setParameter("id", a.getMaDonHang()).executeUpdate());
+        assertThat(counter.get(moi).soDon()).isEqualTo(2);
+
+        assertThat(counter.reconcile()).isEqualTo(2);
+
+        assertThat(counter.get(moi)).isEqualTo(new OrderStatusCounter.Dem(2, new BigDecimal("65000.00")));
+        assertThat(counter.get(daHuy)).isEqualTo(new OrderStatusCounter.Dem(1, new BigDecimal("100000.00")));
+        assertThat(counter.reconcile()).isZero();
+        assertThat(counter.get(moi).soDon()).isEqualTo(2);
+    }
+
+    private DonHang taoDon(String trangThai, String thanhTien, boolean quaBoDem) {
+        return tx.execute(status -> {
+            DonHang d = donHang(trangThai, thanhTien);
+            em.persist(d);
+            if (quaBoDem)
+                counter.ghiNhanDonMoi(d);
+            return d;
+        });
+    }
+
+    private static DonHang donHang(String trangThai, String thanhTien) {
+        DonHang d = new DonHang();
+        d.setTrangThaiDonHang(trangThai);
+        d.setThanhTien(new BigDecimal(thanhTien));
+        d.setPhuongThucThanhToan("COD");
+        return d;
+    }
+
+    private static String trangThai() {
+        return "T_" + UUID.randomUUID().toString().substring(0, 8);
+    }
+}
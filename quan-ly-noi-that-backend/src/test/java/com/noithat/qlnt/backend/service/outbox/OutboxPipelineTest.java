@@ -0,0 +1,174 @@
+package com.noithat.qlnt.backend.service.outbox;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.core.annotation.Order;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.noithat.qlnt.backend.entity.OutboxSuKien;
+import com.noithat.qlnt.backend.repository.OutboxSuKienRepository;
+import com.noithat.qlnt.backend.service.event.DomainEvent;
+import com.noithat.qlnt.backend.service.event.DomainEventSubscriber;
+import com.noithat.qlnt.backend.service.event.DomainEvents;
+import com.noithat.qlnt.backend.service.event.OrderStatusChanged;
+import com.noithat.qlnt.backend.support.JpaSliceTest;
+
+/**
+ * Đường đi của sự kiện: ghi outbox trong transaction nghiệp vụ, dispatcher nhận
+ * và chạy các subscriber theo @Order; sự kiện của cùng một đơn chạy đúng thứ tự
+ * ghi, bước lỗi được thử lại từ chính bước đó và sự kiện sau của đơn chờ tới
+ * khi sự kiện trước xong.
+ */
+@Import({ OutboxDispatcher.class, OutboxPublisher.class, OutboxPipelineTest.Cau.class })
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class OutboxPipelineTest extends JpaSliceTest {
+
+    // [subscriber]:[maDonHang]:[trangThaiMoi], ghi khi bước chạy xong
+    static final List<String> NHAT_KY = Collections.synchronizedList(new ArrayList<>());
+    // Đơn mà bước "sau" lỗi một lần
+    static final Set<Integer> LOI_MOT_LAN = ConcurrentHashMap.newKeySet();
+
+    static class GhiNhatKy extends DomainEventSubscriber {
+
+        private final String ten;
+
+        GhiNhatKy(String ten, ObjectMapper objectMapper) {
+            super(objectMapper, Set.of(OrderStatusChanged.class));
+            this.ten = ten;
+        }
+
+        @Override
+        protected void on(DomainEvent event, OutboxSuKien suKien) {
+            OrderStatusChanged e = (OrderStatusChanged) event;
+            if ("sau".equals(ten) && LOI_MOT_LAN.remove(e.maDonHang()))
+                throw new IllegalStateException("Lỗi tạm thời");
+            NHAT_KY.add(ten + ":" + e.maDonHang() + ":" + e.trangThaiMoi());
+        }
+    }
+
+    @TestConfiguration
+    static class Cau {
+
+        @Bean
+        ObjectMapper objectMapper() {
+            return new ObjectMapper();
+        }
+
+        // Khai báo ngược thứ tự để chắc thứ tự chạy theo @Order
+        @Bean
+        @Order(20)
+        GhiNhatKy sau(ObjectMapper objectMapper) {
+            return new GhiNhatKy("sau", objectMapper);
+        }
+
+        @Bean
+        @Order(10)
+        GhiNhatKy truoc(ObjectMapper objectMapper) {
+            return new GhiNhatKy("truoc", objectMapper);
+        }
+    }
+
+    @Autowired
+    OutboxPublisher outboxPublisher;
+    @Autowired
+    OutboxDispatcher outboxDispatcher;
+    @Autowired
+    OutboxSuKienRepository outboxSuKienRepository;
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    @Test
+    void subscriberChayTheoOrderVaSuKienCuaMotDonTheoThuTuGhi() {
+        int x = maDon();
+        int y = maDon();
+        List<Long> ids = ghi(new OrderStatusChanged(x, "A", "B", "test"), new OrderStatusChanged(y, "A", "B", "test"),
+                new OrderStatusChanged(x, "B", "C", "test"));
+
+        choXuLyXong(ids);
+
+        assertThat(nhatKy(x)).containsExactly("truoc:" + x + ":B", "sau:" + x + ":B", "truoc:" + x + ":C",
+                "sau:" + x + ":C");
+        assertThat(nhatKy(y)).containsExactly("truoc:" + y + ":B", "sau:" + y + ":B");
+    }
+
+    @Test
+    void buocLoiThuLaiTuChinhBuocDoVaSuKienSauPhaiCho() {
+        int x = maDon();
+        LOI_MOT_LAN.add(x);
+        List<Long> ids = ghi(new OrderStatusChanged(x, "A", "B", "test"), new OrderStatusChanged(x, "B", "C", "test"));
+
+        OutboxSuKien dau = choTrangThai(ids.get(0), OutboxSuKien.LOI);
+        assertThat(dau.getSoBuocXong()).isEqualTo(1);
+        outboxDispatcher.poll();
+        assertThat(outboxSuKienRepository.findById(ids.get(1)).orElseThrow().getTrangThai())
+                .isEqualTo(OutboxSuKien.MOI);
+        assertThat(nhatKy(x)).containsExactly("truoc:" + x + ":B");
+
+        // Bỏ qua thời gian chờ thử lại
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> outboxSuKienRepository
+                .findById(ids.get(0)).orElseThrow().setXuLyLuc(LocalDateTime.now().minusSeconds(1)));
+        choXuLyXong(ids);
+
+        assertThat(nhatKy(x)).containsExactly("truoc:" + x + ":B", "sau:" + x + ":B", "truoc:" + x + ":C",
+                "sau:" + x + ":C");
+    }
+
+    private List<Long> ghi(OrderStatusChanged... events) {
+        return new TransactionTemplate(transactionManager).execute(status -> {
+            List<Long> ids = new ArrayList<>();
+            for (OrderStatusChanged e : events)
+                ids.add(outboxPublisher.publish(e.loaiDoiTuong(), e.maDoiTuong(),
+                        DomainEvents.loaiSuKien(OrderStatusChanged.class), e).getMaSuKien());
+            return ids;
+        });
+    }
+
+    private void choXuLyXong(List<Long> ids) {
+        for (Long id : ids)
+            choTrangThai(id, OutboxSuKien.DA_XU_LY);
+    }
+
+    private OutboxSuKien choTrangThai(Long id, String trangThai) {
+        long han = System.currentTimeMillis() + 10_000;
+        while (true) {
+            OutboxSuKien suKien = outboxSuKienRepository.findById(id).orElseThrow();
+            if (trangThai.equals(suKien.getTrangThai()))
+                return suKien;
+            assertThat(System.currentTimeMillis()).as("sự kiện %s chưa %s", id, trangThai).isLessThan(han);
+            outboxDispatcher.poll();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(ex);
+            }
+        }
+    }
+
+    private static List<String> nhatKy(int maDonHang) {
+        synchronized (NHAT_KY) {
+            return NHAT_KY.stream().filter(s -> s.contains(":" + maDonHang + ":")).toList();
+        }
+    }
+
+    private static int maDon() {
+        return ThreadLocalRandom.current().nextInt(1_000_000, Integer.MAX_VALUE);
+    }
+}
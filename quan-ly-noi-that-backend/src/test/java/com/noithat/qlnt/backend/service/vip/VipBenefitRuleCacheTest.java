@@ -0,0 +1,125 @@
+package com.noithat.qlnt.backend.service.vip;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.noithat.qlnt.backend.entity.VipBenefit;
+import com.noithat.qlnt.backend.repository.VipBenefitRepository;
+import com.noithat.qlnt.backend.service.vip.VipBenefitRuleCache.QuyTacHang;
+
+/**
+ * Dịch các dòng vip_benefit thành quy tắc của hạng (mức giảm sắp theo %, ngưỡng
+ * miễn phí ship, điểm thưởng cố định và theo %, bỏ dòng tắt hoặc params hỏng),
+ * và cache theo hạng: chỉ truy vấn lại sau khi thay đổi được commit, lần nạp
+ * chạy trùng một lần xóa không được ghi đè vào cache.
+ */
+class VipBenefitRuleCacheTest {
+
+    private final VipBenefitRepository repository = mock(VipBenefitRepository.class);
+    private final VipBenefitRuleCache cache = new VipBenefitRuleCache(repository, 300);
+
+    @Test
+    void bienDichMucGiamTheoNguongVaPhanTramGiamDan() {
+        QuyTacHang q = VipBenefitRuleCache.bienDich(List.of(
+                benefit("PERCENT_DISCOUNT", "{\"percent\": 5}", null),
+                // Tên cũ: rate
+                benefit("DISCOUNT_PERCENT", "{\"rate\": 10, \"minOrder\": 2000000}", null),
+                benefit("PERCENT_DISCOUNT", "{\"percent\": 0}", null)));
+
+        assertThat(q.giamPhanTram()).containsExactly(new BigDecimal("10"), new BigDecimal("5"));
+        assertThat(q.phanTramGiam(new BigDecimal("1000000"))).isEqualByComparingTo("5");
+        assertThat(q.phanTramGiam(new BigDecimal("2000000"))).isEqualByComparingTo("10");
+        assertThat(VipBenefitRuleCache.bienDich(List.of()).phanTramGiam(new BigDecimal("1000000")))
+                .isEqualByComparingTo("0");
+    }
+
+    @Test
+    void bienDichShipUuTienVaDiemThuong() {
+        VipBenefit tat = benefit("FREE_SHIPPING", null, "Tắt");
+        tat.setActive(false);
+        QuyTacHang q = VipBenefitRuleCache.bienDich(List.of(
+                benefit("FREE_SHIPPING", "{\"minOrder\": 800000}", null),
+                benefit("FREE_SHIPPING", "{\"minOrder\": 500000}", null),
+                tat,
+                benefit("PRIORITY_SHIPPING", null, "Giao ưu tiên"),
+                benefit("BONUS_POINTS", "{\"points\": 50}", null),
+                benefit("TICH_DIEM", "{\"percent\": 1}", null),
+                benefit("BONUS_POINTS", "không phải JSON", null)));
+
+        assertThat(q.mienPhiShip(null)).isFalse();
+        assertThat(q.mienPhiShip(new BigDecimal("499999"))).isFalse();
+        assertThat(q.mienPhiShip(new BigDecimal("500000"))).isTrue();
+        assertThat(q.uuTienGiaoHang()).isTrue();
+        // 50 điểm cố định + 1% của 1.000.000 tính theo 1.000đ một điểm
+        assertThat(q.diemThuong(new BigDecimal("1000000"))).isEqualTo(60);
+        assertThat(q.diemThuong(null)).isEqualTo(50);
+        assertThat(q.moTa()).containsExactly("{\"minOrder\": 800000}", "{\"minOrder\": 500000}", "Giao ưu tiên",
+                "{\"points\": 50}", "{\"percent\": 1}", "không phải JSON");
+    }
+
+    @Test
+    void cacheTheoHangVaXoaNgayKhiKhongCoTransaction() {
+        when(repository.findByHangThanhVien_MaHangThanhVien(1))
+                .thenReturn(List.of(benefit("PERCENT_DISCOUNT", "{\"percent\": 5}", null)));
+
+        QuyTacHang lan1 = cache.theoHang(1);
+        assertThat(cache.theoHang(1)).isSameAs(lan1);
+        assertThat(cache.theoHang(null).giamPhanTram()).isEmpty();
+        verify(repository, times(1)).findByHangThanhVien_MaHangThanhVien(1);
+        verify(repository, never()).findByHangThanhVien_MaHangThanhVien(null);
+
+        cache.benefitsChanged();
+        cache.theoHang(1);
+        verify(repository, times(2)).findByHangThanhVien_MaHangThanhVien(1);
+    }
+
+    @Test
+    void trongTransactionChiXoaSauCommit() {
+        when(repository.findByHangThanhVien_MaHangThanhVien(2)).thenReturn(List.of());
+        cache.theoHang(2);
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            cache.benefitsChanged();
+            cache.theoHang(2);
+            verify(repository, times(1)).findByHangThanhVien_MaHangThanhVien(2);
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        cache.theoHang(2);
+        verify(repository, times(2)).findByHangThanhVien_MaHangThanhVien(2);
+    }
+
+    @Test
+    void lanNapTrungLanXoaKhongGhiVaoCache() {
+        when(repository.findByHangThanhVien_MaHangThanhVien(any())).thenAnswer(inv -> {
+            // Thay đổi commit trong lúc đang đọc: kết quả có thể đã cũ
+            cache.benefitsChanged();
+            return List.of();
+        }).thenReturn(List.of());
+
+        cache.theoHang(3);
+        cache.theoHang(3);
+        cache.theoHang(3);
+
+        verify(repository, times(2)).findByHangThanhVien_MaHangThanhVien(3);
+    }
+
+    private static VipBenefit benefit(String loai, String params, String moTa) {
+        return VipBenefit.builder().benefitType(loai).params(params).description(moTa).build();
+    }
+}
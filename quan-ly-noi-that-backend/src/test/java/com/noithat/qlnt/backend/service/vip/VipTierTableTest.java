@@ -0,0 +1,107 @@
+package com.noithat.qlnt.backend.service.vip;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.noithat.qlnt.backend.entity.HangThanhVien;
+import com.noithat.qlnt.backend.repository.HangThanhVienRepository;
+import com.noithat.qlnt.backend.service.vip.VipTierTable.BangHang;
+
+/**
+ * Biên của tìm nhị phân hạng theo điểm: dưới ngưỡng đầu, đúng ngưỡng, sát
+ * dưới ngưỡng, trên ngưỡng cuối, ngưỡng trùng nhau và bảng rỗng.
+ */
+class VipTierTableTest {
+
+    // Đồng 0, Bạc 1000, Vàng 5000, Kim cương 20000
+    private final BangHang bang = new BangHang(new int[] { 0, 1000, 5000, 20000 }, new Integer[] { 1, 2, 3, 4 });
+
+    @Test
+    void viTriTaiCacNguong() {
+        assertThat(bang.viTri(0)).isEqualTo(0);
+        assertThat(bang.viTri(999)).isEqualTo(0);
+        assertThat(bang.viTri(1000)).isEqualTo(1);
+        assertThat(bang.viTri(4999)).isEqualTo(1);
+        assertThat(bang.viTri(5000)).isEqualTo(2);
+        assertThat(bang.viTri(19999)).isEqualTo(2);
+        assertThat(bang.viTri(20000)).isEqualTo(3);
+    }
+
+    @Test
+    void viTriNgoaiKhoangNguong() {
+        assertThat(bang.viTri(-1)).isEqualTo(0);
+        assertThat(bang.viTri(Integer.MIN_VALUE)).isEqualTo(0);
+        assertThat(bang.viTri(Integer.MAX_VALUE)).isEqualTo(3);
+        // Ngưỡng thấp nhất trên 0: điểm thấp hơn vẫn xếp hạng thấp nhất
+        BangHang tuMotTram = new BangHang(new int[] { 100, 500 }, new Integer[] { 7, 8 });
+        assertThat(tuMotTram.viTri(0)).isEqualTo(0);
+        assertThat(tuMotTram.viTri(99)).isEqualTo(0);
+    }
+
+    @Test
+    void nguongTrungNhauLayHangSauCung() {
+        BangHang trung = new BangHang(new int[] { 0, 1000, 1000, 3000 }, new Integer[] { 1, 2, 3, 4 });
+        assertThat(trung.viTri(999)).isEqualTo(0);
+        assertThat(trung.viTri(1000)).isEqualTo(2);
+        assertThat(trung.viTri(2999)).isEqualTo(2);
+    }
+
+    @Test
+    void motHangVaBangRong() {
+        BangHang motHang = new BangHang(new int[] { 0 }, new Integer[] { 1 });
+        assertThat(motHang.viTri(-5)).isEqualTo(0);
+        assertThat(motHang.viTri(1_000_000)).isEqualTo(0);
+        assertThat(motHang.tuDiem(0)).isEqualTo(Integer.MIN_VALUE);
+        assertThat(motHang.denDiem(0)).isEqualTo(Integer.MAX_VALUE);
+
+        BangHang rong = new BangHang(new int[0], new Integer[0]);
+        assertThat(rong.rong()).isTrue();
+        assertThat(rong.viTri(0)).isEqualTo(-1);
+    }
+
+    @Test
+    void khoangDiemLienTucVaKhopViTri() {
+        assertThat(bang.tuDiem(0)).isEqualTo(Integer.MIN_VALUE);
+        assertThat(bang.denDiem(3)).isEqualTo(Integer.MAX_VALUE);
+        for (int i = 0; i < 3; i++)
+            assertThat(bang.denDiem(i)).isEqualTo(bang.tuDiem(i + 1));
+        for (int i = 1; i < 4; i++) {
+            assertThat(bang.viTri(bang.tuDiem(i))).isEqualTo(i);
+            assertThat(bang.viTri(bang.tuDiem(i) - 1)).isEqualTo(i - 1);
+        }
+    }
+
+    @Test
+    void bangDungTuRepositoryVaNapLaiSauKhiDoi() {
+        HangThanhVienRepository repo = mock(HangThanhVienRepository.class);
+        List<HangThanhVien> hangs = new ArrayList<>(List.of(hang(1, 0), hang(2, null), hang(3, 2000)));
+        when(repo.findAllByOrderByDiemToiThieuAsc()).thenAnswer(inv -> hangs);
+        VipTierTable table = new VipTierTable(repo);
+
+        BangHang b = table.bang();
+        assertThat(b.nguong()).containsExactly(0, 0, 2000);
+        assertThat(b.maHang()).containsExactly(1, 2, 3);
+        assertThat(b.maHang()[b.viTri(1999)]).isEqualTo(2);
+        assertThat(table.bang()).isSameAs(b);
+
+        hangs.add(hang(4, 8000));
+        table.tiersChanged();
+        assertThat(table.bang().maHang()[table.bang().viTri(8000)]).isEqualTo(4);
+        verify(repo, times(2)).findAllByOrderByDiemToiThieuAsc();
+    }
+
+    private static HangThanhVien hang(int ma, Integer diemToiThieu) {
+        HangThanhVien h = new HangThanhVien();
+        h.setMaHangThanhVien(ma);
+        h.setDiemToiThieu(diemToiThieu);
+        return h;
+    }
+}
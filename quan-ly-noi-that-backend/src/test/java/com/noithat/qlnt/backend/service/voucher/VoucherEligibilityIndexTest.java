@@ -0,0 +1,155 @@
+package com.noithat.qlnt.backend.service.voucher;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.noithat.qlnt.backend.entity.HangThanhVien;
+import com.noithat.qlnt.backend.entity.Voucher;
+import com.noithat.qlnt.backend.entity.VoucherHangThanhVien;
+import com.noithat.qlnt.backend.repository.VoucherRepository;
+
+/**
+ * Biên của tìm nhị phân theo giá trị đơn tối thiểu và của việc chọn mảng theo
+ * hạng: đơn đúng bằng mức tối thiểu dùng được, thấp hơn một đồng thì không;
+ * nhiều voucher cùng mức tối thiểu đều được lấy.
+ */
+class VoucherEligibilityIndexTest {
+
+    private static final int HANG_BAC = 1;
+    private static final int HANG_VANG = 2;
+    private static final LocalDateTime NOW = LocalDateTime.of(2025, 6, 1, 12, 0);
+
+    private final List<Voucher> vouchers = new ArrayList<>();
+    private VoucherRepository repo;
+    private VoucherEligibilityIndex index;
+
+    @BeforeEach
+    void setUp() {
+        repo = mock(VoucherRepository.class);
+        when(repo.findAllWithHang()).thenAnswer(inv -> vouchers);
+        when(repo.findWithHangByMaVoucherIn(anyCollection())).thenAnswer(inv -> {
+            java.util.Collection<?> ids = inv.getArgument(0);
+            return vouchers.stream().filter(v -> ids.contains(v.getMaVoucher())).toList();
+        });
+        index = new VoucherEligibilityIndex(repo);
+
+        vouchers.add(voucher(1, "0", true));
+        vouchers.add(voucher(2, "500000", true));
+        vouchers.add(voucher(3, "500000", true)); // trùng mức tối thiểu với 2
+        vouchers.add(voucher(4, "2000000", true));
+        vouchers.add(voucher(5, "1000000", false, HANG_VANG));
+        vouchers.add(voucher(6, "300000", false, HANG_BAC, HANG_VANG));
+    }
+
+    @Test
+    void bienMucToiThieuCuaMangChung() {
+        assertThat(ma(index.apDungDuoc(null, BigDecimal.ZERO, NOW))).containsExactly(1);
+        assertThat(ma(index.apDungDuoc(null, new BigDecimal("499999.99"), NOW))).containsExactly(1);
+        assertThat(ma(index.apDungDuoc(null, new BigDecimal("500000"), NOW))).containsExactly(1, 2, 3);
+        assertThat(ma(index.apDungDuoc(null, new BigDecimal("500000.00"), NOW))).containsExactly(1, 2, 3);
+        assertThat(ma(index.apDungDuoc(null, new BigDecimal("1999999"), NOW))).containsExactly(1, 2, 3);
+        assertThat(ma(index.apDungDuoc(null, new BigDecimal("2000000"), NOW))).containsExactly(1, 2, 3, 4);
+        assertThat(ma(index.apDungDuoc(null, new BigDecimal("99999999"), NOW))).containsExactly(1, 2, 3, 4);
+    }
+
+    @Test
+    void donAmHoacThieuTongTien() {
+        assertThat(index.apDungDuoc(null, new BigDecimal("-1"), NOW)).isEmpty();
+        assertThat(index.apDungDuoc(HANG_VANG, null, NOW)).isEmpty();
+    }
+
+    @Test
+    void hangChiThayVoucherCuaHangMinhVaMangChung() {
+        assertThat(ma(index.apDungDuoc(HANG_BAC, new BigDecimal("1000000"), NOW))).containsExactly(1, 2, 3, 6);
+        assertThat(ma(index.apDungDuoc(HANG_VANG, new BigDecimal("999999"), NOW))).containsExactly(1, 2, 3, 6);
+        assertThat(ma(index.apDungDuoc(HANG_VANG, new BigDecimal("1000000"), NOW))).containsExactly(1, 2, 3, 5, 6);
+        assertThat(ma(index.apDungDuoc(99, new BigDecimal("1000000"), NOW))).containsExactly(1, 2, 3);
+        assertThat(ma(index.apDungDuoc(HANG_BAC, new BigDecimal("299999"), NOW))).containsExactly(1);
+        assertThat(ma(index.apDungDuoc(HANG_BAC, new BigDecimal("300000"), NOW))).containsExactly(1, 6);
+    }
+
+    @Test
+    void bienThoiHanTrangThaiVaLuotDung() {
+        Voucher v = vouchers.get(1);
+        v.setNgayBatDau(NOW);
+        v.setNgayKetThuc(NOW.plusDays(1));
+        vouchers.get(2).setSoLuongToiDa(10);
+        vouchers.get(2).setSoLuongDaSuDung(10);
+        vouchers.get(3).setTrangThai("TAM_DUNG");
+
+        BigDecimal tongTien = new BigDecimal("5000000");
+        assertThat(ma(index.apDungDuoc(null, tongTien, NOW))).containsExactly(1, 2);
+        assertThat(ma(index.apDungDuoc(null, tongTien, NOW.minusNanos(1)))).containsExactly(1);
+        assertThat(ma(index.apDungDuoc(null, tongTien, NOW.plusDays(1)))).containsExactly(1);
+        // theoHang không xét thời hạn, trạng thái hay lượt
+        assertThat(ma(index.theoHang(null))).containsExactly(1, 2, 3, 4);
+    }
+
+    @Test
+    void doiMucToiThieuThiDoiViTriTrongMang() {
+        index.apDungDuoc(null, BigDecimal.ZERO, NOW); // nạp lần đầu
+        vouchers.get(3).setGiaTriDonHangToiThieu(new BigDecimal("100000"));
+        vouchers.get(0).setGiaTriDonHangToiThieu(new BigDecimal("3000000"));
+        index.voucherChanged(4);
+        index.voucherChanged(1);
+
+        assertThat(ma(index.apDungDuoc(null, new BigDecimal("99999"), NOW))).isEmpty();
+        assertThat(ma(index.apDungDuoc(null, new BigDecimal("100000"), NOW))).containsExactly(4);
+        assertThat(ma(index.apDungDuoc(null, new BigDecimal("2999999"), NOW))).containsExactly(2, 3, 4);
+        assertThat(ma(index.apDungDuoc(null, new BigDecimal("3000000"), NOW))).containsExactly(1, 2, 3, 4);
+    }
+
+    @Test
+    void voucherChuyenTuChungSangHang() {
+        index.apDungDuoc(null, BigDecimal.ZERO, NOW);
+        Voucher v = vouchers.get(0);
+        v.setApDungChoMoiNguoi(false);
+        v.setHanCheHangThanhVien(lienKet(v, HANG_BAC));
+        index.voucherChanged(1);
+
+        assertThat(ma(index.apDungDuoc(null, BigDecimal.ZERO, NOW))).isEmpty();
+        assertThat(ma(index.apDungDuoc(HANG_BAC, BigDecimal.ZERO, NOW))).containsExactly(1);
+        assertThat(ma(index.apDungDuoc(HANG_VANG, BigDecimal.ZERO, NOW))).isEmpty();
+    }
+
+    private static List<Integer> ma(List<Voucher> list) {
+        return list.stream().map(Voucher::getMaVoucher).toList();
+    }
+
+    private static Voucher voucher(int ma, String toiThieu, boolean congKhai, int... maHangs) {
+        Voucher v = new Voucher();
+        v.setMaVoucher(ma);
+        v.setMaCode("V" + ma);
+        v.setLoaiGiamGia("FIXED");
+        v.setGiaTriGiam(new BigDecimal("10000"));
+        v.setGiaTriDonHangToiThieu(new BigDecimal(toiThieu));
+        v.setApDungChoMoiNguoi(congKhai);
+        v.setHanCheHangThanhVien(lienKet(v, maHangs));
+        return v;
+    }
+
+    private static Set<VoucherHangThanhVien> lienKet(Voucher v, int... maHangs) {
+        Set<VoucherHangThanhVien> links = new HashSet<>();
+        for (int maHang : maHangs) {
+            HangThanhVien hang = new HangThanhVien();
+            hang.setMaHangThanhVien(maHang);
+            VoucherHangThanhVien l = new VoucherHangThanhVien();
+            l.setId(new VoucherHangThanhVien.VoucherHangThanhVienId(v.getMaVoucher(), maHang));
+            l.setHangThanhVien(hang);
+            links.add(l);
+        }
+        return links;
+    }
+}
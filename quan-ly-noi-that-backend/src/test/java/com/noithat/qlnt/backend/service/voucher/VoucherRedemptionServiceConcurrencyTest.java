@@ -0,0 +1,151 @@
+package com.noithat.qlnt.backend.service.voucher;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Import;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.noithat.qlnt.backend.entity.Voucher;
+import com.noithat.qlnt.backend.exception.AppException;
+import com.noithat.qlnt.backend.support.JpaSliceTest;
+
+import jakarta.persistence.EntityManager;
+
+/**
+ * Hàng nghìn đơn cùng giữ lượt của một voucher ít lượt: câu UPDATE có điều kiện
+ * chỉ cho đúng soLuongToiDa đơn giữ được, mỗi đơn giữ được có đúng một dòng
+ * voucher_su_dung, các đơn còn lại bị từ chối và rollback.
+ */
+@Import(VoucherRedemptionService.class)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class VoucherRedemptionServiceConcurrencyTest extends JpaSliceTest {
+
+    private static final int THREADS = 32;
+    private static final int ATTEMPTS = 3000;
+    private static final int SO_LUONG_TOI_DA = 25;
+
+    // Mã đơn giả, không trùng giữa các lần chạy trên cùng DB
+    private static final AtomicInteger MA_DON = new AtomicInteger(
+            1_000_000 + ThreadLocalRandom.current().nextInt(1_000_000_000));
+
+    @Autowired
+    VoucherRedemptionService service;
+    @Autowired
+    PlatformTransactionManager transactionManager;
+    @Autowired
+    EntityManager em;
+
+    private final ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+
+    @AfterEach
+    void shutdown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    void hangNghinDonChiGiuDungSoLuotToiDa() throws Exception {
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+        Voucher voucher = taoVoucher(tx, SO_LUONG_TOI_DA);
+
+        List<Integer> daGiu = chayDongThoi(tx, voucher, ATTEMPTS);
+
+        assertThat(daGiu).hasSize(SO_LUONG_TOI_DA).doesNotHaveDuplicates();
+        assertThat(soDongSuDung(tx, voucher, "DA_DUNG")).isEqualTo(SO_LUONG_TOI_DA);
+        assertThat(soLuongDaSuDung(tx, voucher)).isEqualTo(SO_LUONG_TOI_DA);
+    }
+
+    @Test
+    void traLuotRoiGiuLaiKhongVuotGioiHan() throws Exception {
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+        Voucher voucher = taoVoucher(tx, SO_LUONG_TOI_DA);
+        List<Integer> daGiu = chayDongThoi(tx, voucher, 500);
+
+        // Hủy 5 đơn, mỗi đơn hủy hai lần (xử lý lại sự kiện): chỉ trả 5 lượt
+        int daTra = 0;
+        for (Integer maDonHang : daGiu.subList(0, 5)) {
+            if (service.release(maDonHang, voucher.getMaVoucher()))
+                daTra++;
+            if (service.release(maDonHang, voucher.getMaVoucher()))
+                daTra++;
+        }
+        assertThat(daTra).isEqualTo(5);
+        assertThat(soLuongDaSuDung(tx, voucher)).isEqualTo(SO_LUONG_TOI_DA - 5);
+
+        assertThat(chayDongThoi(tx, voucher, 500)).hasSize(5);
+        assertThat(soLuongDaSuDung(tx, voucher)).isEqualTo(SO_LUONG_TOI_DA);
+        assertThat(soDongSuDung(tx, voucher, "DA_DUNG")).isEqualTo(SO_LUONG_TOI_DA);
+        assertThat(soDongSuDung(tx, voucher, "DA_HOAN")).isEqualTo(5);
+    }
+
+    // Mỗi lần thử là một đơn mới trong transaction riêng; trả về các mã đơn giữ được lượt
+    private List<Integer> chayDongThoi(TransactionTemplate tx, Voucher voucher, int soLanThu) throws Exception {
+        CountDownLatch batDau = new CountDownLatch(1);
+        List<Future<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < soLanThu; i++) {
+            Callable<Integer> thu = () -> {
+                batDau.await();
+                Integer maDonHang = MA_DON.incrementAndGet();
+                try {
+                    tx.executeWithoutResult(s -> service.claim(voucher, maDonHang, null));
+                    return maDonHang;
+                } catch (AppException ex) {
+                    return null;
+                }
+            };
+            futures.add(pool.submit(thu));
+        }
+        batDau.countDown();
+        List<Integer> daGiu = new ArrayList<>();
+        for (Future<Integer> f : futures) {
+            Integer ma = f.get(60, TimeUnit.SECONDS);
+            if (ma != null)
+                daGiu.add(ma);
+        }
+        return daGiu;
+    }
+
+    private Voucher taoVoucher(TransactionTemplate tx, int soLuongToiDa) {
+        return tx.execute(s -> {
+            Voucher v = new Voucher();
+            v.setMaCode("T" + UUID.randomUUID().toString().substring(0, 8));
+            v.setTenVoucher("Voucher thử tải");
+            v.setLoaiGiamGia("FIXED");
+            v.setGiaTriGiam(new BigDecimal("50000"));
+            v.setSoLuongToiDa(soLuongToiDa);
+            v.setSoLuongDaSuDung(0);
+            em.persist(v);
+            return v;
+        });
+    }
+
+    private long soDongSuDung(TransactionTemplate tx, Voucher voucher, String trangThai) {
+        Long n = tx.execute(s -> em.createQuery("SELECT COUNT(u) FROM VoucherSuDung u "
+                + "WHERE u.maVoucher = :ma AND u.trangThai = :tt", Long.class)
+                .setParameter("ma", voucher.getMaVoucher()).setParameter("tt", trangThai).getSingleResult());
+        return n;
+    }
+
+    private int soLuongDaSuDung(TransactionTemplate tx, Voucher voucher) {
+        Integer n = tx.execute(s -> em.find(Voucher.class, voucher.getMaVoucher()).getSoLuongDaSuDung());
+        return n;
+    }
+}
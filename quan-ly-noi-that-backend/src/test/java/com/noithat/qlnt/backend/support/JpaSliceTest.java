@@ -0,0 +1,15 @@
+package com.noithat.qlnt.backend.support;
+
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+
+import com.noithat.qlnt.backend.service.cache.CatalogCacheInvalidator;
+import com.noithat.qlnt.backend.service.vip.VipBenefitRuleCache;
+import com.noithat.qlnt.backend.service.vip.VipTierTable;
+import com.noithat.qlnt.backend.service.voucher.VoucherEligibilityIndex;
+
+@DataJpaTest
+@MockitoBean(types = { CatalogCacheInvalidator.class, VipBenefitRuleCache.class, VipTierTable.class,
+        VoucherEligibilityIndex.class })
+public abstract class JpaSliceTest {
+}
@@ -0,0 +1,51 @@
+package com.noithat.qlnt.backend.support;
+
+import java.math.BigDecimal;
+import java.util.UUID;
+
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.noithat.qlnt.backend.entity.BienTheSanPham;
+import com.noithat.qlnt.backend.entity.SanPham;
+
+import jakarta.persistence.EntityManager;
+
+/**
+ * Dữ liệu mẫu cho test: mỗi lần gọi tạo bản ghi mới (SKU ngẫu nhiên) để các test
+ * dùng chung một CSDL không đụng nhau.
+ */
+public final class TestData {
+
+    private TestData() {
+    }
+
+    /**
+     * Một sản phẩm với một biến thể có tồn và phần đang giữ cho trước.
+     */
+    public static Integer bienThe(TransactionTemplate tx, EntityManager em, int soLuongTon, int soLuongDatTruoc,
+            int mucTonToiThieu) {
+        return tx.execute(status -> {
+            SanPham sp = new SanPham();
+            sp.setTenSanPham("Bàn test " + UUID.randomUUID());
+            em.persist(sp);
+            BienTheSanPham b = new BienTheSanPham();
+            b.setSanPham(sp);
+            b.setSku("T-" + UUID.randomUUID());
+            b.setGiaBan(new BigDecimal("1000000"));
+            b.setSoLuongTon(soLuongTon);
+            b.setSoLuongDatTruoc(soLuongDatTruoc);
+            b.setMucTonToiThieu(mucTonToiThieu);
+            em.persist(b);
+            return b.getMaBienThe();
+        });
+    }
+
+    /**
+     * [soLuongTon, soLuongDatTruoc, trangThaiKho] đọc thẳng từ CSDL.
+     */
+    public static Object[] tonKho(TransactionTemplate tx, EntityManager em, Integer maBienThe) {
+        return tx.execute(status -> (Object[]) em.createQuery(
+                "SELECT b.soLuongTon, b.soLuongDatTruoc, b.trangThaiKho FROM BienTheSanPham b WHERE b.maBienThe = :id")
+                .setParameter("id", maBienThe).getSingleResult());
+    }
+}